@@ -172,6 +172,7 @@ abstract class ExternalModulesExtension {
     val xmlunit = "xmlunit:xmlunit"
 
     val licenses = mapOf(
+        aircompressor to License.Apache2,
         ansiControlSequenceUtil to License.Apache2,
         ant to License.Apache2,
         antLauncher to License.Apache2,
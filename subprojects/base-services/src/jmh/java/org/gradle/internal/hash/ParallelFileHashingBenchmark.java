@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.internal.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares hashing a large file as a stream with hashing the chunks of the file in parallel.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ParallelFileHashingBenchmark {
+
+    @Param({"1048576", "67108864", "268435456"})
+    int fileSize;
+
+    @Param({"1", "2", "4"})
+    int parallelism;
+
+    @Param({"md5", "md5.tree"})
+    String type;
+
+    File file;
+    ExecutorService executor;
+    DefaultStreamHasher hasher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        byte[] content = new byte[fileSize];
+        new Random(1234L).nextBytes(content);
+        file = File.createTempFile("hashing", ".bin");
+        Files.write(file.toPath(), content);
+        executor = Executors.newFixedThreadPool(parallelism);
+        hasher = new DefaultStreamHasher(type.equals("md5.tree")
+            ? Hashing.tree(Hashing.md5(), 1024 * 1024)
+            : Hashing.md5());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public HashCode hashFile() throws IOException {
+        return hasher.hash(file, executor, parallelism);
+    }
+}
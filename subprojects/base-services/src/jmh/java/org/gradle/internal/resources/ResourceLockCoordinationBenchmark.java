@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.resources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.lock;
+import static org.gradle.internal.resources.DefaultResourceLockCoordinationService.unlock;
+
+/**
+ * Measures acquiring and releasing contended resource locks when every lock release wakes up all waiting threads,
+ * compared with only waking up the threads waiting for the released lock.
+ * <p>
+ * The {@code scheduler} group simulates workers of an execution plan which wait for nodes to become ready, the way {@code DefaultPlanExecutor} does,
+ * while other threads use the resource locks.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ResourceLockCoordinationBenchmark {
+
+    @Param({"notify-all", "targeted"})
+    String wakeUps;
+
+    @Param({"1", "4", "16"})
+    int lockCount;
+
+    @Param({"1", "4"})
+    int readyNodeCount;
+
+    ResourceLockCoordinationService coordinationService;
+    ResourceLock[] locks;
+    final Object plan = new Object();
+    int readyNodes;
+    final AtomicInteger nextThread = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        coordinationService = new DefaultResourceLockCoordinationService(wakeUps.equals("targeted"));
+        ResourceLockContainer owner = new ResourceLockContainer() {
+            @Override
+            public void lockAcquired(ResourceLock lock) {
+            }
+
+            @Override
+            public void lockReleased(ResourceLock lock) {
+            }
+        };
+        locks = new ResourceLock[lockCount];
+        for (int i = 0; i < lockCount; i++) {
+            locks[i] = new ExclusiveAccessResourceLock("lock " + i, coordinationService, owner);
+        }
+        readyNodes = readyNodeCount;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        ResourceLock lock;
+
+        @Setup(Level.Trial)
+        public void setup(ResourceLockCoordinationBenchmark benchmark) {
+            lock = benchmark.locks[benchmark.nextThread.getAndIncrement() % benchmark.lockCount];
+        }
+    }
+
+    @Benchmark
+    public void lockAndUnlock(ThreadState state) {
+        coordinationService.withStateLock(lock(state.lock));
+        coordinationService.withStateLock(unlock(state.lock));
+    }
+
+    @Benchmark
+    @Group("scheduler")
+    @GroupThreads(16)
+    public void executeNode() {
+        coordinationService.withStateLock(resourceLockState -> {
+            if (readyNodes > 0) {
+                readyNodes--;
+                return ResourceLockState.Disposition.FINISHED;
+            }
+            resourceLockState.registerWaitingForChange(plan);
+            return ResourceLockState.Disposition.RETRY;
+        });
+        Blackhole.consumeCPU(100);
+        coordinationService.withStateLock(resourceLockState -> {
+            readyNodes++;
+            coordinationService.notifyStateChange(plan);
+            return ResourceLockState.Disposition.FINISHED;
+        });
+    }
+
+    @Benchmark
+    @Group("scheduler")
+    @GroupThreads(16)
+    public void lockAndUnlockWhileScheduling(ThreadState state) {
+        lockAndUnlock(state);
+    }
+}
@@ -47,6 +47,7 @@ public boolean tryLock() {
                 coordinationService.getCurrent().registerLocked(this);
                 return true;
             } else {
+                coordinationService.getCurrent().registerWaitingFor(this);
                 return false;
             }
         } else {
@@ -70,7 +71,11 @@ public void unlock() {
     @Override
     public boolean isLocked() {
         failIfNotInResourceLockStateChange();
-        return doIsLocked();
+        if (doIsLocked()) {
+            coordinationService.getCurrent().registerWaitingFor(this);
+            return true;
+        }
+        return false;
     }
 
     @Override
@@ -85,6 +90,14 @@ private void failIfNotInResourceLockStateChange() {
         }
     }
 
+    /**
+     * Returns the object that threads wait for when they cannot acquire this lock.
+     * Locks which share their capacity with other locks return the same object as those locks, so that releasing any of them wakes up the waiting threads.
+     */
+    protected Object getWaitKey() {
+        return this;
+    }
+
     abstract protected boolean acquireLock();
 
     abstract protected void releaseLock();
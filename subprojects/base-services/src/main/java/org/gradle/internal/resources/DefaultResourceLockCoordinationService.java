@@ -17,16 +17,31 @@
 package org.gradle.internal.resources;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.gradle.api.Transformer;
 import org.gradle.internal.UncheckedException;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * By default, every change to the resource lock state wakes up all threads waiting for a change.
+ * With targeted wake-ups, a thread which is waiting for resource locks or other changes is only woken up when one of the locks it could not acquire or found locked is released,
+ * when one of the changes it registered is notified using {@link #notifyStateChange(Object)}, or when {@link #notifyStateChange()} is called.
+ * Threads which are waiting without having registered any lock or change still get woken up on every change.
+ */
 public class DefaultResourceLockCoordinationService implements ResourceLockCoordinationService {
-    private final Object lock = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+    private final boolean targetedWakeUps;
+    private final Map<Object, Set<Waiter>> waitersByWaitKey = Maps.newHashMap();
+    private final Set<Waiter> waitersForAnyChange = Sets.newLinkedHashSet();
     private final ThreadLocal<List<ResourceLockState>> currentState = new ThreadLocal<List<ResourceLockState>>() {
         @Override
         protected List<ResourceLockState> initialValue() {
@@ -34,39 +49,89 @@ protected List<ResourceLockState> initialValue() {
         }
     };
 
+    public DefaultResourceLockCoordinationService() {
+        this(false);
+    }
+
+    public DefaultResourceLockCoordinationService(boolean targetedWakeUps) {
+        this.targetedWakeUps = targetedWakeUps;
+    }
+
     @Override
     public boolean withStateLock(Transformer<ResourceLockState.Disposition, ResourceLockState> stateLockAction) {
         while (true) {
-            DefaultResourceLockState resourceLockState = new DefaultResourceLockState();
+            DefaultResourceLockState resourceLockState = new DefaultResourceLockState(targetedWakeUps);
             ResourceLockState.Disposition disposition;
-            synchronized (lock) {
-                try {
-                    currentState.get().add(resourceLockState);
-                    disposition = stateLockAction.transform(resourceLockState);
-
-                    switch (disposition) {
-                        case RETRY:
-                            resourceLockState.releaseLocks();
-                            try {
-                                lock.wait();
-                            } catch (InterruptedException e) {
-                                throw UncheckedException.throwAsUncheckedException(e);
-                            }
-                            break;
-                        case FINISHED:
-                            maybeNotifyStateChange(resourceLockState);
-                            return true;
-                        case FAILED:
-                            resourceLockState.releaseLocks();
-                            return false;
-                        default:
-                            throw new IllegalArgumentException("Unhandled disposition type: " + disposition.name());
+            lock.lock();
+            try {
+                currentState.get().add(resourceLockState);
+                disposition = stateLockAction.transform(resourceLockState);
+
+                switch (disposition) {
+                    case RETRY:
+                        resourceLockState.releaseLocks();
+                        // Locks which were held before the transform and released by it stay released
+                        maybeNotifyStateChange(resourceLockState);
+                        awaitStateChange(resourceLockState);
+                        break;
+                    case FINISHED:
+                        maybeNotifyStateChange(resourceLockState);
+                        return true;
+                    case FAILED:
+                        resourceLockState.releaseLocks();
+                        return false;
+                    default:
+                        throw new IllegalArgumentException("Unhandled disposition type: " + disposition.name());
+                }
+            } catch (Throwable t) {
+                resourceLockState.releaseLocks();
+                throw UncheckedException.throwAsUncheckedException(t);
+            } finally {
+                currentState.get().remove(resourceLockState);
+                lock.unlock();
+            }
+        }
+    }
+
+    private void awaitStateChange(DefaultResourceLockState resourceLockState) throws InterruptedException {
+        if (!targetedWakeUps) {
+            stateChanged.await();
+            return;
+        }
+
+        Waiter waiter = new Waiter(lock.newCondition(), resourceLockState.getWaitKeys());
+        if (waiter.waitKeys.isEmpty()) {
+            waitersForAnyChange.add(waiter);
+        } else {
+            for (Object waitKey : waiter.waitKeys) {
+                Set<Waiter> waiters = waitersByWaitKey.get(waitKey);
+                if (waiters == null) {
+                    waiters = Sets.newLinkedHashSet();
+                    waitersByWaitKey.put(waitKey, waiters);
+                }
+                waiters.add(waiter);
+            }
+        }
+        try {
+            while (!waiter.woken) {
+                waiter.condition.await();
+            }
+        } finally {
+            removeWaiter(waiter);
+        }
+    }
+
+    private void removeWaiter(Waiter waiter) {
+        if (waiter.waitKeys.isEmpty()) {
+            waitersForAnyChange.remove(waiter);
+        } else {
+            for (Object waitKey : waiter.waitKeys) {
+                Set<Waiter> waiters = waitersByWaitKey.get(waitKey);
+                if (waiters != null) {
+                    waiters.remove(waiter);
+                    if (waiters.isEmpty()) {
+                        waitersByWaitKey.remove(waitKey);
                     }
-                } catch (Throwable t) {
-                    resourceLockState.releaseLocks();
-                    throw UncheckedException.throwAsUncheckedException(t);
-                } finally {
-                    currentState.get().remove(resourceLockState);
                 }
             }
         }
@@ -85,22 +150,93 @@ public ResourceLockState getCurrent() {
 
     private void maybeNotifyStateChange(DefaultResourceLockState resourceLockState) {
         if (resourceLockState.hasUnlockedResources()) {
-            notifyStateChange();
+            if (targetedWakeUps) {
+                for (ResourceLock unlockedResource : resourceLockState.unlockedResources) {
+                    Set<Waiter> waiters = waitersByWaitKey.get(waitKeyOf(unlockedResource));
+                    if (waiters != null) {
+                        wakeUp(waiters);
+                    }
+                }
+                wakeUp(waitersForAnyChange);
+            } else {
+                notifyStateChange();
+            }
+        }
+    }
+
+    @Override
+    public void notifyStateChange(Object changeKey) {
+        lock.lock();
+        try {
+            if (targetedWakeUps) {
+                Set<Waiter> waiters = waitersByWaitKey.get(changeKey);
+                if (waiters != null) {
+                    wakeUp(waiters);
+                }
+                wakeUp(waitersForAnyChange);
+            } else {
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     @Override
     public void notifyStateChange() {
-        synchronized (lock) {
-            lock.notifyAll();
+        lock.lock();
+        try {
+            if (targetedWakeUps) {
+                for (Set<Waiter> waiters : waitersByWaitKey.values()) {
+                    wakeUp(waiters);
+                }
+                wakeUp(waitersForAnyChange);
+            } else {
+                stateChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void wakeUp(Set<Waiter> waiters) {
+        for (Waiter waiter : waiters) {
+            if (!waiter.woken) {
+                waiter.woken = true;
+                waiter.condition.signal();
+            }
+        }
+    }
+
+    private static Object waitKeyOf(ResourceLock resourceLock) {
+        if (resourceLock instanceof AbstractTrackedResourceLock) {
+            return ((AbstractTrackedResourceLock) resourceLock).getWaitKey();
+        }
+        return resourceLock;
+    }
+
+    private static class Waiter {
+        final Condition condition;
+        final Set<Object> waitKeys;
+        boolean woken;
+
+        Waiter(Condition condition, Set<Object> waitKeys) {
+            this.condition = condition;
+            this.waitKeys = waitKeys;
         }
     }
 
     private static class DefaultResourceLockState implements ResourceLockState {
         private Set<ResourceLock> lockedResources;
         private Set<ResourceLock> unlockedResources;
+        private final boolean trackWaitKeys;
+        private Set<Object> waitKeys;
         boolean rollback;
 
+        DefaultResourceLockState(boolean trackWaitKeys) {
+            this.trackWaitKeys = trackWaitKeys;
+        }
+
         @Override
         public void registerLocked(ResourceLock resourceLock) {
             if (!rollback && (unlockedResources == null || !unlockedResources.remove(resourceLock))) {
@@ -121,10 +257,30 @@ public void registerUnlocked(ResourceLock resourceLock) {
             }
         }
 
+        @Override
+        public void registerWaitingFor(ResourceLock resourceLock) {
+            registerWaitingForChange(waitKeyOf(resourceLock));
+        }
+
+        @Override
+        public void registerWaitingForChange(Object changeKey) {
+            if (!trackWaitKeys) {
+                return;
+            }
+            if (waitKeys == null) {
+                waitKeys = Sets.newHashSet();
+            }
+            waitKeys.add(changeKey);
+        }
+
         boolean hasUnlockedResources() {
             return unlockedResources != null && !unlockedResources.isEmpty();
         }
 
+        Set<Object> getWaitKeys() {
+            return waitKeys == null ? Collections.<Object>emptySet() : waitKeys;
+        }
+
         @Override
         public void releaseLocks() {
             if (lockedResources != null) {
@@ -51,4 +51,10 @@ public interface ResourceLockCoordinationService {
      * Notify other threads about changes to resource locks.
      */
     void notifyStateChange();
+
+    /**
+     * Notify other threads about a change that is not tied to a resource lock. Threads which registered the change using
+     * {@link ResourceLockState#registerWaitingForChange(Object)} are woken up, as are threads which are waiting for any change.
+     */
+    void notifyStateChange(Object changeKey);
 }
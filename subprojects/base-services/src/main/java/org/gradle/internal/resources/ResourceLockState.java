@@ -38,6 +38,22 @@ enum Disposition { FAILED, FINISHED, RETRY }
      */
     void registerUnlocked(ResourceLock resourceLock);
 
+    /**
+     * Registers a resource lock that could not be acquired or was found to be locked during the transform, so that the coordination service can
+     * wake up this thread when the lock is released.
+     *
+     * @param resourceLock
+     */
+    void registerWaitingFor(ResourceLock resourceLock);
+
+    /**
+     * Registers a change that this thread is waiting for, so that the coordination service can wake up this thread when
+     * the change is notified using {@link ResourceLockCoordinationService#notifyStateChange(Object)}.
+     *
+     * @param changeKey
+     */
+    void registerWaitingForChange(Object changeKey);
+
     /**
      * Release any locks that have been acquired during the transform.
      */
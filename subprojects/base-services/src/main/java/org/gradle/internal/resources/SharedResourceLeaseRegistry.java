@@ -58,6 +58,11 @@ public class SharedResourceLease extends AbstractTrackedResourceLock {
             this.semaphore = sharedResources.get(sharedResource);
         }
 
+        @Override
+        protected Object getWaitKey() {
+            return semaphore;
+        }
+
         @Override
         protected boolean acquireLock() {
             if (leases > semaphore.getLeft()) {
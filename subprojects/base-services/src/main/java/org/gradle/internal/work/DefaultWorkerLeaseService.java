@@ -437,6 +437,11 @@ public DefaultWorkerLease(String displayName, ResourceLockCoordinationService co
             this.ownerThread = ownerThread;
         }
 
+        @Override
+        protected Object getWaitKey() {
+            return parent;
+        }
+
         @Override
         protected boolean doIsLocked() {
             return active;
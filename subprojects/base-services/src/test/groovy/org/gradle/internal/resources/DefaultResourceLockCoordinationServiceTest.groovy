@@ -112,6 +112,198 @@ class DefaultResourceLockCoordinationServiceTest extends ConcurrentSpec {
         lock2.lockedState
     }
 
+    def "with targeted wake-ups, a thread waiting for a lock is only woken up when that lock is released"() {
+        coordinationService = new DefaultResourceLockCoordinationService(true)
+        def lock1 = resourceLock("lock1", true)
+        def lock2 = resourceLock("lock2", true)
+        def count = 0
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            return lock1.tryLock() ? FINISHED : RETRY
+                        } finally {
+                            count++
+                            instant."executed${count}"
+                        }
+                    }
+                })
+            }
+
+            thread.blockUntil.executed1
+
+            releaseLock(lock2)
+            releaseLock(lock1)
+
+            thread.blockUntil.executed2
+        }
+
+        then:
+        count == 2
+        lock1.lockedState
+        !lock2.lockedState
+    }
+
+    def "with targeted wake-ups, a thread waiting for a lock is woken up when the state change is notified"() {
+        coordinationService = new DefaultResourceLockCoordinationService(true)
+        def lock1 = resourceLock("lock1", true)
+        def count = 0
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            return lock1.tryLock() || count > 0 ? FINISHED : RETRY
+                        } finally {
+                            count++
+                            instant."executed${count}"
+                        }
+                    }
+                })
+            }
+
+            thread.blockUntil.executed1
+
+            coordinationService.notifyStateChange()
+
+            thread.blockUntil.executed2
+        }
+
+        then:
+        count == 2
+    }
+
+    def "with targeted wake-ups, a thread waiting without trying any lock is woken up when any lock is released"() {
+        coordinationService = new DefaultResourceLockCoordinationService(true)
+        def lock1 = resourceLock("lock1", true)
+        def count = 0
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            return count > 0 ? FINISHED : RETRY
+                        } finally {
+                            count++
+                            instant."executed${count}"
+                        }
+                    }
+                })
+            }
+
+            thread.blockUntil.executed1
+
+            releaseLock(lock1)
+
+            thread.blockUntil.executed2
+        }
+
+        then:
+        count == 2
+    }
+
+    def "with targeted wake-ups, a thread waiting for a change is only woken up when that change is notified"() {
+        coordinationService = new DefaultResourceLockCoordinationService(true)
+        def changed = false
+        def count = 0
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            resourceLockState.registerWaitingForChange("change")
+                            return changed ? FINISHED : RETRY
+                        } finally {
+                            count++
+                            instant."executed${count}"
+                        }
+                    }
+                })
+            }
+
+            thread.blockUntil.executed1
+
+            coordinationService.notifyStateChange("other change")
+            coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                @Override
+                ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                    changed = true
+                    coordinationService.notifyStateChange("change")
+                    return FINISHED
+                }
+            })
+
+            thread.blockUntil.executed2
+        }
+
+        then:
+        count == 2
+    }
+
+    def "with targeted wake-ups, a lock released by a transform that retries wakes up the threads waiting for it"() {
+        coordinationService = new DefaultResourceLockCoordinationService(true)
+        def lock1 = resourceLock("lock1", true)
+        def lock2 = resourceLock("lock2", true)
+        def released = false
+        def count = 0
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        try {
+                            return lock1.tryLock() ? FINISHED : RETRY
+                        } finally {
+                            count++
+                            instant."executed${count}"
+                        }
+                    }
+                })
+                instant.lock1Acquired
+            }
+
+            thread.blockUntil.executed1
+
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        if (!released) {
+                            released = true
+                            lock1.lockedState = false
+                            resourceLockState.registerUnlocked(lock1)
+                        }
+                        return lock2.tryLock() ? FINISHED : RETRY
+                    }
+                })
+            }
+
+            thread.blockUntil.lock1Acquired
+
+            releaseLock(lock2)
+        }
+
+        then:
+        count == 2
+        lock1.lockedState
+        lock2.lockedState
+    }
+
     def "can nest multiple calls to withStateLock"() {
         def lock = [
             resourceLock("lock1"),
@@ -321,6 +513,17 @@ class DefaultResourceLockCoordinationServiceTest extends ConcurrentSpec {
         false       | false       | FINISHED
     }
 
+    void releaseLock(TestTrackedResourceLock resourceLock) {
+        resourceLock.lockedState = false
+        coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+            @Override
+            ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                resourceLockState.registerUnlocked(resourceLock)
+                return FINISHED
+            }
+        })
+    }
+
     TestTrackedResourceLock resourceLock(String displayName, boolean locked, boolean hasLock = false) {
         return new TestTrackedResourceLock(displayName, coordinationService, Mock(ResourceLockContainer), locked, hasLock)
     }
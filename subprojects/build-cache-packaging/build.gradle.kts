@@ -13,6 +13,7 @@ dependencies {
 
     implementation(project(":base-annotations"))
 
+    implementation(libs.aircompressor)
     implementation(libs.guava)
     implementation(libs.commonsCompress)
     implementation(libs.commonsIo)
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression codecs build cache entries can be stored with.
+ *
+ * Each entry starts with a header byte identifying its codec.
+ * For {@link #GZIP} this is the first byte of the GZIP magic number, so GZIP entries stay readable by older Gradle versions.
+ */
+public enum BuildCacheEntryCompression {
+    GZIP((byte) 0x1f) {
+        @Override
+        protected OutputStream compress(OutputStream output) throws IOException {
+            return new GZIPOutputStream(output);
+        }
+
+        @Override
+        protected InputStream decompress(InputStream input) throws IOException {
+            return new GZIPInputStream(input);
+        }
+    },
+    LZ4((byte) 0x01) {
+        @Override
+        protected OutputStream compress(OutputStream output) {
+            return new Lz4BlockOutputStream(output);
+        }
+
+        @Override
+        protected InputStream decompress(InputStream input) {
+            return new Lz4BlockInputStream(input);
+        }
+    },
+    NONE((byte) 0x00) {
+        @Override
+        protected OutputStream compress(OutputStream output) {
+            return output;
+        }
+
+        @Override
+        protected InputStream decompress(InputStream input) {
+            return input;
+        }
+    };
+
+    private final byte header;
+
+    BuildCacheEntryCompression(byte header) {
+        this.header = header;
+    }
+
+    /**
+     * Wraps the given stream so that everything written to it is compressed with this codec, preceded by the header byte.
+     */
+    public OutputStream compressWithHeader(OutputStream output) throws IOException {
+        if (this != GZIP) {
+            output.write(header);
+        }
+        return compress(output);
+    }
+
+    /**
+     * Reads the header byte from the given stream, and wraps the stream so that it is decompressed with the codec the header identifies.
+     */
+    public static InputStream decompressWithHeader(InputStream input) throws IOException {
+        PushbackInputStream headerInput = new PushbackInputStream(input, 1);
+        int header = headerInput.read();
+        if (header == -1) {
+            throw new IllegalStateException("Cached entry format error, entry is empty.");
+        }
+        for (BuildCacheEntryCompression compression : values()) {
+            if (compression.header == (byte) header) {
+                if (compression == GZIP) {
+                    headerInput.unread(header);
+                }
+                return compression.decompress(headerInput);
+            }
+        }
+        throw new IllegalStateException(String.format("Cached entry format error, unknown compression header 0x%02x.", header));
+    }
+
+    /**
+     * Looks up a codec by its case-insensitive name.
+     */
+    public static BuildCacheEntryCompression forName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Unknown build cache entry compression '%s', supported values are gzip, lz4 and none.", name), e);
+        }
+    }
+
+    protected abstract OutputStream compress(OutputStream output) throws IOException;
+
+    protected abstract InputStream decompress(InputStream input) throws IOException;
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.StreamHasher;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stores packed build cache entries as manifests that reference the contents of their files in a content-addressed blob store.
+ * Files shared between entries are stored only once.
+ *
+ * A manifest is an LZ4 compressed tar file in the layout of {@link TarBuildCacheEntryPacker}, preceded by a header byte.
+ * Regular files of at least {@value #MIN_BLOB_SIZE} bytes are stored in the blob store, keyed by the same content hash
+ * Gradle uses when snapshotting files. In the manifest they are replaced by empty entries that carry the hash and the
+ * original size in PAX headers.
+ *
+ * Restoring an entry writes it back uncompressed. Entries restored for unpacking reference their blob files instead of containing their contents,
+ * and {@link TarBuildCacheEntryPacker} copies the referenced blobs directly to the outputs, so the contents of large files are only written once.
+ */
+public class ContentAddressedEntryStore {
+    private static final byte MANIFEST_HEADER = 'M';
+    private static final int MIN_BLOB_SIZE = 1024;
+    private static final String BLOB_HASH_HEADER = "GRADLE.blob.hash";
+    private static final String BLOB_SIZE_HEADER = "GRADLE.blob.size";
+    private static final String BLOB_FILE_HEADER = "GRADLE.blob.file";
+    private static final String PARTIAL_BLOB_SUFFIX = ".part";
+    private static final int TAR_RECORD_SIZE = 512;
+    private static final BuildCacheEntryCompression MANIFEST_COMPRESSION = BuildCacheEntryCompression.LZ4;
+
+    private final File blobsDir;
+    private final StreamHasher streamHasher;
+
+    public ContentAddressedEntryStore(File blobsDir, StreamHasher streamHasher) {
+        this.blobsDir = blobsDir;
+        this.streamHasher = streamHasher;
+    }
+
+    public File getBlobsDir() {
+        return blobsDir;
+    }
+
+    /**
+     * Returns whether the given file is a manifest written by {@link #storeManifest(File, File)}.
+     */
+    public static boolean isManifest(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            return input.read() == MANIFEST_HEADER;
+        }
+    }
+
+    /**
+     * Writes a manifest for the packed entry in {@code entry} to {@code manifest}, moving the contents of its files to the blob store.
+     */
+    public void storeManifest(File entry, File manifest) throws IOException {
+        try (
+            TarArchiveInputStream tarInput = new TarArchiveInputStream(BuildCacheEntryCompression.decompressWithHeader(new BufferedInputStream(new FileInputStream(entry))), StandardCharsets.UTF_8.name());
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(manifest))
+        ) {
+            output.write(MANIFEST_HEADER);
+            try (TarArchiveOutputStream tarOutput = createTarOutput(MANIFEST_COMPRESSION.compressWithHeader(output))) {
+                TarArchiveEntry tarEntry;
+                while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                    long size = tarEntry.getSize();
+                    if (tarEntry.isFile() && size >= MIN_BLOB_SIZE) {
+                        HashCode hash = storeBlob(tarInput);
+                        TarArchiveEntry blobEntry = copyOf(tarEntry, 0);
+                        blobEntry.addPaxHeader(BLOB_HASH_HEADER, hash.toString());
+                        blobEntry.addPaxHeader(BLOB_SIZE_HEADER, String.valueOf(size));
+                        tarOutput.putArchiveEntry(blobEntry);
+                    } else {
+                        tarOutput.putArchiveEntry(copyOf(tarEntry, size));
+                        IOUtils.copyLarge(tarInput, tarOutput);
+                    }
+                    tarOutput.closeArchiveEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the packed entry described by {@code manifest} to {@code entry}, without compression.
+     * When {@code referenceBlobs} is set, files stored in the blob store are not copied to {@code entry}, their entries reference the blob files instead.
+     * Such an entry can only be unpacked, on this machine.
+     *
+     * @see #restoredBlobOf(TarArchiveEntry)
+     */
+    public void restoreEntry(File manifest, File entry, boolean referenceBlobs) throws IOException {
+        try (
+            TarArchiveInputStream tarInput = openManifest(new BufferedInputStream(new FileInputStream(manifest)), manifest);
+            TarArchiveOutputStream tarOutput = createTarOutput(BuildCacheEntryCompression.NONE.compressWithHeader(new BufferedOutputStream(new FileOutputStream(entry))))
+        ) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                String blobHash = tarEntry.getExtraPaxHeader(BLOB_HASH_HEADER);
+                if (blobHash != null) {
+                    File blob = blobFile(blobHash);
+                    long size = Long.parseLong(tarEntry.getExtraPaxHeader(BLOB_SIZE_HEADER));
+                    if (blob.length() != size) {
+                        throw new IOException(String.format("Build cache blob %s for '%s' is missing or has an unexpected size.", blobHash, tarEntry.getName()));
+                    }
+                    if (referenceBlobs) {
+                        TarArchiveEntry blobEntry = copyOf(tarEntry, 0);
+                        blobEntry.addPaxHeader(BLOB_HASH_HEADER, blobHash);
+                        blobEntry.addPaxHeader(BLOB_SIZE_HEADER, String.valueOf(size));
+                        blobEntry.addPaxHeader(BLOB_FILE_HEADER, blob.getAbsolutePath());
+                        tarOutput.putArchiveEntry(blobEntry);
+                    } else {
+                        tarOutput.putArchiveEntry(copyOf(tarEntry, size));
+                        Files.copy(blob.toPath(), tarOutput);
+                    }
+                } else {
+                    tarOutput.putArchiveEntry(copyOf(tarEntry, tarEntry.getSize()));
+                    IOUtils.copyLarge(tarInput, tarOutput);
+                }
+                tarOutput.closeArchiveEntry();
+            }
+        }
+    }
+
+    /**
+     * Returns the blob a restored entry references instead of containing the contents of the file, or {@code null} if the entry contains the contents.
+     * Only files named after their hash in the layout of a blob store are accepted, so that entries from other sources can't make the unpacker copy arbitrary files.
+     */
+    @Nullable
+    static RestoredBlob restoredBlobOf(TarArchiveEntry tarEntry) throws IOException {
+        String blobPath = tarEntry.getExtraPaxHeader(BLOB_FILE_HEADER);
+        if (blobPath == null) {
+            return null;
+        }
+        String blobHash = tarEntry.getExtraPaxHeader(BLOB_HASH_HEADER);
+        String blobSize = tarEntry.getExtraPaxHeader(BLOB_SIZE_HEADER);
+        File blob = new File(blobPath);
+        File prefixDir = blob.getParentFile();
+        if (blobHash == null || blobSize == null || !blob.getName().equals(blobHash) || prefixDir == null || !prefixDir.getName().equals(blobHash.substring(0, 2))) {
+            throw new IllegalStateException(String.format("Cached entry format error, invalid blob reference for '%s'.", tarEntry.getName()));
+        }
+        long size = Long.parseLong(blobSize);
+        if (blob.length() != size) {
+            throw new IOException(String.format("Build cache blob %s for '%s' is missing or has an unexpected size.", blobHash, tarEntry.getName()));
+        }
+        return new RestoredBlob(blob, HashCode.fromString(blobHash), size);
+    }
+
+    /**
+     * Deletes all blobs that are not referenced by any of the given manifests, as well as partially written blobs.
+     * Must not run concurrently with storing manifests.
+     *
+     * @return the number of deleted files
+     */
+    public int removeUnreferencedBlobs(Iterable<File> manifests) throws IOException {
+        Set<String> referencedBlobs = new HashSet<>();
+        for (File manifest : manifests) {
+            if (isManifest(manifest)) {
+                collectReferencedBlobs(manifest, referencedBlobs);
+            }
+        }
+        int deleted = 0;
+        File[] prefixDirs = blobsDir.listFiles();
+        if (prefixDirs == null) {
+            return 0;
+        }
+        for (File prefixDir : prefixDirs) {
+            File[] blobs = prefixDir.listFiles();
+            if (blobs == null) {
+                // Leftover partial blob
+                if (FileUtils.deleteQuietly(prefixDir)) {
+                    deleted++;
+                }
+                continue;
+            }
+            for (File blob : blobs) {
+                if (!referencedBlobs.contains(blob.getName()) && FileUtils.deleteQuietly(blob)) {
+                    deleted++;
+                }
+            }
+            if (prefixDir.delete()) {
+                // Only succeeds when the directory is empty
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private void collectReferencedBlobs(File manifest, Set<String> referencedBlobs) throws IOException {
+        try (TarArchiveInputStream tarInput = openManifest(new BufferedInputStream(new FileInputStream(manifest)), manifest)) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                String blobHash = tarEntry.getExtraPaxHeader(BLOB_HASH_HEADER);
+                if (blobHash != null) {
+                    referencedBlobs.add(blobHash);
+                }
+            }
+        }
+    }
+
+    private HashCode storeBlob(InputStream content) throws IOException {
+        Files.createDirectories(blobsDir.toPath());
+        File partialBlob = File.createTempFile("blob-", PARTIAL_BLOB_SUFFIX, blobsDir);
+        try {
+            HashCode hash;
+            try (OutputStream output = new FileOutputStream(partialBlob)) {
+                hash = streamHasher.hashCopy(content, output);
+            }
+            File blob = blobFile(hash.toString());
+            if (!blob.isFile()) {
+                Files.createDirectories(blob.getParentFile().toPath());
+                try {
+                    Files.move(partialBlob.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException ignored) {
+                    // Stored by someone else in the meantime
+                }
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(partialBlob.toPath());
+        }
+    }
+
+    private File blobFile(String hash) {
+        return new File(new File(blobsDir, hash.substring(0, 2)), hash);
+    }
+
+    private static TarArchiveInputStream openManifest(InputStream input, File manifest) throws IOException {
+        if (input.read() != MANIFEST_HEADER) {
+            throw new IllegalStateException(String.format("Cached entry format error, %s is not a manifest.", manifest));
+        }
+        return new TarArchiveInputStream(BuildCacheEntryCompression.decompressWithHeader(input), StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Copies the attributes {@link TarBuildCacheEntryPacker} writes. Entries read from a tar stream must not be modified, as the stream relies on their size.
+     */
+    private static TarArchiveEntry copyOf(TarArchiveEntry tarEntry, long size) {
+        TarArchiveEntry copy = new TarArchiveEntry(tarEntry.getName(), tarEntry.isDirectory() ? TarArchiveEntry.LF_DIR : TarArchiveEntry.LF_NORMAL, true);
+        copy.setMode(tarEntry.getMode());
+        copy.setModTime(tarEntry.getModTime());
+        copy.setSize(size);
+        return copy;
+    }
+
+    static class RestoredBlob {
+        private final File file;
+        private final HashCode hash;
+        private final long size;
+
+        private RestoredBlob(File file, HashCode hash, long size) {
+            this.file = file;
+            this.hash = hash;
+            this.size = size;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * The content hash of the blob, which is the same hash Gradle uses when snapshotting the file.
+         */
+        public HashCode getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private static TarArchiveOutputStream createTarOutput(OutputStream output) {
+        // Pad to single records only, as restored entries are not compressed
+        TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(output, TAR_RECORD_SIZE, StandardCharsets.UTF_8.name());
+        tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+        return tarOutput;
+    }
+}
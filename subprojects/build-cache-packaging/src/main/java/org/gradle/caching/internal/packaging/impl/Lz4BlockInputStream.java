@@ -0,0 +1,107 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Decompressor;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses a stream written by {@link Lz4BlockOutputStream}.
+ */
+class Lz4BlockInputStream extends InputStream {
+    private final Lz4Decompressor decompressor = new Lz4Decompressor();
+    private final DataInputStream input;
+    private final byte[] block = new byte[Lz4BlockOutputStream.BLOCK_SIZE];
+    private final byte[] compressed = new byte[Lz4BlockOutputStream.MAX_COMPRESSED_BLOCK_SIZE];
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    Lz4BlockInputStream(InputStream input) {
+        this.input = new DataInputStream(input);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(block, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (position == limit) {
+            if (finished) {
+                return false;
+            }
+            readBlock();
+        }
+        return true;
+    }
+
+    private void readBlock() throws IOException {
+        int uncompressedLength = input.readInt();
+        if (uncompressedLength == 0) {
+            finished = true;
+            return;
+        }
+        int compressedLength = input.readInt();
+        if (uncompressedLength < 0 || uncompressedLength > block.length || compressedLength < 0 || compressedLength > compressed.length) {
+            throw new IOException("Corrupt LZ4 block header.");
+        }
+        input.readFully(compressed, 0, compressedLength);
+        int decompressedLength;
+        try {
+            decompressedLength = decompressor.decompress(compressed, 0, compressedLength, block, 0, uncompressedLength);
+        } catch (MalformedInputException e) {
+            throw new IOException("Corrupt LZ4 block.", e);
+        }
+        if (decompressedLength != uncompressedLength) {
+            throw new IOException("Corrupt LZ4 block.");
+        }
+        position = 0;
+        limit = uncompressedLength;
+    }
+}
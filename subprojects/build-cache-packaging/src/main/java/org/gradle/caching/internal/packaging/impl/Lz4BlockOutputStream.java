@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import io.airlift.compress.lz4.Lz4Compressor;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses a stream as a sequence of independent LZ4 blocks.
+ *
+ * Each block is written as its uncompressed length, its compressed length and the compressed bytes.
+ * The stream is terminated by a block with an uncompressed length of zero.
+ */
+class Lz4BlockOutputStream extends OutputStream {
+    static final int BLOCK_SIZE = 128 * 1024;
+    static final int MAX_COMPRESSED_BLOCK_SIZE = new Lz4Compressor().maxCompressedLength(BLOCK_SIZE);
+
+    private final Lz4Compressor compressor = new Lz4Compressor();
+    private final DataOutputStream output;
+    private final byte[] block = new byte[BLOCK_SIZE];
+    private final byte[] compressed = new byte[MAX_COMPRESSED_BLOCK_SIZE];
+    private int position;
+    private boolean closed;
+
+    Lz4BlockOutputStream(OutputStream output) {
+        this.output = new DataOutputStream(output);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[position++] = (byte) b;
+        if (position == BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int count = Math.min(length, BLOCK_SIZE - position);
+            System.arraycopy(bytes, offset, block, position, count);
+            position += count;
+            offset += count;
+            length -= count;
+            if (position == BLOCK_SIZE) {
+                writeBlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writeBlock();
+            output.writeInt(0);
+        } finally {
+            output.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (position == 0) {
+            return;
+        }
+        int compressedLength = compressor.compress(block, 0, position, compressed, 0, compressed.length);
+        output.writeInt(position);
+        output.writeInt(compressedLength);
+        output.write(compressed, 0, compressedLength);
+        position = 0;
+    }
+}
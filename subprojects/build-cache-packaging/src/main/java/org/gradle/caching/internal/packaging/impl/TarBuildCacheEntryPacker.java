@@ -17,6 +17,7 @@
 package org.gradle.caching.internal.packaging.impl;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Interner;
 import com.google.common.io.CountingOutputStream;
@@ -50,6 +51,7 @@
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -63,9 +65,20 @@
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -91,22 +104,58 @@ private interface UnixPermissions {
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
     private static final ThreadLocal<byte[]> COPY_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final int MAX_BUFFERED_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_BUFFERED_BYTES = 16 * MAX_BUFFERED_FILE_SIZE;
 
     private final TarPackerFileSystemSupport fileSystemSupport;
     private final FilePermissionAccess filePermissionAccess;
     private final StreamHasher streamHasher;
     private final Interner<String> stringInterner;
+    @Nullable
+    private final Executor fileWriteExecutor;
+    private final boolean checkFilesUnchanged;
 
     public TarBuildCacheEntryPacker(
         TarPackerFileSystemSupport fileSystemSupport,
         FilePermissionAccess filePermissionAccess,
         StreamHasher streamHasher,
         Interner<String> stringInterner
+    ) {
+        this(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, null);
+    }
+
+    /**
+     * Creates a packer that unpacks entries in a pipeline: the calling thread decodes the tar stream,
+     * while regular files are written, chmod-ed and snapshotted on the given executor.
+     */
+    public TarBuildCacheEntryPacker(
+        TarPackerFileSystemSupport fileSystemSupport,
+        FilePermissionAccess filePermissionAccess,
+        StreamHasher streamHasher,
+        Interner<String> stringInterner,
+        @Nullable Executor fileWriteExecutor
+    ) {
+        this(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, fileWriteExecutor, false);
+    }
+
+    /**
+     * Creates a packer that, when {@code checkFilesUnchanged} is set, fails packing a file whose content has changed since its snapshot was taken.
+     * This is needed when entries are packed some time after the outputs were snapshotted.
+     */
+    public TarBuildCacheEntryPacker(
+        TarPackerFileSystemSupport fileSystemSupport,
+        FilePermissionAccess filePermissionAccess,
+        StreamHasher streamHasher,
+        Interner<String> stringInterner,
+        @Nullable Executor fileWriteExecutor,
+        boolean checkFilesUnchanged
     ) {
         this.fileSystemSupport = fileSystemSupport;
         this.filePermissionAccess = filePermissionAccess;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.fileWriteExecutor = fileWriteExecutor;
+        this.checkFilesUnchanged = checkFilesUnchanged;
     }
 
     @Override
@@ -150,7 +199,7 @@ private long pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapsh
     }
 
     private long packTree(String name, TreeType type, FileSystemSnapshot snapshots, TarArchiveOutputStream tarOutput) {
-        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess);
+        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess, checkFilesUnchanged ? streamHasher : null);
         snapshots.accept(new RelativePathTracker(), packingVisitor);
         return packingVisitor.getPackedEntryCount();
     }
@@ -176,40 +225,49 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
 
         TarArchiveEntry tarEntry;
         OriginMetadata originMetadata = null;
-        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        Map<String, Supplier<FileSystemLocationSnapshot>> pendingSnapshots = new HashMap<>();
+        FileWrites fileWrites = new FileWrites();
 
-        tarEntry = tarInput.getNextTarEntry();
         AtomicLong entries = new AtomicLong();
-        while (tarEntry != null) {
-            entries.incrementAndGet();
-            String path = tarEntry.getName();
+        try {
+            tarEntry = tarInput.getNextTarEntry();
+            while (tarEntry != null) {
+                entries.incrementAndGet();
+                String path = tarEntry.getName();
+
+                if (path.equals(METADATA_PATH)) {
+                    // handle origin metadata
+                    originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
+                    tarEntry = tarInput.getNextTarEntry();
+                } else {
+                    // handle tree
+                    Matcher matcher = TREE_PATH.matcher(path);
+                    if (!matcher.matches()) {
+                        throw new IllegalStateException("Cached entry format error, invalid contents: " + path);
+                    }
 
-            if (path.equals(METADATA_PATH)) {
-                // handle origin metadata
-                originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
-                tarEntry = tarInput.getNextTarEntry();
-            } else {
-                // handle tree
-                Matcher matcher = TREE_PATH.matcher(path);
-                if (!matcher.matches()) {
-                    throw new IllegalStateException("Cached entry format error, invalid contents: " + path);
-                }
+                    String treeName = unescape(matcher.group(2));
+                    CacheableTree tree = treesByName.get(treeName);
+                    if (tree == null) {
+                        throw new IllegalStateException(String.format("No tree '%s' registered", treeName));
+                    }
 
-                String treeName = unescape(matcher.group(2));
-                CacheableTree tree = treesByName.get(treeName);
-                if (tree == null) {
-                    throw new IllegalStateException(String.format("No tree '%s' registered", treeName));
+                    boolean missing = matcher.group(1) != null;
+                    String childPath = matcher.group(3);
+                    tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, pendingSnapshots, entries, fileWrites);
                 }
-
-                boolean missing = matcher.group(1) != null;
-                String childPath = matcher.group(3);
-                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries);
             }
+        } catch (IOException | RuntimeException | Error e) {
+            fileWrites.awaitTermination();
+            throw e;
         }
+        fileWrites.awaitCompletion();
         if (originMetadata == null) {
             throw new IllegalStateException("Cached result format error, no origin metadata was found.");
         }
 
+        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        pendingSnapshots.forEach((treeName, snapshot) -> snapshots.put(treeName, snapshot.get()));
         return new UnpackResult(originMetadata, entries.get(), snapshots);
     }
 
@@ -232,7 +290,7 @@ public File getRoot() {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, Supplier<FileSystemLocationSnapshot>> snapshots, AtomicLong entries, FileWrites fileWrites) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -249,35 +307,42 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
-            snapshots.put(treeName, fileSnapshot);
+            CompletableFuture<RegularFileSnapshot> fileSnapshot = fileWrites.unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            snapshots.put(treeName, fileSnapshot::join);
             return input.getNextTarEntry();
         }
 
         if (!isDirEntry) {
             throw new IllegalStateException("Should be a directory: " + treeName);
         }
-        chmodUnpackedFile(rootEntry, treeRoot);
+        chmodUnpackedFile(rootEntry.getMode(), treeRoot);
 
-        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
+        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName, fileWrites);
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+    private RegularFileSnapshot unpackFile(InputStream input, int mode, File file, String internedAbsolutePath, String internedFileName) throws IOException {
+        HashCode hash;
+        long length;
         try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file))) {
-            HashCode hash = streamHasher.hashCopy(input, output);
-            chmodUnpackedFile(entry, file);
-            String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
-            String internedFileName = stringInterner.intern(fileName);
-            return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, DefaultFileMetadata.file(output.getCount(), file.lastModified(), DIRECT));
+            hash = streamHasher.hashCopy(input, output);
+            length = output.getCount();
         }
+        chmodUnpackedFile(mode, file);
+        return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, DefaultFileMetadata.file(file.lastModified(), length, DIRECT));
+    }
+
+    private RegularFileSnapshot unpackBlob(ContentAddressedEntryStore.RestoredBlob blob, int mode, File file, String internedAbsolutePath, String internedFileName) throws IOException {
+        Files.copy(blob.getFile().toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        chmodUnpackedFile(mode, file);
+        return new RegularFileSnapshot(internedAbsolutePath, internedFileName, blob.getHash(), DefaultFileMetadata.file(file.lastModified(), blob.getSize(), DIRECT));
     }
 
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, Supplier<FileSystemLocationSnapshot>> snapshots, AtomicLong entries, File treeRoot, String treeName, FileWrites fileWrites) throws IOException {
         RelativePathParser parser = new RelativePathParser(rootEntry.getName());
 
-        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
-        builder.enterDirectory(DIRECT, stringInterner.intern(treeRoot.getAbsolutePath()), stringInterner.intern(treeRoot.getName()), INCLUDE_EMPTY_DIRS);
+        DeferredDirectorySnapshotBuilder builder = new DeferredDirectorySnapshotBuilder();
+        builder.enterDirectory(stringInterner.intern(treeRoot.getAbsolutePath()), stringInterner.intern(treeRoot.getName()));
 
         TarArchiveEntry entry;
 
@@ -292,25 +357,144 @@ private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArch
             File file = new File(treeRoot, parser.getRelativePath());
             if (isDir) {
                 FileUtils.forceMkdir(file);
-                chmodUnpackedFile(entry, file);
+                chmodUnpackedFile(entry.getMode(), file);
                 String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
                 String internedName = stringInterner.intern(parser.getName());
-                builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS);
+                builder.enterDirectory(internedAbsolutePath, internedName);
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
-                builder.visitLeafElement(fileSnapshot);
+                CompletableFuture<RegularFileSnapshot> fileSnapshot = fileWrites.unpackFile(input, entry, file, parser.getName());
+                builder.visitFile(fileSnapshot);
             }
         }
 
         parser.exitToRoot(builder::leaveDirectory);
         builder.leaveDirectory();
 
-        snapshots.put(treeName, builder.getResult());
+        snapshots.put(treeName, builder::build);
         return entry;
     }
 
-    private void chmodUnpackedFile(TarArchiveEntry entry, File file) {
-        filePermissionAccess.chmod(file, entry.getMode() & UnixPermissions.PERM_MASK);
+    private void chmodUnpackedFile(int mode, File file) {
+        filePermissionAccess.chmod(file, mode & UnixPermissions.PERM_MASK);
+    }
+
+    /**
+     * Writes the regular files of a single entry being unpacked.
+     *
+     * Without an executor, each file is written on the calling thread as it is decoded.
+     * Otherwise small files are read into memory and written, chmod-ed and snapshotted on the executor,
+     * while the calling thread continues decoding the tar stream. The amount of buffered content is bounded.
+     * Files whose entry references a blob of the local content-addressed store are copied from the blob, on the executor if there is one.
+     */
+    private class FileWrites {
+        private final Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+        private final List<CompletableFuture<RegularFileSnapshot>> pending = new ArrayList<>();
+
+        public CompletableFuture<RegularFileSnapshot> unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+            String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
+            String internedFileName = stringInterner.intern(fileName);
+            int mode = entry.getMode();
+            ContentAddressedEntryStore.RestoredBlob blob = ContentAddressedEntryStore.restoredBlobOf(entry);
+            if (blob != null) {
+                return unpackBlob(blob, mode, file, internedAbsolutePath, internedFileName);
+            }
+            long size = entry.getSize();
+            if (fileWriteExecutor == null || size > MAX_BUFFERED_FILE_SIZE) {
+                return CompletableFuture.completedFuture(TarBuildCacheEntryPacker.this.unpackFile(input, mode, file, internedAbsolutePath, internedFileName));
+            }
+
+            int bufferSize = (int) size;
+            bufferedBytes.acquireUninterruptibly(bufferSize);
+            CompletableFuture<RegularFileSnapshot> result;
+            try {
+                byte[] content = new byte[bufferSize];
+                IOUtils.readFully(input, content);
+                result = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return TarBuildCacheEntryPacker.this.unpackFile(new ByteArrayInputStream(content), mode, file, internedAbsolutePath, internedFileName);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        bufferedBytes.release(bufferSize);
+                    }
+                }, fileWriteExecutor);
+            } catch (IOException | RuntimeException e) {
+                bufferedBytes.release(bufferSize);
+                throw e;
+            }
+            pending.add(result);
+            return result;
+        }
+
+        private CompletableFuture<RegularFileSnapshot> unpackBlob(ContentAddressedEntryStore.RestoredBlob blob, int mode, File file, String internedAbsolutePath, String internedFileName) throws IOException {
+            if (fileWriteExecutor == null) {
+                return CompletableFuture.completedFuture(TarBuildCacheEntryPacker.this.unpackBlob(blob, mode, file, internedAbsolutePath, internedFileName));
+            }
+            CompletableFuture<RegularFileSnapshot> result = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return TarBuildCacheEntryPacker.this.unpackBlob(blob, mode, file, internedAbsolutePath, internedFileName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, fileWriteExecutor);
+            pending.add(result);
+            return result;
+        }
+
+        /**
+         * Waits for all files to be written, rethrowing the first failure.
+         */
+        public void awaitCompletion() throws IOException {
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                Throwables.throwIfUnchecked(cause);
+                throw new RuntimeException(cause);
+            }
+        }
+
+        /**
+         * Waits for all files to be written, ignoring failures. Used when decoding fails, so no write outlives the unpack.
+         */
+        public void awaitTermination() {
+            for (CompletableFuture<RegularFileSnapshot> write : pending) {
+                try {
+                    write.join();
+                } catch (CompletionException ignored) {
+                    // The decoding failure takes precedence
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the structure of an unpacked directory tree in tar order, and builds its snapshot once
+     * all files in the tree have been written.
+     */
+    private static class DeferredDirectorySnapshotBuilder {
+        private final List<Consumer<MerkleDirectorySnapshotBuilder>> operations = new ArrayList<>();
+
+        public void enterDirectory(String internedAbsolutePath, String internedName) {
+            operations.add(builder -> builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS));
+        }
+
+        public void visitFile(CompletableFuture<RegularFileSnapshot> fileSnapshot) {
+            operations.add(builder -> builder.visitLeafElement(fileSnapshot.join()));
+        }
+
+        public void leaveDirectory() {
+            operations.add(MerkleDirectorySnapshotBuilder::leaveDirectory);
+        }
+
+        public FileSystemLocationSnapshot build() {
+            MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+            operations.forEach(operation -> operation.accept(builder));
+            return builder.getResult();
+        }
     }
 
     private static String escape(String name) {
@@ -335,15 +519,21 @@ private static class PackingVisitor implements RelativePathTrackingFileSystemSna
         private final String treeRoot;
         private final FilePermissionAccess filePermissionAccess;
         private final TreeType type;
+        @Nullable
+        private final StreamHasher changedContentHasher;
 
         private long packedEntryCount;
 
-        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess) {
+        /**
+         * Creates a visitor that, when {@code changedContentHasher} is given, re-hashes the content of files while packing them, and fails if it doesn't match the snapshot.
+         */
+        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess, @Nullable StreamHasher changedContentHasher) {
             this.tarOutput = tarOutput;
             this.treePath = "tree-" + escape(treeName);
             this.treeRoot = treePath + "/";
             this.type = type;
             this.filePermissionAccess = filePermissionAccess;
+            this.changedContentHasher = changedContentHasher;
         }
 
         @Override
@@ -363,8 +553,11 @@ public void visitDirectory(DirectorySnapshot directorySnapshot) {
                 public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                     assertCorrectType(isRoot, snapshot);
                     File file = new File(snapshot.getAbsolutePath());
+                    if (changedContentHasher != null) {
+                        assertUnchanged(file, fileSnapshot);
+                    }
                     int fileMode = filePermissionAccess.getUnixMode(file);
-                    storeFileEntry(file, targetPath, file.length(), fileMode, tarOutput);
+                    storeFileEntry(file, targetPath, fileSnapshot, fileMode, tarOutput);
                 }
 
                 @Override
@@ -402,6 +595,23 @@ private void assertCorrectType(boolean root, FileSystemLocationSnapshot snapshot
             }
         }
 
+        /**
+         * Entries may be packed some time after the outputs were snapshotted, so make sure the file is still the one described by the snapshot.
+         * This only catches changes to the length or the modification time. Changes to the content are caught by re-hashing the file while it is packed.
+         */
+        private void assertUnchanged(File file, RegularFileSnapshot fileSnapshot) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (attributes.size() != fileSnapshot.getMetadata().getLength()
+                || attributes.lastModifiedTime().toMillis() != fileSnapshot.getMetadata().getLastModified()) {
+                throw new IllegalStateException(String.format("File '%s' changed after its snapshot was taken", file.getAbsolutePath()));
+            }
+        }
+
         private String getTargetPath(RelativePathSupplier relativePath) {
             return relativePath.isRoot()
                 ? treePath
@@ -426,11 +636,19 @@ private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream t
             }
         }
 
-        private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
+        private void storeFileEntry(File inputFile, String path, RegularFileSnapshot fileSnapshot, int mode, TarArchiveOutputStream tarOutput) {
             try {
-                createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
+                // The header uses the snapshot's length, so a file that was truncated or extended fails the entry instead of being packed partially
+                createTarEntry(path, fileSnapshot.getMetadata().getLength(), UnixPermissions.FILE_FLAG | mode, tarOutput);
                 try (FileInputStream input = new FileInputStream(inputFile)) {
-                    IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                    if (changedContentHasher == null) {
+                        IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                    } else {
+                        HashCode hash = changedContentHasher.hashCopy(input, tarOutput);
+                        if (!hash.equals(fileSnapshot.getHash())) {
+                            throw new IllegalStateException(String.format("File '%s' changed after its snapshot was taken", inputFile.getAbsolutePath()));
+                        }
+                    }
                 }
                 tarOutput.closeArchiveEntry();
             } catch (IOException e) {
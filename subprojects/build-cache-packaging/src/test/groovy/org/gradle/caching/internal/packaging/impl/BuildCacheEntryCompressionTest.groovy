@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import spock.lang.Specification
+
+import java.util.zip.GZIPOutputStream
+
+class BuildCacheEntryCompressionTest extends Specification {
+    def content = (0..<300_000).collect { (byte) (it % 7 == 0 ? it : 42) } as byte[]
+
+    def "can read back content compressed with #compression"() {
+        def output = new ByteArrayOutputStream()
+
+        when:
+        compression.compressWithHeader(output).withCloseable { it.write(content) }
+
+        then:
+        output.toByteArray()[0] == header
+        read(output.toByteArray()) == content
+
+        where:
+        compression                     | header
+        BuildCacheEntryCompression.GZIP | (byte) 0x1f
+        BuildCacheEntryCompression.LZ4  | (byte) 0x01
+        BuildCacheEntryCompression.NONE | (byte) 0x00
+    }
+
+    def "can read entries compressed with plain gzip"() {
+        def output = new ByteArrayOutputStream()
+        new GZIPOutputStream(output).withCloseable { it.write(content) }
+
+        expect:
+        read(output.toByteArray()) == content
+    }
+
+    def "fails on unknown compression header"() {
+        when:
+        read([0x42] as byte[])
+
+        then:
+        def ex = thrown(IllegalStateException)
+        ex.message == "Cached entry format error, unknown compression header 0x42."
+    }
+
+    def "can look up compression by name"() {
+        expect:
+        BuildCacheEntryCompression.forName("lz4") == BuildCacheEntryCompression.LZ4
+        BuildCacheEntryCompression.forName("GZIP") == BuildCacheEntryCompression.GZIP
+
+        when:
+        BuildCacheEntryCompression.forName("zstd")
+
+        then:
+        def ex = thrown(IllegalArgumentException)
+        ex.message == "Unknown build cache entry compression 'zstd', supported values are gzip, lz4 and none."
+    }
+
+    private static byte[] read(byte[] entry) {
+        BuildCacheEntryCompression.decompressWithHeader(new ByteArrayInputStream(entry)).withCloseable { it.bytes }
+    }
+}
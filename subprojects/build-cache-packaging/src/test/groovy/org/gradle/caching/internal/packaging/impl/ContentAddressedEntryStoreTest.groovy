@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.gradle.internal.hash.DefaultStreamHasher
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+@CleanupTestDirectory
+class ContentAddressedEntryStoreTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
+    def blobsDir = temporaryFolder.file("blobs")
+    def store = new ContentAddressedEntryStore(blobsDir, new DefaultStreamHasher())
+
+    def "stores files shared between entries once"() {
+        def shared = bytes(4096, 1)
+        def first = entry("first", ["tree-out/shared.bin": shared, "tree-out/first.bin": bytes(2048, 2)])
+        def second = entry("second", ["tree-out/shared.bin": shared, "tree-out/second.bin": bytes(2048, 3)])
+
+        when:
+        store.storeManifest(first, temporaryFolder.file("first.manifest"))
+        store.storeManifest(second, temporaryFolder.file("second.manifest"))
+
+        then:
+        blobs().size() == 3
+        ContentAddressedEntryStore.isManifest(temporaryFolder.file("first.manifest"))
+        !ContentAddressedEntryStore.isManifest(first)
+    }
+
+    def "restores entry uncompressed from manifest"() {
+        String longName = "tree-out/nön-äscii-${"x" * 120}.bin"
+        def contents = [
+            "METADATA": "origin".bytes,
+            "tree-out/": null,
+            "tree-out/large.bin": bytes(10_000, 4),
+            "tree-out/small.txt": "small".bytes,
+            (longName): bytes(3000, 5)
+        ]
+        def manifest = temporaryFolder.file("manifest")
+        def restored = temporaryFolder.file("restored")
+        store.storeManifest(entry("entry", contents), manifest)
+
+        when:
+        store.restoreEntry(manifest, restored, false)
+
+        then:
+        restored.bytes[0] == (byte) 0x00
+        def restoredContents = read(restored)
+        restoredContents.keySet() == contents.keySet()
+        contents.every { path, content -> Arrays.equals(restoredContents[path], content) }
+    }
+
+    def "restores entry referencing blobs from manifest"() {
+        def large = bytes(10_000, 4)
+        def manifest = temporaryFolder.file("manifest")
+        def restored = temporaryFolder.file("restored")
+        store.storeManifest(entry("entry", ["tree-out/large.bin": large, "tree-out/small.txt": "small".bytes]), manifest)
+
+        when:
+        store.restoreEntry(manifest, restored, true)
+
+        then:
+        def restoredEntries = readEntries(restored)
+        restoredEntries["tree-out/small.txt"].size == 5
+        ContentAddressedEntryStore.restoredBlobOf(restoredEntries["tree-out/small.txt"]) == null
+        restoredEntries["tree-out/large.bin"].size == 0
+        def blob = ContentAddressedEntryStore.restoredBlobOf(restoredEntries["tree-out/large.bin"])
+        blob.file.bytes == large
+        blob.size == large.length
+        blob.hash == new DefaultStreamHasher().hash(new ByteArrayInputStream(large))
+    }
+
+    def "does not accept blob references to files outside of a blob store"() {
+        def tarEntry = new TarArchiveEntry("tree-out/secret.txt", true)
+        tarEntry.addPaxHeader("GRADLE.blob.hash", "0123456789abcdef0123456789abcdef")
+        tarEntry.addPaxHeader("GRADLE.blob.size", "5")
+        tarEntry.addPaxHeader("GRADLE.blob.file", temporaryFolder.file("secret.txt").absolutePath)
+
+        when:
+        ContentAddressedEntryStore.restoredBlobOf(tarEntry)
+
+        then:
+        def ex = thrown(IllegalStateException)
+        ex.message == "Cached entry format error, invalid blob reference for 'tree-out/secret.txt'."
+    }
+
+    def "removes blobs no longer referenced"() {
+        def shared = bytes(4096, 1)
+        def firstManifest = temporaryFolder.file("first.manifest")
+        def secondManifest = temporaryFolder.file("second.manifest")
+        store.storeManifest(entry("first", ["tree-out/shared.bin": shared, "tree-out/first.bin": bytes(2048, 2)]), firstManifest)
+        store.storeManifest(entry("second", ["tree-out/shared.bin": shared]), secondManifest)
+
+        when:
+        store.removeUnreferencedBlobs([secondManifest])
+
+        then:
+        blobs().size() == 1
+
+        when:
+        store.restoreEntry(secondManifest, temporaryFolder.file("restored"), false)
+
+        then:
+        noExceptionThrown()
+
+        when:
+        store.restoreEntry(firstManifest, temporaryFolder.file("restored"), false)
+
+        then:
+        def ex = thrown(IOException)
+        ex.message.endsWith("for 'tree-out/first.bin' is missing or has an unexpected size.")
+    }
+
+    private File entry(String name, Map<String, byte[]> contents) {
+        def file = temporaryFolder.file("${name}.tar.gz")
+        file.withOutputStream { output ->
+            new TarArchiveOutputStream(BuildCacheEntryCompression.GZIP.compressWithHeader(output), "UTF-8").withCloseable { tarOutput ->
+                tarOutput.longFileMode = TarArchiveOutputStream.LONGFILE_POSIX
+                tarOutput.addPaxHeadersForNonAsciiNames = true
+                contents.each { path, content ->
+                    def tarEntry = new TarArchiveEntry(path, true)
+                    tarEntry.size = content == null ? 0 : content.length
+                    tarOutput.putArchiveEntry(tarEntry)
+                    if (content != null) {
+                        tarOutput.write(content)
+                    }
+                    tarOutput.closeArchiveEntry()
+                }
+            }
+        }
+        file
+    }
+
+    private static Map<String, byte[]> read(File entry) {
+        Map<String, byte[]> contents = [:]
+        entry.withInputStream { input ->
+            def tarInput = new TarArchiveInputStream(BuildCacheEntryCompression.decompressWithHeader(input), "UTF-8")
+            TarArchiveEntry tarEntry
+            while ((tarEntry = tarInput.nextTarEntry) != null) {
+                contents[tarEntry.name] = tarEntry.directory ? null : tarInput.bytes
+            }
+        }
+        contents
+    }
+
+    private static Map<String, TarArchiveEntry> readEntries(File entry) {
+        Map<String, TarArchiveEntry> entries = [:]
+        entry.withInputStream { input ->
+            def tarInput = new TarArchiveInputStream(BuildCacheEntryCompression.decompressWithHeader(input), "UTF-8")
+            TarArchiveEntry tarEntry
+            while ((tarEntry = tarInput.nextTarEntry) != null) {
+                entries[tarEntry.name] = tarEntry
+            }
+        }
+        entries
+    }
+
+    private List<File> blobs() {
+        blobsDir.listFiles().collectMany { it.listFiles() as List }
+    }
+
+    private static byte[] bytes(int size, int seed) {
+        def random = new Random(seed)
+        def result = new byte[size]
+        random.nextBytes(result)
+        result
+    }
+}
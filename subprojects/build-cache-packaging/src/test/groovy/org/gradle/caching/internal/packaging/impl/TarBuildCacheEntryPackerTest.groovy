@@ -19,11 +19,15 @@ package org.gradle.caching.internal.packaging.impl
 import org.gradle.api.internal.file.TestFiles
 import org.gradle.internal.file.Deleter
 import org.gradle.internal.nativeintegration.filesystem.FileSystem
+import org.gradle.internal.snapshot.FileSystemSnapshot
 import org.gradle.util.Requires
 import org.gradle.util.TestPrecondition
 
+import java.util.concurrent.Executors
+
 import static org.gradle.internal.file.TreeType.DIRECTORY
 import static org.gradle.internal.file.TreeType.FILE
+import static org.gradle.internal.snapshot.SnapshotVisitorUtil.getAbsolutePaths
 
 class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec {
     @Override
@@ -237,4 +241,88 @@ class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec
         then:
         targetDir.assertIsEmptyDir()
     }
+
+    def "unpacking files in parallel produces the same snapshots as unpacking sequentially"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        (1..20).each { dirIndex ->
+            def dir = sourceDir.file("dir-$dirIndex").createDir()
+            (1..50).each { fileIndex ->
+                dir.file("file-${fileIndex}.txt") << "content $dirIndex/$fileIndex"
+            }
+        }
+        sourceDir.file("large.bin").bytes = new byte[2 * 1024 * 1024]
+        def sourceFile = temporaryFolder.file("single.txt") << "single"
+        def targetDir = temporaryFolder.file("target")
+        def targetFile = temporaryFolder.file("target.txt")
+        def output = new ByteArrayOutputStream()
+        pack output, prop("dir", DIRECTORY, sourceDir), prop("file", FILE, sourceFile)
+        def executor = Executors.newFixedThreadPool(4)
+        def parallelPacker = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, executor)
+
+        when:
+        def sequential = unpack new ByteArrayInputStream(output.toByteArray()), prop("dir", DIRECTORY, targetDir), prop("file", FILE, targetFile)
+        def parallel = parallelPacker.unpack(entity(prop("dir", DIRECTORY, targetDir), prop("file", FILE, targetFile)), new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        parallel.entries == sequential.entries
+        parallel.snapshots.keySet() == sequential.snapshots.keySet()
+        parallel.snapshots.every { name, snapshot -> snapshot.hash == sequential.snapshots[name].hash }
+        getAbsolutePaths(parallel.snapshots["dir"], true) == getAbsolutePaths(sequential.snapshots["dir"], true)
+        targetDir.file("dir-20/file-50.txt").text == "content 20/50"
+        targetFile.text == "single"
+
+        cleanup:
+        executor?.shutdown()
+    }
+
+    def "fails packing a file rewritten with the same length and modification time after its snapshot was taken"() {
+        def sourceFile = temporaryFolder.file("source.txt") << "before"
+        def lastModified = sourceFile.lastModified()
+        FileSystemSnapshot snapshot = null
+        fileSystemAccess.read(sourceFile.absolutePath) { snapshot = it }
+        sourceFile.text = "after!"
+        sourceFile.setLastModified(lastModified)
+        def checkingPacker = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, null, true)
+
+        when:
+        checkingPacker.pack(entity(prop(FILE, sourceFile)), [test: snapshot], new ByteArrayOutputStream(), writeOrigin)
+
+        then:
+        def e = thrown(RuntimeException)
+        e.cause instanceof IllegalStateException
+        e.cause.message == "File '${sourceFile.absolutePath}' changed after its snapshot was taken"
+    }
+
+    def "copies blobs referenced by restored entries to the outputs"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        def large = new byte[10_000]
+        new Random(1).nextBytes(large)
+        sourceDir.file("large.bin").bytes = large
+        sourceDir.file("small.txt") << "small"
+        def targetDir = temporaryFolder.file("target")
+        def packed = temporaryFolder.file("packed")
+        packed.withOutputStream { output ->
+            BuildCacheEntryCompression.GZIP.compressWithHeader(output).withCloseable { compressedOutput ->
+                pack compressedOutput, prop(DIRECTORY, sourceDir)
+            }
+        }
+        def store = new ContentAddressedEntryStore(temporaryFolder.file("blobs"), streamHasher)
+        def manifest = temporaryFolder.file("manifest")
+        def restored = temporaryFolder.file("restored")
+        store.storeManifest(packed, manifest)
+        store.restoreEntry(manifest, restored, true)
+
+        when:
+        def result = restored.withInputStream { input ->
+            unpack BuildCacheEntryCompression.decompressWithHeader(input), prop(DIRECTORY, targetDir)
+        }
+
+        then:
+        targetDir.file("large.bin").bytes == large
+        targetDir.file("small.txt").text == "small"
+        def expected = packed.withInputStream { input ->
+            unpack BuildCacheEntryCompression.decompressWithHeader(input), prop(DIRECTORY, temporaryFolder.file("expected"))
+        }
+        result.snapshots["test"].hash == expected.snapshots["test"].hash
+    }
 }
@@ -51,6 +51,7 @@ public abstract class AbstractTaskOutputPackagingBenchmark {
         .put("tar.snappy.large", new SnappyPacker(new AntTarPacker(64)))
         .put("tar", new AntTarPacker(4))
         .put("tar.commons", new CommonsTarPacker(4))
+        .put("tar.commons.parallel", new ParallelCommonsTarPacker(4, 4))
         .put("tar.jtar", new JTarPacker(4))
         .put("tar.small", new AntTarPacker(2))
         .put("tar.large", new AntTarPacker(64))
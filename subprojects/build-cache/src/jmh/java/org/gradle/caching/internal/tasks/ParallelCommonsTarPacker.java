@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.tasks;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes the tar stream on the calling thread, and writes the unpacked entries on a bounded pool.
+ */
+public class ParallelCommonsTarPacker implements Packer {
+
+    private final CommonsTarPacker delegate;
+    private final ExecutorService executor;
+
+    public ParallelCommonsTarPacker(int bufferSizeInKBytes, int threads) {
+        this.delegate = new CommonsTarPacker(bufferSizeInKBytes);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "tar unpacker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void pack(List<DataSource> inputs, DataTarget output) throws IOException {
+        delegate.pack(inputs, output);
+    }
+
+    @Override
+    public void unpack(DataSource input, DataTargetFactory targetFactory) throws IOException {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input.openInput())) {
+            while (true) {
+                TarArchiveEntry entry = tarInput.getNextTarEntry();
+                if (entry == null) {
+                    break;
+                }
+                byte[] content = new byte[(int) entry.getSize()];
+                IOUtils.readFully(tarInput, content);
+                DataTarget target = targetFactory.createDataTarget(entry.getName());
+                writes.add(CompletableFuture.runAsync(() -> {
+                    try (OutputStream outputStream = target.openOutput()) {
+                        outputStream.write(content);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).join();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.operations.BuildOperationRef;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs build cache stores on background threads, so that workers don't wait for entries to be packed and stored.
+ * <p>
+ * At most a fixed number of stores are pending at any time. Submitting a store while the pipeline is full blocks until a pending store completes.
+ * <p>
+ * Stores usually outlive the operations that submit them, so they run under a parent operation that is given when the pipeline is created,
+ * and that must only complete after the pipeline has been drained.
+ */
+public class BuildCacheStorePipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheStorePipeline.class);
+
+    private final ManagedExecutor executor;
+    @Nullable
+    private final BuildOperationRef parentOperation;
+    private final Semaphore slots;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger maxPending = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+
+    public BuildCacheStorePipeline(ExecutorFactory executorFactory, int threads, int capacity, @Nullable BuildOperationRef parentOperation) {
+        this.executor = executorFactory.create("Build cache store", threads);
+        this.parentOperation = parentOperation;
+        this.slots = new Semaphore(capacity);
+    }
+
+    public void submit(BuildCacheKey key, Runnable store) {
+        if (!slots.tryAcquire()) {
+            long start = System.nanoTime();
+            slots.acquireUninterruptibly();
+            blocked.incrementAndGet();
+            blockedNanos.addAndGet(System.nanoTime() - start);
+        }
+        maxPending.accumulateAndGet(pending.incrementAndGet(), Math::max);
+        submitted.incrementAndGet();
+        try {
+            executor.execute(() -> CurrentBuildOperationRef.instance().with(parentOperation, () -> {
+                try {
+                    store.run();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    LOGGER.warn("Could not store entry {} in the build cache: {}", key.getHashCode(), e.getMessage());
+                    LOGGER.debug("Failure storing build cache entry {}", key.getHashCode(), e);
+                } finally {
+                    pending.decrementAndGet();
+                    slots.release();
+                }
+            }));
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for all pending stores to complete and stops the pipeline.
+     */
+    public Statistics drain() {
+        executor.stop();
+        Statistics statistics = new Statistics(submitted.get(), failed.get(), maxPending.get(), blocked.get(), TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()));
+        LOGGER.info("Build cache store pipeline: {}", statistics);
+        return statistics;
+    }
+
+    public static class Statistics {
+        private final long storeCount;
+        private final long failedStoreCount;
+        private final int maxPendingStoreCount;
+        private final long blockedSubmissionCount;
+        private final long blockedTimeMillis;
+
+        public Statistics(long storeCount, long failedStoreCount, int maxPendingStoreCount, long blockedSubmissionCount, long blockedTimeMillis) {
+            this.storeCount = storeCount;
+            this.failedStoreCount = failedStoreCount;
+            this.maxPendingStoreCount = maxPendingStoreCount;
+            this.blockedSubmissionCount = blockedSubmissionCount;
+            this.blockedTimeMillis = blockedTimeMillis;
+        }
+
+        public long getStoreCount() {
+            return storeCount;
+        }
+
+        public long getFailedStoreCount() {
+            return failedStoreCount;
+        }
+
+        /**
+         * The largest number of stores that were pending at the same time.
+         */
+        public int getMaxPendingStoreCount() {
+            return maxPendingStoreCount;
+        }
+
+        /**
+         * The number of stores that had to wait for the pipeline to make room.
+         */
+        public long getBlockedSubmissionCount() {
+            return blockedSubmissionCount;
+        }
+
+        /**
+         * The total time workers spent waiting for the pipeline to make room.
+         */
+        public long getBlockedTimeMillis() {
+            return blockedTimeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d stores, %d failed, at most %d pending, %d blocked for %d ms in total",
+                storeCount, failedStoreCount, maxPendingStoreCount, blockedSubmissionCount, blockedTimeMillis);
+        }
+    }
+}
@@ -64,6 +64,8 @@ public class DefaultBuildCacheController implements BuildCacheController {
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
+    @Nullable
+    private final BuildCacheStorePipeline storePipeline;
 
     private boolean closed;
 
@@ -74,8 +76,24 @@ public DefaultBuildCacheController(
         boolean logStackTraces,
         boolean emitDebugLogging,
         boolean disableRemoteOnError
+    ) {
+        this(config, buildOperationExecutor, temporaryFileProvider, logStackTraces, emitDebugLogging, disableRemoteOnError, null);
+    }
+
+    /**
+     * Creates a controller that stores entries in the given pipeline when it is not {@code null}, instead of on the calling thread.
+     */
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        TemporaryFileProvider temporaryFileProvider,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        boolean disableRemoteOnError,
+        @Nullable BuildCacheStorePipeline storePipeline
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
+        this.storePipeline = storePipeline;
         this.emitDebugLogging = emitDebugLogging;
         this.local = toLocalHandle(config.getLocal(), config.isLocalPush());
         this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError);
@@ -170,6 +188,15 @@ public void store(BuildCacheStoreCommand command) {
             return;
         }
 
+        if (storePipeline != null) {
+            // The command captures the output snapshots, so the entry can be packed later
+            storePipeline.submit(command.getKey(), () -> doStore(command));
+        } else {
+            doStore(command);
+        }
+    }
+
+    private void doStore(BuildCacheStoreCommand command) {
         BuildCacheKey key = command.getKey();
         Pack pack = new Pack(command);
 
@@ -222,6 +249,9 @@ public BuildOperationDescriptor.Builder description() {
     public void close() throws IOException {
         if (!closed) {
             closed = true;
+            if (storePipeline != null) {
+                drainStorePipeline(storePipeline);
+            }
             Closer closer = Closer.create();
             closer.register(local);
             closer.register(remote);
@@ -229,6 +259,21 @@ public void close() throws IOException {
         }
     }
 
+    private void drainStorePipeline(BuildCacheStorePipeline storePipeline) {
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                context.setResult(storePipeline.drain());
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Wait for build cache stores to complete")
+                    .progressDisplayName("Storing build cache entries");
+            }
+        });
+    }
+
     private static BuildCacheServiceHandle toRemoteHandle(@Nullable BuildCacheService service, boolean push, BuildOperationExecutor buildOperationExecutor, boolean logStackTraces, boolean disableOnError) {
         return service == null
             ? NullBuildCacheServiceHandle.INSTANCE
@@ -25,35 +25,58 @@
 import org.gradle.caching.BuildCacheException;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryStore;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.file.FileAccessTracker;
 import org.gradle.internal.resource.local.LocallyAvailableResource;
 import org.gradle.internal.resource.local.PathKeyFileStore;
 import org.gradle.util.internal.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.UUID;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DirectoryBuildCacheService implements LocalBuildCacheService, BuildCacheService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryBuildCacheService.class);
+    private static final String PIN_SUFFIX = ".pin";
+    // Written next to an entry while it is being stored, see DefaultPathKeyFileStore
+    private static final String IN_PROGRESS_MARKER_FILE_SUFFIX = ".fslck";
+
     private final PathKeyFileStore fileStore;
     private final PersistentCache persistentCache;
     private final BuildCacheTempFileStore tempFileStore;
     private final FileAccessTracker fileAccessTracker;
     private final String failedFileSuffix;
+    @Nullable
+    private final ContentAddressedEntryStore contentAddressedStore;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean lockFreeLoads = true;
 
     public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
+        this(fileStore, persistentCache, tempFileStore, fileAccessTracker, failedFileSuffix, null);
+    }
+
+    /**
+     * Creates a service that stores entries as manifests in the given content-addressed store when it is not {@code null}.
+     */
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix, @Nullable ContentAddressedEntryStore contentAddressedStore) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.fileAccessTracker = fileAccessTracker;
         this.failedFileSuffix = failedFileSuffix;
+        this.contentAddressedStore = contentAddressedStore;
     }
 
     private static class LoadAction implements Action<File> {
@@ -84,19 +107,27 @@ public void execute(@Nonnull File file) {
     @Override
     public boolean load(final BuildCacheKey key, final BuildCacheEntryReader reader) throws BuildCacheException {
         LoadAction loadAction = new LoadAction(reader);
-        loadLocally(key, loadAction);
+        // The reader gets the contents of the entry, so blobs need to be copied into it
+        load(key, loadAction, false);
         return loadAction.loaded;
     }
 
     @Override
     public void loadLocally(final BuildCacheKey key, final Action<? super File> reader) {
+        load(key, reader, true);
+    }
+
+    private void load(final BuildCacheKey key, final Action<? super File> reader, final boolean referenceBlobs) {
+        if (lockFreeLoads && loadWithoutLock(key, reader, referenceBlobs)) {
+            return;
+        }
         // We need to lock other processes out here because garbage collection can be under way in another process
         persistentCache.withFileLock(new Runnable() {
             @Override
             public void run() {
                 lock.readLock().lock();
                 try {
-                    loadInsideLock(key, reader);
+                    loadInsideLock(key, reader, referenceBlobs);
                 } finally {
                     lock.readLock().unlock();
                 }
@@ -104,18 +135,73 @@ public void run() {
         });
     }
 
-    private void loadInsideLock(BuildCacheKey key, Action<? super File> reader) {
+    /**
+     * Loads an entry without locking out stores and cleanup.
+     * <p>
+     * The entry is pinned by hard linking it to a unique name before it is read.
+     * Stores and cleanup only ever unlink or replace the entry's path, so the pinned file keeps the contents it had when it was linked.
+     * A store in progress is detected via the file store's in-progress marker, which is checked after linking:
+     * if there is no marker by then, any write that was under way when the link was taken has completed.
+     *
+     * @return {@code false} if entries cannot be pinned in this cache directory and the entry needs to be loaded under the lock.
+     */
+    private boolean loadWithoutLock(BuildCacheKey key, Action<? super File> reader, boolean referenceBlobs) {
+        File baseDir = persistentCache.getBaseDir();
+        File file = new File(baseDir, key.getHashCode());
+        File pin = new File(baseDir, key.getHashCode() + "-" + UUID.randomUUID() + PIN_SUFFIX);
+        try {
+            Files.createLink(pin.toPath(), file.toPath());
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            LOGGER.debug("Cannot link build cache entries in {}, loading entries under the cache lock.", baseDir, e);
+            lockFreeLoads = false;
+            return false;
+        }
+        try {
+            File inProgressMarker = new File(baseDir, key.getHashCode() + IN_PROGRESS_MARKER_FILE_SUFFIX);
+            if (!inProgressMarker.exists()) {
+                readEntry(key, file, pin, reader, referenceBlobs);
+            }
+        } finally {
+            GFileUtils.deleteQuietly(pin);
+        }
+        return true;
+    }
+
+    private void loadInsideLock(BuildCacheKey key, Action<? super File> reader, boolean referenceBlobs) {
         LocallyAvailableResource resource = fileStore.get(key.getHashCode());
         if (resource == null) {
             return;
         }
 
         File file = resource.getFile();
+        readEntry(key, file, file, reader, referenceBlobs);
+    }
+
+    private void readEntry(BuildCacheKey key, File file, File source, Action<? super File> reader, boolean referenceBlobs) {
         fileAccessTracker.markAccessed(file);
 
         try {
-            reader.execute(file);
+            if (contentAddressedStore != null && ContentAddressedEntryStore.isManifest(source)) {
+                tempFileStore.withTempFile(key, restoredFile -> {
+                    try {
+                        contentAddressedStore.restoreEntry(source, restoredFile, referenceBlobs);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    reader.execute(restoredFile);
+                });
+            } else {
+                reader.execute(source);
+            }
         } catch (Exception e) {
+            if (!file.exists() || !source.exists()) {
+                // The entry was removed by cleanup in another process while it was being read
+                LOGGER.debug("Build cache entry {} was removed while loading it.", key.getHashCode(), e);
+                return;
+            }
+
             // Try to move the file out of the way in case its permanently corrupt
             // Don't delete, so that it can be potentially used for debugging
             File failedFile = new File(file.getAbsolutePath() + failedFileSuffix);
@@ -166,6 +252,23 @@ public void run() {
     }
 
     private void storeInsideLock(BuildCacheKey key, File file) {
+        if (contentAddressedStore != null) {
+            tempFileStore.withTempFile(key, manifest -> {
+                try {
+                    contentAddressedStore.storeManifest(file, manifest);
+                } catch (Exception e) {
+                    LOGGER.debug("Could not store build cache entry {} as a manifest, storing it as is.", key.getHashCode(), e);
+                    moveToFileStore(key, file);
+                    return;
+                }
+                moveToFileStore(key, manifest);
+            });
+        } else {
+            moveToFileStore(key, file);
+        }
+    }
+
+    private void moveToFileStore(BuildCacheKey key, File file) {
         LocallyAvailableResource resource = fileStore.move(key.getHashCode(), file);
         fileAccessTracker.markAccessed(resource.getFile());
     }
@@ -20,20 +20,26 @@
 import org.gradle.api.internal.file.temp.TemporaryFileProvider;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
+import org.gradle.cache.CleanupAction;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.CleanupActionFactory;
+import org.gradle.cache.internal.CompositeCleanupAction;
+import org.gradle.cache.internal.FilesFinder;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
 import org.gradle.cache.scopes.GlobalScopedCache;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryStore;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.internal.file.FileAccessTimeJournal;
 import org.gradle.internal.file.FileAccessTracker;
 import org.gradle.internal.file.PathToFileResolver;
 import org.gradle.internal.file.impl.SingleDepthFileAccessTracker;
+import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.resource.local.PathKeyFileStore;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.File;
 
@@ -43,8 +49,16 @@
 public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFactory<DirectoryBuildCache> {
     public static final String FAILED_READ_SUFFIX = ".failed";
 
+    /**
+     * Enables storing entries as manifests referencing content-addressed blobs, so files shared between entries are stored once.
+     * Entries stored this way cannot be loaded by Gradle versions without support for it, so a separate default directory is used.
+     */
+    public static final String CONTENT_ADDRESSED_PROPERTY = "org.gradle.unsafe.build-cache.local-content-addressed";
+
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
+    private static final String CONTENT_ADDRESSED_BUILD_CACHE_KEY = "build-cache-content-addressed-" + BUILD_CACHE_VERSION;
+    private static final String BLOBS_DIR = "blobs";
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
     private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
 
@@ -55,10 +69,11 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
     private final CleanupActionFactory cleanupActionFactory;
     private final FileAccessTimeJournal fileAccessTimeJournal;
     private final TemporaryFileProvider temporaryFileProvider;
+    private final StreamHasher streamHasher;
 
     @Inject
     public DirectoryBuildCacheServiceFactory(CacheRepository cacheRepository, GlobalScopedCache globalScopedCache, PathToFileResolver resolver, DirectoryBuildCacheFileStoreFactory fileStoreFactory,
-                                             CleanupActionFactory cleanupActionFactory, FileAccessTimeJournal fileAccessTimeJournal, TemporaryFileProvider temporaryFileProvider) {
+                                             CleanupActionFactory cleanupActionFactory, FileAccessTimeJournal fileAccessTimeJournal, TemporaryFileProvider temporaryFileProvider, StreamHasher streamHasher) {
         this.cacheRepository = cacheRepository;
         this.globalScopedCache = globalScopedCache;
         this.resolver = resolver;
@@ -66,18 +81,23 @@ public DirectoryBuildCacheServiceFactory(CacheRepository cacheRepository, Global
         this.cleanupActionFactory = cleanupActionFactory;
         this.fileAccessTimeJournal = fileAccessTimeJournal;
         this.temporaryFileProvider = temporaryFileProvider;
+        this.streamHasher = streamHasher;
     }
 
     @Override
     public BuildCacheService createBuildCacheService(DirectoryBuildCache configuration, Describer describer) {
+        boolean contentAddressed = Boolean.getBoolean(CONTENT_ADDRESSED_PROPERTY);
         Object cacheDirectory = configuration.getDirectory();
         File target;
         if (cacheDirectory != null) {
             target = resolver.resolve(cacheDirectory);
         } else {
-            target = globalScopedCache.baseDirForCrossVersionCache(BUILD_CACHE_KEY);
+            target = globalScopedCache.baseDirForCrossVersionCache(contentAddressed ? CONTENT_ADDRESSED_BUILD_CACHE_KEY : BUILD_CACHE_KEY);
         }
         checkDirectory(target);
+        ContentAddressedEntryStore contentAddressedStore = contentAddressed
+            ? new ContentAddressedEntryStore(new File(target, BLOBS_DIR), streamHasher)
+            : null;
 
         int removeUnusedEntriesAfterDays = configuration.getRemoveUnusedEntriesAfterDays();
         describer.type(DIRECTORY_BUILD_CACHE_TYPE).
@@ -87,7 +107,7 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
+            .withCleanup(cleanupActionFactory.create(createCleanupAction(removeUnusedEntriesAfterDays, contentAddressedStore)))
             .withDisplayName("Build cache")
             .withLockOptions(mode(OnDemand))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
@@ -95,7 +115,19 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(temporaryFileProvider);
         FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX, contentAddressedStore);
+    }
+
+    private CleanupAction createCleanupAction(int removeUnusedEntriesAfterDays, @Nullable ContentAddressedEntryStore contentAddressedStore) {
+        if (contentAddressedStore == null) {
+            return new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays);
+        }
+        // Blobs are removed once no remaining entry references them
+        FilesFinder entriesFinder = new ExcludingFilesFinder(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), contentAddressedStore.getBlobsDir());
+        return CompositeCleanupAction.builder()
+            .add(new LeastRecentlyUsedCacheCleanup(entriesFinder, fileAccessTimeJournal, removeUnusedEntriesAfterDays))
+            .add(new UnreferencedBlobsCleanup(contentAddressedStore, entriesFinder))
+            .build();
     }
 
     private static void checkDirectory(File directory) {
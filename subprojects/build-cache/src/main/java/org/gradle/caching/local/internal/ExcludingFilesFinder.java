@@ -0,0 +1,40 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.cache.internal.FilesFinder;
+
+import java.io.File;
+import java.io.FileFilter;
+
+/**
+ * Finds the files found by a delegate finder, except for the given file.
+ */
+public class ExcludingFilesFinder implements FilesFinder {
+    private final FilesFinder delegate;
+    private final File excluded;
+
+    public ExcludingFilesFinder(FilesFinder delegate, File excluded) {
+        this.delegate = delegate;
+        this.excluded = excluded;
+    }
+
+    @Override
+    public Iterable<File> find(File baseDir, FileFilter filter) {
+        return delegate.find(baseDir, file -> !file.equals(excluded) && filter.accept(file));
+    }
+}
@@ -31,6 +31,7 @@ public interface LocalBuildCacheService extends BuildCacheTempFileStore, Closeab
 
     /**
      * Loads a cache artifact from a local file store. If a result is found the {@code reader} is executed.
+     * The artifact is only meant to be unpacked: instead of containing the contents of large files, it may reference files of the local store.
      */
     void loadLocally(BuildCacheKey key, Action<? super File> reader);
 
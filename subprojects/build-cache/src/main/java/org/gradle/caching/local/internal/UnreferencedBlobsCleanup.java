@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.CleanableStore;
+import org.gradle.cache.CleanupAction;
+import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.cache.internal.FilesFinder;
+import org.gradle.cache.internal.NonReservedFileFilter;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Deletes the blobs of a content-addressed build cache that are no longer referenced by any entry.
+ */
+public class UnreferencedBlobsCleanup implements CleanupAction {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnreferencedBlobsCleanup.class);
+
+    private final ContentAddressedEntryStore store;
+    private final FilesFinder entriesFinder;
+
+    public UnreferencedBlobsCleanup(ContentAddressedEntryStore store, FilesFinder entriesFinder) {
+        this.store = store;
+        this.entriesFinder = entriesFinder;
+    }
+
+    @Override
+    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        try {
+            int deleted = store.removeUnreferencedBlobs(entriesFinder.find(cleanableStore.getBaseDir(), new NonReservedFileFilter(cleanableStore.getReservedCacheFiles())));
+            LOGGER.info("{} cleanup deleted {} unreferenced blobs.", cleanableStore.getDisplayName(), deleted);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
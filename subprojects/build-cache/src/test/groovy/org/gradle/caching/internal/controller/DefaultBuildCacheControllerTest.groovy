@@ -24,11 +24,27 @@ import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration
+import org.gradle.internal.operations.BuildOperationContext
+import org.gradle.internal.operations.BuildOperationDescriptor
+import org.gradle.internal.operations.BuildOperationExecutor
+import org.gradle.internal.operations.BuildOperationListener
+import org.gradle.internal.operations.BuildOperationQueueFactory
+import org.gradle.internal.operations.DefaultBuildOperationExecutor
+import org.gradle.internal.operations.DefaultBuildOperationIdFactory
+import org.gradle.internal.operations.OperationFinishEvent
+import org.gradle.internal.operations.RunnableBuildOperation
 import org.gradle.internal.operations.TestBuildOperationExecutor
+import org.gradle.internal.progress.NoOpProgressLoggerFactory
+import org.gradle.internal.time.Clock
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import spock.lang.Specification
 import org.junit.Rule
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+
 class DefaultBuildCacheControllerTest extends Specification {
 
     def key = Mock(BuildCacheKey) {
@@ -84,7 +100,7 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     interface Local extends BuildCacheService, LocalBuildCacheService {}
 
-    BuildCacheController getController(boolean disableRemoteOnError = true) {
+    BuildCacheController getController(boolean disableRemoteOnError = true, BuildCacheStorePipeline storePipeline = null, BuildOperationExecutor buildOperationExecutor = operations) {
         new DefaultBuildCacheController(
             new BuildCacheServicesConfiguration(
                 local,
@@ -92,11 +108,12 @@ class DefaultBuildCacheControllerTest extends Specification {
                 remote,
                 remotePush
             ),
-            operations,
+            buildOperationExecutor,
             TestFiles.tmpDirTemporaryFileProvider(tmpDir.root),
             false,
             false,
-            disableRemoteOnError
+            disableRemoteOnError,
+            storePipeline
         )
     }
 
@@ -284,4 +301,108 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * local.close()
         1 * remote.close()
     }
+
+    def "stores in the background and waits for stores on close"() {
+        def storePipeline = new BuildCacheStorePipeline(new DefaultExecutorFactory(), 2, 1, null)
+        def controller = getController(true, storePipeline)
+        def storeThreads = [] as Set
+
+        when:
+        3.times {
+            controller.store(storeCommand)
+        }
+        controller.close()
+
+        then:
+        3 * local.storeLocally(key, _) >> {
+            storeThreads << Thread.currentThread()
+        }
+        3 * remote.store(key, _)
+        !storeThreads.contains(Thread.currentThread())
+        def statistics = storePipelineStatistics()
+        statistics.storeCount == 3
+        statistics.failedStoreCount == 0
+        statistics.maxPendingStoreCount == 1
+    }
+
+    def "does not propagate failures of background stores"() {
+        def storePipeline = new BuildCacheStorePipeline(new DefaultExecutorFactory(), 1, 4, null)
+        def controller = getController(true, storePipeline)
+
+        when:
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        1 * local.storeLocally(key, _) >> { throw new RuntimeException("Simulated store error") }
+        noExceptionThrown()
+        storePipelineStatistics().failedStoreCount == 1
+    }
+
+    def "stores in the background under the given parent after the operation that submitted the store has completed"() {
+        def finishedOperations = new ConcurrentHashMap<String, OperationFinishEvent>()
+        def operationDescriptors = new ConcurrentHashMap<String, BuildOperationDescriptor>()
+        def listener = Stub(BuildOperationListener) {
+            finished(_, _) >> { BuildOperationDescriptor descriptor, OperationFinishEvent event ->
+                operationDescriptors[descriptor.displayName] = descriptor
+                finishedOperations[descriptor.displayName] = event
+            }
+        }
+        def buildOperationExecutor = new DefaultBuildOperationExecutor(
+            listener, Stub(Clock), new NoOpProgressLoggerFactory(),
+            Stub(BuildOperationQueueFactory), new DefaultExecutorFactory(), new DefaultParallelismConfiguration(true, 1), new DefaultBuildOperationIdFactory())
+        def submittingOperationCompleted = new CountDownLatch(1)
+        def delayedStoreCommand = Stub(BuildCacheStoreCommand) {
+            getKey() >> key
+            store(_ as OutputStream) >> { OutputStream output ->
+                submittingOperationCompleted.await()
+                output.close()
+                new BuildCacheStoreCommand.Result() {
+                    @Override
+                    long getArtifactEntryCount() {
+                        return 0
+                    }
+                }
+            }
+        }
+
+        when:
+        runOperation(buildOperationExecutor, "Run build") {
+            def storePipeline = new BuildCacheStorePipeline(new DefaultExecutorFactory(), 1, 4, buildOperationExecutor.currentOperation)
+            def controller = getController(true, storePipeline, buildOperationExecutor)
+            runOperation(buildOperationExecutor, "Execute task") {
+                controller.store(delayedStoreCommand)
+            }
+            submittingOperationCompleted.countDown()
+            controller.close()
+        }
+
+        then:
+        1 * local.storeLocally(key, _)
+        1 * remote.store(key, _)
+        finishedOperations["Pack build cache entry key"].failure == null
+        operationDescriptors["Pack build cache entry key"].parentId == operationDescriptors["Run build"].id
+        (finishedOperations["Wait for build cache stores to complete"].result as BuildCacheStorePipeline.Statistics).failedStoreCount == 0
+
+        cleanup:
+        buildOperationExecutor.stop()
+    }
+
+    private static void runOperation(BuildOperationExecutor buildOperationExecutor, String displayName, Closure action) {
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            void run(BuildOperationContext context) {
+                action.call()
+            }
+
+            @Override
+            BuildOperationDescriptor.Builder description() {
+                BuildOperationDescriptor.displayName(displayName)
+            }
+        })
+    }
+
+    private BuildCacheStorePipeline.Statistics storePipelineStatistics() {
+        operations.log.records.find { it.descriptor.displayName == "Wait for build cache stores to complete" }.result as BuildCacheStorePipeline.Statistics
+    }
 }
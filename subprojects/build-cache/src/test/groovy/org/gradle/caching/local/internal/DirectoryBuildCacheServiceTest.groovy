@@ -94,7 +94,6 @@ class DirectoryBuildCacheServiceTest extends Specification {
 
         when:
         service.loadLocally(key, { file ->
-            assert file == cachedFile
             assert file.text == "bar"
         })
 
@@ -102,6 +101,72 @@ class DirectoryBuildCacheServiceTest extends Specification {
         1 * fileAccessTracker.markAccessed(cachedFile)
     }
 
+    def "loads entries without locking the cache"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "bar"
+        service.storeLocally(key, originalFile)
+        def loaded = null
+
+        when:
+        service.loadLocally(key, { file ->
+            loaded = file.text
+        })
+
+        then:
+        0 * persistentCache.withFileLock(_)
+        loaded == "bar"
+        cacheDir.list() as List == [hashCode]
+    }
+
+    def "does not load entry that is being stored"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "bar"
+        service.storeLocally(key, originalFile)
+        cacheDir.file(hashCode + ".fslck").createFile()
+        def loaded = false
+
+        when:
+        service.loadLocally(key, { file ->
+            loaded = true
+        })
+
+        then:
+        !loaded
+        cacheDir.file(hashCode).exists()
+    }
+
+    def "treats entry removed while loading as a miss"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "bar"
+        service.storeLocally(key, originalFile)
+
+        when:
+        service.loadLocally(key, { file ->
+            cacheDir.file(hashCode).delete()
+            throw new RuntimeException("Simulated read error")
+        })
+
+        then:
+        noExceptionThrown()
+        cacheDir.list() as List == []
+    }
+
+    def "moves corrupt entry out of the way"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "bar"
+        service.storeLocally(key, originalFile)
+
+        when:
+        service.loadLocally(key, { file ->
+            throw new RuntimeException("Simulated read error")
+        })
+
+        then:
+        def ex = thrown RuntimeException
+        ex.message == "Simulated read error"
+        cacheDir.list() as List == [hashCode + ".failed"]
+    }
+
     def "marks file accessed when storing and loading using writer and reader"() {
         File cachedFile = null
 
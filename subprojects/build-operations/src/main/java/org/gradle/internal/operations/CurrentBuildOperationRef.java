@@ -56,4 +56,17 @@ public void clear() {
         ref.remove();
     }
 
+    /**
+     * Runs the given action with the given operation as the current operation, and restores the previous current operation afterwards.
+     */
+    public void with(@Nullable BuildOperationRef state, Runnable block) {
+        BuildOperationRef previous = get();
+        set(state);
+        try {
+            block.run();
+        } finally {
+            set(previous);
+        }
+    }
+
 }
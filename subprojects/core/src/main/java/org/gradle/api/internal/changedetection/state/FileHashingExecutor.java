@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The bounded pool on which the chunks of large files are hashed when file contents are hashed as a tree of chunks.
+ */
+public class FileHashingExecutor implements Executor, Stoppable {
+    private static final int MAX_THREADS = 4;
+
+    private final ManagedExecutor executor;
+    private final int parallelism;
+
+    public FileHashingExecutor(ExecutorFactory executorFactory) {
+        this.parallelism = Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors());
+        this.executor = executorFactory.create("File hasher", parallelism);
+    }
+
+    /**
+     * The number of threads, including the calling thread, that should hash the chunks of a single file.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.snapshot.impl.ParallelSnapshotting;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pools on which directory hierarchies are snapshot in parallel.
+ */
+public class ParallelSnapshottingPools implements ParallelSnapshotting, Stoppable {
+    private static final int MAX_HASHING_THREADS = 4;
+
+    private final ForkJoinPool walkerPool;
+    private final ManagedExecutor hashingExecutor;
+
+    public ParallelSnapshottingPools(ExecutorFactory executorFactory) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.walkerPool = new ForkJoinPool(processors, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Directory snapshotter " + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        this.hashingExecutor = executorFactory.create("Directory snapshotter file hasher", Math.min(MAX_HASHING_THREADS, processors));
+    }
+
+    @Override
+    public ForkJoinPool getWalkerPool() {
+        return walkerPool;
+    }
+
+    @Override
+    public Executor getHashingExecutor() {
+        return hashingExecutor;
+    }
+
+    @Override
+    public void stop() {
+        walkerPool.shutdown();
+        try {
+            walkerPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        hashingExecutor.stop();
+    }
+}
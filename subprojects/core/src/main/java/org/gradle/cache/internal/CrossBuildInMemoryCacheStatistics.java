@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+/**
+ * Statistics of a bounded {@link CrossBuildInMemoryCache} for a single build.
+ *
+ * @see CrossBuildInMemoryCacheFactory#newBoundedCache(String, int, java.util.function.ToIntBiFunction)
+ */
+public class CrossBuildInMemoryCacheStatistics {
+    private final String displayName;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long weight;
+    private final long maxWeight;
+
+    public CrossBuildInMemoryCacheStatistics(String displayName, long hitCount, long missCount, long evictionCount, long weight, long maxWeight) {
+        this.displayName = displayName;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.weight = weight;
+        this.maxWeight = maxWeight;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * The number of lookups that found a value during the build.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * The number of lookups that did not find a value during the build.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * The number of entries evicted to stay within the budget during the build.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The total weight of the entries retained at the end of the build.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * The budget of the cache, scaled to the maximum heap size.
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public String toString() {
+        return displayName + " {hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", weight=" + weight + "/" + maxWeight + "}";
+    }
+}
@@ -16,6 +16,9 @@
 
 package org.gradle.cache.internal;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
 import org.gradle.cache.ManualEvictionInMemoryCache;
 import org.gradle.internal.session.BuildSessionLifecycleListener;
 import org.gradle.internal.classloader.VisitableURLClassLoader;
@@ -24,16 +27,21 @@
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.lang.ref.SoftReference;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
 
 /**
  * A factory for {@link CrossBuildInMemoryCache} instances.
@@ -42,13 +50,21 @@
  * Note that this implementation currently retains strong references to keys and values during the whole lifetime of a build session.
  *
  * Uses a simple algorithm to collect unused values, by retaining strong references to all keys and values used during the current build session, and the previous build session. All other values are referenced only by soft references.
+ * Bounded caches instead retain all other values up to a fixed budget, evicting the least recently used ones.
  */
 @ThreadSafe
 public class DefaultCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFactory {
     private final ListenerManager listenerManager;
+    private final HeapProportionalCacheSizer cacheSizer;
+    private final List<BoundedCrossBuildInMemoryCache<?, ?>> boundedCaches = new CopyOnWriteArrayList<>();
 
     public DefaultCrossBuildInMemoryCacheFactory(ListenerManager listenerManager) {
+        this(listenerManager, new HeapProportionalCacheSizer());
+    }
+
+    public DefaultCrossBuildInMemoryCacheFactory(ListenerManager listenerManager, HeapProportionalCacheSizer cacheSizer) {
         this.listenerManager = listenerManager;
+        this.cacheSizer = cacheSizer;
     }
 
     @Override
@@ -65,6 +81,25 @@ public <K, V> CrossBuildInMemoryCache<K, V> newCacheRetainingDataFromPreviousBui
         return cache;
     }
 
+    @Override
+    public <K, V> CrossBuildInMemoryCache<K, V> newBoundedCache(String displayName, int referenceMaxWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+        BoundedCrossBuildInMemoryCache<K, V> cache = new BoundedCrossBuildInMemoryCache<>(displayName, cacheSizer.scaleCacheSize(referenceMaxWeight), weigher);
+        listenerManager.addListener(cache);
+        boundedCaches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Returns the statistics of the bounded caches, and resets their counters.
+     */
+    public List<CrossBuildInMemoryCacheStatistics> collectStatistics() {
+        List<CrossBuildInMemoryCacheStatistics> statistics = new ArrayList<>(boundedCaches.size());
+        for (BoundedCrossBuildInMemoryCache<?, ?> cache : boundedCaches) {
+            statistics.add(cache.collectStatistics());
+        }
+        return statistics;
+    }
+
     @Override
     public <V> CrossBuildInMemoryCache<Class<?>, V> newClassCache() {
         // Should use some variation of DefaultClassMap below to associate values with classes, as currently we retain a strong reference to each value for one session after the ClassLoader
@@ -88,7 +123,7 @@ public <V> CrossBuildInMemoryCache<Class<?>, V> newClassMap() {
         @Override
         public void beforeComplete() {
             synchronized (lock) {
-                retainValuesFromCurrentSession(valuesForThisSession.values());
+                retainValuesFromCurrentSession(valuesForThisSession);
                 valuesForThisSession.clear();
             }
         }
@@ -101,7 +136,7 @@ public void clear() {
             }
         }
 
-        protected abstract void retainValuesFromCurrentSession(Collection<V> values);
+        protected abstract void retainValuesFromCurrentSession(Map<K, V> values);
 
         protected abstract void discardRetainedValues();
 
@@ -110,6 +145,12 @@ public void clear() {
         @Nullable
         protected abstract V maybeGetRetainedValue(K key);
 
+        protected void recordHit() {
+        }
+
+        protected void recordMiss() {
+        }
+
         @Nullable
         @Override
         public V getIfPresent(K key) {
@@ -150,6 +191,7 @@ public void put(K key, V value) {
         private V getIfPresentWithoutLock(K key) {
             V v = valuesForThisSession.get(key);
             if (v != null) {
+                recordHit();
                 return v;
             }
 
@@ -157,9 +199,11 @@ private V getIfPresentWithoutLock(K key) {
             if (v != null) {
                 // Retain strong reference
                 valuesForThisSession.put(key, v);
+                recordHit();
                 return v;
             }
 
+            recordMiss();
             return null;
         }
     }
@@ -174,10 +218,10 @@ public DefaultCrossBuildInMemoryCache(Map<K, SoftReference<V>> allValues) {
         }
 
         @Override
-        protected void retainValuesFromCurrentSession(Collection<V> values) {
+        protected void retainValuesFromCurrentSession(Map<K, V> values) {
             // Retain strong references to the values created for this session
             valuesForPreviousSession.clear();
-            valuesForPreviousSession.addAll(values);
+            valuesForPreviousSession.addAll(values.values());
         }
 
         @Override
@@ -202,6 +246,86 @@ protected V maybeGetRetainedValue(K key) {
         }
     }
 
+    /**
+     * Retains strong references to the values up to a maximum total weight, evicting the least recently used values first.
+     */
+    private static class BoundedCrossBuildInMemoryCache<K, V> extends AbstractCrossBuildInMemoryCache<K, V> {
+        private final String displayName;
+        private final long maxWeight;
+        private final ToIntBiFunction<? super K, ? super V> weigher;
+        private final Cache<K, V> retainedValues;
+        private final AtomicLong weight = new AtomicLong();
+        private final LongAdder hitCount = new LongAdder();
+        private final LongAdder missCount = new LongAdder();
+        private final LongAdder evictionCount = new LongAdder();
+
+        public BoundedCrossBuildInMemoryCache(String displayName, long maxWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+            this.displayName = displayName;
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            this.retainedValues = CacheBuilder.newBuilder()
+                // All access happens while holding the lock, so use a single segment to evict in global least recently used order
+                .concurrencyLevel(1)
+                .maximumWeight(maxWeight)
+                .weigher((K key, V value) -> weigher.applyAsInt(key, value))
+                .removalListener((RemovalNotification<K, V> notification) -> {
+                    weight.addAndGet(-weigher.applyAsInt(notification.getKey(), notification.getValue()));
+                    if (notification.wasEvicted()) {
+                        evictionCount.increment();
+                    }
+                })
+                .build();
+        }
+
+        @Override
+        protected void retainValuesFromCurrentSession(Map<K, V> values) {
+            // Values used in this session may have been evicted in the meantime, retain them again as the most recently used ones
+            values.forEach((key, value) -> {
+                if (retainedValues.getIfPresent(key) == null) {
+                    retainValue(key, value);
+                }
+            });
+        }
+
+        @Override
+        protected void discardRetainedValues() {
+            retainedValues.invalidateAll();
+        }
+
+        @Override
+        protected void retainValue(K key, V v) {
+            retainedValues.put(key, v);
+            weight.addAndGet(weigher.applyAsInt(key, v));
+        }
+
+        @Nullable
+        @Override
+        protected V maybeGetRetainedValue(K key) {
+            return retainedValues.getIfPresent(key);
+        }
+
+        @Override
+        protected void recordHit() {
+            hitCount.increment();
+        }
+
+        @Override
+        protected void recordMiss() {
+            missCount.increment();
+        }
+
+        public CrossBuildInMemoryCacheStatistics collectStatistics() {
+            return new CrossBuildInMemoryCacheStatistics(
+                displayName,
+                hitCount.sumThenReset(),
+                missCount.sumThenReset(),
+                evictionCount.sumThenReset(),
+                weight.get(),
+                maxWeight
+            );
+        }
+    }
+
     /**
      * Retains strong references to the keys and values via the key's ClassLoader. This allows the ClassLoader to be collected.
      */
@@ -211,7 +335,7 @@ protected V maybeGetRetainedValue(K key) {
         private final Map<Class<?>, V> leakyValues = new HashMap<>();
 
         @Override
-        protected void retainValuesFromCurrentSession(Collection<V> values) {
+        protected void retainValuesFromCurrentSession(Map<Class<?>, V> values) {
             // Ignore
         }
 
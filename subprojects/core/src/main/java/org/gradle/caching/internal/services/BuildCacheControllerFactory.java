@@ -26,6 +26,7 @@
 import org.gradle.caching.configuration.internal.BuildCacheConfigurationInternal;
 import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperationType;
 import org.gradle.caching.internal.controller.BuildCacheController;
+import org.gradle.caching.internal.controller.BuildCacheStorePipeline;
 import org.gradle.caching.internal.controller.DefaultBuildCacheController;
 import org.gradle.caching.internal.controller.NoOpBuildCacheController;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
@@ -33,9 +34,11 @@
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.caching.local.internal.DirectoryBuildCacheService;
 import org.gradle.internal.Cast;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.BuildOperationRef;
 import org.gradle.internal.operations.CallableBuildOperation;
 import org.gradle.internal.reflect.Instantiator;
 import org.gradle.util.Path;
@@ -51,6 +54,10 @@
 public final class BuildCacheControllerFactory {
 
     public static final String REMOTE_CONTINUE_ON_ERROR_PROPERTY = "org.gradle.unsafe.build-cache.remote-continue-on-error";
+    public static final String ASYNC_STORE_PROPERTY = "org.gradle.unsafe.build-cache.async-store";
+
+    private static final int MAX_STORE_THREADS = 4;
+    private static final int MAX_PENDING_STORES = 64;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheControllerFactory.class);
 
@@ -71,7 +78,9 @@ public static BuildCacheController create(
         final RemoteAccessMode remoteAccessMode,
         final boolean logStackTraces,
         final boolean emitDebugLogging,
-        final Instantiator instantiator
+        final Instantiator instantiator,
+        final ExecutorFactory executorFactory,
+        @Nullable final BuildOperationRef storeParentOperation
     ) {
         return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheController>() {
             @Override
@@ -123,7 +132,8 @@ public BuildCacheController call(BuildOperationContext context) {
                         temporaryFileProvider,
                         logStackTraces,
                         emitDebugLogging,
-                        !Boolean.getBoolean(REMOTE_CONTINUE_ON_ERROR_PROPERTY)
+                        !Boolean.getBoolean(REMOTE_CONTINUE_ON_ERROR_PROPERTY),
+                        Boolean.getBoolean(ASYNC_STORE_PROPERTY) ? createStorePipeline(executorFactory, storeParentOperation) : null
                     );
                 }
             }
@@ -136,6 +146,11 @@ public BuildOperationDescriptor.Builder description() {
         });
     }
 
+    private static BuildCacheStorePipeline createStorePipeline(ExecutorFactory executorFactory, @Nullable BuildOperationRef storeParentOperation) {
+        int threads = Math.min(MAX_STORE_THREADS, Runtime.getRuntime().availableProcessors());
+        return new BuildCacheStorePipeline(executorFactory, threads, MAX_PENDING_STORES, storeParentOperation);
+    }
+
     private static BuildCacheServicesConfiguration toConfiguration(
         @Nullable DescribedBuildCacheService<DirectoryBuildCache, DirectoryBuildCacheService> local,
         @Nullable DescribedBuildCacheService<BuildCache, BuildCacheService> remote
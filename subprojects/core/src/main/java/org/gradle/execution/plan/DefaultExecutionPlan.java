@@ -28,14 +28,16 @@
 import org.gradle.api.GradleException;
 import org.gradle.api.NonNullApi;
 import org.gradle.api.Task;
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.specs.Specs;
-import org.gradle.internal.Pair;
 import org.gradle.internal.graph.CachingDirectedGraphWalker;
 import org.gradle.internal.graph.DirectedGraphRenderer;
 import org.gradle.internal.logging.text.StyledTextOutput;
 import org.gradle.internal.resources.ResourceLock;
 import org.gradle.internal.resources.ResourceLockState;
+import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
 import org.gradle.internal.work.WorkerLeaseRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,17 +47,22 @@
 import java.util.AbstractCollection;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Stream;
 
 import static com.google.common.collect.Lists.newLinkedList;
@@ -69,14 +76,26 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultExecutionPlan.class);
 
     private final Set<Node> entryNodes = new LinkedHashSet<>();
+    private final Map<Node, Integer> entryNodeGroups = new IdentityHashMap<>();
+    private int entryGroupCount;
     private final NodeMapping nodeMapping = new NodeMapping();
-    private final List<Node> executionQueue = new LinkedList<>();
+    private final Set<Node> executionQueue = new LinkedHashSet<>();
+    private final Map<Node, Integer> executionOrder = new IdentityHashMap<>();
+    private final Map<Node, Integer> executionGroups = new IdentityHashMap<>();
+    private final Map<Node, Long> remainingPathDurations = new IdentityHashMap<>();
+    private final NavigableSet<Node> readyNodes = new TreeSet<>(
+        Comparator.comparingInt((Node node) -> executionGroups.get(node))
+            .thenComparingLong(node -> -remainingPathDurations.get(node))
+            .thenComparingInt(executionOrder::get)
+    );
+    private final Map<Node, Timer> executionTimers = new IdentityHashMap<>();
     private final Set<ResourceLock> projectLocks = new HashSet<>();
     private final FailureCollector failureCollector = new FailureCollector();
     private final String displayName;
     private final TaskNodeFactory taskNodeFactory;
     private final TaskDependencyResolver dependencyResolver;
     private final NodeValidator nodeValidator;
+    private final NodeDurationHistory durationHistory;
     private final ExecutionNodeAccessHierarchy outputHierarchy;
     private final ExecutionNodeAccessHierarchy destroyableHierarchy;
     private Spec<? super Task> filter = Specs.satisfyAll();
@@ -87,9 +106,9 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private final Set<Node> runningNodes = newIdentityHashSet();
     private final Set<Node> filteredNodes = newIdentityHashSet();
     private final Set<Node> producedButNotYetConsumed = newIdentityHashSet();
-    private final Map<Pair<Node, Node>, Boolean> reachableCache = new HashMap<>();
+    private final Map<Node, Integer> reachabilityIndex = new IdentityHashMap<>();
+    private final Map<Node, DestroyerDependents> dependentsByDestroyer = new IdentityHashMap<>();
     private final List<Node> dependenciesWhichRequireMonitoring = new ArrayList<>();
-    private boolean maybeNodesReady;
 
     private boolean buildCancelled;
 
@@ -98,6 +117,7 @@ public DefaultExecutionPlan(
         TaskNodeFactory taskNodeFactory,
         TaskDependencyResolver dependencyResolver,
         NodeValidator nodeValidator,
+        NodeDurationHistory durationHistory,
         ExecutionNodeAccessHierarchy outputHierarchy,
         ExecutionNodeAccessHierarchy destroyableHierarchy
     ) {
@@ -105,6 +125,7 @@ public DefaultExecutionPlan(
         this.taskNodeFactory = taskNodeFactory;
         this.dependencyResolver = dependencyResolver;
         this.nodeValidator = nodeValidator;
+        this.durationHistory = durationHistory;
         this.outputHierarchy = outputHierarchy;
         this.destroyableHierarchy = destroyableHierarchy;
     }
@@ -122,11 +143,12 @@ public TaskNode getNode(Task task) {
     @Override
     public void addNodes(Collection<? extends Node> nodes) {
         Deque<Node> queue = new ArrayDeque<>(nodes);
+        int entryGroup = entryGroupCount++;
         for (Node node : nodes) {
             assert node.getDependenciesProcessed() || node instanceof TaskInAnotherBuild;
             assert node.isInKnownState();
             if (node.isRequired()) {
-                entryNodes.add(node);
+                addEntryNode(node, entryGroup);
             }
         }
         doAddNodes(queue);
@@ -135,6 +157,7 @@ public void addNodes(Collection<? extends Node> nodes) {
     @Override
     public void addEntryTasks(Collection<? extends Task> tasks) {
         final Deque<Node> queue = new ArrayDeque<>();
+        int entryGroup = entryGroupCount++;
 
         for (Task task : sorted(tasks)) {
             TaskNode node = taskNodeFactory.getOrCreateNode(task);
@@ -143,13 +166,18 @@ public void addEntryTasks(Collection<? extends Task> tasks) {
             } else if (filter.isSatisfiedBy(task)) {
                 node.require();
             }
-            entryNodes.add(node);
+            addEntryNode(node, entryGroup);
             queue.add(node);
         }
 
         doAddNodes(queue);
     }
 
+    private void addEntryNode(Node node, int entryGroup) {
+        entryNodes.add(node);
+        entryNodeGroups.putIfAbsent(node, entryGroup);
+    }
+
     private List<Task> sorted(Collection<? extends Task> tasks) {
         List<Task> sortedTasks = new ArrayList<>(tasks);
         Collections.sort(sortedTasks);
@@ -351,15 +379,59 @@ public NodeInVisitingSegment apply(Node node) {
             }
         }
         executionQueue.clear();
+        executionOrder.clear();
+        readyNodes.clear();
         dependencyResolver.clear();
         nodeMapping.removeIf(Node::requiresMonitoring);
         executionQueue.addAll(nodeMapping);
         for (Node node : executionQueue) {
-            maybeNodesReady |= node.updateAllDependenciesComplete() && node.isReady();
+            executionOrder.put(node, executionOrder.size());
+        }
+        determineExecutionGroupsAndRemainingPathDurations();
+        for (Node node : executionQueue) {
+            node.updateAllDependenciesComplete();
+            maybeNodeReady(node);
         }
         this.dependenciesWhichRequireMonitoring.addAll(dependenciesWhichRequireMonitoring);
     }
 
+    /**
+     * Determines for each node how long it takes at least to execute the node and all the nodes which need to wait for it, based on the durations from previous builds.
+     * When several nodes are ready, the one with the longest remaining path is selected first, so long chains of nodes start as early as possible.
+     * Nodes without a known duration don't add to the remaining path, so without history the nodes are selected in the order of the execution queue.
+     *
+     * Nodes are only reordered within the group of entry tasks they are required for, e.g. nodes required for {@code clean} are still preferred to nodes required for {@code build} when running {@code clean build}.
+     */
+    private void determineExecutionGroupsAndRemainingPathDurations() {
+        executionGroups.clear();
+        remainingPathDurations.clear();
+        List<Node> nodes = new ArrayList<>(executionQueue);
+        Map<Node, Long> previousDurations = durationHistory.getPreviousDurations(nodes);
+        int currentGroup = entryGroupCount;
+        long criticalPathDuration = 0;
+        // Nodes waiting for a node come after it in the execution queue, so they have been visited when walking the queue backwards
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            Integer entryGroup = entryNodeGroups.get(node);
+            if (entryGroup != null) {
+                currentGroup = Math.min(currentGroup, entryGroup);
+            }
+            executionGroups.put(node, currentGroup);
+
+            long longestPathOfWaitingNodes = 0;
+            for (Node predecessor : node.getAllPredecessors()) {
+                Long predecessorPathDuration = remainingPathDurations.get(predecessor);
+                if (predecessorPathDuration != null) {
+                    longestPathOfWaitingNodes = Math.max(longestPathOfWaitingNodes, predecessorPathDuration);
+                }
+            }
+            long remainingPathDuration = previousDurations.getOrDefault(node, 0L) + longestPathOfWaitingNodes;
+            remainingPathDurations.put(node, remainingPathDuration);
+            criticalPathDuration = Math.max(criticalPathDuration, remainingPathDuration);
+        }
+        LOGGER.debug("Estimated duration of the critical path: {}ms", criticalPathDuration);
+    }
+
     private void maybeRemoveProcessedShouldRunAfterEdge(Deque<GraphEdge> walkedShouldRunAfterEdges, Node node) {
         GraphEdge edge = walkedShouldRunAfterEdges.peek();
         if (edge != null && edge.to.equals(node)) {
@@ -427,10 +499,19 @@ private int finalizerTaskPosition(Node finalizer, final Deque<NodeInVisitingSegm
         }
 
         Set<Node> precedingTasks = getAllPrecedingNodes(finalizer);
-        int maxPrecedingTaskIndex = precedingTasks.stream()
-            .mapToInt(dependsOnTask -> Iterables.indexOf(nodeQueue, nodeInVisitingSegment -> nodeInVisitingSegment.node.equals(dependsOnTask)))
-            .max()
-            .orElseThrow(IllegalStateException::new);
+        if (precedingTasks.isEmpty()) {
+            throw new IllegalStateException();
+        }
+        // Walk the queue once, instead of searching it for every preceding task
+        Set<Node> precedingTasksInQueue = new HashSet<>();
+        int maxPrecedingTaskIndex = -1;
+        int index = 0;
+        for (NodeInVisitingSegment nodeInVisitingSegment : nodeQueue) {
+            if (precedingTasks.contains(nodeInVisitingSegment.node) && precedingTasksInQueue.add(nodeInVisitingSegment.node)) {
+                maxPrecedingTaskIndex = index;
+            }
+            index++;
+        }
 
         return maxPrecedingTaskIndex + 1;
     }
@@ -546,11 +627,6 @@ public void setContinueOnFailure(boolean continueOnFailure) {
     @Override
     @Nullable
     public Node selectNext(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLockState resourceLockState) {
-        if (allProjectsLocked()) {
-            // TODO - this is incorrect. We can still run nodes that don't need a project lock
-            return null;
-        }
-
         for (Iterator<Node> iterator = dependenciesWhichRequireMonitoring.iterator(); iterator.hasNext();) {
             Node node = iterator.next();
             if (node.isComplete()) {
@@ -559,51 +635,69 @@ public Node selectNext(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLock
                 iterator.remove();
             }
         }
-        if (!maybeNodesReady) {
+        if (readyNodes.isEmpty()) {
             return null;
         }
-        Iterator<Node> iterator = executionQueue.iterator();
-        boolean foundReadyNode = false;
+        // When all projects are locked, only nodes which don't need a project lock, such as transforms, can run
+        boolean allProjectsLocked = allProjectsLocked();
+        Iterator<Node> iterator = readyNodes.iterator();
         while (iterator.hasNext()) {
             Node node = iterator.next();
-            if (node.isReady() && node.allDependenciesComplete()) {
-                foundReadyNode = true;
+            if (!node.isReady() || !node.allDependenciesComplete()) {
+                // The node has been skipped or one of its dependencies has been enforced since it became ready.
+                // It is added back once it is ready again.
+                iterator.remove();
+                continue;
+            }
 
-                if (!tryAcquireWorkerLeaseForNode(node, workerLease)) {
-                    resourceLockState.releaseLocks();
-                    // if we can't get a worker lease, we won't be able to execute any other nodes, either
-                    break;
-                }
+            if (allProjectsLocked && node.getProjectToLock() != null) {
+                continue;
+            }
 
-                if (!tryAcquireLocksForNode(node)) {
-                    resourceLockState.releaseLocks();
-                    continue;
-                }
+            if (!tryAcquireWorkerLeaseForNode(node, workerLease)) {
+                resourceLockState.releaseLocks();
+                // if we can't get a worker lease, we won't be able to execute any other nodes, either
+                break;
+            }
+
+            if (!tryAcquireLocksForNode(node)) {
+                resourceLockState.releaseLocks();
+                continue;
+            }
 
-                MutationInfo mutations = getResolvedMutationInfo(node);
+            MutationInfo mutations = getResolvedMutationInfo(node);
 
-                if (conflictsWithOtherNodes(node, mutations)) {
-                    resourceLockState.releaseLocks();
-                    continue;
-                }
+            if (conflictsWithOtherNodes(node, mutations)) {
+                resourceLockState.releaseLocks();
+                continue;
+            }
 
-                if (node.allDependenciesSuccessful()) {
-                    node.startExecution(this::recordNodeExecutionStarted);
-                    if (mutations.hasValidationProblem) {
-                        invalidNodeRunning = true;
-                    }
-                } else {
-                    node.skipExecution(this::recordNodeCompleted);
+            if (node.allDependenciesSuccessful()) {
+                node.startExecution(this::recordNodeExecutionStarted);
+                if (mutations.hasValidationProblem) {
+                    invalidNodeRunning = true;
                 }
-                iterator.remove();
-                return node;
+            } else {
+                node.skipExecution(this::recordNodeCompleted);
             }
+            iterator.remove();
+            executionQueue.remove(node);
+            return node;
         }
-        LOGGER.debug("No node could be selected, nodes ready: {}", foundReadyNode);
-        maybeNodesReady = foundReadyNode;
+        LOGGER.debug("No node could be selected, nodes ready: {}", readyNodes.size());
         return null;
     }
 
+    /**
+     * Adds the node to the ready nodes when it is waiting to be executed and all of its dependencies are complete.
+     * Nodes only need to be checked when one of their dependencies completes, so {@link #selectNext(WorkerLeaseRegistry.WorkerLease, ResourceLockState)} does not need to look at the whole execution queue.
+     */
+    private void maybeNodeReady(Node node) {
+        if (node.isReady() && node.allDependenciesComplete() && executionQueue.contains(node)) {
+            readyNodes.add(node);
+        }
+    }
+
     private boolean tryAcquireLocksForNode(Node node) {
         if (!tryLockProjectFor(node)) {
             LOGGER.debug("Cannot acquire project lock for node {}", node);
@@ -637,7 +731,9 @@ private boolean tryAcquireWorkerLeaseForNode(Node node, WorkerLeaseRegistry.Work
 
     private void updateAllDependenciesCompleteForPredecessors(Node node) {
         for (Node predecessor : node.getAllPredecessors()) {
-            maybeNodesReady |= predecessor.updateAllDependenciesComplete() && predecessor.isReady();
+            if (predecessor.updateAllDependenciesComplete()) {
+                maybeNodeReady(predecessor);
+            }
         }
     }
 
@@ -747,29 +843,37 @@ private boolean doesDestroyNotYetConsumedOutputOfAnotherNode(Node destroyer, Set
     }
 
     private boolean doesConsumerDependOnDestroyer(Node consumer, Node destroyer) {
+        DestroyerDependents dependents = dependentsByDestroyer.computeIfAbsent(destroyer, key -> new DestroyerDependents());
+        return doesConsumerDependOnDestroyer(consumer, destroyer, dependents);
+    }
+
+    private boolean doesConsumerDependOnDestroyer(Node consumer, Node destroyer, DestroyerDependents dependents) {
         if (consumer == destroyer) {
             return true;
         }
-        Pair<Node, Node> nodePair = Pair.of(consumer, destroyer);
-        if (reachableCache.get(nodePair) != null) {
-            return reachableCache.get(nodePair);
+        int index = reachabilityIndex.computeIfAbsent(consumer, key -> reachabilityIndex.size());
+        if (dependents.checked.get(index)) {
+            return dependents.dependingOnDestroyer.get(index);
         }
 
         boolean reachable = false;
         for (Node dependency : consumer.getAllSuccessors()) {
             if (!dependency.isComplete()) {
-                if (doesConsumerDependOnDestroyer(dependency, destroyer)) {
+                if (doesConsumerDependOnDestroyer(dependency, destroyer, dependents)) {
                     reachable = true;
+                    break;
                 }
             }
         }
 
-        reachableCache.put(nodePair, reachable);
+        dependents.checked.set(index);
+        dependents.dependingOnDestroyer.set(index, reachable);
         return reachable;
     }
 
     private void recordNodeExecutionStarted(Node node) {
         runningNodes.add(node);
+        executionTimers.put(node, Time.startTimer());
     }
 
     private void recordNodeCompleted(Node node) {
@@ -794,7 +898,6 @@ public void finishedExecuting(Node node) {
         try {
             if (!node.isComplete()) {
                 enforceFinalizers(node);
-                maybeNodesReady = true;
                 if (node.isFailed()) {
                     LOGGER.debug("Node {} failed", node);
                     handleFailure(node);
@@ -803,6 +906,10 @@ public void finishedExecuting(Node node) {
                 }
 
                 runningNodes.remove(node);
+                Timer executionTimer = executionTimers.remove(node);
+                if (executionTimer != null && !node.isFailed() && hasExecutedWork(node)) {
+                    durationHistory.recordDuration(node, executionTimer.getElapsedMillis());
+                }
                 node.finishExecution(this::recordNodeCompleted);
             } else {
                 LOGGER.debug("Already completed node {} reported as finished executing", node);
@@ -814,7 +921,15 @@ public void finishedExecuting(Node node) {
         }
     }
 
-    private static void enforceFinalizers(Node node) {
+    /**
+     * Whether the node did its work, so its duration tells how long the work takes.
+     * Tasks which were e.g. up-to-date, loaded from the cache or skipped keep the duration of the last time they did their work.
+     */
+    private static boolean hasExecutedWork(Node node) {
+        return !(node instanceof LocalTaskNode) || ((LocalTaskNode) node).getTask().getState().getOutcome() == TaskExecutionOutcome.EXECUTED;
+    }
+
+    private void enforceFinalizers(Node node) {
         for (Node finalizerNode : node.getFinalizers()) {
             if (finalizerNode.isRequired() || finalizerNode.isMustNotRun()) {
                 enforceWithDependencies(finalizerNode);
@@ -822,7 +937,7 @@ private static void enforceFinalizers(Node node) {
         }
     }
 
-    private static void enforceWithDependencies(Node node) {
+    private void enforceWithDependencies(Node node) {
         Set<Node> enforcedNodes = new HashSet<>();
 
         Deque<Node> candidates = new ArrayDeque<>();
@@ -844,6 +959,10 @@ private static void enforceWithDependencies(Node node) {
                 }
             }
         }
+        // Nodes which did not run before might be ready now
+        for (Node enforcedNode : enforcedNodes) {
+            maybeNodeReady(enforcedNode);
+        }
     }
 
     @Override
@@ -946,6 +1065,14 @@ private GraphEdge(Node from, Node to) {
         }
     }
 
+    /**
+     * The nodes which have been checked for depending on a destroyer, and which of them do, indexed by {@link #reachabilityIndex}.
+     */
+    private static class DestroyerDependents {
+        private final BitSet checked = new BitSet();
+        private final BitSet dependingOnDestroyer = new BitSet();
+    }
+
     private static class NodeInVisitingSegment {
         private final Node node;
         private final int visitingSegment;
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.api.NonNullApi;
+import org.gradle.cache.FileLockManager;
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
+import org.gradle.cache.scopes.BuildScopedCache;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+import static org.gradle.internal.serialize.BaseSerializerFactory.LONG_SERIALIZER;
+import static org.gradle.internal.serialize.BaseSerializerFactory.STRING_SERIALIZER;
+
+/**
+ * Keeps the durations of the tasks of the build in a build scoped persistent cache, keyed by the identity path of the task.
+ *
+ * Durations are recorded while the plan is executing, so they are kept in memory and only written to the cache when the build finishes.
+ * The cache is only opened once a duration is looked up or recorded, so builds which don't execute any tasks don't touch it.
+ */
+@NonNullApi
+public class DefaultNodeDurationHistory implements NodeDurationHistory, Closeable {
+    private final BuildScopedCache cacheRepository;
+    private final InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory;
+    private final Map<String, Long> recordedDurations = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    @Nullable
+    private volatile DurationsCache durationsCache;
+
+    public DefaultNodeDurationHistory(BuildScopedCache cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+        this.cacheRepository = cacheRepository;
+        this.inMemoryCacheDecoratorFactory = inMemoryCacheDecoratorFactory;
+    }
+
+    @Override
+    public Map<Node, Long> getPreviousDurations(Collection<Node> nodes) {
+        Map<Node, String> keys = new IdentityHashMap<>();
+        for (Node node : nodes) {
+            String key = keyFor(node);
+            if (key != null) {
+                keys.put(node, key);
+            }
+        }
+        Map<Node, Long> previousDurations = new IdentityHashMap<>();
+        if (keys.isEmpty()) {
+            return previousDurations;
+        }
+        DurationsCache durationsCache = getDurationsCache();
+        // Look up all the durations while holding the cache lock only once
+        durationsCache.cache.useCache(() -> keys.forEach((node, key) -> {
+            Long duration = durationsCache.durations.getIfPresent(key);
+            if (duration != null) {
+                previousDurations.put(node, duration);
+            }
+        }));
+        return previousDurations;
+    }
+
+    @Override
+    public void recordDuration(Node node, long durationMillis) {
+        String key = keyFor(node);
+        if (key != null) {
+            getDurationsCache();
+            recordedDurations.put(key, durationMillis);
+        }
+    }
+
+    @Nullable
+    private static String keyFor(Node node) {
+        if (node instanceof LocalTaskNode) {
+            return ((LocalTaskNode) node).getTask().getIdentityPath().getPath();
+        }
+        return null;
+    }
+
+    private DurationsCache getDurationsCache() {
+        DurationsCache result = durationsCache;
+        if (result == null) {
+            synchronized (lock) {
+                result = durationsCache;
+                if (result == null) {
+                    result = new DurationsCache(cacheRepository, inMemoryCacheDecoratorFactory);
+                    durationsCache = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        DurationsCache durationsCache;
+        synchronized (lock) {
+            durationsCache = this.durationsCache;
+            this.durationsCache = null;
+        }
+        if (durationsCache == null) {
+            // The cache was never opened, so there is nothing to write
+            return;
+        }
+        try {
+            if (!recordedDurations.isEmpty()) {
+                durationsCache.cache.useCache(() -> recordedDurations.forEach(durationsCache.durations::put));
+                recordedDurations.clear();
+            }
+        } finally {
+            durationsCache.cache.close();
+        }
+    }
+
+    private static class DurationsCache {
+        private final PersistentCache cache;
+        private final PersistentIndexedCache<String, Long> durations;
+
+        DurationsCache(BuildScopedCache cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+            this.cache = cacheRepository
+                .cache("taskDurations")
+                .withDisplayName("task durations cache")
+                .withLockOptions(mode(FileLockManager.LockMode.OnDemand)) // Lock on demand
+                .open();
+            this.durations = cache.createCache(
+                PersistentIndexedCacheParameters.of("taskDurations", STRING_SERIALIZER, LONG_SERIALIZER)
+                    .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(10000, true))
+            );
+        }
+    }
+}
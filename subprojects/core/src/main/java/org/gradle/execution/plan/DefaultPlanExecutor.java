@@ -199,14 +199,17 @@ private boolean executeNextNode(final WorkerLease workerLease, final Action<Node
                     resourceLockState.releaseLocks();
                     executionPlan.abortAllAndFail(t);
                     nodesRemaining.set(false);
+                    // Wake up the other workers, so they can stop
+                    coordinationService.notifyStateChange(executionPlan);
                 }
 
                 if (selected.get() == null && nodesRemaining.get()) {
-                    // Release worker lease while waiting
+                    // Release worker lease while waiting, the coordination service wakes up the threads waiting for a lease
                     if (workerLease.isLockedByCurrentThread()) {
                         workerLease.unlock();
-                        coordinationService.notifyStateChange();
                     }
+                    // Wait for a node to finish or for one of the locks the selection found locked to be released
+                    resourceLockState.registerWaitingForChange(executionPlan);
                     return RETRY;
                 } else {
                     return FINISHED;
@@ -233,8 +236,8 @@ private void execute(final Node selected, Action<Node> nodeExecutor) {
                 coordinationService.withStateLock(state -> {
                     executionPlan.finishedExecuting(selected);
                     // Notify other threads that the node is finished as this may unblock further work
-                    // or this might be the last node in the graph
-                    coordinationService.notifyStateChange();
+                    // or this might be the last node in the graph. Locks released by the node wake up their waiters on their own
+                    coordinationService.notifyStateChange(executionPlan);
                     return FINISHED;
                 });
             }
@@ -25,6 +25,7 @@ public class ExecutionPlanFactory {
     private final TaskNodeFactory taskNodeFactory;
     private final TaskDependencyResolver dependencyResolver;
     private final NodeValidator nodeValidator;
+    private final NodeDurationHistory durationHistory;
     private final ExecutionNodeAccessHierarchy outputHierarchy;
     private final ExecutionNodeAccessHierarchy destroyableHierarchy;
 
@@ -33,6 +34,7 @@ public ExecutionPlanFactory(
         TaskNodeFactory taskNodeFactory,
         TaskDependencyResolver dependencyResolver,
         NodeValidator nodeValidator,
+        NodeDurationHistory durationHistory,
         ExecutionNodeAccessHierarchy outputHierarchy,
         ExecutionNodeAccessHierarchy destroyableHierarchy
     ) {
@@ -40,11 +42,12 @@ public ExecutionPlanFactory(
         this.taskNodeFactory = taskNodeFactory;
         this.dependencyResolver = dependencyResolver;
         this.nodeValidator = nodeValidator;
+        this.durationHistory = durationHistory;
         this.outputHierarchy = outputHierarchy;
         this.destroyableHierarchy = destroyableHierarchy;
     }
 
     public ExecutionPlan createPlan() {
-        return new DefaultExecutionPlan(displayName, taskNodeFactory, dependencyResolver, nodeValidator, outputHierarchy, destroyableHierarchy);
+        return new DefaultExecutionPlan(displayName, taskNodeFactory, dependencyResolver, nodeValidator, durationHistory, outputHierarchy, destroyableHierarchy);
     }
 }
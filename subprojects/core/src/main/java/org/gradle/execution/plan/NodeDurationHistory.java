@@ -0,0 +1,56 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.api.NonNullApi;
+import org.gradle.internal.service.scopes.Scopes;
+import org.gradle.internal.service.scopes.ServiceScope;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Remembers how long nodes took to execute in previous builds.
+ *
+ * The execution plan uses these durations to prefer nodes on the longest remaining path through the plan.
+ */
+@NonNullApi
+@ServiceScope(Scopes.Build.class)
+public interface NodeDurationHistory {
+    NodeDurationHistory NONE = new NodeDurationHistory() {
+        @Override
+        public Map<Node, Long> getPreviousDurations(Collection<Node> nodes) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void recordDuration(Node node, long durationMillis) {
+        }
+    };
+
+    /**
+     * Returns how long the given nodes took when they were last executed in milliseconds.
+     * Nodes for which this is not known are missing from the result.
+     */
+    Map<Node, Long> getPreviousDurations(Collection<Node> nodes);
+
+    /**
+     * Records how long the node took to execute its work in milliseconds.
+     */
+    void recordDuration(Node node, long durationMillis);
+}
@@ -17,11 +17,14 @@
 package org.gradle.internal.buildtree;
 
 import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.operations.BuildOperationRef;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
 import org.gradle.internal.service.ServiceRegistry;
 import org.gradle.internal.service.ServiceRegistryBuilder;
 import org.gradle.internal.service.scopes.Scopes;
 import org.gradle.internal.service.scopes.ServiceScope;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.util.function.Function;
 
@@ -32,8 +35,11 @@
 public class BuildTreeState implements Closeable {
     private final ServiceRegistry services;
     private final DefaultBuildTreeContext context;
+    @Nullable
+    private final BuildOperationRef buildOperation;
 
     public BuildTreeState(ServiceRegistry parent, BuildTreeModelControllerServices.Supplier modelServices) {
+        buildOperation = CurrentBuildOperationRef.instance().get();
         services = ServiceRegistryBuilder.builder()
             .displayName("build tree services")
             .parent(parent)
@@ -46,6 +52,14 @@ public ServiceRegistry getServices() {
         return services;
     }
 
+    /**
+     * Returns the build operation that this build tree runs in, which only completes after the build tree has been closed.
+     */
+    @Nullable
+    public BuildOperationRef getBuildOperation() {
+        return buildOperation;
+    }
+
     /**
      * Runs the given action against the state of this build tree.
      */
@@ -23,6 +23,7 @@
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FingerprintingStrategy;
+import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
 
@@ -62,4 +63,9 @@ public String normalizePath(FileSystemLocationSnapshot root) {
     public CurrentFileCollectionFingerprint empty() {
         return fingerprintingStrategy.getEmptyFingerprint();
     }
+
+    @Override
+    public HashCode getStrategyConfigurationHash() {
+        return fingerprintingStrategy.getConfigurationHash();
+    }
 }
@@ -77,6 +77,7 @@
 import org.gradle.cache.CacheRepository;
 import org.gradle.cache.FileLockManager;
 import org.gradle.cache.internal.BuildScopeCacheDir;
+import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.cache.internal.scopes.DefaultBuildScopedCache;
 import org.gradle.cache.scopes.BuildScopedCache;
 import org.gradle.cache.scopes.GlobalScopedCache;
@@ -99,9 +100,11 @@
 import org.gradle.execution.TaskNameResolver;
 import org.gradle.execution.TaskPathProjectEvaluator;
 import org.gradle.execution.TaskSelector;
+import org.gradle.execution.plan.DefaultNodeDurationHistory;
 import org.gradle.execution.plan.DefaultNodeValidator;
 import org.gradle.execution.plan.ExecutionNodeAccessHierarchies;
 import org.gradle.execution.plan.ExecutionPlanFactory;
+import org.gradle.execution.plan.NodeDurationHistory;
 import org.gradle.execution.plan.TaskDependencyResolver;
 import org.gradle.execution.plan.TaskNodeDependencyResolver;
 import org.gradle.execution.plan.TaskNodeFactory;
@@ -232,10 +235,15 @@ public BuildScopeServices(ServiceRegistry parent, BuildModelControllerServices.S
         });
     }
 
+    NodeDurationHistory createNodeDurationHistory(BuildScopedCache cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
+        return new DefaultNodeDurationHistory(cacheRepository, inMemoryCacheDecoratorFactory);
+    }
+
     ExecutionPlanFactory createExecutionPlanFactory(
         GradleInternal gradleInternal,
         TaskNodeFactory taskNodeFactory,
         TaskDependencyResolver dependencyResolver,
+        NodeDurationHistory nodeDurationHistory,
         ExecutionNodeAccessHierarchies executionNodeAccessHierarchies
     ) {
         return new ExecutionPlanFactory(
@@ -243,6 +251,7 @@ ExecutionPlanFactory createExecutionPlanFactory(
             taskNodeFactory,
             dependencyResolver,
             new DefaultNodeValidator(),
+            nodeDurationHistory,
             executionNodeAccessHierarchies.getOutputHierarchy(),
             executionNodeAccessHierarchies.getDestroyableHierarchy()
         );
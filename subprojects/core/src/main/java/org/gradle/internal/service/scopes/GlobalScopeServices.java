@@ -46,6 +46,9 @@
 import org.gradle.api.tasks.util.internal.PatternSpecFactory;
 import org.gradle.cache.internal.CleaningInMemoryCacheDecoratorFactory;
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory;
+import org.gradle.cache.internal.CrossBuildInMemoryCacheStatistics;
+import org.gradle.cache.internal.CrossBuildInMemoryCacheStatisticsProgressDetails;
+import org.gradle.cache.internal.DefaultCrossBuildInMemoryCacheFactory;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.configuration.DefaultImportsReader;
 import org.gradle.configuration.ImportsReader;
@@ -56,6 +59,7 @@
 import org.gradle.initialization.FlatClassLoaderRegistry;
 import org.gradle.initialization.JdkToolsInitializer;
 import org.gradle.initialization.LegacyTypesSupport;
+import org.gradle.initialization.RootBuildLifecycleListener;
 import org.gradle.initialization.layout.BuildLayoutFactory;
 import org.gradle.internal.Factory;
 import org.gradle.internal.classloader.DefaultClassLoaderFactory;
@@ -119,6 +123,11 @@
  */
 public class GlobalScopeServices extends WorkerSharedGlobalScopeServices {
 
+    /**
+     * When enabled, threads waiting for resource locks are only woken up when a lock they are waiting for is released, rather than on every lock release.
+     */
+    public static final String TARGETED_LOCK_WAKE_UPS_PROPERTY = "org.gradle.unsafe.targeted-lock-wake-ups";
+
     protected final ClassPath additionalModuleClassPath;
     private final GradleBuildEnvironment environment;
 
@@ -142,8 +151,24 @@ void configure(ServiceRegistration registration, ClassLoaderRegistry classLoader
         registration.add(DefaultScriptFileResolver.class);
     }
 
+    void configure(ServiceRegistration registration, ListenerManager listenerManager, DefaultCrossBuildInMemoryCacheFactory cacheFactory, BuildOperationProgressEventEmitter eventEmitter) {
+        listenerManager.addListener(new RootBuildLifecycleListener() {
+            @Override
+            public void afterStart() {
+            }
+
+            @Override
+            public void beforeComplete() {
+                List<CrossBuildInMemoryCacheStatistics> statistics = cacheFactory.collectStatistics();
+                if (!statistics.isEmpty()) {
+                    eventEmitter.emitNowIfCurrent((CrossBuildInMemoryCacheStatisticsProgressDetails) () -> statistics);
+                }
+            }
+        });
+    }
+
     ResourceLockCoordinationService createWorkerLeaseCoordinationService() {
-        return new DefaultResourceLockCoordinationService();
+        return new DefaultResourceLockCoordinationService(Boolean.getBoolean(TARGETED_LOCK_WAKE_UPS_PROPERTY));
     }
 
     CurrentBuildOperationRef createCurrentBuildOperationRef() {
@@ -30,7 +30,10 @@
 import org.gradle.api.internal.changedetection.state.CrossBuildFileHashCache;
 import org.gradle.api.internal.changedetection.state.DefaultResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.FileHasherStatistics;
+import org.gradle.api.internal.changedetection.state.FileHashingExecutor;
+import org.gradle.api.internal.changedetection.state.FileTimeStampInspector;
 import org.gradle.api.internal.changedetection.state.GradleUserHomeScopeFileTimeStampInspector;
+import org.gradle.api.internal.changedetection.state.ParallelSnapshottingPools;
 import org.gradle.api.internal.changedetection.state.PropertiesFileFilter;
 import org.gradle.api.internal.changedetection.state.ResourceEntryFilter;
 import org.gradle.api.internal.changedetection.state.ResourceFilter;
@@ -49,14 +52,19 @@
 import org.gradle.initialization.RootBuildLifecycleListener;
 import org.gradle.internal.build.BuildAddedListener;
 import org.gradle.internal.classloader.ClasspathHasher;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.execution.OutputChangeListener;
 import org.gradle.internal.execution.OutputSnapshotter;
+import org.gradle.internal.execution.fingerprint.FileCollectionChangeDetector;
 import org.gradle.internal.execution.fingerprint.FileCollectionFingerprinterRegistry;
 import org.gradle.internal.execution.fingerprint.FileCollectionSnapshotter;
 import org.gradle.internal.execution.fingerprint.InputFingerprinter;
+import org.gradle.internal.execution.fingerprint.impl.CachingFileCollectionFingerprinterRegistry;
+import org.gradle.internal.execution.fingerprint.impl.DefaultFileCollectionChangeDetector;
 import org.gradle.internal.execution.fingerprint.impl.DefaultFileCollectionFingerprinterRegistry;
 import org.gradle.internal.execution.fingerprint.impl.DefaultInputFingerprinter;
+import org.gradle.internal.execution.fingerprint.impl.FileCollectionFingerprintCache;
 import org.gradle.internal.execution.impl.DefaultOutputSnapshotter;
 import org.gradle.internal.file.Stat;
 import org.gradle.internal.fingerprint.GenericFileTreeSnapshotter;
@@ -67,9 +75,11 @@
 import org.gradle.internal.fingerprint.impl.DefaultGenericFileTreeSnapshotter;
 import org.gradle.internal.fingerprint.impl.FileCollectionFingerprinterRegistrations;
 import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.DefaultStreamHasher;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.hash.StreamHasher;
+import org.gradle.internal.hash.TreeHashFunction;
 import org.gradle.internal.nativeintegration.NativeCapabilities;
 import org.gradle.internal.nativeintegration.filesystem.FileSystem;
 import org.gradle.internal.os.OperatingSystem;
@@ -78,12 +88,14 @@
 import org.gradle.internal.snapshot.CaseSensitivity;
 import org.gradle.internal.snapshot.ValueSnapshotter;
 import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics;
+import org.gradle.internal.snapshot.impl.ParallelSnapshotting;
 import org.gradle.internal.vfs.FileSystemAccess;
 import org.gradle.internal.vfs.VirtualFileSystem;
 import org.gradle.internal.vfs.impl.DefaultFileSystemAccess;
 import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy;
 import org.gradle.internal.vfs.impl.VfsRootReference;
 import org.gradle.internal.watch.registry.FileWatcherRegistryFactory;
+import org.gradle.internal.watch.registry.impl.CoalescingLinuxFileWatcherRegistryFactory;
 import org.gradle.internal.watch.registry.impl.DarwinFileWatcherRegistryFactory;
 import org.gradle.internal.watch.registry.impl.LinuxFileWatcherRegistryFactory;
 import org.gradle.internal.watch.registry.impl.WindowsFileWatcherRegistryFactory;
@@ -91,6 +103,7 @@
 import org.gradle.internal.watch.vfs.WatchableFileSystemDetector;
 import org.gradle.internal.watch.vfs.impl.DefaultWatchableFileSystemDetector;
 import org.gradle.internal.watch.vfs.impl.LocationsWrittenByCurrentBuild;
+import org.gradle.internal.watch.vfs.impl.VirtualFileSystemStateStore;
 import org.gradle.internal.watch.vfs.impl.WatchingNotSupportedVirtualFileSystem;
 import org.gradle.internal.watch.vfs.impl.WatchingVirtualFileSystem;
 import org.slf4j.Logger;
@@ -98,6 +111,7 @@
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -118,6 +132,22 @@ public class VirtualFileSystemServices extends AbstractPluginServiceRegistry {
 
     public static final String MAX_HIERARCHIES_TO_WATCH_PROPERTY = "org.gradle.vfs.watch.hierarchies.max";
 
+    /**
+     * When enabled, unfiltered directory hierarchies are snapshot by walking sibling directories in parallel and hashing files on a separate pool.
+     */
+    public static final String PARALLEL_SNAPSHOTTING_PROPERTY = "org.gradle.unsafe.vfs.parallel-snapshotting";
+
+    /**
+     * When enabled together with file system watching, the VFS is stored in the Gradle user home when the daemon stops,
+     * and the next daemon restores the parts which did not change in the meantime.
+     */
+    public static final String PERSISTENT_VFS_PROPERTY = "org.gradle.unsafe.vfs.persistent";
+
+    /**
+     * When enabled on Linux, file events are coalesced before they invalidate the VFS, see {@link CoalescingLinuxFileWatcherRegistryFactory}.
+     */
+    public static final String COALESCING_LINUX_WATCHER_PROPERTY = "org.gradle.unsafe.vfs.coalescing-linux-watcher";
+
     private static final int DEFAULT_MAX_HIERARCHIES_TO_WATCH = 50;
     private static final int FILE_HASHER_MEMORY_CACHE_SIZE = 400000;
 
@@ -133,6 +163,41 @@ public static int getMaximumNumberOfWatchedHierarchies(StartParameter startParam
             : DEFAULT_MAX_HIERARCHIES_TO_WATCH;
     }
 
+    private static CachingFileHasher newCachingFileHasher(
+        StreamHasher streamHasher,
+        FileHashingExecutor fileHashingExecutor,
+        CrossBuildFileHashCache store,
+        StringInterner stringInterner,
+        FileTimeStampInspector fileTimeStampInspector,
+        FileSystem fileSystem,
+        FileHasherStatistics.Collector statisticsCollector
+    ) {
+        if (streamHasher instanceof DefaultStreamHasher && ((DefaultStreamHasher) streamHasher).getHashFunction() instanceof TreeHashFunction) {
+            // Tree hashes differ from regular hashes, so keep them apart from the hashes persisted by builds not using tree hashing
+            DefaultFileHasher fileHasher = new DefaultFileHasher((DefaultStreamHasher) streamHasher, fileHashingExecutor, fileHashingExecutor.getParallelism());
+            return new CachingFileHasher(fileHasher, store, stringInterner, fileTimeStampInspector, "treeFileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+        }
+        return new CachingFileHasher(new DefaultFileHasher(streamHasher), store, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+    }
+
+    @Nullable
+    private static VirtualFileSystemStateStore persistentStateStore(GlobalScopedCache scopedCache, StreamHasher streamHasher, StringInterner stringInterner) {
+        if (!Boolean.getBoolean(PERSISTENT_VFS_PROPERTY)) {
+            return null;
+        }
+        // The stored hashes are only valid for daemons hashing files the same way
+        String hashAlgorithm = streamHasher instanceof DefaultStreamHasher
+            ? ((DefaultStreamHasher) streamHasher).getHashFunction().getAlgorithm()
+            : "default";
+        File stateFile = new File(scopedCache.baseDirForCache("vfs"), "state-" + hashAlgorithm.toLowerCase(Locale.ROOT) + ".bin");
+        return new VirtualFileSystemStateStore(stateFile, stringInterner);
+    }
+
+    @Nullable
+    private static ParallelSnapshotting parallelSnapshotting(ParallelSnapshottingPools pools) {
+        return Boolean.getBoolean(PARALLEL_SNAPSHOTTING_PROPERTY) ? pools : null;
+    }
+
     @Nullable
     private static String getSystemProperty(String systemProperty, Map<String, String> systemPropertiesArgs) {
         return systemPropertiesArgs.getOrDefault(systemProperty, System.getProperty(systemProperty));
@@ -161,6 +226,14 @@ FileHasherStatistics.Collector createCachingFileHasherStatisticsCollector() {
         DirectorySnapshotterStatistics.Collector createDirectorySnapshotterStatisticsCollector() {
             return new DirectorySnapshotterStatistics.Collector();
         }
+
+        FileHashingExecutor createFileHashingExecutor(ExecutorFactory executorFactory) {
+            return new FileHashingExecutor(executorFactory);
+        }
+
+        ParallelSnapshottingPools createParallelSnapshottingPools(ExecutorFactory executorFactory) {
+            return new ParallelSnapshottingPools(executorFactory);
+        }
     }
 
     @VisibleForTesting
@@ -176,9 +249,10 @@ FileHasher createCachingFileHasher(
             FileSystem fileSystem,
             GradleUserHomeScopeFileTimeStampInspector fileTimeStampInspector,
             StreamHasher streamHasher,
+            FileHashingExecutor fileHashingExecutor,
             StringInterner stringInterner
         ) {
-            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher fileHasher = newCachingFileHasher(streamHasher, fileHashingExecutor, fileStore, stringInterner, fileTimeStampInspector, fileSystem, statisticsCollector);
             fileTimeStampInspector.attach(fileHasher);
             return fileHasher;
         }
@@ -210,7 +284,10 @@ BuildLifecycleAwareVirtualFileSystem createVirtualFileSystem(
             ListenerManager listenerManager,
             FileSystem fileSystem,
             GlobalCacheLocations globalCacheLocations,
-            WatchableFileSystemDetector watchableFileSystemDetector
+            WatchableFileSystemDetector watchableFileSystemDetector,
+            GlobalScopedCache scopedCache,
+            StreamHasher streamHasher,
+            StringInterner stringInterner
         ) {
             CaseSensitivity caseSensitivity = fileSystem.isCaseSensitive() ? CASE_SENSITIVE : CASE_INSENSITIVE;
             VfsRootReference rootReference = new VfsRootReference(DefaultSnapshotHierarchy.empty(caseSensitivity));
@@ -227,7 +304,8 @@ BuildLifecycleAwareVirtualFileSystem createVirtualFileSystem(
                     rootReference,
                     sectionId -> documentationRegistry.getDocumentationFor("gradle_daemon", sectionId),
                     locationsWrittenByCurrentBuild,
-                    watchableFileSystemDetector
+                    watchableFileSystemDetector,
+                    persistentStateStore(scopedCache, streamHasher, stringInterner)
                 ))
                 .orElse(new WatchingNotSupportedVirtualFileSystem(rootReference));
             listenerManager.addListener((BuildAddedListener) buildState -> {
@@ -246,7 +324,8 @@ FileSystemAccess createFileSystemAccess(
             ListenerManager listenerManager,
             PatternSpecFactory patternSpecFactory,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            ParallelSnapshottingPools parallelSnapshottingPools
         ) {
             DefaultFileSystemAccess fileSystemAccess = new DefaultFileSystemAccess(
                 hasher,
@@ -255,6 +334,7 @@ FileSystemAccess createFileSystemAccess(
                 virtualFileSystem,
                 writeListener,
                 statisticsCollector,
+                parallelSnapshotting(parallelSnapshottingPools),
                 DirectoryScanner.getDefaultExcludes()
             );
             listenerManager.addListener(new DefaultExcludesBuildListener(fileSystemAccess) {
@@ -295,7 +375,9 @@ private Optional<FileWatcherRegistryFactory> determineWatcherRegistryFactory(
                     } else if (operatingSystem.isWindows()) {
                         return Optional.of(new WindowsFileWatcherRegistryFactory(watchFilter));
                     } else if (operatingSystem.isLinux()) {
-                        return Optional.of(new LinuxFileWatcherRegistryFactory(watchFilter));
+                        return Optional.of(Boolean.getBoolean(COALESCING_LINUX_WATCHER_PROPERTY)
+                            ? new CoalescingLinuxFileWatcherRegistryFactory(watchFilter)
+                            : new LinuxFileWatcherRegistryFactory(watchFilter));
                     }
                 } catch (NativeIntegrationUnavailableException e) {
                     LOGGER.debug("Native file system watching is not available for this operating system.", e);
@@ -342,10 +424,11 @@ FileHasher createFileHasher(
             FileHasher globalHasher,
             FileSystem fileSystem,
             StreamHasher streamHasher,
+            FileHashingExecutor fileHashingExecutor,
             StringInterner stringInterner,
             FileHasherStatistics.Collector statisticsCollector
         ) {
-            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher localHasher = newCachingFileHasher(streamHasher, fileHashingExecutor, cacheAccess, stringInterner, fileTimeStampInspector, fileSystem, statisticsCollector);
             return new SplitFileHasher(globalHasher, localHasher, globalCacheLocations);
         }
 
@@ -356,7 +439,8 @@ FileSystemAccess createFileSystemAccess(
             StringInterner stringInterner,
             VirtualFileSystem root,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            ParallelSnapshottingPools parallelSnapshottingPools
         ) {
             DefaultFileSystemAccess buildSessionsScopedVirtualFileSystem = new DefaultFileSystemAccess(
                 hasher,
@@ -365,6 +449,7 @@ FileSystemAccess createFileSystemAccess(
                 root,
                 writeListener,
                 statisticsCollector,
+                parallelSnapshotting(parallelSnapshottingPools),
                 DirectoryScanner.getDefaultExcludes()
             );
 
@@ -383,6 +468,10 @@ FileCollectionSnapshotter createFileCollectionSnapshotter(FileSystemAccess fileS
             return new DefaultFileCollectionSnapshotter(fileSystemAccess, genericFileTreeSnapshotter, stat);
         }
 
+        FileCollectionChangeDetector createFileCollectionChangeDetector(FileCollectionSnapshotter fileCollectionSnapshotter) {
+            return new DefaultFileCollectionChangeDetector(fileCollectionSnapshotter);
+        }
+
         OutputSnapshotter createOutputSnapshotter(FileCollectionSnapshotter fileCollectionSnapshotter) {
             return new DefaultOutputSnapshotter(fileCollectionSnapshotter);
         }
@@ -402,8 +491,24 @@ FileCollectionFingerprinterRegistrations createFileCollectionFingerprinterRegist
             );
         }
 
-        FileCollectionFingerprinterRegistry createFileCollectionFingerprinterRegistry(FileCollectionFingerprinterRegistrations fileCollectionFingerprinterRegistrations) {
-            return new DefaultFileCollectionFingerprinterRegistry(fileCollectionFingerprinterRegistrations.getRegistrants());
+        FileCollectionFingerprintCache createFileCollectionFingerprintCache(ListenerManager listenerManager) {
+            FileCollectionFingerprintCache fingerprintCache = new FileCollectionFingerprintCache();
+            listenerManager.addListener(new RootBuildLifecycleListener() {
+                @Override
+                public void afterStart() {
+                }
+
+                @Override
+                public void beforeComplete() {
+                    fingerprintCache.invalidateAll();
+                    LOGGER.info("File collection fingerprint cache: {}", fingerprintCache.collectStatistics());
+                }
+            });
+            return fingerprintCache;
+        }
+
+        FileCollectionFingerprinterRegistry createFileCollectionFingerprinterRegistry(FileCollectionFingerprinterRegistrations fileCollectionFingerprinterRegistrations, FileCollectionFingerprintCache fingerprintCache) {
+            return new CachingFileCollectionFingerprinterRegistry(new DefaultFileCollectionFingerprinterRegistry(fileCollectionFingerprinterRegistrations.getRegistrants()), fingerprintCache);
         }
 
         InputFingerprinter createInputFingerprinter(
@@ -39,6 +39,7 @@
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.file.impl.DefaultDeleter;
 import org.gradle.internal.hash.DefaultStreamHasher;
+import org.gradle.internal.hash.Hashing;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.instantiation.InstantiatorFactory;
 import org.gradle.internal.logging.events.OutputEventListener;
@@ -67,6 +68,14 @@
 
 public class WorkerSharedGlobalScopeServices extends BasicGlobalScopeServices {
 
+    /**
+     * When enabled, file contents are hashed as a tree of chunks, so that the chunks of large files can be hashed in parallel.
+     * This changes the hash of every file, so up-to-date checks and build cache keys do not match those of builds without it.
+     */
+    public static final String TREE_HASHING_PROPERTY = "org.gradle.unsafe.tree-hashing";
+
+    private static final int TREE_HASHING_CHUNK_SIZE = 1024 * 1024;
+
     protected CacheFactory createCacheFactory(FileLockManager fileLockManager, ExecutorFactory executorFactory, ProgressLoggerFactory progressLoggerFactory) {
         return new DefaultCacheFactory(fileLockManager, executorFactory, progressLoggerFactory);
     }
@@ -87,7 +96,7 @@ Clock createClock() {
         return Time.clock();
     }
 
-    CrossBuildInMemoryCacheFactory createCrossBuildInMemoryCacheFactory(ListenerManager listenerManager) {
+    DefaultCrossBuildInMemoryCacheFactory createCrossBuildInMemoryCacheFactory(ListenerManager listenerManager) {
         return new DefaultCrossBuildInMemoryCacheFactory(listenerManager);
     }
 
@@ -104,6 +113,9 @@ DefaultFilePropertyFactory createFilePropertyFactory(PropertyHost propertyHost,
     }
 
     StreamHasher createStreamHasher() {
+        if (Boolean.getBoolean(TREE_HASHING_PROPERTY)) {
+            return new DefaultStreamHasher(Hashing.tree(Hashing.defaultFunction(), TREE_HASHING_CHUNK_SIZE));
+        }
         return new DefaultStreamHasher();
     }
 
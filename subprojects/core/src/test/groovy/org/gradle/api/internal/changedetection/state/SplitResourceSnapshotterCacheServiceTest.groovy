@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import org.gradle.cache.GlobalCacheLocations
+import org.gradle.internal.file.FileMetadata
+import org.gradle.internal.file.impl.DefaultFileMetadata
+import org.gradle.internal.fingerprint.hashing.RegularFileSnapshotContextHasher
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.serialize.HashCodeSerializer
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.testfixtures.internal.TestInMemoryPersistentIndexedCache
+import spock.lang.Specification
+
+class SplitResourceSnapshotterCacheServiceTest extends Specification {
+    def globalCacheLocations = Stub(GlobalCacheLocations) {
+        isInsideGlobalCache(_ as String) >> { String path -> path.startsWith("/user-home/caches/modules-2/") }
+    }
+    def globalStore = new TestInMemoryPersistentIndexedCache<HashCode, HashCode>(new HashCodeSerializer())
+    def localStore = new TestInMemoryPersistentIndexedCache<HashCode, HashCode>(new HashCodeSerializer())
+    def zipHasher = Mock(RegularFileSnapshotContextHasher)
+    def configurationHash = HashCode.fromInt(1)
+
+    def "uses the global cache for jars in global cache locations"() {
+        def jar = snapshotContext("/user-home/caches/modules-2/files-2.1/group/lib.jar", 123)
+
+        when:
+        def hash = newCacheService().hashFile(jar, zipHasher, configurationHash)
+        then:
+        1 * zipHasher.hash(jar) >> HashCode.fromInt(456)
+        hash == HashCode.fromInt(456)
+        globalStore.keySet().size() == 1
+        localStore.keySet().empty
+    }
+
+    def "uses the local cache for jars outside of global cache locations"() {
+        def jar = snapshotContext("/project/build/libs/lib.jar", 123)
+
+        when:
+        def hash = newCacheService().hashFile(jar, zipHasher, configurationHash)
+        then:
+        1 * zipHasher.hash(jar) >> HashCode.fromInt(456)
+        hash == HashCode.fromInt(456)
+        globalStore.keySet().empty
+        localStore.keySet().size() == 1
+    }
+
+    def "reuses hashes of jars in global cache locations between builds of different build trees"() {
+        def jar = snapshotContext("/user-home/caches/modules-2/files-2.1/group/lib.jar", 123)
+        def sameJarForOtherBuildTree = snapshotContext("/user-home/caches/modules-2/files-2.1/group/lib.jar", 123)
+
+        when:
+        newCacheService().hashFile(jar, zipHasher, configurationHash)
+        def hash = new SplitResourceSnapshotterCacheService(
+            new DefaultResourceSnapshotterCacheService(globalStore),
+            new DefaultResourceSnapshotterCacheService(new TestInMemoryPersistentIndexedCache<HashCode, HashCode>(new HashCodeSerializer())),
+            globalCacheLocations
+        ).hashFile(sameJarForOtherBuildTree, zipHasher, configurationHash)
+        then:
+        1 * zipHasher.hash(jar) >> HashCode.fromInt(456)
+        0 * zipHasher.hash(sameJarForOtherBuildTree)
+        hash == HashCode.fromInt(456)
+    }
+
+    def "does not reuse hashes of jars for a different normalizer configuration"() {
+        def jar = snapshotContext("/user-home/caches/modules-2/files-2.1/group/lib.jar", 123)
+        def cacheService = newCacheService()
+
+        when:
+        cacheService.hashFile(jar, zipHasher, configurationHash)
+        def hash = cacheService.hashFile(jar, zipHasher, HashCode.fromInt(2))
+        then:
+        1 * zipHasher.hash(jar) >> HashCode.fromInt(456)
+        1 * zipHasher.hash(jar) >> HashCode.fromInt(789)
+        hash == HashCode.fromInt(789)
+    }
+
+    private SplitResourceSnapshotterCacheService newCacheService() {
+        new SplitResourceSnapshotterCacheService(new DefaultResourceSnapshotterCacheService(globalStore), new DefaultResourceSnapshotterCacheService(localStore), globalCacheLocations)
+    }
+
+    private static DefaultRegularFileSnapshotContext snapshotContext(String path, int contentHash) {
+        def name = path.substring(path.lastIndexOf('/') + 1)
+        def snapshot = new RegularFileSnapshot(path, name, HashCode.fromInt(contentHash), DefaultFileMetadata.file(1, 1, FileMetadata.AccessType.DIRECT))
+        new DefaultRegularFileSnapshotContext({ [name] as String[] }, snapshot)
+    }
+}
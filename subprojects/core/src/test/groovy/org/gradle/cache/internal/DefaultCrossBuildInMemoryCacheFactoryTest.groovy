@@ -50,6 +50,99 @@ class DefaultCrossBuildInMemoryCacheFactoryTest extends AbstractCrossBuildInMemo
         0 * function._
     }
 
+    def "bounded cache retains values from previous sessions up to its budget"() {
+        def function = Mock(Function)
+        def cache = boundedFactory().newBoundedCache("test", 100, { key, value -> 40 })
+
+        when:
+        cache.get("a", function)
+        cache.get("b", function)
+        cache.get("c", function)
+
+        then:
+        3 * function.apply(_) >> { new Object() }
+
+        when:
+        endSession()
+
+        then:
+        ["a", "b", "c"].count { cache.getIfPresent(it) != null } == 2
+    }
+
+    def "bounded cache evicts least recently used values"() {
+        def function = Mock(Function)
+        def cache = boundedFactory().newBoundedCache("test", 100, { key, value -> 40 })
+
+        when:
+        cache.get("a", function)
+        cache.get("b", function)
+        endSession()
+        cache.get("a", function)
+        endSession()
+        cache.get("c", function)
+        endSession()
+
+        then:
+        1 * function.apply("a") >> new Object()
+        1 * function.apply("b") >> new Object()
+        1 * function.apply("c") >> new Object()
+        0 * function._
+
+        and:
+        cache.getIfPresent("a") != null
+        cache.getIfPresent("c") != null
+        cache.getIfPresent("b") == null
+    }
+
+    def "bounded cache retains values used in the current session beyond its budget"() {
+        def cache = boundedFactory().newBoundedCache("test", 100, { key, value -> 40 })
+        def values = (1..5).collect { new Object() }
+
+        when:
+        values.eachWithIndex { value, i -> cache.put("key${i}" as String, value) }
+
+        then:
+        values.withIndex().every { value, i -> cache.getIfPresent("key${i}" as String).is(value) }
+    }
+
+    def "collects statistics of bounded caches"() {
+        def factory = boundedFactory()
+        def cache = factory.newBoundedCache("test", 100, { key, value -> 40 })
+        def function = Mock(Function) {
+            apply(_) >> { new Object() }
+        }
+
+        when:
+        cache.get("a", function)
+        cache.get("a", function)
+        cache.get("b", function)
+        cache.get("c", function)
+        cache.getIfPresent("d")
+        def statistics = factory.collectStatistics()
+
+        then:
+        statistics.size() == 1
+        with(statistics[0]) {
+            displayName == "test"
+            hitCount == 1
+            missCount == 4
+            evictionCount == 1
+            weight == 80
+            maxWeight == 100
+        }
+
+        when:
+        statistics = factory.collectStatistics()
+
+        then:
+        with(statistics[0]) {
+            hitCount == 0
+            missCount == 0
+            evictionCount == 0
+            weight == 80
+        }
+    }
+
     def "creates a cache whose keys are classes"() {
         def a = new Object()
         def b = new Object()
@@ -96,4 +189,13 @@ class DefaultCrossBuildInMemoryCacheFactoryTest extends AbstractCrossBuildInMemo
         cache.put(String, c)
         cache.getIfPresent(String) == c
     }
+
+    private DefaultCrossBuildInMemoryCacheFactory boundedFactory() {
+        // Reference heap size, so budgets are not scaled
+        return new DefaultCrossBuildInMemoryCacheFactory(listenerManager, new HeapProportionalCacheSizer(910))
+    }
+
+    private void endSession() {
+        listenerManager.getBroadcaster(BuildSessionLifecycleListener).beforeComplete()
+    }
 }
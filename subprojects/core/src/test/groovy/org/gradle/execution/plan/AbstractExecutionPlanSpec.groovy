@@ -152,6 +152,14 @@ abstract class AbstractExecutionPlanSpec extends Specification {
         void registerUnlocked(ResourceLock resourceLock) {
         }
 
+        @Override
+        void registerWaitingFor(ResourceLock resourceLock) {
+        }
+
+        @Override
+        void registerWaitingForChange(Object changeKey) {
+        }
+
         @Override
         void releaseLocks() {
             locks.forEach { it.unlock() }
@@ -21,6 +21,7 @@ import org.gradle.api.Task
 import org.gradle.api.file.FileCollection
 import org.gradle.api.internal.DocumentationRegistry
 import org.gradle.api.internal.TaskInternal
+import org.gradle.api.internal.tasks.TaskExecutionOutcome
 import org.gradle.api.internal.tasks.TaskStateInternal
 import org.gradle.api.tasks.Destroys
 import org.gradle.api.tasks.InputDirectory
@@ -48,13 +49,18 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
     FileSystem fs = NativeServicesTestFixture.instance.get(FileSystem)
 
     DefaultExecutionPlan executionPlan
+    TaskNodeFactory taskNodeFactory
     def lease = Stub(WorkerLeaseRegistry.WorkerLease)
 
     def setup() {
         _ * lease.tryLock() >> true
-        def taskNodeFactory = new TaskNodeFactory(project.gradle, Stub(DocumentationRegistry), Stub(BuildTreeWorkGraphController))
+        executionPlan = createExecutionPlan(NodeDurationHistory.NONE)
+    }
+
+    private DefaultExecutionPlan createExecutionPlan(NodeDurationHistory durationHistory) {
+        taskNodeFactory = new TaskNodeFactory(project.gradle, Stub(DocumentationRegistry), Stub(BuildTreeWorkGraphController))
         def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
-        executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, dependencyResolver, nodeValidator, new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, fs), new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, fs))
+        return new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, dependencyResolver, nodeValidator, durationHistory, new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, fs), new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, fs))
     }
 
     TaskInternal task(Map<String, ?> options = [:], String name) {
@@ -154,6 +160,35 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
         lockedProjects.empty
     }
 
+    def "a task which does not require a project lock can start while all projects are locked"() {
+        given:
+        def a = task("a")
+        def b = task("b")
+        def c = task("c")
+        (taskNodeFactory.getOrCreateNode(c) as LocalTaskNode).isolated()
+
+        when:
+        addToGraphAndPopulate(a, b, c)
+        def nonIsolatedTaskNode = selectNextTaskNode()
+
+        then:
+        nonIsolatedTaskNode.task == a
+        lockedProjects.size() == 1
+
+        when:
+        def isolatedTask = selectNextTask()
+
+        then:
+        isolatedTask == c
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(nonIsolatedTaskNode)
+
+        then:
+        selectNextTask() == b
+    }
+
     def "two tasks with #relation relationship are not executed in parallel"() {
         given:
         Task a = task("a", type: Async)
@@ -220,6 +255,118 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
 
     }
 
+    def "tasks which become ready are selected in execution plan order"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async, dependsOn: [a])
+        Task d = task("d", type: Async, dependsOn: [b])
+
+        when:
+        addToGraphAndPopulate(c, d)
+        def firstTaskNode = selectNextTaskNode()
+        def secondTaskNode = selectNextTaskNode()
+
+        then:
+        firstTaskNode.task == a
+        secondTaskNode.task == b
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(secondTaskNode)
+        executionPlan.finishedExecuting(firstTaskNode)
+
+        then:
+        selectNextTask() == c
+        selectNextTask() == d
+        selectNextTask() == null
+    }
+
+    def "prefers ready tasks with the longest remaining path when durations are known"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async, dependsOn: [b])
+        executionPlan = createExecutionPlan(durations((a): 10, (b): 10, (c): 100))
+
+        when:
+        executionPlan.addEntryTasks([a, c])
+        executionPlan.determineExecutionPlan()
+
+        then:
+        selectNextTask() == b
+        selectNextTask() == a
+        selectNextTask() == null
+    }
+
+    def "does not prefer tasks required by later entry tasks when durations are known"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async, dependsOn: [b])
+        executionPlan = createExecutionPlan(durations((a): 10, (b): 10, (c): 100))
+
+        when:
+        executionPlan.addEntryTasks([a])
+        executionPlan.addEntryTasks([c])
+        executionPlan.determineExecutionPlan()
+
+        then:
+        selectNextTask() == a
+        selectNextTask() == b
+        selectNextTask() == null
+    }
+
+    def "records the duration of executed tasks"() {
+        given:
+        def durationHistory = Mock(NodeDurationHistory) {
+            getPreviousDurations(_) >> [:]
+        }
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        a.state.getOutcome() >> TaskExecutionOutcome.EXECUTED
+        b.state.getFailure() >> new RuntimeException("failure")
+        executionPlan = createExecutionPlan(durationHistory)
+        executionPlan.setContinueOnFailure(true)
+        addToGraphAndPopulate(a, b)
+
+        when:
+        def firstTaskNode = selectNextTaskNode()
+        executionPlan.finishedExecuting(firstTaskNode)
+
+        then:
+        firstTaskNode.task == a
+        1 * durationHistory.recordDuration(firstTaskNode, { it >= 0 })
+
+        when:
+        def secondTaskNode = selectNextTaskNode()
+        executionPlan.finishedExecuting(secondTaskNode)
+
+        then:
+        secondTaskNode.task == b
+        0 * durationHistory.recordDuration(_, _)
+    }
+
+    def "does not record the duration of tasks that did not execute their work"() {
+        given:
+        def durationHistory = Mock(NodeDurationHistory) {
+            getPreviousDurations(_) >> [:]
+        }
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        a.state.getOutcome() >> TaskExecutionOutcome.UP_TO_DATE
+        b.state.getOutcome() >> TaskExecutionOutcome.FROM_CACHE
+        executionPlan = createExecutionPlan(durationHistory)
+        addToGraphAndPopulate(a, b)
+
+        when:
+        executionPlan.finishedExecuting(selectNextTaskNode())
+        executionPlan.finishedExecuting(selectNextTaskNode())
+
+        then:
+        0 * durationHistory.recordDuration(_, _)
+    }
+
     def "two tasks that have the same file in outputs are not executed in parallel"() {
         def sharedFile = file("output")
 
@@ -919,6 +1066,14 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
         }
     }
 
+    private NodeDurationHistory durations(Map<Task, Long> durations) {
+        return Stub(NodeDurationHistory) {
+            getPreviousDurations(_) >> { Collection<Node> nodes ->
+                nodes.findAll { durations.containsKey((it as TaskNode).task) }.collectEntries { [it, durations[(it as TaskNode).task]] }
+            }
+        }
+    }
+
     private TaskInternal selectNextTask() {
         selectNextTaskNode()?.task
     }
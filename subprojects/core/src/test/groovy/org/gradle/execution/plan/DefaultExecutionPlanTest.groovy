@@ -43,7 +43,7 @@ class DefaultExecutionPlanTest extends AbstractExecutionPlanSpec {
     def setup() {
         def taskNodeFactory = new TaskNodeFactory(thisBuild, Stub(DocumentationRegistry), Stub(BuildTreeWorkGraphController))
         def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
-        executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, dependencyResolver, nodeValidator, new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, Stub(Stat)), new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, Stub(Stat)))
+        executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, dependencyResolver, nodeValidator, NodeDurationHistory.NONE, new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, Stub(Stat)), new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, Stub(Stat)))
         _ * workerLease.tryLock() >> true
     }
 
@@ -405,6 +405,33 @@ class DefaultExecutionPlanTest extends AbstractExecutionPlanSpec {
         executes(finalized1, finalized2, f1, dep, f2, df1, df2)
     }
 
+    def "finalizer of several finalized tasks runs once after the last of them and before unrelated tasks"() {
+        Task finalizer = task("finalizer")
+        Task a = task("a", finalizedBy: [finalizer])
+        Task b = task("b")
+        Task c = task("c", dependsOn: [b], finalizedBy: [finalizer])
+        Task d = task("d")
+
+        when:
+        addToGraphAndPopulate([a, c, d])
+
+        then:
+        executes(a, b, c, finalizer, d)
+    }
+
+    def "finalizer of several finalized tasks pulls in finalized tasks which are only required later"() {
+        Task finalizer = task("finalizer")
+        Task a = task("a", finalizedBy: [finalizer])
+        Task b = task("b", finalizedBy: [finalizer])
+        Task dependsOnB = task("dependsOnB", dependsOn: [b])
+
+        when:
+        addToGraphAndPopulate([a, dependsOnB])
+
+        then:
+        executes(a, b, finalizer, dependsOnB)
+    }
+
     def "finalizer tasks run as soon as possible for tasks that #orderingRule finalized tasks"() {
         Task finalizer = task("finalizer")
         Task finalized = task("finalized", finalizedBy: [finalizer])
@@ -812,6 +839,57 @@ class DefaultExecutionPlanTest extends AbstractExecutionPlanSpec {
         filtered(b)
     }
 
+    def "destroyer runs before consumer of destroyed output when the consumer depends on the destroyer transitively"() {
+        def output = temporaryFolder.file("output")
+        Task producer = task("a", type: DefaultExecutionPlanParallelTest.AsyncWithOutputDirectory)
+        _ * producer.outputDirectory >> output
+        Task destroyer = task("b", type: DefaultExecutionPlanParallelTest.AsyncWithDestroysFile)
+        _ * destroyer.destroysFile >> output
+        Task dependsOnDestroyer = task("m", dependsOn: [destroyer])
+        Task consumer = task("c", dependsOn: [producer, dependsOnDestroyer])
+
+        when:
+        addToGraphAndPopulate([producer, consumer])
+
+        then:
+        executes(producer, destroyer, dependsOnDestroyer, consumer)
+    }
+
+    def "destroyer waits for consumers of destroyed output which do not depend on the destroyer"() {
+        def output = temporaryFolder.file("output")
+        Task producer = task("a", type: DefaultExecutionPlanParallelTest.AsyncWithOutputDirectory)
+        _ * producer.outputDirectory >> output
+        Task destroyer = task("b", type: DefaultExecutionPlanParallelTest.AsyncWithDestroysFile)
+        _ * destroyer.destroysFile >> output
+        Task dependsOnDestroyer = task("m", dependsOn: [destroyer])
+        Task consumerDependingOnDestroyer = task("c1", dependsOn: [producer, dependsOnDestroyer])
+        Task consumer = task("c2", dependsOn: [producer])
+
+        when:
+        addToGraphAndPopulate([producer, destroyer, consumerDependingOnDestroyer, consumer])
+
+        then:
+        executionPlan.tasks as List == [producer, destroyer, dependsOnDestroyer, consumerDependingOnDestroyer, consumer]
+        executedTasks == [producer, consumer, destroyer, dependsOnDestroyer, consumerDependingOnDestroyer]
+    }
+
+    def "destroyer only waits for the direct consumers of destroyed output"() {
+        def output = temporaryFolder.file("output")
+        Task producer = task("a", type: DefaultExecutionPlanParallelTest.AsyncWithOutputDirectory)
+        _ * producer.outputDirectory >> output
+        Task destroyer = task("b", type: DefaultExecutionPlanParallelTest.AsyncWithDestroysFile)
+        _ * destroyer.destroysFile >> output
+        Task consumer = task("m", dependsOn: [producer])
+        Task dependsOnConsumer = task("c", dependsOn: [consumer])
+
+        when:
+        addToGraphAndPopulate([producer, destroyer, dependsOnConsumer])
+
+        then:
+        executionPlan.tasks as List == [producer, destroyer, consumer, dependsOnConsumer]
+        executedTasks == [producer, consumer, destroyer, dependsOnConsumer]
+    }
+
     def "required nodes added to the graph are executed in dependency order"() {
         given:
         def node1 = requiredNode()
@@ -896,7 +974,7 @@ class DefaultExecutionPlanTest extends AbstractExecutionPlanSpec {
     }
 
     private TaskInternal task(Map options, final String name) {
-        def task = createTask(name)
+        def task = createTask(name, project, options.type ?: TaskInternal)
         relationships(options, task)
         if (options.failure) {
             failure(task, options.failure)
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan
+
+import org.gradle.api.internal.TaskInternal
+import org.gradle.cache.internal.DefaultCacheFactory
+import org.gradle.cache.internal.DefaultCacheRepository
+import org.gradle.cache.internal.DefaultFileLockManager
+import org.gradle.cache.internal.DefaultInMemoryCacheDecoratorFactory
+import org.gradle.cache.internal.ProcessMetaDataProvider
+import org.gradle.cache.internal.TestCrossBuildInMemoryCacheFactory
+import org.gradle.cache.internal.locklistener.NoOpFileLockContentionHandler
+import org.gradle.cache.internal.scopes.DefaultBuildScopedCache
+import org.gradle.cache.internal.scopes.DefaultCacheScopeMapping
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.execution.WorkValidationContext
+import org.gradle.internal.progress.NoOpProgressLoggerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.GradleVersion
+import org.gradle.util.Path
+import org.junit.Rule
+import spock.lang.Specification
+
+class DefaultNodeDurationHistoryTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def metaDataProvider = Stub(ProcessMetaDataProvider) {
+        getProcessIdentifier() >> "123"
+        getProcessDisplayName() >> "process"
+    }
+    def executorFactory = new DefaultExecutorFactory()
+    def cacheFactory = new DefaultCacheFactory(new DefaultFileLockManager(metaDataProvider, new NoOpFileLockContentionHandler()), executorFactory, new NoOpProgressLoggerFactory())
+    def cacheRepository = new DefaultCacheRepository(new DefaultCacheScopeMapping(tmpDir.file("caches"), GradleVersion.current()), cacheFactory)
+    def buildScopedCache = new DefaultBuildScopedCache(tmpDir.file("project/.gradle"), cacheRepository)
+
+    def cleanup() {
+        cacheFactory.close()
+        executorFactory.stop()
+    }
+
+    def "reads back durations recorded before the history was closed"() {
+        def history = openHistory()
+        def compile = taskNode(":compile")
+        def test = taskNode(":sub:test")
+
+        expect:
+        history.getPreviousDurations([compile, test]).isEmpty()
+
+        when:
+        history.recordDuration(compile, 100)
+        history.recordDuration(test, 2500)
+        history.recordDuration(Stub(Node), 42)
+        history.close()
+        history = openHistory()
+        // Nodes of the next build are new instances, so the durations are found by the identity path of the task
+        def nextCompile = taskNode(":compile")
+        def nextTest = taskNode(":sub:test")
+        def unknown = taskNode(":unknown")
+        def other = Stub(Node)
+        def previousDurations = history.getPreviousDurations([nextCompile, nextTest, unknown, other])
+
+        then:
+        previousDurations.size() == 2
+        previousDurations[nextCompile] == 100
+        previousDurations[nextTest] == 2500
+
+        cleanup:
+        history?.close()
+    }
+
+    def "keeps durations which were not recorded again and replaces the others"() {
+        def history = openHistory()
+        history.recordDuration(taskNode(":compile"), 100)
+        history.recordDuration(taskNode(":test"), 2500)
+        history.close()
+
+        when:
+        history = openHistory()
+        history.recordDuration(taskNode(":compile"), 150)
+        // Durations recorded during the build are only written when the history is closed
+        def duringBuild = history.getPreviousDurations([taskNode(":compile")])
+        history.close()
+        history = openHistory()
+        def compile = taskNode(":compile")
+        def test = taskNode(":test")
+        def previousDurations = history.getPreviousDurations([compile, test])
+
+        then:
+        duringBuild.values().toList() == [100L]
+        previousDurations[compile] == 150
+        previousDurations[test] == 2500
+
+        cleanup:
+        history?.close()
+    }
+
+    def "does not write to the cache when no duration was recorded"() {
+        def cacheFile = new File(buildScopedCache.baseDirForCache("taskDurations"), "taskDurations.bin")
+
+        when:
+        def history = openHistory()
+        history.close()
+
+        then:
+        !cacheFile.exists()
+
+        when:
+        history = openHistory()
+
+        then:
+        history.getPreviousDurations([taskNode(":compile")]).isEmpty()
+
+        cleanup:
+        history?.close()
+    }
+
+    def "does not open the cache when no task duration was looked up or recorded"() {
+        def cacheDir = buildScopedCache.baseDirForCache("taskDurations")
+
+        when:
+        def history = openHistory()
+        history.getPreviousDurations([Stub(Node)])
+        history.recordDuration(Stub(Node), 42)
+        history.close()
+
+        then:
+        !cacheDir.exists()
+    }
+
+    private DefaultNodeDurationHistory openHistory() {
+        // A new in-memory decorator each time, as for a new daemon, so the durations are read back from disk
+        def inMemoryCacheDecoratorFactory = new DefaultInMemoryCacheDecoratorFactory(false, new TestCrossBuildInMemoryCacheFactory())
+        return new DefaultNodeDurationHistory(buildScopedCache, inMemoryCacheDecoratorFactory)
+    }
+
+    private LocalTaskNode taskNode(String path) {
+        def task = Stub(TaskInternal) {
+            getIdentityPath() >> Path.path(path)
+        }
+        return new LocalTaskNode(task, Stub(WorkValidationContext))
+    }
+}
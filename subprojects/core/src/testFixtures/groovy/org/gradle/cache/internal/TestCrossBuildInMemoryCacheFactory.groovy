@@ -20,6 +20,7 @@ package org.gradle.cache.internal
 import java.util.concurrent.ConcurrentHashMap
 import java.util.function.Function
 import java.util.function.Predicate
+import java.util.function.ToIntBiFunction
 
 class TestCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFactory {
     @Override
@@ -32,6 +33,11 @@ class TestCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFacto
         return new TestCache<K, V>()
     }
 
+    @Override
+    <K, V> CrossBuildInMemoryCache<K, V> newBoundedCache(String displayName, int referenceMaxWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+        return new TestCache<K, V>()
+    }
+
     @Override
     <V> CrossBuildInMemoryCache<Class<?>, V> newClassCache() {
         return new TestCache<Class<?>, V>()
@@ -91,7 +91,7 @@ ImmutableModuleIdentifierFactory createModuleIdentifierFactory() {
     NotationParser<Object, ComponentSelector> createComponentSelectorFactory(ImmutableModuleIdentifierFactory moduleIdentifierFactory, CrossBuildInMemoryCacheFactory cacheFactory) {
         return NotationParserBuilder
             .toType(ComponentSelector.class)
-            .converter(new CrossBuildCachingNotationConverter<>(new ModuleSelectorStringNotationConverter(moduleIdentifierFactory), cacheFactory.newCache()))
+            .converter(new CrossBuildCachingNotationConverter<>(new ModuleSelectorStringNotationConverter(moduleIdentifierFactory), cacheFactory.newBoundedCache("module selector notations", 10000, (notation, selector) -> 1)))
             .toComposite();
     }
 
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.fingerprint;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotDiff;
+
+/**
+ * Service for visiting only the changed elements of a {@link FileCollection}, like a {@link org.gradle.api.file.FileTree}.
+ */
+public interface FileCollectionChangeDetector {
+    /**
+     * Visits the elements of the file collection which changed since the previous snapshot has been taken.
+     *
+     * The snapshot is taken via the virtual file system, so unchanged directories are neither walked again nor compared.
+     *
+     * @param previousSnapshot the snapshot returned by the previous call for the same file collection,
+     * or {@link FileSystemSnapshot#EMPTY} to visit all elements as added.
+     * @return the current snapshot to pass to the next call.
+     */
+    FileSystemSnapshot visitChangesSince(FileSystemSnapshot previousSnapshot, FileCollection fileCollection, FileSystemSnapshotDiff.ChangeVisitor visitor);
+}
@@ -19,6 +19,7 @@
 import org.gradle.api.tasks.FileNormalizer;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
 
@@ -49,4 +50,11 @@ public interface FileCollectionFingerprinter {
      * Returns the normalized path to use for the given root
      */
     String normalizePath(FileSystemLocationSnapshot root);
+
+    /**
+     * Returns the hash of the configuration of the fingerprinting strategy.
+     *
+     * Fingerprinters with the same configuration hash create the same fingerprints for the same snapshots.
+     */
+    HashCode getStrategyConfigurationHash();
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.fingerprint.impl;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.FileNormalizer;
+import org.gradle.internal.execution.fingerprint.FileCollectionFingerprinter;
+import org.gradle.internal.execution.fingerprint.FileCollectionFingerprinterRegistry;
+import org.gradle.internal.execution.fingerprint.FileNormalizationSpec;
+import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link FileCollectionFingerprinterRegistry} whose fingerprinters share fingerprints via a {@link FileCollectionFingerprintCache}.
+ */
+public class CachingFileCollectionFingerprinterRegistry implements FileCollectionFingerprinterRegistry {
+    private final FileCollectionFingerprinterRegistry delegate;
+    private final FileCollectionFingerprintCache cache;
+    private final ConcurrentMap<FileCollectionFingerprinter, FileCollectionFingerprinter> cachingFingerprinters = new ConcurrentHashMap<>();
+
+    public CachingFileCollectionFingerprinterRegistry(FileCollectionFingerprinterRegistry delegate, FileCollectionFingerprintCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public FileCollectionFingerprinter getFingerprinter(FileNormalizationSpec spec) {
+        return cachingFingerprinters.computeIfAbsent(delegate.getFingerprinter(spec), CachingFileCollectionFingerprinter::new);
+    }
+
+    private class CachingFileCollectionFingerprinter implements FileCollectionFingerprinter {
+        private final FileCollectionFingerprinter delegate;
+
+        public CachingFileCollectionFingerprinter(FileCollectionFingerprinter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Class<? extends FileNormalizer> getRegisteredType() {
+            return delegate.getRegisteredType();
+        }
+
+        @Override
+        public CurrentFileCollectionFingerprint fingerprint(FileCollection files) {
+            return delegate.fingerprint(files);
+        }
+
+        @Override
+        public CurrentFileCollectionFingerprint fingerprint(FileSystemSnapshot snapshot, @Nullable FileCollectionFingerprint previousFingerprint) {
+            return cache.fingerprint(delegate, snapshot, previousFingerprint);
+        }
+
+        @Override
+        public CurrentFileCollectionFingerprint empty() {
+            return delegate.empty();
+        }
+
+        @Override
+        public String normalizePath(FileSystemLocationSnapshot root) {
+            return delegate.normalizePath(root);
+        }
+
+        @Override
+        public HashCode getStrategyConfigurationHash() {
+            return delegate.getStrategyConfigurationHash();
+        }
+    }
+}
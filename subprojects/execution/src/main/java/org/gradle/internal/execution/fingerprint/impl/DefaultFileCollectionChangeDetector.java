@@ -0,0 +1,38 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.fingerprint.impl;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.internal.execution.fingerprint.FileCollectionChangeDetector;
+import org.gradle.internal.execution.fingerprint.FileCollectionSnapshotter;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotDiff;
+
+public class DefaultFileCollectionChangeDetector implements FileCollectionChangeDetector {
+    private final FileCollectionSnapshotter snapshotter;
+
+    public DefaultFileCollectionChangeDetector(FileCollectionSnapshotter snapshotter) {
+        this.snapshotter = snapshotter;
+    }
+
+    @Override
+    public FileSystemSnapshot visitChangesSince(FileSystemSnapshot previousSnapshot, FileCollection fileCollection, FileSystemSnapshotDiff.ChangeVisitor visitor) {
+        FileSystemSnapshot currentSnapshot = snapshotter.snapshot(fileCollection).getSnapshot();
+        FileSystemSnapshotDiff.visitChanges(previousSnapshot, currentSnapshot, visitor);
+        return currentSnapshot;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.fingerprint.impl;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import org.gradle.internal.execution.fingerprint.FileCollectionFingerprinter;
+import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.SnapshotUtil;
+
+import javax.annotation.Nullable;
+import java.text.MessageFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares the fingerprints of file collections with the same contents between work items.
+ * <p>
+ * Fingerprints are cached by the configuration of the fingerprinting strategy and by the paths and hashes of the snapshot roots,
+ * which is what decides whether a previous fingerprint can be reused, too.
+ * That way, many tasks fingerprinting the same classpath normalize it only once.
+ * Since the key captures the contents of the roots, changes to the file system result in different keys
+ * and cached fingerprints are only dropped on {@link #invalidateAll()} to not hold on to them for longer than a build.
+ * <p>
+ * The number of cached fingerprints is bounded, and fingerprints are softly referenced, so large builds don't run out of memory.
+ */
+public class FileCollectionFingerprintCache {
+    private static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private final Cache<CacheKey, CurrentFileCollectionFingerprint> fingerprints;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public FileCollectionFingerprintCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    @VisibleForTesting
+    FileCollectionFingerprintCache(int maximumSize) {
+        this.fingerprints = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .softValues()
+            .build();
+    }
+
+    public CurrentFileCollectionFingerprint fingerprint(FileCollectionFingerprinter fingerprinter, FileSystemSnapshot snapshot, @Nullable FileCollectionFingerprint previousFingerprint) {
+        if (snapshot == FileSystemSnapshot.EMPTY) {
+            return fingerprinter.empty();
+        }
+        CacheKey key = new CacheKey(fingerprinter.getStrategyConfigurationHash(), SnapshotUtil.getRootHashes(snapshot));
+        CurrentFileCollectionFingerprint cachedFingerprint = fingerprints.getIfPresent(key);
+        if (cachedFingerprint != null) {
+            hitCount.incrementAndGet();
+            return cachedFingerprint;
+        }
+        missCount.incrementAndGet();
+        CurrentFileCollectionFingerprint fingerprint = fingerprinter.fingerprint(snapshot, previousFingerprint);
+        CurrentFileCollectionFingerprint concurrentFingerprint = fingerprints.asMap().putIfAbsent(key, fingerprint);
+        return concurrentFingerprint != null ? concurrentFingerprint : fingerprint;
+    }
+
+    public void invalidateAll() {
+        fingerprints.invalidateAll();
+    }
+
+    /**
+     * Returns the statistics since they have been collected the last time and resets them.
+     */
+    public Statistics collectStatistics() {
+        return new Statistics(hitCount.getAndSet(0), missCount.getAndSet(0));
+    }
+
+    public static class Statistics {
+        private final long hitCount;
+        private final long missCount;
+
+        public Statistics(long hitCount, long missCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public double getHitRate() {
+            long requestCount = hitCount + missCount;
+            return requestCount == 0 ? 0 : (double) hitCount / requestCount;
+        }
+
+        @Override
+        public String toString() {
+            return MessageFormat.format("Fingerprinted {0,number,integer} file collections, reused {1,number,integer} fingerprints ({2,number,percent} hit rate)",
+                hitCount + missCount, hitCount, getHitRate()
+            );
+        }
+    }
+
+    private static class CacheKey {
+        private final HashCode strategyConfigurationHash;
+        // The order of the roots matters for the fingerprint
+        private final ImmutableList<Map.Entry<String, HashCode>> rootHashes;
+        private final int hashCode;
+
+        public CacheKey(HashCode strategyConfigurationHash, ImmutableMultimap<String, HashCode> rootHashes) {
+            this.strategyConfigurationHash = strategyConfigurationHash;
+            this.rootHashes = ImmutableList.copyOf(rootHashes.entries());
+            this.hashCode = 31 * strategyConfigurationHash.hashCode() + this.rootHashes.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey that = (CacheKey) o;
+            return hashCode == that.hashCode
+                && strategyConfigurationHash.equals(that.strategyConfigurationHash)
+                && rootHashes.equals(that.rootHashes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
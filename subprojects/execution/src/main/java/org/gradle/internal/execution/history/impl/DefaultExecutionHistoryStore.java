@@ -22,61 +22,193 @@
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.PersistentIndexedCacheParameters.StorageEngine;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
+import org.gradle.internal.UncheckedException;
 import org.gradle.internal.execution.history.AfterExecutionState;
 import org.gradle.internal.execution.history.ExecutionHistoryStore;
 import org.gradle.internal.execution.history.PreviousExecutionState;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.RootTrackingFileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
 
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import static com.google.common.collect.ImmutableSortedMap.copyOfSorted;
 import static com.google.common.collect.Maps.transformValues;
 
 public class DefaultExecutionHistoryStore implements ExecutionHistoryStore {
 
+    /**
+     * When enabled, execution history is kept in the log-structured memory-mapped cache instead of the B-tree cache.
+     */
+    public static final String LOG_STRUCTURED_STORAGE_PROPERTY = "org.gradle.unsafe.execution-history.log-structured";
+
+    /**
+     * Work producing at least this many output file system locations stores its output snapshots as a delta against a checkpoint.
+     */
+    private static final int DELTA_ENCODING_THRESHOLD = 1000;
+
+    /**
+     * The number of executions after which a new checkpoint is taken, so deltas don't keep growing.
+     */
+    private static final int CHECKPOINT_INTERVAL = 16;
+
+    /**
+     * The number of output file system locations of all checkpoints kept in memory.
+     */
+    private static final int MAX_CHECKPOINT_LOCATIONS_IN_MEMORY = 100_000;
+
+    /**
+     * Weighs checkpoints by their number of locations, so a few large output trees don't take up the whole in-memory cache.
+     * A shared instance, so the in-memory cache is reused when the history is reopened.
+     */
+    private static final ToIntFunction<Object> CHECKPOINT_WEIGHER = value -> value instanceof OutputFilesCheckpoint
+        ? Math.max(1, ((OutputFilesCheckpoint) value).getLocationCount())
+        : 1;
+
     private final PersistentIndexedCache<String, PreviousExecutionState> store;
+    private final PersistentIndexedCache<String, OutputFilesCheckpoint> checkpoints;
+    private final PersistentIndexedCache<String, Integer> deltasSinceCheckpoint;
+    private final DefaultPreviousExecutionStateSerializer serializer;
 
     public DefaultExecutionHistoryStore(
         Supplier<PersistentCache> cache,
         InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory,
         Interner<String> stringInterner
     ) {
-        DefaultPreviousExecutionStateSerializer serializer = new DefaultPreviousExecutionStateSerializer(
+        this(cache, inMemoryCacheDecoratorFactory, stringInterner, Boolean.getBoolean(LOG_STRUCTURED_STORAGE_PROPERTY) ? StorageEngine.MEMORY_MAPPED : StorageEngine.BTREE);
+    }
+
+    public DefaultExecutionHistoryStore(
+        Supplier<PersistentCache> cache,
+        InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory,
+        Interner<String> stringInterner,
+        StorageEngine storageEngine
+    ) {
+        FileSystemSnapshotSerializer fileSystemSnapshotSerializer = new FileSystemSnapshotSerializer(stringInterner);
+        PersistentCache persistentCache = cache.get();
+
+        this.checkpoints = persistentCache.createCache(
+            PersistentIndexedCacheParameters.of("executionHistoryCheckpoints", String.class, new OutputFilesCheckpointSerializer(fileSystemSnapshotSerializer))
+            .withCacheDecorator(inMemoryCacheDecoratorFactory.weightedDecorator(MAX_CHECKPOINT_LOCATIONS_IN_MEMORY, CHECKPOINT_WEIGHER, false))
+            .withStorageEngine(storageEngine)
+        );
+
+        this.deltasSinceCheckpoint = persistentCache.createCache(
+            PersistentIndexedCacheParameters.of("executionHistoryCheckpointDeltas", String.class, BaseSerializerFactory.INTEGER_SERIALIZER)
+            .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(1000, false))
+            .withStorageEngine(storageEngine)
+        );
+
+        this.serializer = new DefaultPreviousExecutionStateSerializer(
             new FileCollectionFingerprintSerializer(stringInterner),
-            new FileSystemSnapshotSerializer(stringInterner)
+            fileSystemSnapshotSerializer
         );
 
         CacheDecorator inMemoryCacheDecorator = inMemoryCacheDecoratorFactory.decorator(10000, false);
-        this.store = cache.get().createCache(
+        // Every execution replaces the whole entry, so the log-structured store can append new entries
+        // sequentially and compact superseded ones in the background, instead of updating the B-tree in place
+        this.store = persistentCache.createCache(
             PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer)
             .withCacheDecorator(inMemoryCacheDecorator)
+            .withStorageEngine(storageEngine)
         );
     }
 
     @Override
     public Optional<PreviousExecutionState> load(String key) {
-        return Optional.ofNullable(store.getIfPresent(key));
+        PreviousExecutionState previousExecutionState = store.getIfPresent(key);
+        if (previousExecutionState instanceof UnresolvedPreviousExecutionState) {
+            // Look up the checkpoint only after the entry has been read, since caches can't be accessed from within a serializer
+            UnresolvedPreviousExecutionState unresolvedState = (UnresolvedPreviousExecutionState) previousExecutionState;
+            OutputFilesCheckpoint checkpoint = checkpoints.getIfPresent(unresolvedState.getCheckpointKey());
+            if (checkpoint == null || checkpoint.getId() != unresolvedState.getCheckpointId()) {
+                // The outputs can't be decoded without the checkpoint they were encoded against, so treat the work as never executed
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(serializer.resolveOutputs(unresolvedState, checkpoint));
+            } catch (Exception e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+        }
+        return Optional.ofNullable(previousExecutionState);
     }
 
     @Override
     public void store(String key, boolean successful, AfterExecutionState executionState) {
-        store.put(key, new DefaultPreviousExecutionState(
-            executionState.getOriginMetadata(),
-            executionState.getImplementation(),
-            executionState.getAdditionalImplementations(),
-            executionState.getInputProperties(),
-            prepareForSerialization(executionState.getInputFileProperties()),
-            executionState.getOutputFilesProducedByWork(),
-            successful
-        ));
+        ImmutableSortedMap<String, FileSystemSnapshot> outputFilesProducedByWork = executionState.getOutputFilesProducedByWork();
+        OutputFilesCheckpoint checkpoint = null;
+        // Work with few outputs doesn't touch the checkpoint caches at all. A checkpoint left behind from an earlier execution
+        // is not referenced by the full entry stored below, and is either reused as a base or replaced once the work has many outputs again.
+        if (hasManyOutputLocations(outputFilesProducedByWork)) {
+            Integer previousDeltas = deltasSinceCheckpoint.getIfPresent(key);
+            int deltas = 0;
+            if (previousDeltas != null && previousDeltas + 1 < CHECKPOINT_INTERVAL) {
+                checkpoint = checkpoints.getIfPresent(key);
+                deltas = previousDeltas + 1;
+            }
+            if (checkpoint == null) {
+                checkpoint = new OutputFilesCheckpoint(key, ThreadLocalRandom.current().nextInt(), outputFilesProducedByWork);
+                deltas = 0;
+                checkpoints.put(key, checkpoint);
+            }
+            deltasSinceCheckpoint.put(key, deltas);
+        }
+
+        if (checkpoint == null) {
+            store.put(key, new DefaultPreviousExecutionState(
+                executionState.getOriginMetadata(),
+                executionState.getImplementation(),
+                executionState.getAdditionalImplementations(),
+                executionState.getInputProperties(),
+                prepareForSerialization(executionState.getInputFileProperties()),
+                outputFilesProducedByWork,
+                successful
+            ));
+        } else {
+            store.put(key, new DeltaEncodedPreviousExecutionState(
+                executionState.getOriginMetadata(),
+                executionState.getImplementation(),
+                executionState.getAdditionalImplementations(),
+                executionState.getInputProperties(),
+                prepareForSerialization(executionState.getInputFileProperties()),
+                outputFilesProducedByWork,
+                successful,
+                checkpoint
+            ));
+        }
     }
 
     @Override
     public void remove(String key) {
         store.remove(key);
+        checkpoints.remove(key);
+        deltasSinceCheckpoint.remove(key);
+    }
+
+    private static boolean hasManyOutputLocations(ImmutableSortedMap<String, FileSystemSnapshot> outputFilesProducedByWork) {
+        int[] remaining = {DELTA_ENCODING_THRESHOLD};
+        for (FileSystemSnapshot snapshot : outputFilesProducedByWork.values()) {
+            snapshot.accept(new RootTrackingFileSystemSnapshotHierarchyVisitor() {
+                @Override
+                public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot entry, boolean isRoot) {
+                    return --remaining[0] > 0 ? SnapshotVisitResult.CONTINUE : SnapshotVisitResult.TERMINATE;
+                }
+            });
+            if (remaining[0] <= 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static ImmutableSortedMap<String, FileCollectionFingerprint> prepareForSerialization(ImmutableSortedMap<String, CurrentFileCollectionFingerprint> fingerprints) {
@@ -26,24 +26,31 @@
 import org.gradle.internal.serialize.Decoder;
 import org.gradle.internal.serialize.Encoder;
 import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
 import org.gradle.internal.snapshot.ValueSnapshot;
 import org.gradle.internal.snapshot.impl.ImplementationSnapshot;
 import org.gradle.internal.snapshot.impl.ImplementationSnapshotSerializer;
 import org.gradle.internal.snapshot.impl.SnapshotSerializer;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.time.Duration;
 import java.util.Map;
 
 public class DefaultPreviousExecutionStateSerializer extends AbstractSerializer<PreviousExecutionState> {
+    private static final byte OUTPUTS_FULL = 0;
+    private static final byte OUTPUTS_DELTA = 1;
+
     private final Serializer<FileCollectionFingerprint> fileCollectionFingerprintSerializer;
-    private final Serializer<FileSystemSnapshot> fileSystemSnapshotSerializer;
+    private final FileSystemSnapshotSerializer fileSystemSnapshotSerializer;
     private final Serializer<ImplementationSnapshot> implementationSnapshotSerializer;
     private final Serializer<ValueSnapshot> valueSnapshotSerializer = new SnapshotSerializer();
 
     public DefaultPreviousExecutionStateSerializer(
         Serializer<FileCollectionFingerprint> fileCollectionFingerprintSerializer,
-        Serializer<FileSystemSnapshot> fileSystemSnapshotSerializer
+        FileSystemSnapshotSerializer fileSystemSnapshotSerializer
     ) {
         this.fileCollectionFingerprintSerializer = fileCollectionFingerprintSerializer;
         this.fileSystemSnapshotSerializer = fileSystemSnapshotSerializer;
@@ -70,6 +77,25 @@ public PreviousExecutionState read(Decoder decoder) throws Exception {
 
         ImmutableSortedMap<String, ValueSnapshot> inputProperties = readInputProperties(decoder);
         ImmutableSortedMap<String, FileCollectionFingerprint> inputFilesFingerprints = readFingerprints(decoder);
+        if (decoder.readByte() == OUTPUTS_DELTA) {
+            // The checkpoint is in a different cache, which must not be accessed while this entry is read,
+            // so keep the delta encoded until the checkpoint has been looked up
+            String checkpointKey = decoder.readString();
+            int checkpointId = decoder.readInt();
+            byte[] encodedOutputsDelta = decoder.readBinary();
+            boolean successful = decoder.readBoolean();
+            return new UnresolvedPreviousExecutionState(
+                originMetadata,
+                taskImplementation,
+                taskActionImplementations,
+                inputProperties,
+                inputFilesFingerprints,
+                checkpointKey,
+                checkpointId,
+                encodedOutputsDelta,
+                successful
+            );
+        }
         ImmutableSortedMap<String, FileSystemSnapshot> outputFilesSnapshots = readSnapshots(decoder);
 
         boolean successful = decoder.readBoolean();
@@ -100,11 +126,43 @@ public void write(Encoder encoder, PreviousExecutionState execution) throws Exce
 
         writeInputProperties(encoder, execution.getInputProperties());
         writeFingerprints(encoder, execution.getInputFileProperties());
-        writeSnapshots(encoder, execution.getOutputFilesProducedByWork());
+        if (execution instanceof DeltaEncodedPreviousExecutionState) {
+            DeltaEncodedPreviousExecutionState deltaEncodedExecution = (DeltaEncodedPreviousExecutionState) execution;
+            OutputFilesCheckpoint checkpoint = deltaEncodedExecution.getCheckpoint();
+            encoder.writeByte(OUTPUTS_DELTA);
+            encoder.writeString(checkpoint.getKey());
+            encoder.writeInt(checkpoint.getId());
+            ByteArrayOutputStream encodedOutputsDelta = new ByteArrayOutputStream();
+            KryoBackedEncoder deltaEncoder = new KryoBackedEncoder(encodedOutputsDelta);
+            writeSnapshotsDelta(deltaEncoder, checkpoint.getOutputFilesProducedByWork(), deltaEncodedExecution.getOutputFilesProducedByWork());
+            deltaEncoder.flush();
+            encoder.writeBinary(encodedOutputsDelta.toByteArray());
+        } else {
+            encoder.writeByte(OUTPUTS_FULL);
+            writeSnapshots(encoder, execution.getOutputFilesProducedByWork());
+        }
 
         encoder.writeBoolean(execution.isSuccessful());
     }
 
+    /**
+     * Decodes the output snapshots of an entry read from the execution history against the checkpoint they were encoded against.
+     */
+    public PreviousExecutionState resolveOutputs(UnresolvedPreviousExecutionState execution, OutputFilesCheckpoint checkpoint) throws Exception {
+        KryoBackedDecoder deltaDecoder = new KryoBackedDecoder(new ByteArrayInputStream(execution.getEncodedOutputsDelta()));
+        ImmutableSortedMap<String, FileSystemSnapshot> outputFilesSnapshots = readSnapshotsDelta(deltaDecoder, checkpoint.getOutputFilesProducedByWork());
+        return new DeltaEncodedPreviousExecutionState(
+            execution.getOriginMetadata(),
+            execution.getImplementation(),
+            execution.getAdditionalImplementations(),
+            execution.getInputProperties(),
+            execution.getInputFileProperties(),
+            outputFilesSnapshots,
+            execution.isSuccessful(),
+            checkpoint
+        );
+    }
+
     public ImmutableSortedMap<String, ValueSnapshot> readInputProperties(Decoder decoder) throws Exception {
         int size = decoder.readSmallInt();
         if (size == 0) {
@@ -167,6 +225,27 @@ private void writeSnapshots(Encoder encoder, ImmutableSortedMap<String, FileSyst
         }
     }
 
+    private ImmutableSortedMap<String, FileSystemSnapshot> readSnapshotsDelta(Decoder decoder, ImmutableSortedMap<String, FileSystemSnapshot> baseSnapshots) throws Exception {
+        int count = decoder.readSmallInt();
+        ImmutableSortedMap.Builder<String, FileSystemSnapshot> builder = ImmutableSortedMap.naturalOrder();
+        for (int snapshotIdx = 0; snapshotIdx < count; snapshotIdx++) {
+            String property = decoder.readString();
+            FileSystemSnapshot baseSnapshot = baseSnapshots.getOrDefault(property, FileSystemSnapshot.EMPTY);
+            FileSystemSnapshot snapshot = fileSystemSnapshotSerializer.readDelta(decoder, baseSnapshot);
+            builder.put(property, snapshot);
+        }
+        return builder.build();
+    }
+
+    private void writeSnapshotsDelta(Encoder encoder, ImmutableSortedMap<String, FileSystemSnapshot> baseSnapshots, ImmutableSortedMap<String, FileSystemSnapshot> snapshots) throws Exception {
+        encoder.writeSmallInt(snapshots.size());
+        for (Map.Entry<String, FileSystemSnapshot> entry : snapshots.entrySet()) {
+            String property = entry.getKey();
+            encoder.writeString(property);
+            fileSystemSnapshotSerializer.writeDelta(encoder, baseSnapshots.getOrDefault(property, FileSystemSnapshot.EMPTY), entry.getValue());
+        }
+    }
+
     private ValueSnapshot readValueSnapshot(Decoder decoder) throws Exception {
         return valueSnapshotSerializer.read(decoder);
     }
@@ -174,5 +253,4 @@ private ValueSnapshot readValueSnapshot(Decoder decoder) throws Exception {
     private void writeValueSnapshot(Encoder encoder, ValueSnapshot snapshot) throws Exception {
         valueSnapshotSerializer.write(encoder, snapshot);
     }
-
 }
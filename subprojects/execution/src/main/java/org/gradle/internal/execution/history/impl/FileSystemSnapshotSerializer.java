@@ -33,6 +33,7 @@
 import org.gradle.internal.snapshot.RootTrackingFileSystemSnapshotHierarchyVisitor;
 import org.gradle.internal.snapshot.SnapshotVisitResult;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -40,7 +41,9 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FileSystemSnapshotSerializer implements Serializer<FileSystemSnapshot> {
     private enum EntryType {
@@ -51,6 +54,35 @@ private enum EntryType {
         END
     }
 
+    /**
+     * Operations of a delta, applied to the children of a base directory (or the base roots) in order.
+     *
+     * Each operation except {@link #END} carries the index of the base entry it applies to, relative to the first base entry
+     * not yet consumed. Base entries skipped over by an operation are kept unchanged.
+     */
+    private enum DeltaOp {
+        /**
+         * Insert a new entry before the base entry.
+         */
+        INSERT,
+        /**
+         * Remove the base entry.
+         */
+        REMOVE,
+        /**
+         * Replace the base entry with a new entry.
+         */
+        REPLACE,
+        /**
+         * Apply a nested delta to the children of the base directory.
+         */
+        PATCH,
+        /**
+         * Keep all remaining base entries.
+         */
+        END
+    }
+
     private final Interner<String> stringInterner;
 
     public FileSystemSnapshotSerializer(Interner<String> stringInterner) {
@@ -59,9 +91,40 @@ public FileSystemSnapshotSerializer(Interner<String> stringInterner) {
 
     @Override
     public FileSystemSnapshot read(Decoder decoder) throws Exception {
+        return CompositeFileSystemSnapshot.of(readEntries(decoder, null));
+    }
+
+    @Override
+    public void write(Encoder encoder, FileSystemSnapshot value) throws Exception {
+        writeEntries(encoder, value, true);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #writeDelta(Encoder, FileSystemSnapshot, FileSystemSnapshot)}.
+     *
+     * The returned snapshot shares all unchanged entries with the given base snapshot.
+     */
+    public FileSystemSnapshot readDelta(Decoder decoder, FileSystemSnapshot base) throws Exception {
+        return CompositeFileSystemSnapshot.of(readChildrenDelta(decoder, rootsOf(base), null));
+    }
+
+    /**
+     * Writes the given snapshot as a delta against the base snapshot.
+     *
+     * Only the entries that have been added, removed or changed are written, together with the hashes of their parent directories.
+     * Reading the delta back requires the same base snapshot.
+     */
+    public void writeDelta(Encoder encoder, FileSystemSnapshot base, FileSystemSnapshot value) throws Exception {
+        writeChildrenDelta(encoder, rootsOf(base), rootsOf(value), true);
+    }
+
+    private List<FileSystemLocationSnapshot> readEntries(Decoder decoder, @Nullable String parentPath) throws Exception {
         SnapshotStack stack = new SnapshotStack();
         stack.push();
         Deque<String> pathTracker = new ArrayDeque<>();
+        if (parentPath != null) {
+            pathTracker.addLast(parentPath);
+        }
         while (true) {
             EntryType type = readEntryType(decoder);
             if (type == EntryType.END) {
@@ -106,17 +169,16 @@ public FileSystemSnapshot read(Decoder decoder) throws Exception {
                     throw new AssertionError();
             }
         }
-        return CompositeFileSystemSnapshot.of(stack.pop());
+        return stack.pop();
     }
 
-    @Override
-    public void write(Encoder encoder, FileSystemSnapshot value) throws Exception {
+    private static void writeEntries(Encoder encoder, FileSystemSnapshot value, boolean absoluteRoots) throws Exception {
         value.accept(new RootTrackingFileSystemSnapshotHierarchyVisitor() {
             @Override
             public void enterDirectory(DirectorySnapshot directorySnapshot, boolean isRoot) {
                 try {
                     writeEntryType(encoder, EntryType.DIR_OPEN);
-                    writePath(encoder, isRoot, directorySnapshot);
+                    writePath(encoder, isRoot && absoluteRoots, directorySnapshot);
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
                 }
@@ -129,7 +191,7 @@ public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot, boole
                     public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                         try {
                             writeEntryType(encoder, EntryType.REGULAR_FILE);
-                            writePath(encoder, isRoot, fileSnapshot);
+                            writePath(encoder, isRoot && absoluteRoots, fileSnapshot);
                             writeAccessType(encoder, fileSnapshot.getAccessType());
                             writeHashCode(encoder, fileSnapshot.getHash());
                             FileMetadata metadata = fileSnapshot.getMetadata();
@@ -144,7 +206,7 @@ public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                     public void visitMissing(MissingFileSnapshot missingSnapshot) {
                         try {
                             writeEntryType(encoder, EntryType.MISSING);
-                            writePath(encoder, isRoot, missingSnapshot);
+                            writePath(encoder, isRoot && absoluteRoots, missingSnapshot);
                             writeAccessType(encoder, missingSnapshot.getAccessType());
                         } catch (IOException e) {
                             throw new UncheckedIOException(e);
@@ -168,6 +230,171 @@ public void leaveDirectory(DirectorySnapshot directorySnapshot, boolean isRoot)
         encoder.writeByte((byte) EntryType.END.ordinal());
     }
 
+    private List<FileSystemLocationSnapshot> readChildrenDelta(Decoder decoder, List<FileSystemLocationSnapshot> baseChildren, @Nullable String parentPath) throws Exception {
+        List<FileSystemLocationSnapshot> children = new ArrayList<>(baseChildren.size());
+        int cursor = 0;
+        while (true) {
+            DeltaOp op = DeltaOp.values()[decoder.readByte()];
+            if (op == DeltaOp.END) {
+                children.addAll(baseChildren.subList(cursor, baseChildren.size()));
+                return children;
+            }
+            int index = cursor + decoder.readSmallInt();
+            children.addAll(baseChildren.subList(cursor, index));
+            switch (op) {
+                case INSERT:
+                    children.add(readEntry(decoder, parentPath));
+                    cursor = index;
+                    break;
+                case REMOVE:
+                    cursor = index + 1;
+                    break;
+                case REPLACE:
+                    children.add(readEntry(decoder, parentPath));
+                    cursor = index + 1;
+                    break;
+                case PATCH:
+                    DirectorySnapshot baseDirectory = (DirectorySnapshot) baseChildren.get(index);
+                    FileMetadata.AccessType accessType = readAccessType(decoder);
+                    HashCode merkleHash = readHashCode(decoder);
+                    List<FileSystemLocationSnapshot> patchedChildren = readChildrenDelta(decoder, childrenOf(baseDirectory), baseDirectory.getAbsolutePath());
+                    children.add(new DirectorySnapshot(baseDirectory.getAbsolutePath(), baseDirectory.getName(), accessType, merkleHash, patchedChildren));
+                    cursor = index + 1;
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+        }
+    }
+
+    private FileSystemLocationSnapshot readEntry(Decoder decoder, @Nullable String parentPath) throws Exception {
+        List<FileSystemLocationSnapshot> entries = readEntries(decoder, parentPath);
+        if (entries.size() != 1) {
+            throw new IllegalStateException("Expected a single entry, but found " + entries.size());
+        }
+        return entries.get(0);
+    }
+
+    /**
+     * Writes the operations that turn the base children into the new children.
+     *
+     * Entries are matched by name (by absolute path for roots). When matched entries appear in a different order than
+     * in the base, the out-of-order ones are written as removed and inserted again.
+     */
+    private static void writeChildrenDelta(Encoder encoder, List<FileSystemLocationSnapshot> baseChildren, List<FileSystemLocationSnapshot> children, boolean roots) throws Exception {
+        Map<String, Integer> baseIndices = new HashMap<>(baseChildren.size() * 2);
+        for (int index = 0; index < baseChildren.size(); index++) {
+            baseIndices.put(keyOf(baseChildren.get(index), roots), index);
+        }
+        // Mirrors the cursor of the reader, which has copied all base entries before it
+        int cursor = 0;
+        // The last base entry matched by a new entry; all base entries up to it have been handled
+        int lastMatched = -1;
+        for (FileSystemLocationSnapshot child : children) {
+            Integer index = baseIndices.get(keyOf(child, roots));
+            if (index == null || index <= lastMatched) {
+                writeDeltaOp(encoder, DeltaOp.INSERT, lastMatched + 1 - cursor);
+                cursor = lastMatched + 1;
+                writeEntries(encoder, child, roots);
+                continue;
+            }
+            for (int removed = lastMatched + 1; removed < index; removed++) {
+                writeDeltaOp(encoder, DeltaOp.REMOVE, removed - cursor);
+                cursor = removed + 1;
+            }
+            FileSystemLocationSnapshot baseChild = baseChildren.get(index);
+            if (!isUnchanged(baseChild, child)) {
+                if (baseChild instanceof DirectorySnapshot && child instanceof DirectorySnapshot) {
+                    DirectorySnapshot directory = (DirectorySnapshot) child;
+                    writeDeltaOp(encoder, DeltaOp.PATCH, index - cursor);
+                    writeAccessType(encoder, directory.getAccessType());
+                    writeHashCode(encoder, directory.getHash());
+                    writeChildrenDelta(encoder, childrenOf((DirectorySnapshot) baseChild), childrenOf(directory), false);
+                } else {
+                    writeDeltaOp(encoder, DeltaOp.REPLACE, index - cursor);
+                    writeEntries(encoder, child, roots);
+                }
+                cursor = index + 1;
+            }
+            lastMatched = index;
+        }
+        for (int removed = lastMatched + 1; removed < baseChildren.size(); removed++) {
+            writeDeltaOp(encoder, DeltaOp.REMOVE, removed - cursor);
+            cursor = removed + 1;
+        }
+        encoder.writeByte((byte) DeltaOp.END.ordinal());
+    }
+
+    private static void writeDeltaOp(Encoder encoder, DeltaOp op, int relativeIndex) throws IOException {
+        encoder.writeByte((byte) op.ordinal());
+        encoder.writeSmallInt(relativeIndex);
+    }
+
+    private static String keyOf(FileSystemLocationSnapshot snapshot, boolean root) {
+        return root ? snapshot.getAbsolutePath() : snapshot.getName();
+    }
+
+    /**
+     * Checks whether the two entries would be serialized the same way, including file metadata.
+     */
+    private static boolean isUnchanged(FileSystemLocationSnapshot base, FileSystemLocationSnapshot snapshot) {
+        if (base == snapshot) {
+            return true;
+        }
+        if (base.getType() != snapshot.getType()
+            || base.getAccessType() != snapshot.getAccessType()
+            || !base.getName().equals(snapshot.getName())
+            || !base.getHash().equals(snapshot.getHash())) {
+            return false;
+        }
+        if (base instanceof RegularFileSnapshot) {
+            FileMetadata baseMetadata = ((RegularFileSnapshot) base).getMetadata();
+            FileMetadata metadata = ((RegularFileSnapshot) snapshot).getMetadata();
+            return baseMetadata.getLastModified() == metadata.getLastModified() && baseMetadata.getLength() == metadata.getLength();
+        }
+        if (base instanceof DirectorySnapshot) {
+            // The Merkle hash already covers names and content, but not the metadata of the files
+            List<FileSystemLocationSnapshot> baseChildren = childrenOf((DirectorySnapshot) base);
+            List<FileSystemLocationSnapshot> children = childrenOf((DirectorySnapshot) snapshot);
+            if (baseChildren.size() != children.size()) {
+                return false;
+            }
+            for (int index = 0; index < children.size(); index++) {
+                if (!isUnchanged(baseChildren.get(index), children.get(index))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static List<FileSystemLocationSnapshot> rootsOf(FileSystemSnapshot snapshot) {
+        List<FileSystemLocationSnapshot> roots = new ArrayList<>();
+        snapshot.accept(new RootTrackingFileSystemSnapshotHierarchyVisitor() {
+            @Override
+            public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot entry, boolean isRoot) {
+                roots.add(entry);
+                return SnapshotVisitResult.SKIP_SUBTREE;
+            }
+        });
+        return roots;
+    }
+
+    private static List<FileSystemLocationSnapshot> childrenOf(DirectorySnapshot directory) {
+        List<FileSystemLocationSnapshot> children = new ArrayList<>();
+        directory.accept(new RootTrackingFileSystemSnapshotHierarchyVisitor() {
+            @Override
+            public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot entry, boolean isRoot) {
+                if (isRoot) {
+                    return SnapshotVisitResult.CONTINUE;
+                }
+                children.add(entry);
+                return SnapshotVisitResult.SKIP_SUBTREE;
+            }
+        });
+        return children;
+    }
+
     private static void writePath(Encoder encoder, boolean isRoot, FileSystemLocationSnapshot snapshot) throws IOException {
         encoder.writeString(isRoot ? snapshot.getAbsolutePath() : snapshot.getName());
     }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
+
+/**
+ * A full copy of the output snapshots produced by a unit of work.
+ *
+ * Subsequent execution history entries for the same work store their output snapshots as a delta against the checkpoint.
+ */
+public class OutputFilesCheckpoint {
+    private final String key;
+    private final int id;
+    private final ImmutableSortedMap<String, FileSystemSnapshot> outputFilesProducedByWork;
+    private final int locationCount;
+
+    public OutputFilesCheckpoint(String key, int id, ImmutableSortedMap<String, FileSystemSnapshot> outputFilesProducedByWork) {
+        this.key = key;
+        this.id = id;
+        this.outputFilesProducedByWork = outputFilesProducedByWork;
+        this.locationCount = countLocations(outputFilesProducedByWork);
+    }
+
+    /**
+     * The key of the work the checkpoint was taken for.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Identifies the checkpoint among the checkpoints taken for the same work.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public ImmutableSortedMap<String, FileSystemSnapshot> getOutputFilesProducedByWork() {
+        return outputFilesProducedByWork;
+    }
+
+    /**
+     * The number of file system locations in the checkpoint, used to weigh it when it is kept in memory.
+     */
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    private static int countLocations(ImmutableSortedMap<String, FileSystemSnapshot> outputFilesProducedByWork) {
+        int[] count = {0};
+        for (FileSystemSnapshot snapshot : outputFilesProducedByWork.values()) {
+            snapshot.accept(entry -> {
+                count[0]++;
+                return SnapshotVisitResult.CONTINUE;
+            });
+        }
+        return count[0];
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+
+import java.util.Map;
+
+public class OutputFilesCheckpointSerializer extends AbstractSerializer<OutputFilesCheckpoint> {
+    private final Serializer<FileSystemSnapshot> fileSystemSnapshotSerializer;
+
+    public OutputFilesCheckpointSerializer(Serializer<FileSystemSnapshot> fileSystemSnapshotSerializer) {
+        this.fileSystemSnapshotSerializer = fileSystemSnapshotSerializer;
+    }
+
+    @Override
+    public OutputFilesCheckpoint read(Decoder decoder) throws Exception {
+        String key = decoder.readString();
+        int id = decoder.readInt();
+        int count = decoder.readSmallInt();
+        ImmutableSortedMap.Builder<String, FileSystemSnapshot> builder = ImmutableSortedMap.naturalOrder();
+        for (int snapshotIdx = 0; snapshotIdx < count; snapshotIdx++) {
+            String property = decoder.readString();
+            FileSystemSnapshot snapshot = fileSystemSnapshotSerializer.read(decoder);
+            builder.put(property, snapshot);
+        }
+        return new OutputFilesCheckpoint(key, id, builder.build());
+    }
+
+    @Override
+    public void write(Encoder encoder, OutputFilesCheckpoint checkpoint) throws Exception {
+        encoder.writeString(checkpoint.getKey());
+        encoder.writeInt(checkpoint.getId());
+        ImmutableSortedMap<String, FileSystemSnapshot> snapshots = checkpoint.getOutputFilesProducedByWork();
+        encoder.writeSmallInt(snapshots.size());
+        for (Map.Entry<String, FileSystemSnapshot> entry : snapshots.entrySet()) {
+            encoder.writeString(entry.getKey());
+            fileSystemSnapshotSerializer.write(encoder, entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import org.gradle.caching.internal.origin.OriginMetadata;
+import org.gradle.internal.execution.history.PreviousExecutionState;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.ValueSnapshot;
+import org.gradle.internal.snapshot.impl.ImplementationSnapshot;
+
+/**
+ * Previous execution state as read from the execution history, whose output snapshots are still encoded as a delta against an {@link OutputFilesCheckpoint}.
+ *
+ * The checkpoint is looked up after the entry has been read, since the serializer cannot access the checkpoints cache while the history cache is being read.
+ * Use {@link DefaultPreviousExecutionStateSerializer#resolveOutputs(UnresolvedPreviousExecutionState, OutputFilesCheckpoint)} to decode the output snapshots.
+ */
+public class UnresolvedPreviousExecutionState extends AbstractInputExecutionState<FileCollectionFingerprint> implements PreviousExecutionState {
+    private final OriginMetadata originMetadata;
+    private final String checkpointKey;
+    private final int checkpointId;
+    private final byte[] encodedOutputsDelta;
+    private final boolean successful;
+
+    public UnresolvedPreviousExecutionState(
+        OriginMetadata originMetadata,
+        ImplementationSnapshot implementation,
+        ImmutableList<ImplementationSnapshot> additionalImplementations,
+        ImmutableSortedMap<String, ValueSnapshot> inputProperties,
+        ImmutableSortedMap<String, FileCollectionFingerprint> inputFileProperties,
+        String checkpointKey,
+        int checkpointId,
+        byte[] encodedOutputsDelta,
+        boolean successful
+    ) {
+        super(implementation, additionalImplementations, inputProperties, inputFileProperties);
+        this.originMetadata = originMetadata;
+        this.checkpointKey = checkpointKey;
+        this.checkpointId = checkpointId;
+        this.encodedOutputsDelta = encodedOutputsDelta;
+        this.successful = successful;
+    }
+
+    /**
+     * The key of the checkpoint the output snapshots are encoded against.
+     */
+    public String getCheckpointKey() {
+        return checkpointKey;
+    }
+
+    /**
+     * The id of the checkpoint the output snapshots are encoded against.
+     */
+    public int getCheckpointId() {
+        return checkpointId;
+    }
+
+    public byte[] getEncodedOutputsDelta() {
+        return encodedOutputsDelta;
+    }
+
+    @Override
+    public ImmutableSortedMap<String, FileSystemSnapshot> getOutputFilesProducedByWork() {
+        throw new IllegalStateException("The output snapshots need to be resolved against their checkpoint first.");
+    }
+
+    @Override
+    public OriginMetadata getOriginMetadata() {
+        return originMetadata;
+    }
+
+    @Override
+    public boolean isSuccessful() {
+        return successful;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.fingerprint.impl
+
+import org.gradle.internal.execution.fingerprint.FileCollectionFingerprinter
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.file.impl.DefaultFileMetadata
+import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.CompositeFileSystemSnapshot
+import org.gradle.internal.snapshot.FileSystemSnapshot
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import spock.lang.Specification
+
+class FileCollectionFingerprintCacheTest extends Specification {
+    def cache = new FileCollectionFingerprintCache()
+    def fingerprinter = Mock(FileCollectionFingerprinter)
+    def fingerprint = Mock(CurrentFileCollectionFingerprint)
+
+    def "reuses fingerprint of snapshot with the same roots"() {
+        when:
+        def first = cache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1), file("/lib/b.jar", 2)), null)
+        then:
+        1 * fingerprinter.getStrategyConfigurationHash() >> HashCode.fromInt(1)
+        1 * fingerprinter.fingerprint(_ as FileSystemSnapshot, null) >> fingerprint
+        0 * _
+        first == fingerprint
+
+        when:
+        def second = cache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1), file("/lib/b.jar", 2)), null)
+        then:
+        1 * fingerprinter.getStrategyConfigurationHash() >> HashCode.fromInt(1)
+        0 * _
+        second == fingerprint
+        with(cache.collectStatistics()) {
+            hitCount == 1
+            missCount == 1
+            hitRate == 0.5d
+        }
+    }
+
+    def "does not reuse fingerprint when #description differs"() {
+        def otherFingerprint = Mock(CurrentFileCollectionFingerprint)
+
+        when:
+        cache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1), file("/lib/b.jar", 2)), null)
+        then:
+        1 * fingerprinter.getStrategyConfigurationHash() >> HashCode.fromInt(1)
+        1 * fingerprinter.fingerprint(_ as FileSystemSnapshot, null) >> fingerprint
+
+        when:
+        def result = cache.fingerprint(fingerprinter, snapshot(otherRoots as RegularFileSnapshot[]), null)
+        then:
+        1 * fingerprinter.getStrategyConfigurationHash() >> HashCode.fromInt(otherConfiguration)
+        1 * fingerprinter.fingerprint(_ as FileSystemSnapshot, null) >> otherFingerprint
+        result == otherFingerprint
+
+        where:
+        description           | otherConfiguration | otherRoots
+        "configuration"       | 2                  | [file("/lib/a.jar", 1), file("/lib/b.jar", 2)]
+        "content of a root"   | 1                  | [file("/lib/a.jar", 1), file("/lib/b.jar", 3)]
+        "path of a root"      | 1                  | [file("/lib/a.jar", 1), file("/lib/c.jar", 2)]
+        "order of the roots"  | 1                  | [file("/lib/b.jar", 2), file("/lib/a.jar", 1)]
+    }
+
+    def "fingerprints again after invalidation"() {
+        when:
+        cache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1)), null)
+        cache.invalidateAll()
+        cache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1)), null)
+        then:
+        2 * fingerprinter.getStrategyConfigurationHash() >> HashCode.fromInt(1)
+        2 * fingerprinter.fingerprint(_ as FileSystemSnapshot, null) >> fingerprint
+    }
+
+    def "drops fingerprints beyond the maximum size"() {
+        def boundedCache = new FileCollectionFingerprintCache(1)
+
+        when:
+        boundedCache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1)), null)
+        boundedCache.fingerprint(fingerprinter, snapshot(file("/lib/b.jar", 2)), null)
+        boundedCache.fingerprint(fingerprinter, snapshot(file("/lib/a.jar", 1)), null)
+        then:
+        3 * fingerprinter.getStrategyConfigurationHash() >> HashCode.fromInt(1)
+        3 * fingerprinter.fingerprint(_ as FileSystemSnapshot, null) >> fingerprint
+    }
+
+    def "does not cache empty fingerprints"() {
+        def empty = Mock(CurrentFileCollectionFingerprint)
+
+        when:
+        def result = cache.fingerprint(fingerprinter, FileSystemSnapshot.EMPTY, null)
+        then:
+        1 * fingerprinter.empty() >> empty
+        0 * _
+        result == empty
+    }
+
+    private static FileSystemSnapshot snapshot(RegularFileSnapshot... roots) {
+        CompositeFileSystemSnapshot.of(roots as List)
+    }
+
+    private static RegularFileSnapshot file(String path, int hash) {
+        new RegularFileSnapshot(path, path.substring(path.lastIndexOf('/') + 1), HashCode.fromInt(hash), DefaultFileMetadata.file(0, 0, AccessType.DIRECT))
+    }
+}
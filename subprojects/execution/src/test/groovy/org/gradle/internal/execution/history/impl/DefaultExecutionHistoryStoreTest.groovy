@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.internal.execution.history.impl
+
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSortedMap
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.cache.FileLockManager
+import org.gradle.cache.PersistentCache
+import org.gradle.cache.PersistentIndexedCacheParameters.StorageEngine
+import org.gradle.cache.internal.DefaultCacheFactory
+import org.gradle.cache.internal.DefaultCacheRepository
+import org.gradle.cache.internal.DefaultFileLockManager
+import org.gradle.cache.internal.DefaultInMemoryCacheDecoratorFactory
+import org.gradle.cache.internal.ProcessMetaDataProvider
+import org.gradle.cache.internal.TestCrossBuildInMemoryCacheFactory
+import org.gradle.cache.internal.locklistener.NoOpFileLockContentionHandler
+import org.gradle.cache.internal.scopes.DefaultCacheScopeMapping
+import org.gradle.caching.internal.origin.OriginMetadata
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.execution.history.AfterExecutionState
+import org.gradle.internal.execution.history.ExecutionHistoryStore
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.progress.NoOpProgressLoggerFactory
+import org.gradle.internal.snapshot.FileSystemSnapshot
+import org.gradle.internal.snapshot.TestSnapshotFixture
+import org.gradle.internal.snapshot.impl.ImplementationSnapshot
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.GradleVersion
+import org.junit.Rule
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.time.Duration
+
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode
+import static org.gradle.internal.snapshot.SnapshotUtil.index
+
+class DefaultExecutionHistoryStoreTest extends Specification implements TestSnapshotFixture {
+    @Rule
+    public final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def metaDataProvider = Stub(ProcessMetaDataProvider) {
+        getProcessIdentifier() >> "123"
+        getProcessDisplayName() >> "process"
+    }
+    def executorFactory = new DefaultExecutorFactory()
+    def cacheFactory = new DefaultCacheFactory(new DefaultFileLockManager(metaDataProvider, new NoOpFileLockContentionHandler()), executorFactory, new NoOpProgressLoggerFactory())
+    def cacheRepository = new DefaultCacheRepository(new DefaultCacheScopeMapping(tmpDir.file("caches"), GradleVersion.current()), cacheFactory)
+    def stringInterner = new StringInterner()
+
+    def cleanup() {
+        cacheFactory.close()
+        executorFactory.stop()
+    }
+
+    @Timeout(60)
+    def "loads delta-encoded outputs through a cold in-memory cache using #storageEngine storage"() {
+        def outputs = directory("/root/outputs", (1000..2500).collect { regularFile("/root/outputs/file${it}.txt", it as Long) })
+        def changedOutputs = directory("/root/outputs", (1000..2500).collect { regularFile("/root/outputs/file${it}.txt", it == 1042 ? 1L : it as Long) })
+
+        when:
+        def cache = openCache()
+        def store = createStore(cache, storageEngine)
+        store.store("work", true, executionState(outputs))
+        store.store("work", true, executionState(changedOutputs))
+        cache.close()
+
+        cache = openCache()
+        def loaded = createStore(cache, storageEngine).load("work").get()
+        cache.close()
+
+        then:
+        loaded.successful
+        hashes(loaded.outputFilesProducedByWork["output"]) == hashes(changedOutputs)
+
+        where:
+        storageEngine << StorageEngine.values()
+    }
+
+    def "treats delta-encoded entry as never executed when its checkpoint is gone using #storageEngine storage"() {
+        def outputs = directory("/root/outputs", (1000..2500).collect { regularFile("/root/outputs/file${it}.txt", it as Long) })
+
+        when:
+        def cache = openCache()
+        createStore(cache, storageEngine).store("work", true, executionState(outputs))
+        cache.close()
+        cache.baseDir.listFiles().findAll { it.name.startsWith("executionHistoryCheckpoints.") }*.delete()
+
+        cache = openCache()
+        def loaded = createStore(cache, storageEngine).load("work")
+        cache.close()
+
+        then:
+        !loaded.present
+
+        where:
+        storageEngine << StorageEngine.values()
+    }
+
+    private PersistentCache openCache() {
+        cacheRepository.cache("executionHistory")
+            .withLockOptions(mode(FileLockManager.LockMode.OnDemand))
+            .open()
+    }
+
+    /**
+     * Creates a store whose in-memory layer starts out empty, so entries are read from the persistent cache.
+     */
+    private ExecutionHistoryStore createStore(PersistentCache cache, StorageEngine storageEngine) {
+        new DefaultExecutionHistoryStore({ cache }, new DefaultInMemoryCacheDecoratorFactory(true, new TestCrossBuildInMemoryCacheFactory()), stringInterner, storageEngine)
+    }
+
+    private AfterExecutionState executionState(FileSystemSnapshot outputs) {
+        Stub(AfterExecutionState) {
+            getOriginMetadata() >> new OriginMetadata("build-id", Duration.ofMillis(10))
+            getImplementation() >> ImplementationSnapshot.of("Work", HashCode.fromInt(1234))
+            getAdditionalImplementations() >> ImmutableList.of()
+            getInputProperties() >> ImmutableSortedMap.of()
+            getInputFileProperties() >> ImmutableSortedMap.of()
+            getOutputFilesProducedByWork() >> ImmutableSortedMap.of("output", outputs)
+        }
+    }
+
+    private static Map<String, HashCode> hashes(FileSystemSnapshot snapshot) {
+        index(snapshot).collectEntries { path, location -> [path, location.hash] } as Map<String, HashCode>
+    }
+}
@@ -112,6 +112,108 @@ class FileSystemSnapshotSerializerTest extends SerializerSpec implements TestSna
         assertEqualSnapshots(out, snapshots)
     }
 
+    def "reads and writes unchanged snapshots as delta"() {
+        def snapshots = directory("/home/lptr/dev", [
+            regularFile("/home/lptr/dev/one.txt"),
+            directory("/home/lptr/dev/sub", [
+                regularFile("/home/lptr/dev/sub/two.txt"),
+            ]),
+        ])
+
+        when:
+        def bytes = deltaBytes(snapshots, snapshots)
+        def out = fromDeltaBytes(bytes, snapshots)
+
+        then:
+        assertEqualSnapshots(out, snapshots)
+        bytes.length < toBytes(snapshots, serializer).length
+    }
+
+    def "reads and writes changes in directory snapshot hierarchies as delta"() {
+        def base = directory("/home/lptr/dev", [
+            regularFile("/home/lptr/dev/one.txt"),
+            regularFile("/home/lptr/dev/two.txt"),
+            directory("/home/lptr/dev/sub", [
+                regularFile("/home/lptr/dev/sub/three.txt"),
+                regularFile("/home/lptr/dev/sub/four.txt"),
+            ]),
+            regularFile("/home/lptr/dev/removed.txt"),
+        ])
+        def snapshots = directory("/home/lptr/dev", [
+            regularFile("/home/lptr/dev/added.txt"),
+            regularFile("/home/lptr/dev/one.txt"),
+            regularFile("/home/lptr/dev/two.txt", 1234L),
+            directory("/home/lptr/dev/sub", [
+                regularFile("/home/lptr/dev/sub/three.txt"),
+                directory("/home/lptr/dev/sub/four.txt", []),
+            ]),
+            missing("/home/lptr/dev/missing.txt"),
+        ])
+
+        when:
+        def out = fromDeltaBytes(deltaBytes(base, snapshots), base)
+
+        then:
+        assertEqualSnapshots(out, snapshots)
+    }
+
+    def "reads and writes changed metadata as delta"() {
+        def base = directory("/home/lptr/dev", DIRECT, 1111L, [
+            new RegularFileSnapshot("/home/lptr/dev/one.txt", "one.txt", fromInt(1234), file(1, 1, DIRECT)),
+        ])
+        def snapshots = directory("/home/lptr/dev", DIRECT, 1111L, [
+            new RegularFileSnapshot("/home/lptr/dev/one.txt", "one.txt", fromInt(1234), file(2, 1, DIRECT)),
+        ])
+
+        when:
+        def out = fromDeltaBytes(deltaBytes(base, snapshots), base)
+
+        then:
+        assertEqualSnapshots(out, snapshots)
+        (index(out)["/home/lptr/dev/one.txt"] as RegularFileSnapshot).metadata.lastModified == 2
+    }
+
+    def "reads and writes changed roots as delta"() {
+        def base = CompositeFileSystemSnapshot.of([
+            directory("/home/lptr/dev", []),
+            regularFile("/home/lptr/other.txt"),
+        ])
+        def snapshots = CompositeFileSystemSnapshot.of([
+            regularFile("/home/lptr/new.txt"),
+            directory("/home/lptr/dev", [
+                regularFile("/home/lptr/dev/one.txt"),
+            ]),
+        ])
+
+        when:
+        def out = fromDeltaBytes(deltaBytes(base, snapshots), base)
+
+        then:
+        assertEqualSnapshots(out, snapshots)
+    }
+
+    def "reads and writes snapshots as delta against empty snapshot"() {
+        def snapshots = directory("/home/lptr/dev", [
+            regularFile("/home/lptr/dev/one.txt"),
+        ])
+
+        expect:
+        assertEqualSnapshots(fromDeltaBytes(deltaBytes(EMPTY, snapshots), EMPTY), snapshots)
+        fromDeltaBytes(deltaBytes(snapshots, EMPTY), snapshots) == EMPTY
+    }
+
+    private byte[] deltaBytes(FileSystemSnapshot base, FileSystemSnapshot snapshots) {
+        def bytes = new ByteArrayOutputStream()
+        def encoder = getEncoder().newInstance(bytes)
+        serializer.writeDelta(encoder, base, snapshots)
+        encoder.flush()
+        return bytes.toByteArray()
+    }
+
+    private FileSystemSnapshot fromDeltaBytes(byte[] bytes, FileSystemSnapshot base) {
+        return serializer.readDelta(getDecoder().newInstance(new ByteArrayInputStream(bytes)), base)
+    }
+
     private static void assertEqualSnapshots(FileSystemSnapshot snapshot, FileSystemSnapshot expected) {
         assert snapshot == expected
         assert index(snapshot) == index(expected)
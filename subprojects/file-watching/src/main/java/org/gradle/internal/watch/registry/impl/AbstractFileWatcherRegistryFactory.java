@@ -34,13 +34,26 @@
 
     protected final T fileEventFunctions;
     private final Predicate<String> watchFilter;
+    private final long eventCoalescingWindowMillis;
 
     public AbstractFileWatcherRegistryFactory(
         T fileEventFunctions,
         Predicate<String> watchFilter
+    ) {
+        this(fileEventFunctions, watchFilter, 0);
+    }
+
+    /**
+     * Creates a factory for registries which coalesce the changes received within the given window, see {@link FileEventCoalescer}.
+     */
+    public AbstractFileWatcherRegistryFactory(
+        T fileEventFunctions,
+        Predicate<String> watchFilter,
+        long eventCoalescingWindowMillis
     ) {
         this.fileEventFunctions = fileEventFunctions;
         this.watchFilter = watchFilter;
+        this.eventCoalescingWindowMillis = eventCoalescingWindowMillis;
     }
 
     @Override
@@ -58,7 +71,8 @@ public FileWatcherRegistry createFileWatcherRegistry(FileWatcherRegistry.ChangeH
                 watcher,
                 handler,
                 fileWatcherUpdater,
-                fileEvents
+                fileEvents,
+                eventCoalescingWindowMillis
             );
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
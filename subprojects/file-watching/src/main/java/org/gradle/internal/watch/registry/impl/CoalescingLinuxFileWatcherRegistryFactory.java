@@ -0,0 +1,37 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.registry.impl;
+
+import net.rubygrapefruit.platform.NativeIntegrationUnavailableException;
+
+import java.util.function.Predicate;
+
+/**
+ * A Linux file watcher backend which coalesces bursts of file events before invalidating the virtual file system.
+ *
+ * Bursts like a branch switch or a large clean produce many more inotify events than there are distinct locations to invalidate.
+ * Coalescing them keeps the event consumer draining the native event queue quickly, which avoids queue overflows invalidating all watched hierarchies.
+ *
+ * The watches are still registered per directory, since the native integration only binds inotify.
+ */
+public class CoalescingLinuxFileWatcherRegistryFactory extends LinuxFileWatcherRegistryFactory {
+    private static final long EVENT_COALESCING_WINDOW_MILLIS = 50;
+
+    public CoalescingLinuxFileWatcherRegistryFactory(Predicate<String> watchFilter) throws NativeIntegrationUnavailableException {
+        super(watchFilter, EVENT_COALESCING_WINDOW_MILLIS);
+    }
+}
@@ -49,12 +49,16 @@
 
 public class DefaultFileWatcherRegistry implements FileWatcherRegistry {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultFileWatcherRegistry.class);
+    private static final int MAXIMUM_PENDING_CHANGES = 16384;
 
     private final AbstractFileEventFunctions<?> fileEventFunctions;
     private final FileWatcher watcher;
     private final BlockingQueue<FileWatchEvent> fileEvents;
     private final Thread eventConsumerThread;
     private final FileWatcherUpdater fileWatcherUpdater;
+    private final long eventCoalescingWindowNanos;
+    @Nullable
+    private final FileEventCoalescer eventCoalescer;
 
     private volatile MutableFileWatchingStatistics fileWatchingStatistics = new MutableFileWatchingStatistics();
     private volatile boolean consumeEvents = true;
@@ -66,11 +70,29 @@ public DefaultFileWatcherRegistry(
         ChangeHandler handler,
         FileWatcherUpdater fileWatcherUpdater,
         BlockingQueue<FileWatchEvent> fileEvents
+    ) {
+        this(fileEventFunctions, watcher, handler, fileWatcherUpdater, fileEvents, 0);
+    }
+
+    /**
+     * Creates a registry which coalesces the changes received within the given window before handling them, when the window is positive.
+     */
+    public DefaultFileWatcherRegistry(
+        AbstractFileEventFunctions<?> fileEventFunctions,
+        FileWatcher watcher,
+        ChangeHandler handler,
+        FileWatcherUpdater fileWatcherUpdater,
+        BlockingQueue<FileWatchEvent> fileEvents,
+        long eventCoalescingWindowMillis
     ) {
         this.fileEventFunctions = fileEventFunctions;
         this.watcher = watcher;
         this.fileEvents = fileEvents;
         this.fileWatcherUpdater = fileWatcherUpdater;
+        this.eventCoalescingWindowNanos = TimeUnit.MILLISECONDS.toNanos(eventCoalescingWindowMillis);
+        this.eventCoalescer = eventCoalescingWindowMillis > 0
+            ? new FileEventCoalescer(handler, fileWatcherUpdater::getWatchedFiles, MAXIMUM_PENDING_CHANGES)
+            : null;
         this.eventConsumerThread = createAndStartEventConsumerThread(handler);
     }
 
@@ -78,22 +100,38 @@ private Thread createAndStartEventConsumerThread(ChangeHandler handler) {
         Thread thread = new Thread(() -> {
             LOGGER.debug("Started listening to file system change events");
             try {
+                long flushDeadline = 0;
                 while (consumeEvents) {
-                    FileWatchEvent nextEvent = fileEvents.take();
+                    FileWatchEvent nextEvent;
+                    if (eventCoalescer != null && eventCoalescer.hasPendingChanges()) {
+                        long remainingNanos = flushDeadline - System.nanoTime();
+                        nextEvent = remainingNanos > 0 ? fileEvents.poll(remainingNanos, TimeUnit.NANOSECONDS) : null;
+                        if (nextEvent == null) {
+                            if (stopping) {
+                                eventCoalescer.discard();
+                            } else {
+                                eventCoalescer.flush();
+                            }
+                            continue;
+                        }
+                    } else {
+                        nextEvent = fileEvents.take();
+                        flushDeadline = System.nanoTime() + eventCoalescingWindowNanos;
+                    }
                     if (!stopping) {
                         nextEvent.handleEvent(new FileWatchEvent.Handler() {
                             @Override
                             public void handleChangeEvent(FileWatchEvent.ChangeType type, String absolutePath) {
                                 fileWatchingStatistics.eventReceived();
                                 fileWatcherUpdater.triggerWatchProbe(absolutePath);
-                                handler.handleChange(convertType(type), Paths.get(absolutePath));
+                                handleChange(convertType(type), absolutePath);
                             }
 
                             @Override
                             public void handleUnknownEvent(String absolutePath) {
                                 LOGGER.error("Received unknown event for {}", absolutePath);
                                 fileWatchingStatistics.unknownEventEncountered();
-                                handler.stopWatchingAfterError();
+                                stopWatchingAfterError();
                             }
 
                             @Override
@@ -101,10 +139,10 @@ public void handleOverflow(FileWatchEvent.OverflowType type, @Nullable String ab
                                 if (absolutePath == null) {
                                     LOGGER.info("Overflow detected (type: {}), invalidating all watched files", type);
                                     fileWatcherUpdater.getWatchedFiles().visitRoots(watchedRoot ->
-                                        handler.handleChange(OVERFLOW, Paths.get(watchedRoot)));
+                                        handleChange(OVERFLOW, watchedRoot));
                                 } else {
                                     LOGGER.info("Overflow detected (type: {}) for watched path '{}', invalidating", type, absolutePath);
-                                    handler.handleChange(OVERFLOW, Paths.get(absolutePath));
+                                    handleChange(OVERFLOW, absolutePath);
                                 }
                             }
 
@@ -112,13 +150,28 @@ public void handleOverflow(FileWatchEvent.OverflowType type, @Nullable String ab
                             public void handleFailure(Throwable failure) {
                                 LOGGER.error("Error while receiving file changes", failure);
                                 fileWatchingStatistics.errorWhileReceivingFileChanges(failure);
-                                handler.stopWatchingAfterError();
+                                stopWatchingAfterError();
                             }
 
                             @Override
                             public void handleTerminated() {
                                 consumeEvents = false;
                             }
+
+                            private void handleChange(Type type, String absolutePath) {
+                                if (eventCoalescer != null) {
+                                    eventCoalescer.handleChange(type, absolutePath);
+                                } else {
+                                    handler.handleChange(type, Paths.get(absolutePath));
+                                }
+                            }
+
+                            private void stopWatchingAfterError() {
+                                if (eventCoalescer != null) {
+                                    eventCoalescer.discard();
+                                }
+                                handler.stopWatchingAfterError();
+                            }
                         });
                     }
                 }
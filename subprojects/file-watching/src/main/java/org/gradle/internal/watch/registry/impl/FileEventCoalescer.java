@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.registry.impl;
+
+import org.gradle.internal.file.FileHierarchySet;
+import org.gradle.internal.watch.registry.FileWatcherRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import static org.gradle.internal.watch.registry.FileWatcherRegistry.Type.OVERFLOW;
+
+/**
+ * Collects the changes reported by a file watcher, so a burst of events invalidates each changed location only once.
+ *
+ * A change to a location below another changed location is dropped, since invalidating the ancestor invalidates the location as well.
+ * When too many locations are pending, the pending changes are collapsed into an overflow of each watched hierarchy which contains changes,
+ * leaving the other watched hierarchies intact.
+ *
+ * Not thread-safe, the coalescer is only used by the thread consuming the file events.
+ */
+public class FileEventCoalescer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileEventCoalescer.class);
+    private static final char SEPARATOR = File.separatorChar;
+
+    private final FileWatcherRegistry.ChangeHandler delegate;
+    private final Supplier<FileHierarchySet> watchedFiles;
+    private final int maximumPendingChanges;
+    private final TreeMap<String, FileWatcherRegistry.Type> pendingChanges = new TreeMap<>();
+    private int coalescedEvents;
+
+    public FileEventCoalescer(FileWatcherRegistry.ChangeHandler delegate, Supplier<FileHierarchySet> watchedFiles, int maximumPendingChanges) {
+        this.delegate = delegate;
+        this.watchedFiles = watchedFiles;
+        this.maximumPendingChanges = maximumPendingChanges;
+    }
+
+    public boolean hasPendingChanges() {
+        return !pendingChanges.isEmpty();
+    }
+
+    public void handleChange(FileWatcherRegistry.Type type, String absolutePath) {
+        addPendingChange(type, absolutePath);
+        if (pendingChanges.size() > maximumPendingChanges) {
+            collapseIntoWatchedHierarchies();
+            flush();
+        }
+    }
+
+    private void addPendingChange(FileWatcherRegistry.Type type, String absolutePath) {
+        if (hasPendingAncestor(absolutePath)) {
+            coalescedEvents++;
+            return;
+        }
+        Map<String, FileWatcherRegistry.Type> pendingDescendants = pendingChanges.subMap(absolutePath + SEPARATOR, true, absolutePath + SEPARATOR + Character.MAX_VALUE, false);
+        coalescedEvents += pendingDescendants.size();
+        pendingDescendants.clear();
+        pendingChanges.merge(absolutePath, type, (previousType, currentType) -> {
+            coalescedEvents++;
+            return previousType == OVERFLOW ? OVERFLOW : currentType;
+        });
+    }
+
+    /**
+     * Reports the pending changes to the delegate.
+     */
+    public void flush() {
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+        LOGGER.debug("Handling {} file changes, coalesced {} events", pendingChanges.size(), coalescedEvents);
+        List<Map.Entry<String, FileWatcherRegistry.Type>> changes = new ArrayList<>(pendingChanges.entrySet());
+        discard();
+        changes.forEach(change -> delegate.handleChange(change.getValue(), Paths.get(change.getKey())));
+    }
+
+    /**
+     * Drops the pending changes without reporting them.
+     */
+    public void discard() {
+        pendingChanges.clear();
+        coalescedEvents = 0;
+    }
+
+    private boolean hasPendingAncestor(String absolutePath) {
+        int separatorIndex = absolutePath.lastIndexOf(SEPARATOR);
+        while (separatorIndex > 0) {
+            if (pendingChanges.containsKey(absolutePath.substring(0, separatorIndex))) {
+                return true;
+            }
+            separatorIndex = absolutePath.lastIndexOf(SEPARATOR, separatorIndex - 1);
+        }
+        return false;
+    }
+
+    private void collapseIntoWatchedHierarchies() {
+        List<String> watchedRoots = new ArrayList<>();
+        watchedFiles.get().visitRoots(watchedRoots::add);
+        int pendingChangeCount = pendingChanges.size();
+        TreeMap<String, FileWatcherRegistry.Type> collapsedChanges = new TreeMap<>();
+        pendingChanges.forEach((path, type) -> {
+            String watchedRoot = findWatchedRoot(path, watchedRoots);
+            if (watchedRoot == null) {
+                collapsedChanges.put(path, type);
+            } else {
+                collapsedChanges.put(watchedRoot, OVERFLOW);
+            }
+        });
+        LOGGER.info("Overflow detected (type: too many pending changes), invalidating {} watched hierarchies containing {} changed locations", collapsedChanges.size(), pendingChangeCount);
+        pendingChanges.clear();
+        collapsedChanges.forEach((path, type) -> addPendingChange(type, path));
+    }
+
+    @Nullable
+    private static String findWatchedRoot(String path, List<String> watchedRoots) {
+        for (String watchedRoot : watchedRoots) {
+            if (path.equals(watchedRoot) || (path.startsWith(watchedRoot) && (watchedRoot.endsWith(File.separator) || path.charAt(watchedRoot.length()) == SEPARATOR))) {
+                return watchedRoot;
+            }
+        }
+        return null;
+    }
+}
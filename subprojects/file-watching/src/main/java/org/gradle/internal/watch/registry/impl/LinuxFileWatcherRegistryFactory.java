@@ -35,7 +35,11 @@
 public class LinuxFileWatcherRegistryFactory extends AbstractFileWatcherRegistryFactory<LinuxFileEventFunctions, LinuxFileWatcher> {
 
     public LinuxFileWatcherRegistryFactory(Predicate<String> watchFilter) throws NativeIntegrationUnavailableException {
-        super(FileEvents.get(LinuxFileEventFunctions.class), watchFilter);
+        this(watchFilter, 0);
+    }
+
+    protected LinuxFileWatcherRegistryFactory(Predicate<String> watchFilter, long eventCoalescingWindowMillis) throws NativeIntegrationUnavailableException {
+        super(FileEvents.get(LinuxFileEventFunctions.class), watchFilter, eventCoalescingWindowMillis);
     }
 
     @Override
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.vfs.impl;
+
+import com.google.common.collect.Interner;
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.MissingFileSnapshot;
+import org.gradle.internal.snapshot.PathUtil;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.SnapshotHierarchy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Persists the contents of the virtual file system when a daemon stops, so the next daemon can start with them.
+ *
+ * Each stored location is written together with the file key (the inode on Unix) and, for directories, the last modified time it had when it was stored.
+ * The time at which the state was stored is kept as a watermark.
+ * A restored location is only used after checking it against the file system with {@link RestoredState#findChangedLocations(RestoredSnapshot)},
+ * which stats every location but only lists the directories that have been modified since they were stored.
+ * Locations modified shortly before the watermark are always treated as changed, since file system events for them may not have reached the stopping daemon,
+ * and since their last modified time may not change when they are modified again within the timestamp granularity of the file system.
+ */
+public class VirtualFileSystemStateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualFileSystemStateStore.class);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final long UNKNOWN_LAST_MODIFIED = -1;
+    /**
+     * Locations modified less than this time before the state was stored are re-validated fully.
+     */
+    private static final long SETTLE_TIME_MILLIS = 10_000;
+
+    private final File stateFile;
+    private final Interner<String> stringInterner;
+
+    public VirtualFileSystemStateStore(File stateFile, Interner<String> stringInterner) {
+        this.stateFile = stateFile;
+        this.stringInterner = stringInterner;
+    }
+
+    /**
+     * Stores the complete snapshots of the given hierarchy, replacing the previously stored state.
+     *
+     * The snapshots must still be up-to-date, i.e. the file system must still be watched for changes to them.
+     */
+    public void store(SnapshotHierarchy root) {
+        long watermark = System.currentTimeMillis();
+        List<FileSystemLocationSnapshot> snapshots = root.rootSnapshots().collect(Collectors.toList());
+        File parentDir = stateFile.getParentFile();
+        File tempFile = new File(parentDir, stateFile.getName() + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(parentDir.toPath());
+            try (KryoBackedEncoder encoder = new KryoBackedEncoder(new FileOutputStream(tempFile))) {
+                encoder.writeSmallInt(FORMAT_VERSION);
+                encoder.writeLong(watermark);
+                encoder.writeSmallInt(snapshots.size());
+                for (FileSystemLocationSnapshot snapshot : snapshots) {
+                    writeEntry(encoder, snapshot, true);
+                }
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Stored the state of {} locations of the virtual file system in {}", snapshots.size(), stateFile);
+        } catch (Exception e) {
+            LOGGER.info("Could not store the state of the virtual file system in {}", stateFile, e);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Restores the state stored by a previous daemon, and removes it from the store.
+     *
+     * The stored state is only up-to-date until this daemon starts changing the file system without updating it,
+     * so it must not be restored again when watching is restarted later on.
+     *
+     * Returns an empty state when there is no stored state or it cannot be read.
+     */
+    public RestoredState restore() {
+        try {
+            return read();
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            stateFile.delete();
+        }
+    }
+
+    private RestoredState read() {
+        try (KryoBackedDecoder decoder = new KryoBackedDecoder(new FileInputStream(stateFile))) {
+            if (decoder.readSmallInt() != FORMAT_VERSION) {
+                return new RestoredState(0, Collections.emptyList());
+            }
+            long watermark = decoder.readLong();
+            int count = decoder.readSmallInt();
+            List<RestoredSnapshot> snapshots = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                snapshots.add(readEntry(decoder, null));
+            }
+            LOGGER.debug("Restored the state of {} locations of the virtual file system from {}", count, stateFile);
+            return new RestoredState(watermark, snapshots);
+        } catch (FileNotFoundException e) {
+            return new RestoredState(0, Collections.emptyList());
+        } catch (Exception e) {
+            LOGGER.info("Could not restore the state of the virtual file system from {}", stateFile, e);
+            return new RestoredState(0, Collections.emptyList());
+        }
+    }
+
+    private static void writeEntry(Encoder encoder, FileSystemLocationSnapshot snapshot, boolean isRoot) throws IOException {
+        encoder.writeByte((byte) snapshot.getType().ordinal());
+        encoder.writeString(isRoot ? snapshot.getAbsolutePath() : snapshot.getName());
+        encoder.writeByte((byte) snapshot.getAccessType().ordinal());
+        switch (snapshot.getType()) {
+            case RegularFile:
+                RegularFileSnapshot fileSnapshot = (RegularFileSnapshot) snapshot;
+                writeHashCode(encoder, fileSnapshot.getHash());
+                encoder.writeLong(fileSnapshot.getMetadata().getLastModified());
+                encoder.writeSmallLong(fileSnapshot.getMetadata().getLength());
+                encoder.writeNullableString(fileKeyOf(readAttributes(snapshot.getAbsolutePath())));
+                break;
+            case Directory:
+                DirectorySnapshot directorySnapshot = (DirectorySnapshot) snapshot;
+                writeHashCode(encoder, directorySnapshot.getHash());
+                BasicFileAttributes attributes = readAttributes(snapshot.getAbsolutePath());
+                encoder.writeNullableString(fileKeyOf(attributes));
+                encoder.writeLong(attributes == null ? UNKNOWN_LAST_MODIFIED : attributes.lastModifiedTime().toMillis());
+                List<FileSystemLocationSnapshot> children = directorySnapshot.getChildren();
+                encoder.writeSmallInt(children.size());
+                for (FileSystemLocationSnapshot child : children) {
+                    writeEntry(encoder, child, false);
+                }
+                break;
+            case Missing:
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private RestoredSnapshot readEntry(Decoder decoder, @Nullable String parentPath) throws IOException {
+        FileType type = FileType.values()[decoder.readByte()];
+        String path = decoder.readString();
+        String absolutePath = stringInterner.intern(parentPath == null ? path : parentPath + File.separatorChar + path);
+        String name = stringInterner.intern(parentPath == null ? PathUtil.getFileName(absolutePath) : path);
+        AccessType accessType = AccessType.values()[decoder.readByte()];
+        switch (type) {
+            case RegularFile:
+                HashCode contentHash = readHashCode(decoder);
+                long lastModified = decoder.readLong();
+                long length = decoder.readSmallLong();
+                String fileKey = decoder.readNullableString();
+                RegularFileSnapshot fileSnapshot = new RegularFileSnapshot(absolutePath, name, contentHash, DefaultFileMetadata.file(lastModified, length, accessType));
+                return new RestoredSnapshot(fileSnapshot, fileKey, lastModified, Collections.emptyList());
+            case Directory:
+                HashCode merkleHash = readHashCode(decoder);
+                String directoryKey = decoder.readNullableString();
+                long directoryLastModified = decoder.readLong();
+                int childCount = decoder.readSmallInt();
+                List<RestoredSnapshot> children = new ArrayList<>(childCount);
+                List<FileSystemLocationSnapshot> childSnapshots = new ArrayList<>(childCount);
+                for (int i = 0; i < childCount; i++) {
+                    RestoredSnapshot child = readEntry(decoder, absolutePath);
+                    children.add(child);
+                    childSnapshots.add(child.snapshot);
+                }
+                DirectorySnapshot directorySnapshot = new DirectorySnapshot(absolutePath, name, accessType, merkleHash, childSnapshots);
+                return new RestoredSnapshot(directorySnapshot, directoryKey, directoryLastModified, children);
+            case Missing:
+                return new RestoredSnapshot(new MissingFileSnapshot(absolutePath, name, accessType), null, UNKNOWN_LAST_MODIFIED, Collections.emptyList());
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static HashCode readHashCode(Decoder decoder) throws IOException {
+        return HashCode.fromBytes(decoder.readBinary());
+    }
+
+    private static void writeHashCode(Encoder encoder, HashCode hashCode) throws IOException {
+        encoder.writeBinary(hashCode.toByteArray());
+    }
+
+    /**
+     * Reads the attributes of the given location, following symbolic links like the snapshots do.
+     *
+     * @return {@code null} if the location does not exist or cannot be read.
+     */
+    @Nullable
+    private static BasicFileAttributes readAttributes(String absolutePath) {
+        try {
+            return Files.readAttributes(Paths.get(absolutePath), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String fileKeyOf(@Nullable BasicFileAttributes attributes) {
+        if (attributes == null) {
+            return null;
+        }
+        Object fileKey = attributes.fileKey();
+        return fileKey == null ? null : fileKey.toString();
+    }
+
+    /**
+     * The state stored by a previous daemon, which has not been added to the virtual file system yet.
+     */
+    public static class RestoredState {
+        private final long watermark;
+        private final List<RestoredSnapshot> pendingSnapshots;
+
+        private RestoredState(long watermark, List<RestoredSnapshot> snapshots) {
+            this.watermark = watermark;
+            this.pendingSnapshots = new ArrayList<>(snapshots);
+        }
+
+        /**
+         * Removes the restored snapshots located in the given hierarchy from this state and returns them.
+         */
+        public List<RestoredSnapshot> takeSnapshotsIn(File hierarchy) {
+            String hierarchyPath = hierarchy.getAbsolutePath();
+            List<RestoredSnapshot> snapshots = new ArrayList<>();
+            Iterator<RestoredSnapshot> iterator = pendingSnapshots.iterator();
+            while (iterator.hasNext()) {
+                RestoredSnapshot restored = iterator.next();
+                String absolutePath = restored.snapshot.getAbsolutePath();
+                if (absolutePath.equals(hierarchyPath) || absolutePath.startsWith(hierarchyPath + File.separatorChar)) {
+                    iterator.remove();
+                    snapshots.add(restored);
+                }
+            }
+            return snapshots;
+        }
+
+        /**
+         * Checks the given restored snapshot against the file system.
+         *
+         * @return the absolute paths of all the locations in the snapshot which may have changed since the state was stored.
+         * Invalidating these locations leaves only the parts of the snapshot which are still up-to-date.
+         */
+        public List<String> findChangedLocations(RestoredSnapshot restored) {
+            List<String> changedLocations = new ArrayList<>();
+            findChangedLocations(restored, changedLocations);
+            return changedLocations;
+        }
+
+        public boolean isEmpty() {
+            return pendingSnapshots.isEmpty();
+        }
+
+        private void findChangedLocations(RestoredSnapshot restored, List<String> changedLocations) {
+            FileSystemLocationSnapshot snapshot = restored.snapshot;
+            String absolutePath = snapshot.getAbsolutePath();
+            Path path = Paths.get(absolutePath);
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                attributes = null;
+            } catch (IOException e) {
+                changedLocations.add(absolutePath);
+                return;
+            }
+            if (snapshot.getType() == FileType.Missing) {
+                if (attributes != null || Files.isSymbolicLink(path) != (snapshot.getAccessType() == AccessType.VIA_SYMLINK)) {
+                    changedLocations.add(absolutePath);
+                }
+                return;
+            }
+            if (attributes == null
+                || Files.isSymbolicLink(path) != (snapshot.getAccessType() == AccessType.VIA_SYMLINK)
+                || !Objects.equals(restored.fileKey, fileKeyOf(attributes))) {
+                changedLocations.add(absolutePath);
+                return;
+            }
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (snapshot.getType() == FileType.RegularFile) {
+                if (!attributes.isRegularFile()
+                    || lastModified != restored.lastModified
+                    || attributes.size() != ((RegularFileSnapshot) snapshot).getMetadata().getLength()
+                    || !isSettled(restored.lastModified)) {
+                    changedLocations.add(absolutePath);
+                }
+                return;
+            }
+            if (!attributes.isDirectory()) {
+                changedLocations.add(absolutePath);
+                return;
+            }
+            if (lastModified != restored.lastModified || !isSettled(restored.lastModified)) {
+                findChangedChildren(restored, path, changedLocations);
+            }
+            for (RestoredSnapshot child : restored.children) {
+                findChangedLocations(child, changedLocations);
+            }
+        }
+
+        /**
+         * Reports the children that have been added to the directory.
+         * Removed children are reported when checking the children themselves.
+         */
+        private static void findChangedChildren(RestoredSnapshot directory, Path path, List<String> changedLocations) {
+            Set<String> knownNames = new HashSet<>();
+            for (RestoredSnapshot child : directory.children) {
+                knownNames.add(child.snapshot.getName());
+            }
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    if (!knownNames.contains(name)) {
+                        changedLocations.add(child.toString());
+                    }
+                }
+            } catch (IOException e) {
+                changedLocations.add(directory.snapshot.getAbsolutePath());
+            }
+        }
+
+        private boolean isSettled(long lastModified) {
+            return lastModified != UNKNOWN_LAST_MODIFIED && lastModified < watermark - SETTLE_TIME_MILLIS;
+        }
+    }
+
+    /**
+     * A restored snapshot together with the file system state that it was stored with.
+     */
+    public static class RestoredSnapshot {
+        private final FileSystemLocationSnapshot snapshot;
+        @Nullable
+        private final String fileKey;
+        private final long lastModified;
+        private final List<RestoredSnapshot> children;
+
+        private RestoredSnapshot(FileSystemLocationSnapshot snapshot, @Nullable String fileKey, long lastModified, List<RestoredSnapshot> children) {
+            this.snapshot = snapshot;
+            this.fileKey = fileKey;
+            this.lastModified = lastModified;
+            this.children = children;
+        }
+
+        public FileSystemLocationSnapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+}
@@ -51,6 +51,11 @@ protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFuncti
         return updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP);
     }
 
+    @Override
+    protected PendingDiff createPendingDiff() {
+        return PendingDiff.NOOP;
+    }
+
     @Override
     public boolean afterBuildStarted(
         WatchMode watchMode,
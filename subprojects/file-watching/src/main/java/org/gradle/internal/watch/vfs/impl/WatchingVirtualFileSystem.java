@@ -23,6 +23,7 @@
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationRunner;
 import org.gradle.internal.operations.CallableBuildOperation;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemNode;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem;
@@ -50,10 +51,16 @@
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem implements BuildLifecycleAwareVirtualFileSystem, Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(WatchingVirtualFileSystem.class);
@@ -64,6 +71,8 @@ public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem impleme
     private final DaemonDocumentationIndex daemonDocumentationIndex;
     private final LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild;
     private final WatchableFileSystemDetector watchableFileSystemDetector;
+    @Nullable
+    private final VirtualFileSystemStateStore stateStore;
     private final List<File> unsupportedFileSystems = new ArrayList<>();
     private Logger warningLogger = LOGGER;
 
@@ -72,9 +81,24 @@ public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem impleme
      */
     private final Set<File> watchableHierarchiesRegisteredEarly = new LinkedHashSet<>();
 
+    /**
+     * Watchable hierarchies which have just started to be watched, in which the snapshots stored by a previous daemon need to be restored.
+     */
+    private final List<File> watchableHierarchiesToRestore = new ArrayList<>();
+
+    /**
+     * The changes to the VFS made while snapshots restored from a previous daemon are checked against the file system.
+     */
+    private final List<ChangesDuringRestore> restoresInProgress = new CopyOnWriteArrayList<>();
+
     private FileWatcherRegistry watchRegistry;
+    /**
+     * The state stored by a previous daemon which has not been added to the VFS yet, when file system watching has just been started.
+     */
+    private VirtualFileSystemStateStore.RestoredState restoredState;
     private Exception reasonForNotWatchingFiles;
     private boolean stateInvalidatedAtStartOfBuild;
+    private final AtomicBoolean watchingFailedDuringConcurrentUpdate = new AtomicBoolean();
 
     public WatchingVirtualFileSystem(
         FileWatcherRegistryFactory watcherRegistryFactory,
@@ -82,12 +106,27 @@ public WatchingVirtualFileSystem(
         DaemonDocumentationIndex daemonDocumentationIndex,
         LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild,
         WatchableFileSystemDetector watchableFileSystemDetector
+    ) {
+        this(watcherRegistryFactory, rootReference, daemonDocumentationIndex, locationsWrittenByCurrentBuild, watchableFileSystemDetector, null);
+    }
+
+    /**
+     * Creates a VFS which stores its state in the given store when it is closed, and restores the stored state when it starts watching.
+     */
+    public WatchingVirtualFileSystem(
+        FileWatcherRegistryFactory watcherRegistryFactory,
+        VfsRootReference rootReference,
+        DaemonDocumentationIndex daemonDocumentationIndex,
+        LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild,
+        WatchableFileSystemDetector watchableFileSystemDetector,
+        @Nullable VirtualFileSystemStateStore stateStore
     ) {
         super(rootReference);
         this.watcherRegistryFactory = watcherRegistryFactory;
         this.daemonDocumentationIndex = daemonDocumentationIndex;
         this.locationsWrittenByCurrentBuild = locationsWrittenByCurrentBuild;
         this.watchableFileSystemDetector = watchableFileSystemDetector;
+        this.stateStore = stateStore;
     }
 
     @Override
@@ -103,6 +142,50 @@ protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFuncti
         }
     }
 
+    @Override
+    protected PendingDiff createPendingDiff() {
+        FileWatcherRegistry registry = watchRegistry;
+        if (registry == null) {
+            return PendingDiff.NOOP;
+        }
+        SnapshotCollectingDiffListener diffListener = new SnapshotCollectingDiffListener();
+        return new PendingDiff() {
+            @Override
+            public void nodeRemoved(FileSystemNode node) {
+                diffListener.nodeRemoved(node);
+            }
+
+            @Override
+            public void nodeAdded(FileSystemNode node) {
+                diffListener.nodeAdded(node);
+            }
+
+            @Override
+            public void publish(SnapshotHierarchy updatedRoot) {
+                if (watchingFailedDuringConcurrentUpdate.get()) {
+                    // The VFS is about to be invalidated
+                    return;
+                }
+                try {
+                    diffListener.publishSnapshotDiff((removedSnapshots, addedSnapshots) ->
+                        registry.virtualFileSystemContentsChanged(removedSnapshots, addedSnapshots, updatedRoot)
+                    );
+                } catch (Exception ex) {
+                    logWatchingError(ex, FILE_WATCHING_ERROR_MESSAGE_DURING_BUILD, null);
+                    watchingFailedDuringConcurrentUpdate.set(true);
+                }
+            }
+        };
+    }
+
+    @Override
+    protected void afterConcurrentUpdate() {
+        // Stopping to watch needs an exclusive update
+        if (watchingFailedDuringConcurrentUpdate.compareAndSet(true, false)) {
+            stopWatchingAndInvalidateHierarchyAfterError();
+        }
+    }
+
     @Override
     public boolean afterBuildStarted(
         WatchMode watchMode,
@@ -113,7 +196,7 @@ public boolean afterBuildStarted(
         warningLogger = watchMode.loggerForWarnings(LOGGER);
         stateInvalidatedAtStartOfBuild = false;
         reasonForNotWatchingFiles = null;
-        rootReference.update(currentRoot -> buildOperationRunner.call(new CallableBuildOperation<SnapshotHierarchy>() {
+        updateRestoringSnapshots(currentRoot -> buildOperationRunner.call(new CallableBuildOperation<SnapshotHierarchy>() {
             @Override
             public SnapshotHierarchy call(BuildOperationContext context) {
                 if (watchMode.isEnabled()) {
@@ -199,15 +282,17 @@ public BuildOperationDescriptor.Builder description() {
 
     @Override
     public void registerWatchableHierarchy(File watchableHierarchy) {
-        rootReference.update(currentRoot -> {
+        updateRestoringSnapshots(currentRoot -> {
             if (watchRegistry == null) {
                 watchableHierarchiesRegisteredEarly.add(watchableHierarchy);
                 return currentRoot;
             }
-            return withWatcherChangeErrorHandling(
+            SnapshotHierarchy newRoot = withWatcherChangeErrorHandling(
                 currentRoot,
                 () -> watchRegistry.registerWatchableHierarchy(watchableHierarchy, currentRoot)
             );
+            watchableHierarchiesToRestore.add(watchableHierarchy);
+            return newRoot;
         });
     }
 
@@ -223,6 +308,8 @@ public void beforeBuildFinished(
             @Override
             public SnapshotHierarchy call(BuildOperationContext context) {
                 watchableHierarchiesRegisteredEarly.clear();
+                // Restored snapshots which are not in a watchable hierarchy of the first build are dropped
+                restoredState = null;
                 if (watchMode.isEnabled()) {
                     if (reasonForNotWatchingFiles != null) {
                         // Log exception again so it doesn't get lost.
@@ -309,8 +396,9 @@ public void handleChange(FileWatcherRegistry.Type type, Path path) {
                     try {
                         String absolutePath = path.toString();
                         if (!locationsWrittenByCurrentBuild.wasLocationWritten(absolutePath)) {
-                            rootReference.update(root -> updateNotifyingListeners(
-                                diffListener -> root.invalidate(absolutePath, new VfsChangeLoggingNodeDiffListener(type, path, diffListener))
+                            recordChangeDuringRestore(absolutePath);
+                            updateConcurrently(Collections.singletonList(
+                                (root, diffListener) -> root.invalidate(absolutePath, new VfsChangeLoggingNodeDiffListener(type, path, diffListener))
                             ));
                         }
                     } catch (Exception e) {
@@ -326,6 +414,8 @@ public void stopWatchingAfterError() {
             });
             SnapshotHierarchy newRoot = watchRegistry.updateVfsOnBuildStarted(currentRoot.empty(), watchMode, unsupportedFileSystems);
             watchableHierarchiesRegisteredEarly.forEach(watchableHierarchy -> watchRegistry.registerWatchableHierarchy(watchableHierarchy, newRoot));
+            restoredState = stateStore == null ? null : stateStore.restore();
+            watchableHierarchiesToRestore.addAll(watchableHierarchiesRegisteredEarly);
             watchableHierarchiesRegisteredEarly.clear();
             return newRoot;
         } catch (Exception ex) {
@@ -335,6 +425,141 @@ public void stopWatchingAfterError() {
         }
     }
 
+    /**
+     * Runs an exclusive update which may start watching hierarchies,
+     * and then adds the snapshots restored from a previous daemon which are in those hierarchies.
+     *
+     * Checking the restored snapshots against the file system is slow, so it happens without holding the update lock.
+     * The hierarchies are watched already, so changes happening while the snapshots are checked are not lost:
+     * changes made to the VFS in the meantime are applied again after the restored snapshots have been added.
+     */
+    private void updateRestoringSnapshots(UnaryOperator<SnapshotHierarchy> updateFunction) {
+        ChangesDuringRestore changes = new ChangesDuringRestore();
+        restoresInProgress.add(changes);
+        try {
+            List<PendingRestore> pendingRestores = new ArrayList<>();
+            rootReference.update(currentRoot -> {
+                SnapshotHierarchy newRoot = updateFunction.apply(currentRoot);
+                if (restoredState != null && watchRegistry != null) {
+                    changes.watchRegistry = watchRegistry;
+                    for (File watchableHierarchy : watchableHierarchiesToRestore) {
+                        for (VirtualFileSystemStateStore.RestoredSnapshot restored : restoredState.takeSnapshotsIn(watchableHierarchy)) {
+                            pendingRestores.add(new PendingRestore(restoredState, restored));
+                        }
+                    }
+                    if (restoredState.isEmpty()) {
+                        restoredState = null;
+                    }
+                }
+                watchableHierarchiesToRestore.clear();
+                return newRoot;
+            });
+            if (pendingRestores.isEmpty()) {
+                return;
+            }
+            for (PendingRestore pendingRestore : pendingRestores) {
+                pendingRestore.changedLocations = pendingRestore.state.findChangedLocations(pendingRestore.restored);
+            }
+            rootReference.update(currentRoot -> restoreSnapshots(currentRoot, pendingRestores, changes));
+        } finally {
+            restoresInProgress.remove(changes);
+        }
+    }
+
+    @CheckReturnValue
+    private SnapshotHierarchy restoreSnapshots(SnapshotHierarchy root, List<PendingRestore> pendingRestores, ChangesDuringRestore changes) {
+        if (watchRegistry == null || watchRegistry != changes.watchRegistry || changes.invalidatedAll) {
+            // Watching has been stopped or restarted in the meantime, so the checks may have missed changes
+            return root;
+        }
+        SnapshotHierarchy newRoot = root;
+        int restoredCount = 0;
+        int changedCount = 0;
+        for (PendingRestore pendingRestore : pendingRestores) {
+            FileSystemLocationSnapshot snapshot = pendingRestore.restored.getSnapshot();
+            String absolutePath = snapshot.getAbsolutePath();
+            if (newRoot.findMetadata(absolutePath).isPresent() || newRoot.hasDescendantsUnder(absolutePath)) {
+                // The current build already knows better
+                continue;
+            }
+            newRoot = storeNotifyingListeners(newRoot, snapshot);
+            for (String changedLocation : pendingRestore.changedLocations) {
+                newRoot = invalidateNotifyingListeners(newRoot, changedLocation);
+            }
+            for (String changedLocation : changes.locations) {
+                if (isSameOrNested(changedLocation, absolutePath) || isSameOrNested(absolutePath, changedLocation)) {
+                    newRoot = invalidateNotifyingListeners(newRoot, changedLocation);
+                }
+            }
+            restoredCount++;
+            changedCount += pendingRestore.changedLocations.size();
+        }
+        if (restoredCount > 0) {
+            LOGGER.info("Restored {} locations from the previous daemon, {} locations changed since", restoredCount, changedCount);
+        }
+        return newRoot;
+    }
+
+    private static boolean isSameOrNested(String location, String ancestor) {
+        return location.equals(ancestor) || location.startsWith(ancestor + File.separatorChar);
+    }
+
+    private void recordChangeDuringRestore(String absolutePath) {
+        for (ChangesDuringRestore changes : restoresInProgress) {
+            changes.locations.add(absolutePath);
+        }
+    }
+
+    @Override
+    public void invalidate(Iterable<String> locations) {
+        for (String location : locations) {
+            recordChangeDuringRestore(location);
+        }
+        super.invalidate(locations);
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (ChangesDuringRestore changes : restoresInProgress) {
+            changes.invalidatedAll = true;
+        }
+        super.invalidateAll();
+    }
+
+    /**
+     * A snapshot restored from a previous daemon, together with the locations in it which changed since it was stored.
+     */
+    private static class PendingRestore {
+        private final VirtualFileSystemStateStore.RestoredState state;
+        private final VirtualFileSystemStateStore.RestoredSnapshot restored;
+        private List<String> changedLocations;
+
+        public PendingRestore(VirtualFileSystemStateStore.RestoredState state, VirtualFileSystemStateStore.RestoredSnapshot restored) {
+            this.state = state;
+            this.restored = restored;
+        }
+    }
+
+    /**
+     * Changes made to the VFS while restored snapshots are checked against the file system.
+     */
+    private static class ChangesDuringRestore {
+        private final Queue<String> locations = new ConcurrentLinkedQueue<>();
+        private volatile boolean invalidatedAll;
+        /**
+         * The registry watching the restored hierarchies, guarded by the update lock.
+         */
+        private FileWatcherRegistry watchRegistry;
+    }
+
+    private SnapshotHierarchy storeNotifyingListeners(SnapshotHierarchy root, FileSystemLocationSnapshot snapshot) {
+        return updateNotifyingListeners(diffListener -> root.store(snapshot.getAbsolutePath(), snapshot, diffListener));
+    }
+
+    private SnapshotHierarchy invalidateNotifyingListeners(SnapshotHierarchy root, String absolutePath) {
+        return updateNotifyingListeners(diffListener -> root.invalidate(absolutePath, diffListener));
+    }
+
     private static class VfsChangeLoggingNodeDiffListener implements SnapshotHierarchy.NodeDiffListener {
         private final FileWatcherRegistry.Type type;
         private final Path path;
@@ -423,6 +648,7 @@ private SnapshotHierarchy stopWatchingAndInvalidateHierarchy(SnapshotHierarchy c
                 LOGGER.error("Unable to close file watcher registry", ex);
             }
         }
+        restoredState = null;
         return currentRoot.empty();
     }
 
@@ -442,6 +668,10 @@ private boolean hasDroppedStateBecauseOfErrorsReceivedWhileWatching(FileWatcherR
     public void close() {
         LOGGER.debug("Closing VFS, dropping state");
         rootReference.update(currentRoot -> {
+            if (stateStore != null && watchRegistry != null) {
+                // The state is only up-to-date while it is being watched
+                stateStore.store(currentRoot);
+            }
             closeUnderLock();
             return currentRoot.empty();
         });
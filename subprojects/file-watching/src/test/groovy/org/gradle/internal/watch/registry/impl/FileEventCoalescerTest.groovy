@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.registry.impl
+
+import org.gradle.internal.file.FileHierarchySet
+import org.gradle.internal.watch.registry.FileWatcherRegistry
+import spock.lang.Specification
+
+import java.nio.file.Paths
+
+import static org.gradle.internal.watch.registry.FileWatcherRegistry.Type.CREATED
+import static org.gradle.internal.watch.registry.FileWatcherRegistry.Type.MODIFIED
+import static org.gradle.internal.watch.registry.FileWatcherRegistry.Type.OVERFLOW
+import static org.gradle.internal.watch.registry.FileWatcherRegistry.Type.REMOVED
+
+class FileEventCoalescerTest extends Specification {
+    def handler = Mock(FileWatcherRegistry.ChangeHandler)
+    def root = new File("root").absoluteFile
+    def otherRoot = new File("other").absoluteFile
+    def watchedFiles = FileHierarchySet.empty().plus(root).plus(otherRoot)
+    def coalescer = new FileEventCoalescer(handler, { watchedFiles }, 4)
+
+    def "reports each changed location once when flushed"() {
+        when:
+        coalescer.handleChange(CREATED, path("a"))
+        coalescer.handleChange(MODIFIED, path("a"))
+        coalescer.handleChange(MODIFIED, path("b"))
+        then:
+        coalescer.hasPendingChanges()
+        0 * _
+
+        when:
+        coalescer.flush()
+        then:
+        1 * handler.handleChange(MODIFIED, Paths.get(path("a")))
+        1 * handler.handleChange(MODIFIED, Paths.get(path("b")))
+        0 * _
+        !coalescer.hasPendingChanges()
+    }
+
+    def "drops changes below a changed location"() {
+        when:
+        coalescer.handleChange(MODIFIED, path("dir/sub/file"))
+        coalescer.handleChange(REMOVED, path("dir"))
+        coalescer.handleChange(CREATED, path("dir/other"))
+        coalescer.handleChange(CREATED, path("dir-sibling"))
+        coalescer.flush()
+        then:
+        1 * handler.handleChange(REMOVED, Paths.get(path("dir")))
+        1 * handler.handleChange(CREATED, Paths.get(path("dir-sibling")))
+        0 * _
+    }
+
+    def "keeps overflow when the location changes again"() {
+        when:
+        coalescer.handleChange(OVERFLOW, path("dir"))
+        coalescer.handleChange(MODIFIED, path("dir"))
+        coalescer.flush()
+        then:
+        1 * handler.handleChange(OVERFLOW, Paths.get(path("dir")))
+        0 * _
+    }
+
+    def "collapses too many pending changes into the watched hierarchies containing them"() {
+        when:
+        (1..5).each { coalescer.handleChange(MODIFIED, path("file$it")) }
+        then:
+        1 * handler.handleChange(OVERFLOW, root.toPath())
+        0 * _
+        !coalescer.hasPendingChanges()
+    }
+
+    def "discarded changes are not reported"() {
+        when:
+        coalescer.handleChange(MODIFIED, path("a"))
+        coalescer.discard()
+        coalescer.flush()
+        then:
+        0 * _
+    }
+
+    private String path(String relativePath) {
+        new File(root, relativePath).absolutePath
+    }
+}
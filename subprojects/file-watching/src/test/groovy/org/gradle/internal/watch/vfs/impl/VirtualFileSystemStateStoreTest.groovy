@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.watch.vfs.impl
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.snapshot.CaseSensitivity
+import org.gradle.internal.snapshot.MissingFileSnapshot
+import org.gradle.internal.snapshot.SnapshotHierarchy
+import org.gradle.internal.snapshot.impl.DirectorySnapshotter
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics
+import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicBoolean
+
+class VirtualFileSystemStateStoreTest extends Specification {
+
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
+    def directorySnapshotter = new DirectorySnapshotter(TestFiles.fileHasher(), new StringInterner(), [], Stub(DirectorySnapshotterStatistics.Collector))
+    def store = new VirtualFileSystemStateStore(temporaryFolder.file("state/vfs.bin"), new StringInterner())
+    def root = temporaryFolder.createDir("root")
+
+    def setup() {
+        root.file("dir1/file1.txt") << "file1"
+        root.file("dir1/file2.txt") << "file2"
+        root.file("dir2/file3.txt") << "file3"
+        // Locations modified right before the state is stored are always re-validated
+        makeSettled(root)
+    }
+
+    def "restores unchanged snapshots"() {
+        def snapshot = directorySnapshotter.snapshot(root.absolutePath, null, new AtomicBoolean())
+        store.store(hierarchyWith(root))
+
+        when:
+        def state = store.restore()
+        def restored = state.takeSnapshotsIn(root)
+
+        then:
+        restored*.snapshot*.absolutePath == [root.absolutePath]
+        restored[0].snapshot.hash == snapshot.hash
+        state.findChangedLocations(restored[0]).empty
+        state.empty
+    }
+
+    def "finds locations changed since the state was stored"() {
+        def missingFile = root.file("missing.txt")
+        def hierarchy = hierarchyWith(root)
+            .store(missingFile.absolutePath, new MissingFileSnapshot(missingFile.absolutePath, "missing.txt", AccessType.DIRECT), SnapshotHierarchy.NodeDiffListener.NOOP)
+        store.store(hierarchy)
+
+        when:
+        root.file("dir1/file1.txt").text = "changed"
+        root.file("dir1/added.txt") << "added"
+        root.file("dir2/file3.txt").delete()
+        missingFile << "created"
+        def state = store.restore()
+        def restored = state.takeSnapshotsIn(root)
+        def changedLocations = restored.collectMany { state.findChangedLocations(it) }
+
+        then:
+        changedLocations as Set == [
+            root.file("dir1/file1.txt"),
+            root.file("dir1/added.txt"),
+            root.file("dir2/file3.txt"),
+            missingFile
+        ]*.absolutePath as Set
+
+        when:
+        def restoredHierarchy = emptyHierarchy()
+        restored.each { restoredHierarchy = restoredHierarchy.store(it.snapshot.absolutePath, it.snapshot, SnapshotHierarchy.NodeDiffListener.NOOP) }
+        changedLocations.each { restoredHierarchy = restoredHierarchy.invalidate(it, SnapshotHierarchy.NodeDiffListener.NOOP) }
+
+        then:
+        restoredHierarchy.rootSnapshots().collect { it.absolutePath } as Set == [root.file("dir1/file2.txt")]*.absolutePath as Set
+    }
+
+    def "treats files modified shortly before storing the state as changed"() {
+        def recentlyModified = root.file("dir2/file3.txt")
+        recentlyModified.lastModified = System.currentTimeMillis() - 1000
+        store.store(hierarchyWith(root))
+
+        when:
+        def state = store.restore()
+        def restored = state.takeSnapshotsIn(root)
+
+        then:
+        state.findChangedLocations(restored[0]) == [recentlyModified.absolutePath]
+    }
+
+    def "only returns snapshots in the requested hierarchy"() {
+        def other = temporaryFolder.createDir("other")
+        other.file("file.txt") << "other"
+        makeSettled(other)
+        store.store(hierarchyWith(root, other))
+
+        when:
+        def state = store.restore()
+
+        then:
+        state.takeSnapshotsIn(other)*.snapshot*.absolutePath == [other.absolutePath]
+        !state.empty
+        state.takeSnapshotsIn(root)*.snapshot*.absolutePath == [root.absolutePath]
+        state.empty
+    }
+
+    def "restores the stored state only once"() {
+        store.store(hierarchyWith(root))
+
+        when:
+        def state = store.restore()
+
+        then:
+        !state.empty
+        !temporaryFolder.file("state/vfs.bin").exists()
+        store.restore().empty
+    }
+
+    def "restores nothing when there is no stored state"() {
+        expect:
+        store.restore().empty
+    }
+
+    def "restores nothing when the stored state is corrupt"() {
+        temporaryFolder.file("state/vfs.bin") << "corrupt"
+
+        expect:
+        store.restore().empty
+        !temporaryFolder.file("state/vfs.bin").exists()
+    }
+
+    private SnapshotHierarchy hierarchyWith(TestFile... locations) {
+        def hierarchy = emptyHierarchy()
+        locations.each { location ->
+            hierarchy = hierarchy.store(location.absolutePath, directorySnapshotter.snapshot(location.absolutePath, null, new AtomicBoolean()), SnapshotHierarchy.NodeDiffListener.NOOP)
+        }
+        return hierarchy
+    }
+
+    private static SnapshotHierarchy emptyHierarchy() {
+        DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE)
+    }
+
+    private static void makeSettled(TestFile location) {
+        def lastModified = System.currentTimeMillis() - 60_000
+        location.eachFileRecurse { it.lastModified = lastModified }
+        location.lastModified = lastModified
+    }
+}
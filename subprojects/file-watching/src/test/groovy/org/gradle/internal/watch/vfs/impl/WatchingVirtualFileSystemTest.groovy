@@ -17,9 +17,13 @@
 package org.gradle.internal.watch.vfs.impl
 
 import net.rubygrapefruit.platform.NativeException
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.internal.file.TestFiles
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.snapshot.CaseSensitivity
 import org.gradle.internal.snapshot.SnapshotHierarchy
+import org.gradle.internal.snapshot.impl.DirectorySnapshotter
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics
 import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy
 import org.gradle.internal.vfs.impl.VfsRootReference
 import org.gradle.internal.watch.registry.FileWatcherRegistry
@@ -29,9 +33,16 @@ import org.gradle.internal.watch.vfs.VfsLogging
 import org.gradle.internal.watch.vfs.WatchLogging
 import org.gradle.internal.watch.vfs.WatchMode
 import org.gradle.internal.watch.vfs.WatchableFileSystemDetector
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
 import spock.lang.Specification
 
+import java.util.concurrent.atomic.AtomicBoolean
+
 class WatchingVirtualFileSystemTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
     def watcherRegistryFactory = Mock(FileWatcherRegistryFactory)
     def watcherRegistry = Mock(FileWatcherRegistry)
     def emptySnapshotHierarchy = DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE)
@@ -227,4 +238,132 @@ class WatchingVirtualFileSystemTest extends Specification {
         1 * watcherRegistry.close()
         0 * _
     }
+
+    def "does not restore snapshots of locations invalidated while the restore is checked"() {
+        def restoringRootReference = new VfsRootReference(emptySnapshotHierarchy)
+        def stateStore = Mock(VirtualFileSystemStateStore)
+        def restoredState = Mock(VirtualFileSystemStateStore.RestoredState)
+        def restoringVirtualFileSystem = new WatchingVirtualFileSystem(
+            watcherRegistryFactory,
+            restoringRootReference,
+            daemonDocumentationIndex,
+            locationsUpdatedByCurrentBuild,
+            watchableFileSystemDetector,
+            stateStore
+        )
+        def watchableHierarchy = temporaryFolder.createDir("project")
+        def changedFile = watchableHierarchy.file("src/changed.txt") << "stored"
+        def unchangedFile = watchableHierarchy.file("src/unchanged.txt") << "unchanged"
+        def restoredSnapshot = restoredSnapshotOf(watchableHierarchy)
+
+        when:
+        restoringVirtualFileSystem.registerWatchableHierarchy(watchableHierarchy)
+        restoringVirtualFileSystem.afterBuildStarted(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner)
+
+        then:
+        1 * watcherRegistryFactory.createFileWatcherRegistry(_) >> watcherRegistry
+        1 * watcherRegistry.updateVfsOnBuildStarted(_, _, _) >> { SnapshotHierarchy root, watchMode, unsupportedFileSystems -> root }
+        1 * watcherRegistry.registerWatchableHierarchy(watchableHierarchy, _)
+        1 * stateStore.restore() >> restoredState
+        1 * restoredState.takeSnapshotsIn(watchableHierarchy) >> [restoredSnapshot]
+        _ * restoredState.isEmpty() >> true
+        1 * restoredState.findChangedLocations(restoredSnapshot) >> {
+            // The check has already looked at the file, and it is changed before the restored snapshots are added
+            changedFile.text = "changed"
+            restoringVirtualFileSystem.invalidate([changedFile.absolutePath])
+            []
+        }
+
+        and:
+        !restoringRootReference.root.findMetadata(changedFile.absolutePath).present
+        restoringRootReference.root.findMetadata(unchangedFile.absolutePath).present
+    }
+
+    def "does not restore snapshots of locations the watcher reports as changed while the restore is checked"() {
+        def restoringRootReference = new VfsRootReference(emptySnapshotHierarchy)
+        def stateStore = Mock(VirtualFileSystemStateStore)
+        def restoredState = Mock(VirtualFileSystemStateStore.RestoredState)
+        def restoringVirtualFileSystem = new WatchingVirtualFileSystem(
+            watcherRegistryFactory,
+            restoringRootReference,
+            daemonDocumentationIndex,
+            locationsUpdatedByCurrentBuild,
+            watchableFileSystemDetector,
+            stateStore
+        )
+        def watchableHierarchy = temporaryFolder.createDir("project")
+        def removedDir = watchableHierarchy.file("src")
+        removedDir.file("removed.txt") << "removed"
+        def unchangedFile = watchableHierarchy.file("unchanged.txt") << "unchanged"
+        def restoredSnapshot = restoredSnapshotOf(watchableHierarchy)
+        FileWatcherRegistry.ChangeHandler changeHandler = null
+
+        when:
+        restoringVirtualFileSystem.registerWatchableHierarchy(watchableHierarchy)
+        restoringVirtualFileSystem.afterBuildStarted(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner)
+
+        then:
+        1 * watcherRegistryFactory.createFileWatcherRegistry(_) >> { FileWatcherRegistry.ChangeHandler handler ->
+            changeHandler = handler
+            watcherRegistry
+        }
+        1 * watcherRegistry.updateVfsOnBuildStarted(_, _, _) >> { SnapshotHierarchy root, watchMode, unsupportedFileSystems -> root }
+        1 * stateStore.restore() >> restoredState
+        1 * restoredState.takeSnapshotsIn(watchableHierarchy) >> [restoredSnapshot]
+        _ * restoredState.isEmpty() >> true
+        1 * restoredState.findChangedLocations(restoredSnapshot) >> {
+            removedDir.deleteDir()
+            changeHandler.handleChange(FileWatcherRegistry.Type.REMOVED, removedDir.toPath())
+            []
+        }
+
+        and:
+        !restoringRootReference.root.findMetadata(removedDir.absolutePath).present
+        !restoringRootReference.root.findMetadata(removedDir.file("removed.txt").absolutePath).present
+        restoringRootReference.root.findMetadata(unchangedFile.absolutePath).present
+    }
+
+    def "drops the restored snapshots when the virtual file system is invalidated while the restore is checked"() {
+        def restoringRootReference = new VfsRootReference(emptySnapshotHierarchy)
+        def stateStore = Mock(VirtualFileSystemStateStore)
+        def restoredState = Mock(VirtualFileSystemStateStore.RestoredState)
+        def restoringVirtualFileSystem = new WatchingVirtualFileSystem(
+            watcherRegistryFactory,
+            restoringRootReference,
+            daemonDocumentationIndex,
+            locationsUpdatedByCurrentBuild,
+            watchableFileSystemDetector,
+            stateStore
+        )
+        def watchableHierarchy = temporaryFolder.createDir("project")
+        watchableHierarchy.file("file.txt") << "stored"
+        def restoredSnapshot = restoredSnapshotOf(watchableHierarchy)
+
+        when:
+        restoringVirtualFileSystem.registerWatchableHierarchy(watchableHierarchy)
+        restoringVirtualFileSystem.afterBuildStarted(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner)
+
+        then:
+        1 * watcherRegistryFactory.createFileWatcherRegistry(_) >> watcherRegistry
+        1 * watcherRegistry.updateVfsOnBuildStarted(_, _, _) >> { SnapshotHierarchy root, watchMode, unsupportedFileSystems -> root }
+        1 * stateStore.restore() >> restoredState
+        1 * restoredState.takeSnapshotsIn(watchableHierarchy) >> [restoredSnapshot]
+        _ * restoredState.isEmpty() >> true
+        1 * restoredState.findChangedLocations(restoredSnapshot) >> {
+            restoringVirtualFileSystem.invalidateAll()
+            []
+        }
+
+        and:
+        !restoringRootReference.root.hasDescendantsUnder(watchableHierarchy.absolutePath)
+        !restoringRootReference.root.findMetadata(watchableHierarchy.absolutePath).present
+    }
+
+    private VirtualFileSystemStateStore.RestoredSnapshot restoredSnapshotOf(File location) {
+        def directorySnapshotter = new DirectorySnapshotter(TestFiles.fileHasher(), new StringInterner(), [], Stub(DirectorySnapshotterStatistics.Collector))
+        def snapshot = directorySnapshotter.snapshot(location.absolutePath, null, new AtomicBoolean())
+        return Stub(VirtualFileSystemStateStore.RestoredSnapshot) {
+            getSnapshot() >> snapshot
+        }
+    }
 }
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.file.archive.impl;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
+import org.gradle.api.internal.file.archive.ZipEntry;
+import org.gradle.api.internal.file.archive.ZipInput;
+import org.gradle.internal.file.FileException;
+
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a zip file from its central directory, and only reads and inflates the content of an entry when it is requested.
+ *
+ * Unlike {@link StreamZipInput}, entries which are never read are skipped without inflating them.
+ * The file is read via positional reads on a {@link FileChannel} instead of memory mapping it, since a mapped file cannot be deleted on Windows until the mapping is garbage collected.
+ */
+public class CentralDirectoryZipInput implements ZipInput {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+    private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+    private static final int CENTRAL_DIRECTORY_HEADER_LENGTH = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH = 20;
+    private static final int MAXIMUM_COMMENT_LENGTH = 0xFFFF;
+
+    private static final int ENCRYPTED_FLAG = 1;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer centralDirectory;
+    private final long archiveOffset;
+
+    /**
+     * Opens the given zip file and reads its central directory. Caller is responsible for closing the return value.
+     *
+     * @throws ZipException when the file has no valid central directory.
+     */
+    public static CentralDirectoryZipInput open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            return new CentralDirectoryZipInput(randomAccessFile);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private CentralDirectoryZipInput(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+
+        long fileLength = channel.size();
+        int tailLength = (int) Math.min(fileLength, END_OF_CENTRAL_DIRECTORY_LENGTH + MAXIMUM_COMMENT_LENGTH);
+        ByteBuffer tail = read(fileLength - tailLength, tailLength);
+        int endOfCentralDirectory = findEndOfCentralDirectory(tail);
+
+        long entryCount = unsignedShort(tail, endOfCentralDirectory + 10);
+        long centralDirectorySize = unsignedInt(tail, endOfCentralDirectory + 12);
+        long centralDirectoryOffset = unsignedInt(tail, endOfCentralDirectory + 16);
+        long centralDirectoryEnd = fileLength - tailLength + endOfCentralDirectory;
+
+        int locator = endOfCentralDirectory - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+            long zip64EndOfCentralDirectory = tail.getLong(locator + 8);
+            ByteBuffer zip64Record = readZip64EndOfCentralDirectory(zip64EndOfCentralDirectory);
+            if (zip64Record == null) {
+                // The recorded offset does not account for content prepended to the archive,
+                // in which case the record is expected right before the locator
+                zip64EndOfCentralDirectory = centralDirectoryEnd - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_LENGTH - ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH;
+                zip64Record = readZip64EndOfCentralDirectory(zip64EndOfCentralDirectory);
+                if (zip64Record == null) {
+                    throw new ZipException("Could not find zip64 end of central directory record");
+                }
+            }
+            entryCount = zip64Record.getLong(32);
+            centralDirectorySize = zip64Record.getLong(40);
+            centralDirectoryOffset = zip64Record.getLong(48);
+            centralDirectoryEnd = zip64EndOfCentralDirectory;
+        }
+
+        if (entryCount < 0 || centralDirectorySize < 0 || centralDirectorySize > Integer.MAX_VALUE || centralDirectoryOffset < 0) {
+            throw new ZipException("Invalid end of central directory record");
+        }
+        // Archives can be prefixed with other content, e.g. a launch script, which shifts all offsets recorded in the archive
+        this.archiveOffset = centralDirectoryEnd - centralDirectorySize - centralDirectoryOffset;
+        if (archiveOffset < 0) {
+            throw new ZipException("Invalid central directory offset");
+        }
+        this.centralDirectory = read(archiveOffset + centralDirectoryOffset, (int) centralDirectorySize);
+    }
+
+    @Nullable
+    private ByteBuffer readZip64EndOfCentralDirectory(long position) throws IOException {
+        if (position < 0 || position + ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH > channel.size()) {
+            return null;
+        }
+        ByteBuffer record = read(position, ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH);
+        return record.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE ? record : null;
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer tail) throws ZipException {
+        for (int position = tail.limit() - END_OF_CENTRAL_DIRECTORY_LENGTH; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE
+                && position + END_OF_CENTRAL_DIRECTORY_LENGTH + unsignedShort(tail, position + 20) <= tail.limit()) {
+                return position;
+            }
+        }
+        throw new ZipException("Could not find end of central directory record");
+    }
+
+    @Override
+    public Iterator<ZipEntry> iterator() {
+        return new AbstractIterator<ZipEntry>() {
+            private int position;
+
+            @Override
+            protected ZipEntry computeNext() {
+                if (position >= centralDirectory.limit()) {
+                    return endOfData();
+                }
+                try {
+                    return readEntry();
+                } catch (ZipException e) {
+                    throw new FileException(e);
+                }
+            }
+
+            private ZipEntry readEntry() throws ZipException {
+                if (position + CENTRAL_DIRECTORY_HEADER_LENGTH > centralDirectory.limit() || centralDirectory.getInt(position) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid central directory header");
+                }
+                int flags = unsignedShort(centralDirectory, position + 8);
+                int method = unsignedShort(centralDirectory, position + 10);
+                long crc = unsignedInt(centralDirectory, position + 16);
+                long compressedSize = unsignedInt(centralDirectory, position + 20);
+                long size = unsignedInt(centralDirectory, position + 24);
+                int nameLength = unsignedShort(centralDirectory, position + 28);
+                int extraLength = unsignedShort(centralDirectory, position + 30);
+                int commentLength = unsignedShort(centralDirectory, position + 32);
+                long localHeaderOffset = unsignedInt(centralDirectory, position + 42);
+
+                int nameStart = position + CENTRAL_DIRECTORY_HEADER_LENGTH;
+                int extraStart = nameStart + nameLength;
+                int next = extraStart + extraLength + commentLength;
+                if (next > centralDirectory.limit()) {
+                    throw new ZipException("Invalid central directory header");
+                }
+                String name = string(centralDirectory, nameStart, nameLength);
+
+                // Zip64 extended information only contains the fields which are too large for the header
+                if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                    int extra = findExtraField(extraStart, extraLength);
+                    if (extra >= 0) {
+                        int fieldPosition = extra + 4;
+                        int fieldEnd = fieldPosition + unsignedShort(centralDirectory, extra + 2);
+                        if (size == 0xFFFFFFFFL && fieldPosition + 8 <= fieldEnd) {
+                            size = centralDirectory.getLong(fieldPosition);
+                            fieldPosition += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL && fieldPosition + 8 <= fieldEnd) {
+                            compressedSize = centralDirectory.getLong(fieldPosition);
+                            fieldPosition += 8;
+                        }
+                        if (localHeaderOffset == 0xFFFFFFFFL && fieldPosition + 8 <= fieldEnd) {
+                            localHeaderOffset = centralDirectory.getLong(fieldPosition);
+                        }
+                    }
+                }
+                if (size < 0 || compressedSize < 0 || localHeaderOffset < 0) {
+                    throw new ZipException("Invalid zip64 extended information for zip entry '" + name + "'");
+                }
+                position = next;
+
+                java.util.zip.ZipEntry entry = new java.util.zip.ZipEntry(name);
+                entry.setCrc(crc);
+                entry.setCompressedSize(compressedSize);
+                entry.setSize(size);
+                return new JdkZipEntry(entry, new EntryContentSupplier(name, flags, method, compressedSize, localHeaderOffset), null);
+            }
+
+            private int findExtraField(int extraStart, int extraLength) {
+                int extra = extraStart;
+                int extraEnd = extraStart + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    int dataLength = unsignedShort(centralDirectory, extra + 2);
+                    if (unsignedShort(centralDirectory, extra) == ZIP64_EXTRA_FIELD_ID) {
+                        return extra + 4 + dataLength <= extraEnd ? extra : -1;
+                    }
+                    extra += 4 + dataLength;
+                }
+                return -1;
+            }
+        };
+    }
+
+    private class EntryContentSupplier implements Supplier<InputStream> {
+        private final String name;
+        private final int flags;
+        private final int method;
+        private final long compressedSize;
+        private final long localHeaderOffset;
+
+        public EntryContentSupplier(String name, int flags, int method, long compressedSize, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        @Override
+        public InputStream get() {
+            try {
+                return openContent();
+            } catch (IOException e) {
+                throw new FileException(e);
+            }
+        }
+
+        private InputStream openContent() throws IOException {
+            if ((flags & ENCRYPTED_FLAG) != 0) {
+                throw new ZipException("Encrypted zip entry '" + name + "' is not supported");
+            }
+            long localHeader = archiveOffset + localHeaderOffset;
+            ByteBuffer header = read(localHeader, LOCAL_FILE_HEADER_LENGTH);
+            if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local file header for zip entry '" + name + "'");
+            }
+            long contentStart = localHeader + LOCAL_FILE_HEADER_LENGTH + unsignedShort(header, 26) + unsignedShort(header, 28);
+            InputStream content = new ChannelInputStream(contentStart, compressedSize);
+            switch (method) {
+                case java.util.zip.ZipEntry.STORED:
+                    return content;
+                case java.util.zip.ZipEntry.DEFLATED:
+                    return new EntryInflaterInputStream(content);
+                default:
+                    throw new ZipException("Unsupported compression method " + method + " of zip entry '" + name + "'");
+            }
+        }
+    }
+
+    /**
+     * Reads a range of the file without changing the position of the channel.
+     */
+    private class ChannelInputStream extends InputStream {
+        private long position;
+        private final long end;
+
+        public ChannelInputStream(long position, long length) {
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long remaining = end - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, remaining)), position);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    private static class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean endOfInput;
+        private boolean closed;
+
+        public EntryInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (endOfInput) {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // An inflater without zlib header and checksum may need an additional byte to finish
+                buf[0] = 0;
+                len = 1;
+                endOfInput = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long unsignedInt(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & 0xFFFFFFFFL;
+    }
+
+    private static String string(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
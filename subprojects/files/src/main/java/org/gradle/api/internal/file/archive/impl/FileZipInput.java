@@ -29,6 +29,7 @@
 import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 public class FileZipInput implements ZipInput {
@@ -43,15 +44,27 @@ public static ZipInput create(File file) throws FileException {
             return new FileZipInput(file);
         } else {
             try {
-                return new StreamZipInput(new FileInputStream(file));
-            } catch (FileNotFoundException e) {
+                return CentralDirectoryZipInput.open(file);
+            } catch (ZipException e) {
+                // Fall back to reading the local headers of the entries, which does not need a central directory
+                return openStream(file);
+            } catch (IOException e) {
                 throw new FileException(e);
             }
         }
     }
 
+    private static ZipInput openStream(File file) {
+        try {
+            return new StreamZipInput(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            throw new FileException(e);
+        }
+    }
+
     /**
      * {@link ZipFile} is more efficient, but causes memory leaks on older Java versions, so we only use it on more recent ones.
+     * On older versions, {@link CentralDirectoryZipInput} similarly only inflates the entries which are read.
      */
     private static boolean isZipFileSafeToUse() {
         String versionString = System.getProperty("java.specification.version");
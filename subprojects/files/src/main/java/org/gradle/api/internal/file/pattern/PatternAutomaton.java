@@ -0,0 +1,366 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.file.pattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Matches paths against many patterns at once.
+ *
+ * All patterns are compiled into a single automaton over path segments, whose states are the sets of positions the patterns can be at.
+ * The states are created lazily as paths are matched and then reused, together with the transitions taken from them,
+ * so a path is matched by a single pass over its segments instead of by matching each pattern in turn.
+ * A transition compares the segment with the literal steps of all patterns at once via a lookup,
+ * and only evaluates the wildcard steps one by one.
+ *
+ * A path has the same result as when matched against each pattern via {@link PatternMatcherFactory#getPatternMatcher(boolean, boolean, String)}
+ * and combining the results via {@link PatternMatcher#or(PatternMatcher)}.
+ */
+public class PatternAutomaton extends PatternMatcher {
+    private static final int MAX_CACHED_STATES = 4096;
+    private static final int MAX_CACHED_TRANSITIONS_PER_STATE = 1024;
+
+    private static final int END = 0;
+    private static final int GREEDY = 1;
+    private static final int ANY = 2;
+    private static final int LITERAL = 3;
+    private static final int STEP = 4;
+
+    private final boolean partialMatchDirs;
+    private final boolean caseSensitive;
+    private final int[] kinds;
+    private final String[] literals;
+    private final PatternStep[] steps;
+    private final int patternCount;
+    private final ConcurrentMap<PositionSet, State> states = new ConcurrentHashMap<PositionSet, State>();
+    private final State initialState;
+
+    public PatternAutomaton(boolean partialMatchDirs, boolean caseSensitive, Iterable<String> patterns) {
+        this.partialMatchDirs = partialMatchDirs;
+        this.caseSensitive = caseSensitive;
+
+        List<Integer> kinds = new ArrayList<Integer>();
+        List<String> literals = new ArrayList<String>();
+        List<PatternStep> steps = new ArrayList<PatternStep>();
+        List<Integer> startPositions = new ArrayList<Integer>();
+        for (String pattern : patterns) {
+            startPositions.add(kinds.size());
+            String previousSegment = null;
+            for (String segment : PatternMatcherFactory.getPatternSegments(pattern)) {
+                if (segment.equals("**")) {
+                    if (!"**".equals(previousSegment)) {
+                        kinds.add(GREEDY);
+                        literals.add(null);
+                        steps.add(null);
+                    }
+                } else {
+                    PatternStep step = PatternStepFactory.getStep(segment, caseSensitive);
+                    if (step instanceof AnyWildcardPatternStep) {
+                        kinds.add(ANY);
+                        literals.add(null);
+                    } else if (step instanceof FixedPatternStep && (caseSensitive || !containsSurrogates(segment))) {
+                        kinds.add(LITERAL);
+                        literals.add(normalize(segment));
+                    } else {
+                        kinds.add(STEP);
+                        literals.add(null);
+                    }
+                    steps.add(step);
+                }
+                previousSegment = segment;
+            }
+            kinds.add(END);
+            literals.add(null);
+            steps.add(null);
+        }
+        this.kinds = new int[kinds.size()];
+        for (int i = 0; i < this.kinds.length; i++) {
+            this.kinds[i] = kinds.get(i);
+        }
+        this.literals = literals.toArray(new String[0]);
+        this.steps = steps.toArray(new PatternStep[0]);
+
+        PositionSetBuilder initialPositions = new PositionSetBuilder();
+        for (int startPosition : startPositions) {
+            initialPositions.add(startPosition);
+        }
+        this.patternCount = startPositions.size();
+        this.initialState = getState(initialPositions.build());
+    }
+
+    @Override
+    public boolean test(String[] segments, boolean isFile) {
+        State state = initialState;
+        for (String segment : segments) {
+            state = state.next(segment);
+            if (state.isDead()) {
+                return false;
+            }
+        }
+        if (isFile || !partialMatchDirs) {
+            return state.isAccepting();
+        }
+        // Matches the semantics of PathMatcher.isPrefix(): a pattern which was consumed completely by the directory path still matches it
+        return segments.length == 0
+            ? state.hasNonEndPositions()
+            : !state.isDead();
+    }
+
+    @Override
+    public String toString() {
+        return "{automaton: " + patternCount + " patterns}";
+    }
+
+    private State getState(PositionSet positions) {
+        State state = states.get(positions);
+        if (state != null) {
+            return state;
+        }
+        state = new State(positions);
+        if (states.size() < MAX_CACHED_STATES) {
+            State existing = states.putIfAbsent(positions, state);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return state;
+    }
+
+    private String normalize(String segment) {
+        if (caseSensitive) {
+            return segment;
+        }
+        // Two strings without surrogates are equal ignoring case if and only if their folded forms are equal, see String.equalsIgnoreCase()
+        char[] folded = new char[segment.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = Character.toLowerCase(Character.toUpperCase(segment.charAt(i)));
+        }
+        return new String(folded);
+    }
+
+    private static boolean containsSurrogates(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isHighSurrogate(segment.charAt(i)) || Character.isLowSurrogate(segment.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A set of positions in the patterns, closed over the positions a greedy step can skip to.
+     */
+    private class State {
+        private final PositionSet positions;
+        private final boolean accepting;
+        private final boolean hasNonEndPositions;
+        private final int[] anySegmentTargets;
+        private final Map<String, int[]> literalTargets;
+        private final PatternStep[] wildcardSteps;
+        private final int[] wildcardTargets;
+        private final ConcurrentMap<String, State> transitions = new ConcurrentHashMap<String, State>();
+        private volatile State anySegmentState;
+
+        State(PositionSet positions) {
+            this.positions = positions;
+            boolean accepting = false;
+            boolean hasNonEndPositions = false;
+            PositionSetBuilder anySegmentTargets = new PositionSetBuilder();
+            Map<String, PositionSetBuilder> literalTargets = new HashMap<String, PositionSetBuilder>();
+            List<PatternStep> wildcardSteps = new ArrayList<PatternStep>();
+            List<Integer> wildcardTargets = new ArrayList<Integer>();
+            for (int position : positions.positions) {
+                switch (kinds[position]) {
+                    case END:
+                        accepting = true;
+                        break;
+                    case GREEDY:
+                        hasNonEndPositions = true;
+                        anySegmentTargets.add(position);
+                        break;
+                    case ANY:
+                        hasNonEndPositions = true;
+                        anySegmentTargets.add(position + 1);
+                        break;
+                    case LITERAL:
+                        hasNonEndPositions = true;
+                        PositionSetBuilder targets = literalTargets.get(literals[position]);
+                        if (targets == null) {
+                            targets = new PositionSetBuilder();
+                            literalTargets.put(literals[position], targets);
+                        }
+                        targets.add(position + 1);
+                        break;
+                    case STEP:
+                        hasNonEndPositions = true;
+                        wildcardSteps.add(steps[position]);
+                        wildcardTargets.add(position + 1);
+                        break;
+                    default:
+                        throw new AssertionError();
+                }
+            }
+            this.accepting = accepting;
+            this.hasNonEndPositions = hasNonEndPositions;
+            this.anySegmentTargets = anySegmentTargets.toArray();
+            this.literalTargets = new HashMap<String, int[]>(literalTargets.size());
+            for (Map.Entry<String, PositionSetBuilder> entry : literalTargets.entrySet()) {
+                this.literalTargets.put(entry.getKey(), entry.getValue().toArray());
+            }
+            this.wildcardSteps = wildcardSteps.toArray(new PatternStep[0]);
+            this.wildcardTargets = new int[wildcardTargets.size()];
+            for (int i = 0; i < this.wildcardTargets.length; i++) {
+                this.wildcardTargets[i] = wildcardTargets.get(i);
+            }
+        }
+
+        boolean isAccepting() {
+            return accepting;
+        }
+
+        boolean hasNonEndPositions() {
+            return hasNonEndPositions;
+        }
+
+        boolean isDead() {
+            return positions.positions.length == 0;
+        }
+
+        State next(String segment) {
+            if (isDead()) {
+                return this;
+            }
+            State next = transitions.get(segment);
+            if (next == null) {
+                next = computeNext(segment);
+                if (transitions.size() < MAX_CACHED_TRANSITIONS_PER_STATE) {
+                    transitions.put(segment, next);
+                }
+            }
+            return next;
+        }
+
+        private State computeNext(String segment) {
+            PositionSetBuilder targets = null;
+            if (!literalTargets.isEmpty()) {
+                int[] matchingLiteralTargets = literalTargets.get(normalize(segment));
+                if (matchingLiteralTargets != null) {
+                    targets = new PositionSetBuilder();
+                    targets.addAll(matchingLiteralTargets);
+                }
+            }
+            for (int i = 0; i < wildcardSteps.length; i++) {
+                if (wildcardSteps[i].matches(segment)) {
+                    if (targets == null) {
+                        targets = new PositionSetBuilder();
+                    }
+                    targets.add(wildcardTargets[i]);
+                }
+            }
+            if (targets == null) {
+                // Only the steps matching any segment apply, which is the case for most segments
+                return getAnySegmentState();
+            }
+            targets.addAll(anySegmentTargets);
+            return getState(targets.build());
+        }
+
+        private State getAnySegmentState() {
+            State state = anySegmentState;
+            if (state == null) {
+                state = getState(new PositionSet(anySegmentTargets));
+                anySegmentState = state;
+            }
+            return state;
+        }
+    }
+
+    private class PositionSetBuilder {
+        private int[] positions = new int[8];
+        private int size;
+
+        void add(int position) {
+            append(position);
+            // A greedy step can match no segment at all, so the automaton can be at the position after it as well.
+            // Consecutive greedy steps are collapsed, so one position needs to be skipped at most.
+            if (kinds[position] == GREEDY) {
+                append(position + 1);
+            }
+        }
+
+        void addAll(int[] targets) {
+            for (int target : targets) {
+                add(target);
+            }
+        }
+
+        private void append(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        int[] toArray() {
+            int[] sorted = Arrays.copyOf(positions, size);
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+            return distinct == sorted.length ? sorted : Arrays.copyOf(sorted, distinct);
+        }
+
+        PositionSet build() {
+            return new PositionSet(toArray());
+        }
+    }
+
+    private static class PositionSet {
+        private final int[] positions;
+        private final int hashCode;
+
+        PositionSet(int[] positions) {
+            this.positions = positions;
+            this.hashCode = Arrays.hashCode(positions);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return Arrays.equals(positions, ((PositionSet) o).positions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
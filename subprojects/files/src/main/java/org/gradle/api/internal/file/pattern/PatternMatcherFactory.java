@@ -19,6 +19,7 @@
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 
+import java.util.Iterator;
 import java.util.List;
 
 public class PatternMatcherFactory {
@@ -26,15 +27,21 @@ public class PatternMatcherFactory {
     private static final EndOfPathMatcher END_OF_PATH_MATCHER = new EndOfPathMatcher();
     private static final Splitter PATH_SPLITTER = Splitter.on(CharMatcher.anyOf("\\/")).omitEmptyStrings();
 
+    /**
+     * Returns a matcher which matches a path when any of the patterns matches it.
+     *
+     * Multiple patterns are compiled into a {@link PatternAutomaton}, so matching a path does not need to match each pattern in turn.
+     */
     public static PatternMatcher getPatternsMatcher(boolean partialMatchDirs, boolean caseSensitive, Iterable<String> patterns) {
-        PatternMatcher matcher = PatternMatcher.MATCH_ALL;
-        for (String pattern : patterns) {
-            PatternMatcher patternMatcher = getPatternMatcher(partialMatchDirs, caseSensitive, pattern);
-            matcher = matcher == PatternMatcher.MATCH_ALL
-                ? patternMatcher
-                : matcher.or(patternMatcher);
+        Iterator<String> iterator = patterns.iterator();
+        if (!iterator.hasNext()) {
+            return PatternMatcher.MATCH_ALL;
         }
-        return matcher;
+        String firstPattern = iterator.next();
+        if (!iterator.hasNext()) {
+            return getPatternMatcher(partialMatchDirs, caseSensitive, firstPattern);
+        }
+        return new PatternAutomaton(partialMatchDirs, caseSensitive, patterns);
     }
 
     public static PatternMatcher getPatternMatcher(boolean partialMatchDirs, boolean caseSensitive, String pattern) {
@@ -46,13 +53,15 @@ public static PathMatcher compile(boolean caseSensitive, String pattern) {
         if (pattern.length() == 0) {
             return END_OF_PATH_MATCHER;
         }
+        return compile(getPatternSegments(pattern), 0, caseSensitive);
+    }
 
+    static List<String> getPatternSegments(String pattern) {
         // trailing / or \ assumes **
         if (pattern.endsWith("/") || pattern.endsWith("\\")) {
             pattern = pattern + "**";
         }
-        List<String> parts = PATH_SPLITTER.splitToList(pattern);
-        return compile(parts, 0, caseSensitive);
+        return PATH_SPLITTER.splitToList(pattern);
     }
 
     private static PathMatcher compile(List<String> parts, int startIndex, boolean caseSensitive) {
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.file.archive.impl
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipOutputStream
+
+class CentralDirectoryZipInputTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
+    def "reads stored and deflated entries"() {
+        def file = makeZip("foo.zip") { ZipOutputStream out ->
+            putEntry(out, "dir/", null, ZipEntry.DEFLATED)
+            putEntry(out, "dir/deflated.txt", "deflated content " * 100, ZipEntry.DEFLATED)
+            putEntry(out, "dir/stored.txt", "stored content", ZipEntry.STORED)
+            putEntry(out, "empty.txt", "", ZipEntry.DEFLATED)
+            putEntry(out, "non-ascii-ü.txt", "ü", ZipEntry.DEFLATED)
+        }
+
+        expect:
+        readEntries(file) == [
+            "dir/": null,
+            "dir/deflated.txt": "deflated content " * 100,
+            "dir/stored.txt": "stored content",
+            "empty.txt": "",
+            "non-ascii-ü.txt": "ü"
+        ]
+    }
+
+    def "entries can be skipped without reading them"() {
+        def file = makeZip("foo.zip") { ZipOutputStream out ->
+            putEntry(out, "skipped.txt", "skipped", ZipEntry.DEFLATED)
+            putEntry(out, "read.txt", "read", ZipEntry.DEFLATED)
+        }
+
+        when:
+        def zipInput = CentralDirectoryZipInput.open(file)
+        def content = zipInput.find { it.name == "read.txt" }.content
+
+        then:
+        new String(content, "UTF-8") == "read"
+
+        cleanup:
+        zipInput?.close()
+    }
+
+    def "reads archive which is prefixed with other content"() {
+        def zip = makeZip("foo.zip") { ZipOutputStream out ->
+            putEntry(out, "stored.txt", "stored content", ZipEntry.STORED)
+            putEntry(out, "deflated.txt", "deflated content", ZipEntry.DEFLATED)
+        }
+        def file = temporaryFolder.file("launcher.jar")
+        file.bytes = "#!/bin/sh\nexec java -jar \"\$0\"\n".bytes + zip.bytes
+
+        expect:
+        readEntries(file) == [
+            "stored.txt": "stored content",
+            "deflated.txt": "deflated content"
+        ]
+    }
+
+    def "reads archive with more entries than fit into the end of central directory record"() {
+        def entryCount = 70000
+        def file = makeZip("many-entries.zip") { ZipOutputStream out ->
+            entryCount.times { putEntry(out, "entry-${it}.txt", "content ${it}", it % 2 == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED) }
+        }
+
+        when:
+        def entries = readEntries(file)
+
+        then:
+        entries.size() == entryCount
+        entries["entry-0.txt"] == "content 0"
+        entries["entry-69999.txt"] == "content 69999"
+    }
+
+    def "fails with ZipException when zip is badly formed"() {
+        def file = temporaryFolder.file("badly-formed").createFile()
+        file.text = "not a zip file"
+
+        when:
+        CentralDirectoryZipInput.open(file)
+
+        then:
+        thrown(ZipException)
+    }
+
+    private Map<String, String> readEntries(File file) {
+        def entries = [:]
+        def zipInput = CentralDirectoryZipInput.open(file)
+        try {
+            zipInput.each { entry ->
+                entries[entry.name] = entry.directory ? null : new String(entry.content, "UTF-8")
+            }
+        } finally {
+            zipInput.close()
+        }
+        return entries
+    }
+
+    private File makeZip(String filename, Closure<?> action) {
+        def file = temporaryFolder.file(filename)
+        def out = new ZipOutputStream(new FileOutputStream(file))
+        try {
+            action(out)
+        } finally {
+            out.close()
+        }
+        return file
+    }
+
+    private static void putEntry(ZipOutputStream out, String name, String content, int method) {
+        def entry = new ZipEntry(name)
+        def bytes = content == null ? new byte[0] : content.getBytes("UTF-8")
+        entry.method = method
+        if (method == ZipEntry.STORED) {
+            def crc = new CRC32()
+            crc.update(bytes)
+            entry.size = bytes.length
+            entry.crc = crc.value
+        }
+        out.putNextEntry(entry)
+        out.write(bytes)
+        out.closeEntry()
+    }
+}
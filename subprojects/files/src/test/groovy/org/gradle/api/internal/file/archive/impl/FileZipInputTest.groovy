@@ -40,7 +40,7 @@ class FileZipInputTest extends Specification {
         if (JavaVersion.current().java11Compatible) {
             assert zipInput instanceof FileZipInput
         } else {
-            assert zipInput instanceof StreamZipInput
+            assert zipInput instanceof CentralDirectoryZipInput
         }
 
         cleanup:
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.file.pattern
+
+import spock.lang.Specification
+
+class PatternAutomatonTest extends Specification {
+    def "matches files against any of the patterns"() {
+        def automaton = new PatternAutomaton(false, true, ["**/.git/**", "**/*~", "build/", "a/*/c", "docs/**/*.md"])
+
+        expect:
+        automaton.test(path(".git"), false)
+        automaton.test(path("sub/.git/objects/ab"), true)
+        automaton.test(path("sub/File.java~"), true)
+        automaton.test(path("build"), false)
+        automaton.test(path("build/classes/A.class"), true)
+        automaton.test(path("a/b/c"), true)
+        automaton.test(path("docs/README.md"), true)
+        automaton.test(path("docs/guide/intro.md"), true)
+
+        !automaton.test(path(""), false)
+        !automaton.test(path("sub/build/A.class"), true)
+        !automaton.test(path("a/b/b/c"), true)
+        !automaton.test(path("docs/README.txt"), true)
+        !automaton.test(path("src/.gitignore"), true)
+    }
+
+    def "matches directories which can contain matching files when matching partially"() {
+        def automaton = new PatternAutomaton(true, true, ["src/main/**/*.java", "lib/*.jar"])
+
+        expect:
+        automaton.test(path(""), false)
+        automaton.test(path("src"), false)
+        automaton.test(path("src/main/java/org"), false)
+        automaton.test(path("lib"), false)
+        automaton.test(path("src/main/java/org/A.java"), true)
+
+        !automaton.test(path("test"), false)
+        !automaton.test(path("lib/nested"), false)
+        !automaton.test(path("src/main/java/org/A.kt"), true)
+    }
+
+    def "matches literal segments ignoring case"() {
+        def automaton = new PatternAutomaton(false, false, ["**/CVS", "Build/**"])
+
+        expect:
+        automaton.test(path("module/cvs"), false)
+        automaton.test(path("build/out.txt"), true)
+        !automaton.test(path("module/cvs2"), false)
+    }
+
+    def "has the same result as combining the matchers of the single patterns"() {
+        def patterns = ["", "a", "a/", "**", "a/**/b", "**/b*", "*/a*b", "?b/**", "**/**/a", "A/b"]
+        def paths = ["", "a", "b", "A", "a/b", "ab/b", "a/x/y/b", "bb/a", "a/axb", "x/a", "A/b", "a/b/c"]
+
+        expect:
+        [true, false].each { partialMatchDirs ->
+            [true, false].each { caseSensitive ->
+                def automaton = new PatternAutomaton(partialMatchDirs, caseSensitive, patterns)
+                def combined = patterns.collect { PatternMatcherFactory.getPatternMatcher(partialMatchDirs, caseSensitive, it) }.inject { a, b -> a.or(b) }
+                paths.each { p ->
+                    [true, false].each { isFile ->
+                        assert automaton.test(path(p), isFile) == combined.test(path(p), isFile)
+                    }
+                }
+            }
+        }
+    }
+
+    private static String[] path(String path) {
+        path.split("/").findAll { !it.isEmpty() } as String[]
+    }
+}
@@ -15,22 +15,42 @@
  */
 package org.gradle.internal.hash;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.util.concurrent.Executor;
 
 public class DefaultFileHasher implements FileHasher {
     private final StreamHasher streamHasher;
+    @Nullable
+    private final Executor executor;
+    private final int parallelism;
 
     public DefaultFileHasher(StreamHasher streamHasher) {
         this.streamHasher = streamHasher;
+        this.executor = null;
+        this.parallelism = 1;
+    }
+
+    /**
+     * Creates a file hasher that hashes the chunks of large files on up to {@code parallelism} threads of the given executor,
+     * when the stream hasher uses a {@link TreeHashFunction}.
+     */
+    public DefaultFileHasher(DefaultStreamHasher streamHasher, Executor executor, int parallelism) {
+        this.streamHasher = streamHasher;
+        this.executor = executor;
+        this.parallelism = parallelism;
     }
 
     @Override
     public HashCode hash(File file) {
+        if (executor != null) {
+            return hashInParallel(file);
+        }
         InputStream inputStream;
         try {
             inputStream = new FileInputStream(file);
@@ -48,6 +68,16 @@ public HashCode hash(File file) {
         }
     }
 
+    private HashCode hashInParallel(File file) {
+        try {
+            return ((DefaultStreamHasher) streamHasher).hash(file, executor, parallelism);
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException(String.format("Failed to hash file '%s' as it does not exist.", file), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to hash the chunks of file '%s' in parallel: %s", file, e.getMessage()), e);
+        }
+    }
+
     @Override
     public HashCode hash(File file, long length, long lastModified) {
         return hash(file);
@@ -17,17 +17,36 @@
 
 import com.google.common.io.ByteStreams;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 
 public class DefaultStreamHasher implements StreamHasher {
     private static final HashCode SIGNATURE = Hashing.signature(DefaultStreamHasher.class);
 
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
+    private final HashFunction hashFunction;
+
+    public DefaultStreamHasher() {
+        this(Hashing.defaultFunction());
+    }
+
+    /**
+     * Creates a hasher using the given hash function. Different hash functions produce different hashes for the same content.
+     */
+    public DefaultStreamHasher(HashFunction hashFunction) {
+        this.hashFunction = hashFunction;
+    }
+
+    public HashFunction getHashFunction() {
+        return hashFunction;
+    }
 
     @Override
     public HashCode hash(InputStream inputStream) {
@@ -43,10 +62,29 @@ public HashCode hashCopy(InputStream inputStream, OutputStream outputStream) thr
         return doHash(inputStream, outputStream);
     }
 
+    /**
+     * Hashes the contents of the given file, producing the same hash as {@link #hash(InputStream)}.
+     * When using a {@link TreeHashFunction}, the chunks of a large file are hashed using up to {@code parallelism} threads.
+     */
+    public HashCode hash(File file, Executor executor, int parallelism) throws IOException {
+        if (parallelism > 1 && hashFunction instanceof TreeHashFunction) {
+            TreeHashFunction treeHashFunction = (TreeHashFunction) hashFunction;
+            if (file.length() > treeHashFunction.getChunkSize()) {
+                return treeHashFunction.hashFile(file, SIGNATURE, executor, parallelism);
+            }
+        }
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return doHash(inputStream, ByteStreams.nullOutputStream());
+        } finally {
+            inputStream.close();
+        }
+    }
+
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
-            PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
+            PrimitiveHasher hasher = hashFunction.newPrimitiveHasher();
             hasher.putHash(SIGNATURE);
             while (true) {
                 int nread = inputStream.read(buffer);
@@ -141,6 +141,16 @@ public static HashFunction sha512() {
         return SHA512;
     }
 
+    /**
+     * Hashing function that hashes chunks of the given size with the leaf function, and then the chunk hashes.
+     * Allows hashing the chunks of large files in parallel.
+     *
+     * @see TreeHashFunction
+     */
+    public static TreeHashFunction tree(HashFunction leafFunction, int chunkSize) {
+        return new TreeHashFunction(leafFunction, chunkSize);
+    }
+
     private static abstract class MessageDigestHashFunction implements HashFunction {
         private final int hexDigits;
 
@@ -351,7 +361,7 @@ public HashCode hash() {
         }
     }
 
-    private static class DefaultHasher implements Hasher {
+    static class DefaultHasher implements Hasher {
         private final PrimitiveHasher hasher;
 
         public DefaultHasher(PrimitiveHasher unsafeHasher) {
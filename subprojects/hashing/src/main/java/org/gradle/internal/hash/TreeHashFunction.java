@@ -0,0 +1,346 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.internal.hash;
+
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hash function that splits its input into fixed-size chunks, hashes each chunk with a leaf function and then hashes the list of chunk hashes.
+ * <p>
+ * An input of at most one chunk is hashed as the leaf function would hash a single chunk.
+ * Leaf and root hashes are prefixed with different marker bytes, so a chunk can never be mistaken for a list of chunk hashes.
+ * <p>
+ * As the chunks are independent, the chunks of a file can be hashed in parallel, see {@link #hashFile(File, HashCode, Executor, int)}.
+ * Hashing a stream of the same bytes sequentially produces the same hash.
+ */
+public class TreeHashFunction implements HashFunction {
+    private static final byte LEAF_MARKER = 0;
+    private static final byte ROOT_MARKER = 1;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final HashFunction leafFunction;
+    private final int chunkSize;
+
+    TreeHashFunction(HashFunction leafFunction, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.leafFunction = leafFunction;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return leafFunction.getAlgorithm() + "-TREE-" + chunkSize;
+    }
+
+    @Override
+    public PrimitiveHasher newPrimitiveHasher() {
+        return new ChunkingHasher();
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Hashing.DefaultHasher(newPrimitiveHasher());
+    }
+
+    @Override
+    public HashCode hashBytes(byte[] bytes) {
+        PrimitiveHasher hasher = newPrimitiveHasher();
+        hasher.putBytes(bytes);
+        return hasher.hash();
+    }
+
+    @Override
+    public HashCode hashString(CharSequence string) {
+        PrimitiveHasher hasher = newPrimitiveHasher();
+        hasher.putString(string);
+        return hasher.hash();
+    }
+
+    @Override
+    public HashCode hashStream(InputStream stream) throws IOException {
+        PrimitiveHasher hasher = newPrimitiveHasher();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int nread;
+        while ((nread = stream.read(buffer)) >= 0) {
+            hasher.putBytes(buffer, 0, nread);
+        }
+        return hasher.hash();
+    }
+
+    @Override
+    public HashCode hashFile(File file) throws IOException {
+        InputStream stream = new FileInputStream(file);
+        try {
+            return hashStream(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public int getHexDigits() {
+        return leafFunction.getHexDigits();
+    }
+
+    @Override
+    public String toString() {
+        return getAlgorithm();
+    }
+
+    /**
+     * Hashes the given prefix followed by the contents of the file, hashing the chunks on up to {@code parallelism} threads.
+     * <p>
+     * The calling thread hashes chunks, too, so this makes progress even when the executor is busy.
+     * Chunks are read with positional reads rather than memory-mapped, as a mapping is only released on garbage collection,
+     * which would keep the file from being deleted on Windows.
+     */
+    public HashCode hashFile(File file, HashCode prefix, Executor executor, int parallelism) throws IOException {
+        int prefixLength = prefix.length();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long length = prefixLength + channel.size();
+            int chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+            if (chunkCount <= 1) {
+                PrimitiveHasher hasher = newLeafHasher();
+                hasher.putHash(prefix);
+                hashRange(channel, 0, length - prefixLength, hasher, ByteBuffer.allocate(READ_BUFFER_SIZE));
+                return hasher.hash();
+            }
+            ParallelChunks chunks = new ParallelChunks(channel, prefix, length, chunkCount);
+            for (int i = 1; i < Math.min(parallelism, chunkCount); i++) {
+                executor.execute(chunks);
+            }
+            chunks.run();
+            HashCode[] chunkHashes = chunks.await();
+            PrimitiveHasher root = newRootHasher();
+            for (HashCode chunkHash : chunkHashes) {
+                root.putHash(chunkHash);
+            }
+            return root.hash();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private PrimitiveHasher newLeafHasher() {
+        PrimitiveHasher hasher = leafFunction.newPrimitiveHasher();
+        hasher.putByte(LEAF_MARKER);
+        return hasher;
+    }
+
+    private PrimitiveHasher newRootHasher() {
+        PrimitiveHasher hasher = leafFunction.newPrimitiveHasher();
+        hasher.putByte(ROOT_MARKER);
+        return hasher;
+    }
+
+    private static void hashRange(FileChannel channel, long start, long end, PrimitiveHasher hasher, ByteBuffer buffer) throws IOException {
+        long position = start;
+        while (position < end) {
+            // Cast so that code compiled by Java 9+ does not call ByteBuffer methods missing on Java 8
+            Buffer plainBuffer = buffer;
+            plainBuffer.clear();
+            if (end - position < buffer.capacity()) {
+                plainBuffer.limit((int) (end - position));
+            }
+            int nread = channel.read(buffer, position);
+            if (nread < 0) {
+                throw new IOException("Unexpected end of file while hashing");
+            }
+            hasher.putBytes(buffer.array(), 0, nread);
+            position += nread;
+        }
+    }
+
+    /**
+     * Hashes the chunks of a file. Each thread running this claims chunks until there are none left.
+     */
+    private class ParallelChunks implements Runnable {
+        private final FileChannel channel;
+        private final HashCode prefix;
+        private final long length;
+        private final HashCode[] chunkHashes;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final CountDownLatch remainingChunks;
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        ParallelChunks(FileChannel channel, HashCode prefix, long length, int chunkCount) {
+            this.channel = channel;
+            this.prefix = prefix;
+            this.length = length;
+            this.chunkHashes = new HashCode[chunkCount];
+            this.remainingChunks = new CountDownLatch(chunkCount);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkHashes.length) {
+                try {
+                    if (failure.get() == null) {
+                        chunkHashes[chunk] = hashChunk(chunk, buffer);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    remainingChunks.countDown();
+                }
+            }
+        }
+
+        private HashCode hashChunk(int chunk, ByteBuffer buffer) throws IOException {
+            PrimitiveHasher hasher = newLeafHasher();
+            long start = (long) chunk * chunkSize;
+            long end = Math.min(start + chunkSize, length);
+            int prefixLength = prefix.length();
+            if (start < prefixLength) {
+                hasher.putBytes(prefix.getBytes(), (int) start, (int) Math.min(end, prefixLength) - (int) start);
+            }
+            hashRange(channel, Math.max(start, prefixLength) - prefixLength, end - prefixLength, hasher, buffer);
+            return hasher.hash();
+        }
+
+        HashCode[] await() throws IOException {
+            try {
+                remainingChunks.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while hashing file", e);
+            }
+            Throwable t = failure.get();
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            return chunkHashes;
+        }
+    }
+
+    /**
+     * Hashes its input sequentially, starting a new chunk each time the current one is full.
+     */
+    private class ChunkingHasher implements PrimitiveHasher {
+        private final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private PrimitiveHasher leaf = newLeafHasher();
+        private int leafLength;
+        private PrimitiveHasher root;
+
+        @Override
+        public void putByte(byte b) {
+            startChunkIfFull();
+            leaf.putByte(b);
+            leafLength++;
+        }
+
+        @Override
+        public void putBytes(byte[] bytes) {
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes, int off, int len) {
+            while (len > 0) {
+                startChunkIfFull();
+                int count = Math.min(len, chunkSize - leafLength);
+                leaf.putBytes(bytes, off, count);
+                leafLength += count;
+                off += count;
+                len -= count;
+            }
+        }
+
+        private void startChunkIfFull() {
+            if (leafLength == chunkSize) {
+                if (root == null) {
+                    root = newRootHasher();
+                }
+                root.putHash(leaf.hash());
+                leaf = newLeafHasher();
+                leafLength = 0;
+            }
+        }
+
+        @Override
+        public void putInt(int value) {
+            ((Buffer) buffer).clear();
+            buffer.putInt(value);
+            putBytes(buffer.array(), 0, 4);
+        }
+
+        @Override
+        public void putLong(long value) {
+            ((Buffer) buffer).clear();
+            buffer.putLong(value);
+            putBytes(buffer.array(), 0, 8);
+        }
+
+        @Override
+        public void putDouble(double value) {
+            putLong(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public void putBoolean(boolean value) {
+            putByte((byte) (value ? 1 : 0));
+        }
+
+        @Override
+        public void putString(CharSequence value) {
+            putBytes(value.toString().getBytes(Charsets.UTF_8));
+        }
+
+        @Override
+        public void putHash(HashCode hashCode) {
+            putBytes(hashCode.getBytes());
+        }
+
+        @Override
+        public HashCode hash() {
+            if (root == null) {
+                return leaf.hash();
+            }
+            root.putHash(leaf.hash());
+            return root.hash();
+        }
+    }
+}
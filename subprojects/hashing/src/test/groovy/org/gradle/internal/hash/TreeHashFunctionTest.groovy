@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.internal.hash
+
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+class TreeHashFunctionTest extends Specification {
+    private static final int CHUNK_SIZE = 64
+
+    @TempDir
+    File tempDir
+
+    ExecutorService executor = Executors.newFixedThreadPool(3)
+    def function = Hashing.tree(Hashing.md5(), CHUNK_SIZE)
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "input of at most one chunk is hashed as a single leaf"() {
+        def bytes = content(size)
+        def expected = Hashing.md5().newPrimitiveHasher()
+        expected.putByte((byte) 0)
+        expected.putBytes(bytes)
+
+        expect:
+        function.hashBytes(bytes) == expected.hash()
+
+        where:
+        size << [0, 1, CHUNK_SIZE]
+    }
+
+    def "input of more than one chunk is hashed as the list of its chunk hashes"() {
+        def bytes = content(CHUNK_SIZE + 1)
+        def expected = Hashing.md5().newPrimitiveHasher()
+        expected.putByte((byte) 1)
+        expected.putHash(function.hashBytes(Arrays.copyOfRange(bytes, 0, CHUNK_SIZE)))
+        expected.putHash(function.hashBytes(Arrays.copyOfRange(bytes, CHUNK_SIZE, CHUNK_SIZE + 1)))
+
+        expect:
+        function.hashBytes(bytes) == expected.hash()
+    }
+
+    def "hash does not depend on how input is split into puts"() {
+        def bytes = content(3 * CHUNK_SIZE + 5)
+        def hasher = function.newPrimitiveHasher()
+        bytes.each { hasher.putByte(it) }
+
+        expect:
+        hasher.hash() == function.hashBytes(bytes)
+        function.hashStream(new ByteArrayInputStream(bytes)) == function.hashBytes(bytes)
+    }
+
+    def "hashing a file in parallel produces the same hash as hashing it sequentially (#size bytes)"() {
+        def bytes = content(size)
+        def file = new File(tempDir, "file")
+        file.bytes = bytes
+        def prefix = Hashing.signature("prefix")
+        def hasher = function.newPrimitiveHasher()
+        hasher.putHash(prefix)
+        hasher.putBytes(bytes)
+
+        expect:
+        function.hashFile(file, prefix, executor, 3) == hasher.hash()
+
+        where:
+        size << [0, 1, CHUNK_SIZE - 17, CHUNK_SIZE - 16, CHUNK_SIZE, CHUNK_SIZE + 1, 3 * CHUNK_SIZE - 16, 10 * CHUNK_SIZE + 5]
+    }
+
+    def "hashes chunks on the calling thread when executor does not run tasks"() {
+        def bytes = content(10 * CHUNK_SIZE)
+        def file = new File(tempDir, "file")
+        file.bytes = bytes
+        def prefix = Hashing.signature("prefix")
+        def hasher = function.newPrimitiveHasher()
+        hasher.putHash(prefix)
+        hasher.putBytes(bytes)
+        def executor = Stub(Executor)
+
+        expect:
+        function.hashFile(file, prefix, executor, 4) == hasher.hash()
+    }
+
+    def "stream hasher produces the same hash for a file in parallel as for a stream"() {
+        def bytes = content(100 * CHUNK_SIZE + 3)
+        def file = new File(tempDir, "file")
+        file.bytes = bytes
+        def streamHasher = new DefaultStreamHasher(function)
+
+        expect:
+        streamHasher.hash(file, executor, 3) == streamHasher.hash(new ByteArrayInputStream(bytes))
+        new DefaultFileHasher(streamHasher, executor, 3).hash(file) == streamHasher.hash(new ByteArrayInputStream(bytes))
+    }
+
+    def "reports missing file"() {
+        def file = new File(tempDir, "missing")
+
+        when:
+        new DefaultFileHasher(new DefaultStreamHasher(function), executor, 3).hash(file)
+
+        then:
+        def e = thrown(UncheckedIOException)
+        e.message == "Failed to hash file '$file' as it does not exist."
+    }
+
+    private static byte[] content(int size) {
+        def bytes = new byte[size]
+        new Random(size).nextBytes(bytes)
+        return bytes
+    }
+}
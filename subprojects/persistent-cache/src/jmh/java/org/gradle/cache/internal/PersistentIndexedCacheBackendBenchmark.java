@@ -0,0 +1,172 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.cache.PersistentIndexedCacheBackend;
+import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.mapped.MemoryMappedPersistentIndexedCache;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the storage engines of {@link org.gradle.cache.PersistentIndexedCacheParameters.StorageEngine} under concurrent load.
+ *
+ * The B-tree is not thread-safe, so access to it is serialized, the same way the cache access serializes it in a build.
+ */
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class PersistentIndexedCacheBackendBenchmark {
+    private static final BaseSerializerFactory SERIALIZER_FACTORY = new BaseSerializerFactory();
+    private static final Serializer<String> KEY_SERIALIZER = SERIALIZER_FACTORY.getSerializerFor(String.class);
+    private static final Serializer<byte[]> VALUE_SERIALIZER = SERIALIZER_FACTORY.getSerializerFor(byte[].class);
+
+    @Param({"btree", "mapped"})
+    String engine;
+
+    @Param({"10000"})
+    int entries;
+
+    @Param({"256"})
+    int valueSize;
+
+    File tempDir;
+    PersistentIndexedCacheBackend<String, byte[]> cache;
+    String[] keys;
+    byte[] value;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("jmh-indexed-cache").toFile();
+        File cacheFile = new File(tempDir, "cache.bin");
+        if (engine.equals("btree")) {
+            cache = new SynchronizedBackend<>(new BTreePersistentIndexedCache<>(cacheFile, KEY_SERIALIZER, VALUE_SERIALIZER));
+        } else {
+            cache = new MemoryMappedPersistentIndexedCache<>(cacheFile, KEY_SERIALIZER, VALUE_SERIALIZER);
+        }
+        keys = new String[entries];
+        value = new byte[valueSize];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "key-" + i;
+            cache.put(keys[i], value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+
+    private String randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    @Benchmark
+    public void get(Blackhole bh) {
+        bh.consume(cache.get(randomKey()));
+    }
+
+    @Benchmark
+    public void put() {
+        cache.put(randomKey(), value);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public void mixedGet(Blackhole bh) {
+        bh.consume(cache.get(randomKey()));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedPut() {
+        cache.put(randomKey(), value);
+    }
+
+    private static class SynchronizedBackend<K, V> implements PersistentIndexedCacheBackend<K, V> {
+        private final PersistentIndexedCacheBackend<K, V> delegate;
+
+        SynchronizedBackend(PersistentIndexedCacheBackend<K, V> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized V get(K key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public synchronized void put(K key, V value) {
+            delegate.put(key, value);
+        }
+
+        @Override
+        public synchronized void remove(K key) {
+            delegate.remove(key);
+        }
+
+        @Override
+        public synchronized void reset() {
+            delegate.reset();
+        }
+
+        @Override
+        public synchronized void clear() {
+            delegate.clear();
+        }
+
+        @Override
+        public synchronized void close() {
+            delegate.close();
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return delegate.isOpen();
+        }
+    }
+}
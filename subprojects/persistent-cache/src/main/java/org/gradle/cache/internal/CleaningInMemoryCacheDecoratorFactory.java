@@ -17,10 +17,12 @@
 
 import com.google.common.collect.Lists;
 
+import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
 
 public class CleaningInMemoryCacheDecoratorFactory extends DefaultInMemoryCacheDecoratorFactory {
     private final List<WeakReference<InMemoryCacheController>> inMemoryCaches = Lists.newArrayList();
@@ -44,8 +46,8 @@ public void clearCaches(Predicate<InMemoryCacheController> predicate) {
     }
 
     @Override
-    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
-        MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate = super.applyInMemoryCaching(cacheId, backingCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, @Nullable ToIntFunction<Object> weigher, boolean cacheInMemoryForShortLivedProcesses) {
+        MultiProcessSafeAsyncPersistentIndexedCache<K, V> delegate = super.applyInMemoryCaching(cacheId, backingCache, maxEntriesToKeepInMemory, weigher, cacheInMemoryForShortLivedProcesses);
         if (delegate instanceof InMemoryCacheController) {
             InMemoryCacheController cimc = (InMemoryCacheController) delegate;
             WeakReference<InMemoryCacheController> ref = new WeakReference<>(cimc);
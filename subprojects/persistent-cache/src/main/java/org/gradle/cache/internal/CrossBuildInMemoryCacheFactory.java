@@ -21,6 +21,7 @@
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.util.function.Predicate;
+import java.util.function.ToIntBiFunction;
 
 /**
  * A factory for {@link CrossBuildInMemoryCache} instances.
@@ -44,6 +45,22 @@ public interface CrossBuildInMemoryCacheFactory {
      */
     <K, V> CrossBuildInMemoryCache<K, V> newCache();
 
+    /**
+     * Creates a new cache instance with an explicit budget. Keys and values are always referenced using strong references.
+     *
+     * <p>Entries used during the current build session are retained until the end of the session. All other entries are evicted in least recently used order
+     * once their total weight exceeds the budget, instead of being discarded all at once based on memory pressure.
+     *
+     * <p>Hit, miss and eviction counts of the cache are reported at the end of each build, so that the budget can be tuned.
+     *
+     * <p>Note: this should be used to create _only_ global scoped instances.
+     *
+     * @param displayName The name of the cache to use when reporting statistics.
+     * @param referenceMaxWeight The budget of the cache for the default heap size of 1 GB, which is scaled according to the maximum heap size of the process.
+     * @param weigher Calculates the weight of an entry, for example its approximate size in bytes or 1 to limit the number of entries.
+     */
+    <K, V> CrossBuildInMemoryCache<K, V> newBoundedCache(String displayName, int referenceMaxWeight, ToIntBiFunction<? super K, ? super V> weigher);
+
     /**
      * Creates a new cache instance. Keys and values are always referenced using strong references.
      *
@@ -29,9 +29,11 @@
 import org.gradle.cache.LockOptions;
 import org.gradle.cache.LockTimeoutException;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheBackend;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
+import org.gradle.cache.internal.mapped.MemoryMappedPersistentIndexedCache;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
@@ -52,6 +54,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -76,6 +79,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
 
     private ManagedExecutor cacheUpdateExecutor;
     private CacheAccessWorker cacheAccessWorker;
+    private ManagedExecutor compactionExecutor;
     private final Lock stateLock = new ReentrantLock(); // protects the following state
     private final Condition condition = stateLock.newCondition();
 
@@ -127,6 +131,13 @@ private synchronized AsyncCacheAccess getCacheAccessWorker() {
         return cacheAccessWorker;
     }
 
+    private synchronized Executor getCompactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = executorFactory.create("Compaction for " + cacheDisplayName);
+        }
+        return compactionExecutor;
+    }
+
     @Override
     public void open() {
         stateLock.lock();
@@ -167,6 +178,10 @@ public synchronized void close() {
                 fileLockHeldByOwner.run();
             }
             crossProcessCacheAccess.close();
+            if (compactionExecutor != null) {
+                compactionExecutor.stop();
+                compactionExecutor = null;
+            }
             if (cleanupAction != null) {
                 try {
                     if (cleanupAction.requiresCleanup()) {
@@ -282,7 +297,7 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
             if (entry == null) {
                 File cacheFile = findCacheFile(parameters);
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                Factory<PersistentIndexedCacheBackend<K, V>> indexedCacheFactory = () -> createBackend(cacheFile, parameters);
 
                 MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
                 CacheDecorator decorator = parameters.getCacheDecorator();
@@ -307,6 +322,9 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
     }
 
     private <K, V> File findCacheFile(PersistentIndexedCacheParameters<K, V> parameters) {
+        if (parameters.getStorageEngine() == PersistentIndexedCacheParameters.StorageEngine.MEMORY_MAPPED) {
+            return new File(baseDir, parameters.getCacheName() + ".mapped.bin");
+        }
         return new File(baseDir, parameters.getCacheName() + ".bin");
     }
 
@@ -315,6 +333,17 @@ public <K, V> boolean cacheExists(PersistentIndexedCacheParameters<K, V> paramet
         return findCacheFile(parameters).exists();
     }
 
+    private <K, V> PersistentIndexedCacheBackend<K, V> createBackend(File cacheFile, PersistentIndexedCacheParameters<K, V> parameters) {
+        switch (parameters.getStorageEngine()) {
+            case MEMORY_MAPPED:
+                return new MemoryMappedPersistentIndexedCache<>(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer(), getCompactionExecutor());
+            case BTREE:
+                return doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+            default:
+                throw new IllegalArgumentException("Unknown storage engine " + parameters.getStorageEngine());
+        }
+    }
+
     <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         return new BTreePersistentIndexedCache<>(cacheFile, keySerializer, valueSerializer);
     }
@@ -482,6 +511,7 @@ void assertCompatibleCacheParameters(PersistentIndexedCacheParameters<K, V> para
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleStorageEngine(faultMessages, parameters.getStorageEngine());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -524,6 +554,14 @@ private void checkCompatibleCacheDecorator(Collection<String> faultMessages, Cac
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleStorageEngine(Collection<String> faultMessages, PersistentIndexedCacheParameters.StorageEngine storageEngine) {
+            if (storageEngine != parameters.getStorageEngine()) {
+                faultMessages.add(
+                    String.format(" * Requested storage engine (%s) doesn't match current storage engine (%s)",
+                        storageEngine, parameters.getStorageEngine()));
+            }
+        }
     }
 
     @VisibleForTesting
@@ -26,7 +26,10 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
 
 /**
  * A {@link CacheDecorator} that wraps each cache with an in-memory cache that is used to short-circuit reads from the backing cache.
@@ -47,23 +50,28 @@ public DefaultInMemoryCacheDecoratorFactory(boolean longLivingProcess, CrossBuil
 
     @Override
     public CacheDecorator decorator(final int maxEntriesToKeepInMemory, final boolean cacheInMemoryForShortLivedProcesses) {
-        return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+        return new InMemoryCacheDecorator(maxEntriesToKeepInMemory, null, cacheInMemoryForShortLivedProcesses);
     }
 
-    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+    @Override
+    public CacheDecorator weightedDecorator(int maxWeightToKeepInMemory, ToIntFunction<Object> weigher, boolean cacheInMemoryForShortLivedProcesses) {
+        return new InMemoryCacheDecorator(maxWeightToKeepInMemory, weigher, cacheInMemoryForShortLivedProcesses);
+    }
+
+    protected <K, V> MultiProcessSafeAsyncPersistentIndexedCache<K, V> applyInMemoryCaching(String cacheId, MultiProcessSafeAsyncPersistentIndexedCache<K, V> backingCache, int maxEntriesToKeepInMemory, @Nullable ToIntFunction<Object> weigher, boolean cacheInMemoryForShortLivedProcesses) {
         if (!longLivingProcess && !cacheInMemoryForShortLivedProcesses) {
             // Short lived process, don't cache in memory
             LOG.debug("Creating cache {} without in-memory store.", cacheId);
             return backingCache;
         }
         int targetSize = cacheSizer.scaleCacheSize(maxEntriesToKeepInMemory);
-        CacheDetails cacheDetails = getCache(cacheId, targetSize);
+        CacheDetails cacheDetails = getCache(cacheId, targetSize, weigher);
         return new InMemoryDecoratedCache<>(backingCache, cacheDetails.entries, cacheId, cacheDetails.lockState);
     }
 
-    private CacheDetails getCache(final String cacheId, final int maxSize) {
+    private CacheDetails getCache(final String cacheId, final int maxSize, @Nullable ToIntFunction<Object> weigher) {
         CacheDetails cacheDetails = caches.get(cacheId, () -> {
-            Cache<Object, Object> entries = createInMemoryCache(cacheId, maxSize);
+            Cache<Object, Object> entries = createInMemoryCache(cacheId, maxSize, weigher);
             CacheDetails details = new CacheDetails(cacheId, maxSize, entries, new AtomicReference<>(null));
             LOG.debug("Creating in-memory store for cache {} (max size: {})", cacheId, maxSize);
             return details;
@@ -74,9 +82,15 @@ private CacheDetails getCache(final String cacheId, final int maxSize) {
         return cacheDetails;
     }
 
-    private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize) {
+    private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize, @Nullable ToIntFunction<Object> weigher) {
         LoggingEvictionListener evictionListener = new LoggingEvictionListener(cacheId, maxSize);
-        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().removalListener(evictionListener);
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+        if (weigher == null) {
+            cacheBuilder.maximumSize(maxSize);
+        } else {
+            cacheBuilder.maximumWeight(maxSize).weigher((key, value) -> weigher.applyAsInt(value));
+        }
+        cacheBuilder.recordStats().removalListener(evictionListener);
         Cache<Object, Object> inMemoryCache = cacheBuilder.build();
         evictionListener.setCache(inMemoryCache);
         return inMemoryCache;
@@ -84,10 +98,13 @@ private Cache<Object, Object> createInMemoryCache(String cacheId, int maxSize) {
 
     private class InMemoryCacheDecorator implements CacheDecorator {
         private final int maxEntriesToKeepInMemory;
+        @Nullable
+        private final ToIntFunction<Object> weigher;
         private final boolean cacheInMemoryForShortLivedProcesses;
 
-        InMemoryCacheDecorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+        InMemoryCacheDecorator(int maxEntriesToKeepInMemory, @Nullable ToIntFunction<Object> weigher, boolean cacheInMemoryForShortLivedProcesses) {
             this.maxEntriesToKeepInMemory = maxEntriesToKeepInMemory;
+            this.weigher = weigher;
             this.cacheInMemoryForShortLivedProcesses = cacheInMemoryForShortLivedProcesses;
         }
 
@@ -100,7 +117,7 @@ public boolean equals(Object obj) {
                 return false;
             }
             InMemoryCacheDecorator other = (InMemoryCacheDecorator) obj;
-            return maxEntriesToKeepInMemory == other.maxEntriesToKeepInMemory && cacheInMemoryForShortLivedProcesses == other.cacheInMemoryForShortLivedProcesses;
+            return maxEntriesToKeepInMemory == other.maxEntriesToKeepInMemory && Objects.equals(weigher, other.weigher) && cacheInMemoryForShortLivedProcesses == other.cacheInMemoryForShortLivedProcesses;
         }
 
         @Override
@@ -111,7 +128,7 @@ public int hashCode() {
         @Override
         public <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> asyncCache = new AsyncCacheAccessDecoratedCache<>(asyncCacheAccess, persistentCache);
-            MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
+            MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, weigher, cacheInMemoryForShortLivedProcesses);
             return new CrossProcessSynchronizingCache<>(memCache, crossProcessCacheAccess);
         }
     }
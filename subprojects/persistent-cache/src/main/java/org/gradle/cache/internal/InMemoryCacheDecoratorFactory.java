@@ -17,6 +17,17 @@
 
 import org.gradle.cache.CacheDecorator;
 
+import java.util.function.ToIntFunction;
+
 public interface InMemoryCacheDecoratorFactory {
     CacheDecorator decorator(int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses);
+
+    /**
+     * Creates a decorator that keeps entries in memory up to a maximum total weight, instead of a maximum number of entries.
+     * Use this for caches whose values differ a lot in size.
+     *
+     * @param maxWeightToKeepInMemory The budget for the default heap size of 1 GB, which is scaled according to the maximum heap size of the process.
+     * @param weigher Calculates the weight of a value read from or written to the cache. The same weigher instance must be used each time the cache is opened.
+     */
+    CacheDecorator weightedDecorator(int maxWeightToKeepInMemory, ToIntFunction<Object> weigher, boolean cacheInMemoryForShortLivedProcesses);
 }
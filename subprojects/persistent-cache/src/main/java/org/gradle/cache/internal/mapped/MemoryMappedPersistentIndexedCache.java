@@ -0,0 +1,866 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.mapped;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentIndexedCacheBackend;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link PersistentIndexedCacheBackend} that appends entries as records to a memory-mapped file.
+ *
+ * <p>The file starts with a header holding the format version and the end of the records, followed by the records themselves.
+ * Each record holds the MD5 hash of the serialized key, the length of the serialized value, or -1 for a removed entry, and the serialized value.
+ * An in-memory index from key hash to record offset is rebuilt from the records when the cache is opened.</p>
+ *
+ * <p>The file is mapped in segments of 1 GB, as a single mapping cannot exceed 2 GB. A record never spans two segments: when it does not fit
+ * into what is left of a segment, it is written to the start of the next one, and the gap is marked with a padding record, or simply skipped
+ * when it is too small to hold a record header.</p>
+ *
+ * <p>Reads do not take any lock: they look up the index and copy the value out of the mapped file, and only read again under a lock when the cache was cleared meanwhile.
+ * Writes never modify a record that is already in the index, so they do not interfere with readers, and only
+ * writes to keys that fall into the same lock stripe are serialized.</p>
+ *
+ * <p>The end of the records is cleared from the header while there are unflushed modifications, so a file that was not closed
+ * cleanly is discarded when it is next opened.</p>
+ *
+ * <p>When superseded records take up more space than the live ones, the live records are copied to a new file on a background thread while
+ * the cache is in use. When the cache is closed, the records appended in the meantime are copied over as well and the new file replaces the old one.
+ * A compaction that has not finished copying by then is abandoned instead, so closing the cache does not wait for it. The old file is left untouched and
+ * the progress is recorded next to the new file, so the compaction resumes where it stopped the next time the cache is opened.</p>
+ */
+public class MemoryMappedPersistentIndexedCache<K, V> implements PersistentIndexedCacheBackend<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryMappedPersistentIndexedCache.class);
+
+    private static final int MAGIC = 0x474d4943;
+    private static final int VERSION = 2;
+    private static final int END_OFFSET = 8;
+    private static final int HEADER_SIZE = END_OFFSET + 8; // magic, version, end of records
+    private static final int KEY_HASH_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = KEY_HASH_SIZE + 4; // key hash, value length
+    private static final int REMOVED = -1;
+    private static final int PADDING = -2;
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+    private static final int MIN_MAPPED_SIZE = 1024 * 1024;
+    private static final int MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final int LOCK_STRIPES = 64;
+
+    private final File cacheFile;
+    private final File compactedFile;
+    private final File compactionProgressFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Executor compactionExecutor;
+    private final int segmentSize;
+    private final Lock[] writeLocks = new Lock[LOCK_STRIPES];
+    private final ConcurrentMap<HashCode, Long> index = new ConcurrentHashMap<>();
+    private final AtomicBoolean modified = new AtomicBoolean();
+    private final Object allocationLock = new Object();
+    // Held exclusively while clearing, as that allows records in the index to be overwritten
+    private final StampedLock clearLock = new StampedLock();
+    private RandomAccessFile file;
+    private boolean readOnly;
+    // Replaced rather than modified when the file grows
+    private volatile MappedByteBuffer[] segments;
+    private long end;
+    private Compaction compaction;
+
+    public MemoryMappedPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(cacheFile, keySerializer, valueSerializer, Runnable::run);
+    }
+
+    public MemoryMappedPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor) {
+        this(cacheFile, keySerializer, valueSerializer, compactionExecutor, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    MemoryMappedPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor, int segmentSize) {
+        Preconditions.checkArgument(Integer.bitCount(segmentSize) == 1 && segmentSize >= 2 * HEADER_SIZE, "Segment size must be a power of two.");
+        this.cacheFile = cacheFile;
+        this.compactedFile = new File(cacheFile.getPath() + ".compact");
+        this.compactionProgressFile = new File(cacheFile.getPath() + ".compact-progress");
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.compactionExecutor = compactionExecutor;
+        this.segmentSize = segmentSize;
+        for (int i = 0; i < writeLocks.length; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        cacheFile.getParentFile().mkdirs();
+        file = openRandomAccessFile();
+        long length = file.length();
+        if (readOnly) {
+            segments = map(FileChannel.MapMode.READ_ONLY, length);
+        } else {
+            segments = map(FileChannel.MapMode.READ_WRITE, Math.max(length, Math.min(MIN_MAPPED_SIZE, segmentSize)));
+        }
+        long deadBytes = readIndex();
+        if (deadBytes < 0) {
+            index.clear();
+            end = HEADER_SIZE;
+            if (!readOnly) {
+                segments[0].putInt(0, MAGIC);
+                segments[0].putInt(4, VERSION);
+                markModified();
+                discardCompaction();
+            }
+        } else if (!readOnly) {
+            Compaction resumed = readCompactionProgress();
+            if (resumed != null) {
+                startCompaction(resumed);
+            } else if (deadBytes >= MIN_COMPACTION_SIZE && deadBytes > end - HEADER_SIZE - deadBytes) {
+                startCompaction(new Compaction(0, HEADER_SIZE, 0));
+            }
+        }
+    }
+
+    private void startCompaction(Compaction compaction) {
+        this.compaction = compaction;
+        try {
+            compactionExecutor.execute(compaction);
+        } catch (RejectedExecutionException e) {
+            // Any progress made earlier is kept for the next time the cache is opened
+            this.compaction = null;
+        }
+    }
+
+    /**
+     * Reads the progress of a compaction that was abandoned when the cache was last closed.
+     *
+     * @return the compaction to resume, or null when there is none or it does not match the cache file.
+     */
+    @Nullable
+    private Compaction readCompactionProgress() {
+        if (!compactionProgressFile.isFile()) {
+            return null;
+        }
+        try {
+            ByteBuffer progress = ByteBuffer.wrap(Files.readAllBytes(compactionProgressFile.toPath()));
+            if (progress.capacity() == 24) {
+                long copiedEnd = progress.getLong();
+                long copiedUpTo = progress.getLong();
+                long compactedLength = progress.getLong();
+                if (copiedEnd <= end && copiedUpTo >= HEADER_SIZE && copiedUpTo <= copiedEnd
+                    && compactedLength >= HEADER_SIZE && compactedFile.length() >= compactedLength) {
+                    LOGGER.debug("Resuming compaction of {}.", this);
+                    return new Compaction(copiedEnd, copiedUpTo, compactedLength);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not read the compaction progress of {}.", this, e);
+        }
+        discardCompaction();
+        return null;
+    }
+
+    private void discardCompaction() {
+        compactionProgressFile.delete();
+        compactedFile.delete();
+    }
+
+    private MappedByteBuffer[] map(FileChannel.MapMode mode, long length) throws IOException {
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i * segmentSize;
+            segments[i] = file.getChannel().map(mode, start, Math.min(segmentSize, length - start));
+        }
+        return segments;
+    }
+
+    private RandomAccessFile openRandomAccessFile() throws FileNotFoundException {
+        try {
+            readOnly = false;
+            return new RandomAccessFile(cacheFile, "rw");
+        } catch (FileNotFoundException e) {
+            readOnly = true;
+            return new RandomAccessFile(cacheFile, "r");
+        }
+    }
+
+    /**
+     * Rebuilds the index from the records in the file.
+     *
+     * @return the number of bytes taken up by superseded records, or -1 when the file needs to be discarded.
+     */
+    private long readIndex() {
+        index.clear();
+        MappedByteBuffer[] segments = this.segments;
+        if (segments.length == 0 || segments[0].capacity() < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = segments[0];
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            if (header.getInt(0) != 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            return -1;
+        }
+        long recordsEnd = header.getLong(END_OFFSET);
+        if (recordsEnd == 0) {
+            LOGGER.debug("{} was not closed cleanly. Discarding.", this);
+            return -1;
+        }
+        if (recordsEnd < HEADER_SIZE || recordsEnd > capacity(segments)) {
+            LOGGER.warn("{} is corrupt. Discarding.", this);
+            return -1;
+        }
+        end = recordsEnd;
+
+        byte[] keyHash = new byte[KEY_HASH_SIZE];
+        long deadBytes = 0;
+        long pos = HEADER_SIZE;
+        while (pos < end) {
+            int offset = offsetInSegment(pos);
+            long segmentEnd = pos - offset + segmentSize;
+            if (offset + RECORD_HEADER_SIZE > segmentSize) {
+                // Too small for a record, so skipped
+                if (segmentEnd > end) {
+                    LOGGER.warn("{} is corrupt. Discarding.", this);
+                    return -1;
+                }
+                pos = segmentEnd;
+                continue;
+            }
+            if (pos + RECORD_HEADER_SIZE > end) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+                return -1;
+            }
+            ByteBuffer buffer = segmentAt(segments, pos);
+            buffer.get(keyHash);
+            int valueLength = buffer.getInt();
+            if (valueLength == PADDING) {
+                if (segmentEnd > end) {
+                    LOGGER.warn("{} is corrupt. Discarding.", this);
+                    return -1;
+                }
+                pos = segmentEnd;
+                continue;
+            }
+            int recordSize = RECORD_HEADER_SIZE + Math.max(valueLength, 0);
+            if (valueLength < REMOVED || valueLength > segmentSize - offset - RECORD_HEADER_SIZE || pos + recordSize > end) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+                return -1;
+            }
+            HashCode key = HashCode.fromBytes(keyHash);
+            Long previous = valueLength == REMOVED ? index.remove(key) : index.put(key, pos);
+            if (previous != null) {
+                deadBytes += recordSizeAt(segments, previous);
+            }
+            if (valueLength == REMOVED) {
+                deadBytes += recordSize;
+            }
+            pos += recordSize;
+        }
+        return deadBytes;
+    }
+
+    private int offsetInSegment(long pos) {
+        return (int) (pos & (segmentSize - 1));
+    }
+
+    /**
+     * Returns a buffer positioned at the given offset in the file, limited to the segment holding it.
+     */
+    private ByteBuffer segmentAt(MappedByteBuffer[] segments, long pos) {
+        ByteBuffer buffer = segments[(int) (pos / segmentSize)].duplicate();
+        buffer.position(offsetInSegment(pos));
+        return buffer;
+    }
+
+    private int recordSizeAt(MappedByteBuffer[] segments, long pos) {
+        return RECORD_HEADER_SIZE + Math.max(segmentAt(segments, pos).getInt(offsetInSegment(pos) + KEY_HASH_SIZE), 0);
+    }
+
+    private long capacity(MappedByteBuffer[] segments) {
+        int last = segments.length - 1;
+        return (long) last * segmentSize + segments[last].capacity();
+    }
+
+    /**
+     * Returns the offset at which a record of the given size that would otherwise start at the given offset is written, so it does not span two segments.
+     */
+    private long alignRecord(long pos, int recordSize) {
+        int offset = offsetInSegment(pos);
+        if (offset + recordSize <= segmentSize) {
+            return pos;
+        }
+        return pos - offset + segmentSize;
+    }
+
+    /**
+     * Returns the header of the padding record that fills the gap up to the given aligned offset, or null when there is no gap or it is too small for a record header.
+     */
+    @Nullable
+    private ByteBuffer paddingHeader(long pos, long alignedPos) {
+        if (alignedPos - pos < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer padding = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        padding.putInt(KEY_HASH_SIZE, PADDING);
+        return padding;
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        try {
+            byte[] value = readValue(hashKey(key));
+            if (value == null) {
+                return null;
+            }
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value)));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Nullable
+    private byte[] readValue(HashCode keyHash) {
+        long stamp = clearLock.tryOptimisticRead();
+        try {
+            byte[] value = readValueAt(index.get(keyHash));
+            if (clearLock.validate(stamp)) {
+                return value;
+            }
+        } catch (RuntimeException e) {
+            if (clearLock.validate(stamp)) {
+                throw e;
+            }
+        }
+        // The cache was cleared while reading, so the record may have been overwritten
+        stamp = clearLock.readLock();
+        try {
+            return readValueAt(index.get(keyHash));
+        } finally {
+            clearLock.unlockRead(stamp);
+        }
+    }
+
+    @Nullable
+    private byte[] readValueAt(@Nullable Long pos) {
+        if (pos == null) {
+            return null;
+        }
+        ByteBuffer buffer = segmentAt(segments, pos + KEY_HASH_SIZE);
+        int valueLength = buffer.getInt();
+        if (valueLength < 0 || valueLength > buffer.remaining()) {
+            throw new IllegalStateException(String.format("Invalid record at offset %d.", pos));
+        }
+        byte[] value = new byte[valueLength];
+        buffer.get(value);
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            HashCode keyHash = hashKey(key);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            KryoBackedEncoder encoder = new KryoBackedEncoder(outputStream);
+            valueSerializer.write(encoder, value);
+            encoder.flush();
+            append(keyHash, outputStream.toByteArray());
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            HashCode keyHash = hashKey(key);
+            if (index.containsKey(keyHash)) {
+                append(keyHash, null);
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    private void append(HashCode keyHash, @Nullable byte[] value) throws IOException {
+        // Updates to the same key need to be published to the index in the same order as they are appended to the file,
+        // otherwise the index would no longer match the records the next time the file is read
+        Lock lock = writeLocks[(keyHash.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+        lock.lock();
+        try {
+            markModified();
+            long pos = allocate(RECORD_HEADER_SIZE + (value == null ? 0 : value.length));
+            ByteBuffer buffer = segmentAt(segments, pos);
+            buffer.put(keyHash.toByteArray());
+            if (value == null) {
+                buffer.putInt(REMOVED);
+                index.remove(keyHash);
+            } else {
+                buffer.putInt(value.length);
+                buffer.put(value);
+                index.put(keyHash, pos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long allocate(int recordSize) throws IOException {
+        if (recordSize > segmentSize - HEADER_SIZE) {
+            throw new IOException(String.format("Entry of %d bytes exceeds the maximum size of an entry in %s.", recordSize, this));
+        }
+        synchronized (allocationLock) {
+            long pos = alignRecord(end, recordSize);
+            long newEnd = pos + recordSize;
+            MappedByteBuffer[] segments = this.segments;
+            if (newEnd > capacity(segments)) {
+                // Mapped buffers handed out earlier stay valid, so readers can keep using them while the file grows
+                segments = grow(segments, newEnd);
+                this.segments = segments;
+            }
+            ByteBuffer padding = paddingHeader(end, pos);
+            if (padding != null) {
+                segmentAt(segments, end).put(padding);
+            }
+            end = newEnd;
+            return pos;
+        }
+    }
+
+    private MappedByteBuffer[] grow(MappedByteBuffer[] segments, long newEnd) throws IOException {
+        int last = segments.length - 1;
+        int newLast = (int) ((newEnd - 1) / segmentSize);
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, newLast + 1);
+        for (int i = last; i <= newLast; i++) {
+            long start = (long) i * segmentSize;
+            int required = i < newLast ? segmentSize : (int) (newEnd - start);
+            int current = i == last ? segments[i].capacity() : 0;
+            if (current < required) {
+                int size = (int) Math.min(segmentSize, Math.max(required, Math.max(2L * current, MIN_MAPPED_SIZE)));
+                grown[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, start, size);
+            }
+        }
+        return grown;
+    }
+
+    private void markModified() {
+        if (modified.compareAndSet(false, true)) {
+            segments[0].putLong(END_OFFSET, 0);
+        }
+    }
+
+    private HashCode hashKey(K key) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(outputStream);
+        keySerializer.write(encoder, key);
+        encoder.flush();
+        return Hashing.md5().hashBytes(outputStream.toByteArray());
+    }
+
+    @Override
+    public void reset() {
+        close();
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void clear() {
+        lockAll();
+        long stamp = clearLock.writeLock();
+        try {
+            synchronized (allocationLock) {
+                markModified();
+                index.clear();
+                end = HEADER_SIZE;
+            }
+            if (compaction != null) {
+                compaction.cancelled = true;
+            }
+            // Progress recorded for the old records no longer applies once new records are appended over them
+            compactionProgressFile.delete();
+        } finally {
+            clearLock.unlockWrite(stamp);
+            unlockAll();
+        }
+    }
+
+    private void lockAll() {
+        for (Lock lock : writeLocks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (Lock lock : writeLocks) {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        try {
+            Compaction compaction = this.compaction;
+            this.compaction = null;
+            if (compaction != null) {
+                compaction.finishOrAbandon();
+            }
+            if (modified.compareAndSet(true, false)) {
+                synchronized (allocationLock) {
+                    segments[0].putLong(END_OFFSET, end);
+                }
+                for (MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
+            }
+            index.clear();
+            // The mapping itself is released once it is garbage collected
+            segments = null;
+            file.close();
+            file = null;
+            if (compaction != null) {
+                compaction.replaceCacheFile();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            file = null;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return file != null;
+    }
+
+    /**
+     * Copies the live records to a new file in batches, each run as a separate task on the compaction executor, concurrently with reads and writes to the cache.
+     * Completed or abandoned when the cache is closed, which waits at most for the batch being copied.
+     *
+     * <p>The live records before {@code copiedEnd} are copied in file order, so the progress of an abandoned compaction is the offset of the next record
+     * to copy. When it is resumed, the records that are live at that point and lie between that offset and {@code copiedEnd} are copied.
+     * Records that were copied and have been superseded since are followed by the records superseding them, as every record from {@code copiedEnd}
+     * onwards is appended as-is when the compaction completes.</p>
+     */
+    private class Compaction implements Runnable {
+        private static final int BATCH_SIZE = 1024 * 1024;
+
+        private final long copyFrom;
+        private final long compactedLength;
+        private long copiedEnd;
+        private volatile boolean cancelled;
+        // Guarded by this
+        private MappedByteBuffer[] source;
+        private long[] positions;
+        private int next;
+        private boolean closed;
+        private boolean failed;
+        private boolean succeeded;
+        private boolean resumable;
+
+        /**
+         * @param copiedEnd the end of the records to copy, or 0 to copy up to the end of the records when the compaction starts.
+         * @param copyFrom the offset of the first record to copy.
+         * @param compactedLength the length of the compacted file written so far, or 0 to start a new one.
+         */
+        Compaction(long copiedEnd, long copyFrom, long compactedLength) {
+            this.copiedEnd = copiedEnd;
+            this.copyFrom = copyFrom;
+            this.compactedLength = compactedLength;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (closed || failed || cancelled) {
+                    return;
+                }
+                try {
+                    if (positions == null) {
+                        start();
+                    }
+                    copyBatch();
+                } catch (Exception e) {
+                    LOGGER.debug("Could not compact {}.", MemoryMappedPersistentIndexedCache.this, e);
+                    failed = true;
+                    return;
+                }
+                if (next == positions.length) {
+                    return;
+                }
+            }
+            try {
+                compactionExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Abandoned with its progress recorded when the cache is closed
+            }
+        }
+
+        private void start() throws IOException {
+            LOGGER.debug("Compacting {}", MemoryMappedPersistentIndexedCache.this);
+            // Take a consistent snapshot: all records before the copied end are in the index, and no record after it is
+            lockAll();
+            try {
+                synchronized (allocationLock) {
+                    if (copiedEnd == 0) {
+                        copiedEnd = end;
+                    }
+                }
+                source = segments;
+                long[] positions = new long[index.size()];
+                int count = 0;
+                for (Long pos : index.values()) {
+                    if (pos >= copyFrom && pos < copiedEnd) {
+                        positions[count++] = pos;
+                    }
+                }
+                this.positions = Arrays.copyOf(positions, count);
+            } finally {
+                unlockAll();
+            }
+            // Copy the records in file order, so both files are accessed sequentially
+            Arrays.sort(positions);
+
+            try (FileChannel target = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (compactedLength > 0) {
+                    // Drop anything written after the progress was recorded
+                    target.truncate(compactedLength);
+                } else {
+                    target.truncate(0);
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC);
+                    header.putInt(VERSION);
+                    header.putLong(0);
+                    header.flip();
+                    writeFully(target, header, 0);
+                }
+            }
+        }
+
+        private void copyBatch() throws IOException {
+            try (RecordWriter writer = new RecordWriter(source)) {
+                int copied = 0;
+                while (next < positions.length && copied < BATCH_SIZE && !cancelled) {
+                    long pos = positions[next];
+                    int recordSize = recordSizeAt(source, pos);
+                    writer.append(pos, recordSize);
+                    copied += recordSize;
+                    next++;
+                }
+                writer.flush();
+            }
+        }
+
+        /**
+         * Appends the records written since the live records were copied, or records the progress of the compaction when they have not all been copied yet.
+         * Called while the cache is still open, but no longer in use.
+         */
+        synchronized void finishOrAbandon() {
+            closed = true;
+            if (cancelled || failed) {
+                return;
+            }
+            try {
+                if (positions == null) {
+                    // Not started, so any progress recorded earlier still applies
+                    resumable = compactedLength > 0;
+                } else if (next < positions.length) {
+                    writeProgress(positions[next]);
+                    resumable = true;
+                } else {
+                    appendRecordsSinceCopy();
+                    succeeded = true;
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Could not compact {}.", MemoryMappedPersistentIndexedCache.this, e);
+            }
+        }
+
+        private void writeProgress(long copiedUpTo) throws IOException {
+            LOGGER.debug("Abandoning compaction of {} before closing.", MemoryMappedPersistentIndexedCache.this);
+            long length;
+            try (FileChannel target = FileChannel.open(compactedFile.toPath(), StandardOpenOption.WRITE)) {
+                target.force(false);
+                length = target.size();
+            }
+            ByteBuffer progress = ByteBuffer.allocate(24);
+            progress.putLong(copiedEnd);
+            progress.putLong(copiedUpTo);
+            progress.putLong(length);
+            File tempFile = new File(compactionProgressFile.getPath() + ".tmp");
+            Files.write(tempFile.toPath(), progress.array());
+            Files.move(tempFile.toPath(), compactionProgressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void appendRecordsSinceCopy() throws IOException {
+            MappedByteBuffer[] segments = MemoryMappedPersistentIndexedCache.this.segments;
+            try (RecordWriter writer = new RecordWriter(segments)) {
+                long pos = copiedEnd;
+                while (pos < end) {
+                    int offset = offsetInSegment(pos);
+                    if (offset + RECORD_HEADER_SIZE > segmentSize || segmentAt(segments, pos + KEY_HASH_SIZE).getInt() == PADDING) {
+                        // The records are aligned to the segments of the compacted file as they are written
+                        pos = pos - offset + segmentSize;
+                        continue;
+                    }
+                    int recordSize = recordSizeAt(segments, pos);
+                    writer.append(pos, recordSize);
+                    pos += recordSize;
+                }
+                ByteBuffer recordsEnd = ByteBuffer.allocate(8);
+                recordsEnd.putLong(0, writer.flush());
+                writer.write(recordsEnd, END_OFFSET);
+                writer.force();
+            }
+        }
+
+        /**
+         * Appends records to the compacted file, aligned to its segments. Records that are contiguous in the cache file are written at once where possible.
+         */
+        private class RecordWriter implements Closeable {
+            private final MappedByteBuffer[] source;
+            private final FileChannel target;
+            private long targetEnd;
+            private long runStart;
+            private long runTarget;
+            private int runLength;
+
+            RecordWriter(MappedByteBuffer[] source) throws IOException {
+                this.source = source;
+                this.target = FileChannel.open(compactedFile.toPath(), StandardOpenOption.WRITE);
+                this.targetEnd = target.size();
+            }
+
+            void append(long pos, int recordSize) throws IOException {
+                long runEnd = runTarget + runLength;
+                if (runLength > 0 && pos == runStart + runLength && pos / segmentSize == runStart / segmentSize && alignRecord(runEnd, recordSize) == runEnd) {
+                    runLength += recordSize;
+                    return;
+                }
+                flush();
+                runStart = pos;
+                runTarget = alignRecord(targetEnd, recordSize);
+                runLength = recordSize;
+                ByteBuffer padding = paddingHeader(targetEnd, runTarget);
+                if (padding != null) {
+                    writeFully(target, padding, targetEnd);
+                }
+            }
+
+            /**
+             * Writes the pending records.
+             *
+             * @return the end of the records in the compacted file.
+             */
+            long flush() throws IOException {
+                if (runLength > 0) {
+                    ByteBuffer run = segmentAt(source, runStart);
+                    run.limit(run.position() + runLength);
+                    writeFully(target, run, runTarget);
+                    targetEnd = runTarget + runLength;
+                    runLength = 0;
+                }
+                return targetEnd;
+            }
+
+            void write(ByteBuffer buffer, long position) throws IOException {
+                writeFully(target, buffer, position);
+            }
+
+            void force() throws IOException {
+                target.force(false);
+            }
+
+            @Override
+            public void close() throws IOException {
+                target.close();
+            }
+        }
+
+        /**
+         * Replaces the cache file with the compacted one, or keeps the compacted file for the next time the cache is opened when the compaction was abandoned.
+         * Called after the cache has been closed.
+         */
+        void replaceCacheFile() {
+            try {
+                if (succeeded) {
+                    Files.move(compactedFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    compactionProgressFile.delete();
+                    return;
+                }
+                if (resumable) {
+                    return;
+                }
+            } catch (IOException e) {
+                // For example, the file may still be mapped on Windows
+                LOGGER.debug("Could not replace {} with its compacted copy.", MemoryMappedPersistentIndexedCache.this, e);
+            }
+            discardCompaction();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import org.gradle.cache.MultiProcessSafePersistentIndexedCache
 import org.gradle.internal.Factory
 import spock.lang.Specification
 
+import java.util.function.ToIntFunction
+
 class InMemoryCacheDecoratorFactoryTest extends Specification {
     def cacheFactory = new DefaultInMemoryCacheDecoratorFactory(false, new TestCrossBuildInMemoryCacheFactory())
     def target = Mock(MultiProcessSafePersistentIndexedCache)
@@ -200,4 +202,39 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         0 * target._
     }
 
+    def "does not keep values heavier than the maximum weight in memory"() {
+        given:
+        def weigher = { it == "heavy" ? Integer.MAX_VALUE : 1 } as ToIntFunction<Object>
+        def cache = cacheFactory.weightedDecorator(100, weigher, true).decorate("path/checkpoints.bin", "checkpoints", target, crossProcessCacheAccess, asyncCacheAccess)
+
+        when:
+        def light = cache.getIfPresent("light")
+        def heavy = cache.getIfPresent("heavy")
+
+        then:
+        light == "light"
+        heavy == "heavy"
+
+        and:
+        2 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        2 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.getIfPresent("light") >> "light"
+        1 * target.getIfPresent("heavy") >> "heavy"
+        0 * target._
+
+        when:
+        light = cache.getIfPresent("light")
+        heavy = cache.getIfPresent("heavy")
+
+        then:
+        light == "light"
+        heavy == "heavy"
+
+        and:
+        2 * crossProcessCacheAccess.withFileLock(_) >> { Factory task -> task.create() }
+        1 * asyncCacheAccess.read(_) >> { Factory task -> task.create() }
+        1 * target.getIfPresent("heavy") >> "heavy"
+        0 * target._
+    }
+
 }
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.mapped
+
+import org.gradle.api.UncheckedIOException
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class MemoryMappedPersistentIndexedCacheTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def cacheFile = tmpDir.file("cache.bin")
+    def serializerFactory = new BaseSerializerFactory()
+    MemoryMappedPersistentIndexedCache<String, String> cache
+
+    def cleanup() {
+        if (cache?.open) {
+            cache.close()
+        }
+    }
+
+    def createCache() {
+        cache = new MemoryMappedPersistentIndexedCache<String, String>(cacheFile, serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(String))
+    }
+
+    def createCache(Executor executor, int segmentSize) {
+        cache = new MemoryMappedPersistentIndexedCache<String, String>(cacheFile, serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(String), executor, segmentSize)
+    }
+
+    def createCache(List<Runnable> pendingCompactions) {
+        def executor = { pendingCompactions << it } as Executor
+        cache = new MemoryMappedPersistentIndexedCache<String, String>(cacheFile, serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(String), executor)
+    }
+
+    def "returns null for unknown entry"() {
+        given:
+        createCache()
+
+        expect:
+        cache.get("unknown") == null
+    }
+
+    def "persists added, updated and removed entries"() {
+        given:
+        createCache()
+
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.put("c", "3")
+        cache.put("a", "updated")
+        cache.remove("b")
+
+        then:
+        cache.get("a") == "updated"
+        cache.get("b") == null
+        cache.get("c") == "3"
+
+        when:
+        cache.close()
+        createCache()
+
+        then:
+        cache.get("a") == "updated"
+        cache.get("b") == null
+        cache.get("c") == "3"
+    }
+
+    def "grows the mapped file as needed"() {
+        given:
+        createCache()
+        def value = "x" * 10000
+
+        when:
+        500.times { cache.put("key-$it".toString(), "$value-$it".toString()) }
+        cache.close()
+        createCache()
+
+        then:
+        500.times { assert cache.get("key-$it".toString()) == "$value-$it".toString() }
+        cacheFile.length() > 500 * 10000
+    }
+
+    def "stores records across segments of the mapped file"() {
+        given:
+        createCache({ it.run() } as Executor, 64 * 1024)
+        def random = new Random(1)
+        def values = [:]
+
+        when:
+        2000.times {
+            def key = "key-${random.nextInt(100)}".toString()
+            def value = ("x" * random.nextInt(20000)) + it
+            cache.put(key, value)
+            values[key] = value
+        }
+
+        then:
+        values.each { key, value -> assert cache.get(key) == value }
+
+        when:
+        cache.close()
+        createCache({ it.run() } as Executor, 64 * 1024)
+
+        then:
+        cacheFile.length() > 64 * 1024 * 16
+        values.each { key, value -> assert cache.get(key) == value }
+    }
+
+    def "compacts records across segments of the mapped file"() {
+        given:
+        def pendingCompactions = []
+        createCache({ it.run() } as Executor, 64 * 1024)
+        def value = "x" * 10000
+        3.times { round ->
+            200.times { cache.put("key-$it".toString(), "$value-$round-$it".toString()) }
+        }
+        cache.close()
+        createCache({ pendingCompactions << it } as Executor, 64 * 1024)
+
+        when:
+        pendingCompactions.remove(0).run()
+        cache.put("key-0", "updated")
+        cache.close()
+
+        then:
+        tmpDir.file("cache.bin.compact-progress").exists()
+
+        when:
+        createCache({ pendingCompactions << it } as Executor, 64 * 1024)
+        cache.put("key-1", "$value-updated".toString())
+        while (!pendingCompactions.empty) {
+            pendingCompactions.remove(0).run()
+        }
+        cache.close()
+
+        then:
+        cacheFile.length() < 300 * 10000
+        !tmpDir.file("cache.bin.compact").exists()
+
+        when:
+        createCache({ it.run() } as Executor, 64 * 1024)
+
+        then:
+        cache.get("key-0") == "updated"
+        cache.get("key-1") == "$value-updated".toString()
+        (2..<200).each { assert cache.get("key-$it".toString()) == "$value-2-$it".toString() }
+    }
+
+    def "rejects entries that do not fit into a segment"() {
+        given:
+        createCache({ it.run() } as Executor, 64 * 1024)
+
+        when:
+        cache.put("key", "x" * 64 * 1024)
+
+        then:
+        def e = thrown(UncheckedIOException)
+        e.cause.message.startsWith("Entry of ")
+
+        and:
+        cache.get("key") == null
+    }
+
+    def "drops superseded records when reopened"() {
+        given:
+        createCache()
+        def value = "x" * 10000
+
+        when:
+        500.times { cache.put("key", "$value-$it".toString()) }
+        cache.put("other", "value")
+        cache.close()
+        createCache()
+
+        then:
+        cache.get("key") == "$value-499".toString()
+        cache.get("other") == "value"
+
+        when:
+        cache.close()
+        createCache()
+
+        then:
+        cache.get("key") == "$value-499".toString()
+        cache.get("other") == "value"
+    }
+
+    def "keeps entries written while compacting in the background"() {
+        given:
+        def pendingCompactions = []
+        createCache()
+        def value = "x" * 10000
+        500.times { cache.put("key", "$value-$it".toString()) }
+        cache.put("removed", "value")
+        cache.close()
+        createCache(pendingCompactions)
+
+        expect:
+        pendingCompactions.size() == 1
+
+        when:
+        pendingCompactions[0].run()
+        cache.put("other", "value")
+        cache.remove("removed")
+        cache.close()
+
+        then:
+        cacheFile.length() < 1024 * 1024
+        !tmpDir.file("cache.bin.compact").exists()
+
+        when:
+        createCache()
+
+        then:
+        cache.get("key") == "$value-499".toString()
+        cache.get("other") == "value"
+        cache.get("removed") == null
+    }
+
+    def "abandons a compaction that has not started by the time the cache is closed"() {
+        given:
+        def pendingCompactions = []
+        createCache()
+        def value = "x" * 10000
+        500.times { cache.put("key", "$value-$it".toString()) }
+        cache.close()
+        createCache(pendingCompactions)
+
+        when:
+        cache.put("other", "value")
+        cache.close()
+
+        then:
+        cacheFile.length() > 500 * 10000
+        !tmpDir.file("cache.bin.compact").exists()
+
+        when:
+        pendingCompactions[0].run()
+
+        then:
+        !tmpDir.file("cache.bin.compact").exists()
+
+        when:
+        createCache()
+        cache.close()
+
+        then:
+        cacheFile.length() < 1024 * 1024
+
+        when:
+        createCache()
+
+        then:
+        cache.get("key") == "$value-499".toString()
+        cache.get("other") == "value"
+    }
+
+    def "resumes an abandoned compaction when the cache is next opened"() {
+        given:
+        def pendingCompactions = []
+        createCache()
+        def value = "x" * 10000
+        3.times { round ->
+            300.times { cache.put("key-$it".toString(), "$value-$round-$it".toString()) }
+        }
+        cache.close()
+        createCache(pendingCompactions)
+
+        when:
+        pendingCompactions.remove(0).run()
+        cache.put("key-0", "updated")
+        cache.remove("key-1")
+        cache.put("other", "value")
+        cache.close()
+
+        then:
+        pendingCompactions.size() == 1
+        cacheFile.length() > 900 * 10000
+        def compactedFile = tmpDir.file("cache.bin.compact")
+        def compactedLength = compactedFile.length()
+        compactedLength > 1024 * 1024
+        compactedLength < 300 * 10000
+        tmpDir.file("cache.bin.compact-progress").exists()
+
+        when:
+        pendingCompactions.remove(0).run()
+
+        then:
+        compactedFile.length() == compactedLength
+
+        when:
+        createCache(pendingCompactions)
+        cache.put("key-2", "updated")
+        while (!pendingCompactions.empty) {
+            pendingCompactions.remove(0).run()
+        }
+        cache.close()
+
+        then:
+        cacheFile.length() < 400 * 10000
+        !compactedFile.exists()
+        !tmpDir.file("cache.bin.compact-progress").exists()
+
+        when:
+        createCache()
+
+        then:
+        cache.get("key-0") == "updated"
+        cache.get("key-1") == null
+        cache.get("key-2") == "updated"
+        cache.get("key-299") == "$value-2-299".toString()
+        cache.get("other") == "value"
+    }
+
+    def "discards an abandoned compaction when the cache is cleared"() {
+        given:
+        def pendingCompactions = []
+        createCache()
+        def value = "x" * 10000
+        3.times { round ->
+            300.times { cache.put("key-$it".toString(), "$value-$round-$it".toString()) }
+        }
+        cache.close()
+        createCache(pendingCompactions)
+        pendingCompactions.remove(0).run()
+        cache.close()
+        pendingCompactions.clear()
+
+        when:
+        createCache(pendingCompactions)
+        cache.clear()
+        cache.put("other", "value")
+        while (!pendingCompactions.empty) {
+            pendingCompactions.remove(0).run()
+        }
+        cache.close()
+
+        then:
+        !tmpDir.file("cache.bin.compact").exists()
+        !tmpDir.file("cache.bin.compact-progress").exists()
+
+        when:
+        createCache()
+
+        then:
+        cache.get("key-0") == null
+        cache.get("other") == "value"
+    }
+
+    def "can read concurrently with clearing the cache"() {
+        given:
+        createCache()
+        def executor = Executors.newFixedThreadPool(4)
+        def failures = new ConcurrentLinkedQueue<Throwable>()
+
+        when:
+        4.times { thread ->
+            executor.execute {
+                try {
+                    1000.times {
+                        def key = "key-${thread}-${it % 10}".toString()
+                        cache.put(key, "value-$it".toString())
+                        def value = cache.get(key)
+                        assert value == null || value.startsWith("value-")
+                    }
+                } catch (Throwable t) {
+                    failures.add(t)
+                }
+            }
+        }
+        100.times { cache.clear() }
+        executor.shutdown()
+        executor.awaitTermination(30, TimeUnit.SECONDS)
+
+        then:
+        failures.empty
+    }
+
+    def "discards entries when the file was not closed cleanly"() {
+        given:
+        createCache()
+        cache.put("a", "1")
+        cache.close()
+        createCache()
+        cache.put("b", "2")
+
+        when:
+        // Simulate a crash by opening the file again without closing the cache first
+        def other = new MemoryMappedPersistentIndexedCache<String, String>(cacheFile, serializerFactory.getSerializerFor(String), serializerFactory.getSerializerFor(String))
+
+        then:
+        other.get("a") == null
+        other.get("b") == null
+
+        cleanup:
+        other?.close()
+    }
+
+    def "discards entries when the file is corrupt"() {
+        given:
+        cacheFile.text = "not a cache"
+
+        when:
+        createCache()
+
+        then:
+        cache.get("a") == null
+
+        when:
+        cache.put("a", "1")
+        cache.close()
+        createCache()
+
+        then:
+        cache.get("a") == "1"
+    }
+
+    def "clear discards all entries"() {
+        given:
+        createCache()
+        cache.put("a", "1")
+
+        when:
+        cache.clear()
+        cache.put("b", "2")
+        cache.close()
+        createCache()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+    }
+
+    def "can read and write concurrently"() {
+        given:
+        createCache()
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        8.times { thread ->
+            executor.execute {
+                1000.times {
+                    def key = "key-${thread}-${it % 100}".toString()
+                    cache.put(key, "value-$it".toString())
+                    assert cache.get(key) != null
+                }
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(30, TimeUnit.SECONDS)
+        cache.close()
+        createCache()
+
+        then:
+        8.times { thread ->
+            100.times {
+                assert cache.get("key-${thread}-${it}".toString()) == "value-${900 + it}".toString()
+            }
+        }
+    }
+}
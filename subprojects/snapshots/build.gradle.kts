@@ -1,6 +1,7 @@
 plugins {
     id("gradlebuild.distribution.implementation-java")
     id("gradlebuild.publish-public-libraries")
+    id("gradlebuild.jmh")
 }
 
 description = "Tools to take immutable, comparable snapshots of files and other things"
@@ -31,5 +32,7 @@ dependencies {
     testFixturesImplementation(project(":file-collections"))
     testFixturesImplementation(libs.commonsIo)
 
+    jmhImplementation(platform(project(":distributions-dependencies")))
+
     integTestDistributionRuntimeOnly(project(":distributions-core"))
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot;
+
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures lookups and updates in a synthetic snapshot hierarchy with {@code fanOut^1 + ... + fanOut^depth} nodes,
+ * which is a bit more than a million nodes for the default parameters.
+ *
+ * The heap retained by the hierarchy is reported as the {@code retainedHeapMegabytes} secondary result of the {@link #retainedHeap} benchmark.
+ * The names of the children are shared between directories, like the names interned when snapshotting a real file system,
+ * so the retained heap is dominated by the snapshots and the child maps.
+ */
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ChildMapBenchmark {
+    private static final String ROOT = "/root";
+    private static final HashCode HASH = HashCode.fromInt(0xcafe);
+
+    @Param({"100"})
+    int fanOut;
+
+    @Param({"3"})
+    int depth;
+
+    String[] names;
+    SnapshotHierarchy hierarchy;
+    String[] existingPaths;
+    String[] missingPaths;
+    long retainedHeapMegabytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        names = new String[fanOut];
+        for (int i = 0; i < fanOut; i++) {
+            names[i] = "child-" + i;
+        }
+
+        long usedBefore = usedHeapAfterGc();
+        DirectorySnapshot root = createDirectory(ROOT, "root", depth);
+        hierarchy = DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE)
+            .store(ROOT, root, SnapshotHierarchy.NodeDiffListener.NOOP);
+        long usedAfter = usedHeapAfterGc();
+        retainedHeapMegabytes = (usedAfter - usedBefore) / (1024 * 1024);
+
+        existingPaths = new String[1024];
+        missingPaths = new String[1024];
+        for (int i = 0; i < existingPaths.length; i++) {
+            String parent = randomDirectory(depth - 1);
+            existingPaths[i] = parent + "/" + names[ThreadLocalRandom.current().nextInt(fanOut)];
+            missingPaths[i] = parent + "/missing-" + i;
+        }
+    }
+
+    /**
+     * Reports the heap retained by the hierarchy through JMH, so it ends up in the results next to the timings.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HeapCounters {
+        public long retainedHeapMegabytes;
+    }
+
+    @Benchmark
+    public SnapshotHierarchy retainedHeap(HeapCounters counters) {
+        counters.retainedHeapMegabytes = retainedHeapMegabytes;
+        return hierarchy;
+    }
+
+    @Benchmark
+    public Optional<MetadataSnapshot> findExisting() {
+        return hierarchy.findMetadata(existingPaths[ThreadLocalRandom.current().nextInt(existingPaths.length)]);
+    }
+
+    @Benchmark
+    public Optional<MetadataSnapshot> findMissing() {
+        return hierarchy.findMetadata(missingPaths[ThreadLocalRandom.current().nextInt(missingPaths.length)]);
+    }
+
+    @Benchmark
+    public SnapshotHierarchy invalidate() {
+        return hierarchy.invalidate(existingPaths[ThreadLocalRandom.current().nextInt(existingPaths.length)], SnapshotHierarchy.NodeDiffListener.NOOP);
+    }
+
+    @Benchmark
+    public SnapshotHierarchy storeIntoInvalidatedDirectory() {
+        String path = existingPaths[ThreadLocalRandom.current().nextInt(existingPaths.length)];
+        SnapshotHierarchy invalidated = hierarchy.invalidate(path, SnapshotHierarchy.NodeDiffListener.NOOP);
+        return invalidated.store(path, createFile(path, path.substring(path.lastIndexOf('/') + 1)), SnapshotHierarchy.NodeDiffListener.NOOP);
+    }
+
+    private DirectorySnapshot createDirectory(String path, String name, int remainingDepth) {
+        List<FileSystemLocationSnapshot> children = new ArrayList<>(fanOut);
+        for (String childName : names) {
+            String childPath = path + "/" + childName;
+            children.add(remainingDepth == 1
+                ? createFile(childPath, childName)
+                : createDirectory(childPath, childName, remainingDepth - 1));
+        }
+        return new DirectorySnapshot(path, name, AccessType.DIRECT, HASH, children);
+    }
+
+    private static RegularFileSnapshot createFile(String path, String name) {
+        return new RegularFileSnapshot(path, name, HASH, DefaultFileMetadata.file(0, 0, AccessType.DIRECT));
+    }
+
+    private String randomDirectory(int levels) {
+        StringBuilder builder = new StringBuilder(ROOT);
+        for (int i = 0; i < levels; i++) {
+            builder.append('/').append(names[ThreadLocalRandom.current().nextInt(fanOut)]);
+        }
+        return builder.toString();
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -144,8 +144,7 @@ public Optional<MetadataSnapshot> getSnapshot(VfsRelativePath targetPath, CaseSe
 
     @Override
     public Stream<FileSystemLocationSnapshot> rootSnapshots() {
-        return children.stream()
-            .map(ChildMap.Entry::getValue)
+        return children.values()
             .flatMap(ReadOnlyFileSystemNode::rootSnapshots);
     }
 
@@ -155,8 +154,7 @@ public boolean hasDescendants() {
     }
 
     private static boolean anyChildMatches(ChildMap<FileSystemNode> children, Predicate<FileSystemNode> predicate) {
-        return children.stream()
-            .map(ChildMap.Entry::getValue)
+        return children.values()
             .anyMatch(predicate);
     }
 }
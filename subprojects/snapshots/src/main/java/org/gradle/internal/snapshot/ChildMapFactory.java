@@ -16,8 +16,6 @@
 
 package org.gradle.internal.snapshot;
 
-import com.google.common.collect.ImmutableList;
-
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
@@ -40,23 +38,40 @@ public static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, Collecti
 
     public static <T> ChildMap<T> childMapFromSorted(List<ChildMap.Entry<T>> sortedEntries) {
         int size = sortedEntries.size();
+        String[] paths = new String[size];
+        Object[] children = new Object[size];
+        for (int i = 0; i < size; i++) {
+            ChildMap.Entry<T> entry = sortedEntries.get(i);
+            paths[i] = entry.getPath();
+            children[i] = entry.getValue();
+        }
+        return childMapFromSorted(paths, children);
+    }
+
+    /**
+     * Creates a child map from the sorted paths and the children at the same indexes.
+     *
+     * The arrays are owned by the returned map afterwards and must not be modified by the caller.
+     */
+    static <T> ChildMap<T> childMapFromSorted(String[] sortedPaths, Object[] children) {
+        int size = sortedPaths.length;
         switch (size) {
             case 0:
                 return EmptyChildMap.getInstance();
             case 1:
-                return new SingletonChildMap<>(sortedEntries.get(0));
+                @SuppressWarnings("unchecked") T child = (T) children[0];
+                return new SingletonChildMap<>(sortedPaths[0], child);
             default:
                 return (size < MINIMUM_CHILD_COUNT_FOR_BINARY_SEARCH)
-                    ? new MediumChildMap<>(sortedEntries)
-                    : new LargeChildMap<>(sortedEntries);
+                    ? new MediumChildMap<>(sortedPaths, children)
+                    : new LargeChildMap<>(sortedPaths, children);
         }
     }
 
-    static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, ChildMap.Entry<T> entry1, ChildMap.Entry<T> entry2) {
-        int compared = PathUtil.getPathComparator(caseSensitivity).compare(entry1.getPath(), entry2.getPath());
-        List<ChildMap.Entry<T>> sortedEntries = compared < 0
-            ? ImmutableList.of(entry1, entry2)
-            : ImmutableList.of(entry2, entry1);
-        return childMapFromSorted(sortedEntries);
+    static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, String path1, T child1, String path2, T child2) {
+        int compared = PathUtil.getPathComparator(caseSensitivity).compare(path1, path2);
+        return compared < 0
+            ? childMapFromSorted(new String[]{path1, path2}, new Object[]{child1, child2})
+            : childMapFromSorted(new String[]{path2, path1}, new Object[]{child2, child1});
     }
 }
@@ -16,7 +16,6 @@
 
 package org.gradle.internal.snapshot;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import org.gradle.internal.file.FileMetadata.AccessType;
 import org.gradle.internal.file.FileType;
@@ -24,7 +23,6 @@
 
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static org.gradle.internal.snapshot.ChildMapFactory.childMapFromSorted;
 import static org.gradle.internal.snapshot.SnapshotVisitResult.CONTINUE;
@@ -40,8 +38,8 @@ public class DirectorySnapshot extends AbstractFileSystemLocationSnapshot {
 
     public DirectorySnapshot(String absolutePath, String name, AccessType accessType, HashCode contentHash, List<FileSystemLocationSnapshot> children) {
         this(absolutePath, name, accessType, contentHash, childMapFromSorted(children.stream()
-            .map(it -> new ChildMap.Entry<>(it.getName(), it))
-            .collect(Collectors.toList())));
+            .map(FileSystemLocationSnapshot::getName)
+            .toArray(String[]::new), children.toArray()));
     }
 
     public DirectorySnapshot(String absolutePath, String name, AccessType accessType, HashCode contentHash, ChildMap<FileSystemLocationSnapshot> children) {
@@ -76,8 +74,7 @@ public SnapshotVisitResult accept(FileSystemSnapshotHierarchyVisitor visitor) {
         switch (result) {
             case CONTINUE:
                 visitor.enterDirectory(this);
-                children.stream()
-                    .map(ChildMap.Entry::getValue)
+                children.values()
                     .forEach(child -> child.accept(visitor));
                 visitor.leaveDirectory(this);
                 return CONTINUE;
@@ -98,8 +95,7 @@ public SnapshotVisitResult accept(RelativePathTracker pathTracker, RelativePathT
             switch (result) {
                 case CONTINUE:
                     visitor.enterDirectory(this, pathTracker);
-                    children.stream()
-                        .map(ChildMap.Entry::getValue)
+                    children.values()
                         .forEach(child -> child.accept(pathTracker, visitor));
                     visitor.leaveDirectory(this, pathTracker);
                     return CONTINUE;
@@ -125,10 +121,8 @@ public <T> T accept(FileSystemLocationSnapshotTransformer<T> transformer) {
         return transformer.visitDirectory(this);
     }
 
-    @VisibleForTesting
     public ImmutableList<FileSystemLocationSnapshot> getChildren() {
-        return children.stream()
-            .map(ChildMap.Entry::getValue)
+        return children.values()
             .collect(ImmutableList.toImmutableList());
     }
 
@@ -165,8 +159,7 @@ public void nodeAdded(FileSystemNode node) {
                         diffListener.nodeAdded(node);
                     }
                 });
-                children.stream()
-                    .map(ChildMap.Entry::getValue)
+                children.values()
                     .filter(existingChild -> existingChild != child)
                     .forEach(diffListener::nodeAdded);
                 return invalidated;
@@ -180,8 +173,7 @@ public void handleAsAncestorOfChild(String childPath, FileSystemLocationSnapshot
             @Override
             public void handleExactMatchWithChild(FileSystemLocationSnapshot child) {
                 diffListener.nodeRemoved(DirectorySnapshot.this);
-                children.stream()
-                    .map(ChildMap.Entry::getValue)
+                children.values()
                     .filter(existingChild -> existingChild != child)
                     .forEach(diffListener::nodeAdded);
             }
@@ -189,8 +181,7 @@ public void handleExactMatchWithChild(FileSystemLocationSnapshot child) {
             @Override
             public void handleUnrelatedToAnyChild() {
                 diffListener.nodeRemoved(DirectorySnapshot.this);
-                children.stream()
-                    .map(ChildMap.Entry::getValue)
+                children.values()
                     .forEach(diffListener::nodeAdded);
             }
         });
@@ -55,6 +55,11 @@ public Stream<Entry<T>> stream() {
         return Stream.empty();
     }
 
+    @Override
+    public Stream<T> values() {
+        return Stream.empty();
+    }
+
     @Override
     public String toString() {
         return "";
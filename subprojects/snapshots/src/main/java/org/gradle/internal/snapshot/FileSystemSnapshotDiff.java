@@ -0,0 +1,131 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot;
+
+import org.gradle.internal.file.FileType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Computes the changes between two snapshots of the same part of the file system.
+ *
+ * Directories with the same hash are not descended into, so snapshots which share unchanged subtrees,
+ * like the ones taken from the virtual file system, are compared in time proportional to the number of changes.
+ */
+public class FileSystemSnapshotDiff {
+
+    /**
+     * Receives the changes between two snapshots.
+     *
+     * The contents of added and removed directories are reported, too.
+     * Directories whose contents changed are not reported as modified, only the changed entries in them.
+     */
+    public interface ChangeVisitor {
+        void added(FileSystemLocationSnapshot current);
+
+        void removed(FileSystemLocationSnapshot previous);
+
+        void modified(FileSystemLocationSnapshot previous, FileSystemLocationSnapshot current);
+    }
+
+    /**
+     * Visits the changes from the previous to the current snapshot.
+     *
+     * Roots are matched by absolute path. Missing files are treated as if they were not part of the snapshot.
+     */
+    public static void visitChanges(FileSystemSnapshot previous, FileSystemSnapshot current, ChangeVisitor visitor) {
+        if (previous == current) {
+            return;
+        }
+        Map<String, FileSystemLocationSnapshot> previousRoots = getRoots(previous);
+        for (FileSystemLocationSnapshot currentRoot : getRoots(current).values()) {
+            FileSystemLocationSnapshot previousRoot = previousRoots.remove(currentRoot.getAbsolutePath());
+            if (previousRoot == null) {
+                visitAdded(currentRoot, visitor);
+            } else {
+                visitChanges(previousRoot, currentRoot, visitor);
+            }
+        }
+        for (FileSystemLocationSnapshot previousRoot : previousRoots.values()) {
+            visitRemoved(previousRoot, visitor);
+        }
+    }
+
+    private static void visitChanges(FileSystemLocationSnapshot previous, FileSystemLocationSnapshot current, ChangeVisitor visitor) {
+        if (previous == current) {
+            return;
+        }
+        if (previous.getType() != current.getType()) {
+            visitRemoved(previous, visitor);
+            visitAdded(current, visitor);
+        } else if (previous instanceof DirectorySnapshot) {
+            if (!previous.getHash().equals(current.getHash())) {
+                visitChildChanges((DirectorySnapshot) previous, (DirectorySnapshot) current, visitor);
+            }
+        } else if (!previous.isContentUpToDate(current)) {
+            visitor.modified(previous, current);
+        }
+    }
+
+    private static void visitChildChanges(DirectorySnapshot previous, DirectorySnapshot current, ChangeVisitor visitor) {
+        Map<String, FileSystemLocationSnapshot> previousChildren = new LinkedHashMap<>();
+        for (FileSystemLocationSnapshot previousChild : previous.getChildren()) {
+            previousChildren.put(previousChild.getName(), previousChild);
+        }
+        for (FileSystemLocationSnapshot currentChild : current.getChildren()) {
+            FileSystemLocationSnapshot previousChild = previousChildren.remove(currentChild.getName());
+            if (previousChild == null) {
+                visitAdded(currentChild, visitor);
+            } else {
+                visitChanges(previousChild, currentChild, visitor);
+            }
+        }
+        for (FileSystemLocationSnapshot previousChild : previousChildren.values()) {
+            visitRemoved(previousChild, visitor);
+        }
+    }
+
+    private static void visitAdded(FileSystemLocationSnapshot current, ChangeVisitor visitor) {
+        current.accept(snapshot -> {
+            if (snapshot.getType() != FileType.Missing) {
+                visitor.added(snapshot);
+            }
+            return SnapshotVisitResult.CONTINUE;
+        });
+    }
+
+    private static void visitRemoved(FileSystemLocationSnapshot previous, ChangeVisitor visitor) {
+        previous.accept(snapshot -> {
+            if (snapshot.getType() != FileType.Missing) {
+                visitor.removed(snapshot);
+            }
+            return SnapshotVisitResult.CONTINUE;
+        });
+    }
+
+    private static Map<String, FileSystemLocationSnapshot> getRoots(FileSystemSnapshot snapshot) {
+        Map<String, FileSystemLocationSnapshot> roots = new LinkedHashMap<>();
+        snapshot.accept(root -> {
+            if (root.getType() != FileType.Missing) {
+                roots.put(root.getAbsolutePath(), root);
+            }
+            return SnapshotVisitResult.SKIP_SUBTREE;
+        });
+        return roots;
+    }
+}
@@ -69,4 +69,27 @@ public static <T> int binarySearch(List<T> sortedElements, Comparable<T> key) {
                 return -(low + 1);  // key not found
         }
     }
+    /**
+     * Does a binary search for an element determined by a {@link Comparable} in a sorted array.
+     *
+     * Same as {@link #binarySearch(List, Comparable)}, without wrapping the array in a list.
+     */
+    public static <T> int binarySearch(T[] sortedElements, Comparable<T> key) {
+        int low = 0;
+        int high = sortedElements.length - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = key.compareTo(sortedElements[mid]);
+
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid; // key found
+            }
+        }
+        return -(low + 1);  // key not found
+    }
 }
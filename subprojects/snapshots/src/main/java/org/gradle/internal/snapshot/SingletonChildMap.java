@@ -21,14 +21,16 @@
 import static org.gradle.internal.snapshot.ChildMapFactory.childMap;
 
 public class SingletonChildMap<T> implements ChildMap<T> {
-    private final Entry<T> entry;
+    private final String path;
+    private final T child;
 
     public SingletonChildMap(String path, T child) {
-        this(new Entry<>(path, child));
+        this.path = path;
+        this.child = child;
     }
 
     public SingletonChildMap(Entry<T> entry) {
-        this.entry = entry;
+        this(entry.getPath(), entry.getValue());
     }
 
     @Override
@@ -38,17 +40,22 @@ public boolean isEmpty() {
 
     @Override
     public Stream<Entry<T>> stream() {
-        return Stream.of(entry);
+        return Stream.of(new Entry<>(path, child));
+    }
+
+    @Override
+    public Stream<T> values() {
+        return Stream.of(child);
     }
 
     @Override
     public <R> R withNode(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, NodeHandler<T, R> handler) {
-        return entry.withNode(targetPath, caseSensitivity, handler);
+        return Entry.withNode(path, child, targetPath, caseSensitivity, handler);
     }
 
     @Override
     public <RESULT> ChildMap<RESULT> invalidate(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, InvalidationHandler<T, RESULT> handler) {
-        return entry.withNode(targetPath, caseSensitivity, new AbstractInvalidateChildHandler<T, RESULT>(handler) {
+        return Entry.withNode(path, child, targetPath, caseSensitivity, new AbstractInvalidateChildHandler<T, RESULT>(handler) {
             @SuppressWarnings("unchecked")
             @Override
             public SingletonChildMap<RESULT> getChildMap() {
@@ -57,7 +64,7 @@ public SingletonChildMap<RESULT> getChildMap() {
 
             @Override
             public ChildMap<RESULT> withReplacedChild(RESULT newChild) {
-                return withReplacedChild(entry.getPath(), newChild);
+                return withReplacedChild(path, newChild);
             }
 
             @Override
@@ -74,10 +81,10 @@ public ChildMap<RESULT> withRemovedChild() {
 
     @Override
     public ChildMap<T> store(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, StoreHandler<T> storeHandler) {
-        return entry.handlePath(targetPath, caseSensitivity, new AbstractStorePathRelationshipHandler<T>(caseSensitivity, storeHandler) {
+        return Entry.handlePath(path, child, targetPath, caseSensitivity, new AbstractStorePathRelationshipHandler<T>(caseSensitivity, storeHandler) {
             @Override
             public ChildMap<T> withReplacedChild(T newChild) {
-                return withReplacedChild(entry.getPath(), newChild);
+                return withReplacedChild(path, newChild);
             }
 
             @Override
@@ -94,12 +101,11 @@ public ChildMap<T> withNewChild(String newChildPath, T newChild) {
     }
 
     private ChildMap<T> withNewChild(CaseSensitivity caseSensitivity, String newChildPath, T newChild) {
-        Entry<T> newEntry = new Entry<>(newChildPath, newChild);
-        return childMap(caseSensitivity, entry, newEntry);
+        return childMap(caseSensitivity, path, child, newChildPath, newChild);
     }
 
     private <RESULT> ChildMap<RESULT> withReplacedChild(String newPath, RESULT newChild) {
-        if (entry.getPath().equals(newPath) && entry.getValue().equals(newChild)) {
+        if (path.equals(newPath) && child.equals(newChild)) {
             return castThis();
         }
         return new SingletonChildMap<>(newPath, newChild);
@@ -121,16 +127,18 @@ public boolean equals(Object o) {
 
         SingletonChildMap<?> that = (SingletonChildMap<?>) o;
 
-        return entry.equals(that.entry);
+        return path.equals(that.path) && child.equals(that.child);
     }
 
     @Override
     public int hashCode() {
-        return entry.hashCode();
+        int result = path.hashCode();
+        result = 31 * result + child.hashCode();
+        return result;
     }
 
     @Override
     public String toString() {
-        return entry.toString();
+        return "Entry{" + path + " : " + child + '}';
     }
 }
@@ -17,6 +17,7 @@
 package org.gradle.internal.snapshot.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
@@ -42,19 +43,28 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 
 import static org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder.EmptyDirectoryHandlingStrategy.INCLUDE_EMPTY_DIRS;
@@ -70,8 +80,8 @@ public String remapAbsolutePath(Path path) {
         }
 
         @Override
-        public SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker) {
-            return new DefaultSymbolicLinkMapping(source, target, currentPathTracker.getSegments());
+        public SymbolicLinkMapping withNewMapping(String source, String target, Iterable<String> currentSegments) {
+            return new DefaultSymbolicLinkMapping(source, target, currentSegments);
         }
 
         @Override
@@ -84,17 +94,31 @@ public Iterable<String> getRemappedSegments(Iterable<String> segments) {
     private final Interner<String> stringInterner;
     private final DefaultExcludes defaultExcludes;
     private final DirectorySnapshotterStatistics.Collector collector;
+    @Nullable
+    private final ParallelSnapshotting parallelSnapshotting;
 
     public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector) {
+        this(hasher, stringInterner, defaultExcludes, collector, null);
+    }
+
+    /**
+     * Creates a snapshotter that walks unfiltered directory hierarchies in parallel when {@code parallelSnapshotting} is not {@code null}.
+     */
+    public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector, @Nullable ParallelSnapshotting parallelSnapshotting) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
         this.collector = collector;
+        this.parallelSnapshotting = parallelSnapshotting;
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate, final AtomicBoolean hasBeenFiltered) {
         try {
             Path rootPath = Paths.get(absolutePath);
+            // Filtering predicates are not required to be thread-safe, so filtered walks stay on the calling thread
+            if (parallelSnapshotting != null && predicate == null && isDirectory(rootPath)) {
+                return new ParallelWalk(parallelSnapshotting).snapshot(rootPath);
+            }
             PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING);
             Files.walkFileTree(rootPath, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
             return visitor.getResult();
@@ -103,10 +127,18 @@ public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable Snapsh
         }
     }
 
+    private static boolean isDirectory(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     private interface SymbolicLinkMapping {
         String remapAbsolutePath(Path path);
         @CheckReturnValue
-        SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker);
+        SymbolicLinkMapping withNewMapping(String source, String target, Iterable<String> currentSegments);
         Iterable<String> getRemappedSegments(Iterable<String> segments);
     }
 
@@ -137,8 +169,8 @@ public String remapAbsolutePath(String absolutePath) {
         }
 
         @Override
-        public SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker) {
-            return new DefaultSymbolicLinkMapping(remapAbsolutePath(source), target, getRemappedSegments(currentPathTracker.getSegments()));
+        public SymbolicLinkMapping withNewMapping(String source, String target, Iterable<String> currentSegments) {
+            return new DefaultSymbolicLinkMapping(remapAbsolutePath(source), target, getRemappedSegments(currentSegments));
         }
 
         @Override
@@ -286,7 +318,7 @@ protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
                                     stringInterner,
                                     defaultExcludes,
                                     collector,
-                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker)
+                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker.getSegments())
                                 );
                                 Files.walkFileTree(targetDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, subtreeVisitor);
                                 DirectorySnapshot result = (DirectorySnapshot) subtreeVisitor.getResult();
@@ -324,7 +356,7 @@ private void visitResolvedFile(Path file, BasicFileAttributes targetAttributes,
             }
         }
 
-        private BasicFileAttributes readAttributesOfSymlinkTarget(Path symlink, BasicFileAttributes symlinkAttributes) {
+        private static BasicFileAttributes readAttributesOfSymlinkTarget(Path symlink, BasicFileAttributes symlinkAttributes) {
             try {
                 return Files.readAttributes(symlink, BasicFileAttributes.class);
             } catch (IOException ioe) {
@@ -424,4 +456,289 @@ public FileSystemLocationSnapshot getResult() {
             return builder.getResult();
         }
     }
+
+    /**
+     * Walks a directory hierarchy on a fork/join pool, with a task for each directory, and hashes the files of each directory on a separate executor.
+     * <p>
+     * Produces the same snapshots as walking the hierarchy with {@link PathVisitor} without a filtering predicate.
+     * As the children of each directory are sorted before the directory is hashed, the order in which the tasks complete does not matter.
+     * Excluded directories are skipped before they are opened, so unlike with {@link PathVisitor} they are not recorded as visited.
+     */
+    private class ParallelWalk {
+        private static final int FILES_PER_HASHING_BATCH = 32;
+
+        private final ParallelSnapshotting pools;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final LongAdder workTime = new LongAdder();
+
+        public ParallelWalk(ParallelSnapshotting pools) {
+            this.pools = pools;
+        }
+
+        public FileSystemLocationSnapshot snapshot(Path rootPath) {
+            long startTime = System.nanoTime();
+            collector.recordVisitHierarchy();
+            DirectorySnapshot result = pools.getWalkerPool().invoke(new DirectoryTask(rootPath, getInternedFileName(rootPath), EMPTY_SYMBOLIC_LINK_MAPPING, ImmutableList.of(), null, null));
+            Throwable walkFailure = failure.get();
+            if (walkFailure != null) {
+                if (walkFailure instanceof Error) {
+                    throw (Error) walkFailure;
+                }
+                throw (RuntimeException) walkFailure;
+            }
+            collector.recordParallelVisitHierarchy(System.nanoTime() - startTime, workTime.sum());
+            return result;
+        }
+
+        private String intern(String string) {
+            return stringInterner.intern(string);
+        }
+
+        private String getInternedFileName(Path path) {
+            Path fileName = path.getFileName();
+            return fileName == null ? "" : intern(fileName.toString());
+        }
+
+        private void recordFailure(Throwable t) {
+            failure.compareAndSet(null, t);
+        }
+
+        private List<FileSystemLeafSnapshot> hashFiles(List<FileToHash> files) {
+            long startTime = System.nanoTime();
+            try {
+                List<FileSystemLeafSnapshot> snapshots = new ArrayList<>(files.size());
+                for (FileToHash file : files) {
+                    snapshots.add(file.snapshot());
+                }
+                return snapshots;
+            } finally {
+                workTime.add(System.nanoTime() - startTime);
+            }
+        }
+
+        private class FileToHash {
+            private final Path path;
+            private final String internedRemappedAbsolutePath;
+            private final String internedName;
+            private final BasicFileAttributes attributes;
+            private final AccessType accessType;
+
+            public FileToHash(Path path, String internedRemappedAbsolutePath, String internedName, BasicFileAttributes attributes, AccessType accessType) {
+                this.path = path;
+                this.internedRemappedAbsolutePath = internedRemappedAbsolutePath;
+                this.internedName = internedName;
+                this.attributes = attributes;
+                this.accessType = accessType;
+            }
+
+            public RegularFileSnapshot snapshot() {
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                long fileLength = attributes.size();
+                FileMetadata metadata = DefaultFileMetadata.file(lastModified, fileLength, accessType);
+                HashCode hash = hasher.hash(path.toFile(), fileLength, lastModified);
+                return new RegularFileSnapshot(internedRemappedAbsolutePath, internedName, hash, metadata);
+            }
+        }
+
+        /**
+         * Snapshots a directory. Returns {@code null} when the walk failed, or when an excluded root directory could not be read.
+         * Other excluded directories are skipped by the task of their parent directory.
+         */
+        private class DirectoryTask extends RecursiveTask<DirectorySnapshot> {
+            private final Path dir;
+            private final String internedName;
+            private final SymbolicLinkMapping symbolicLinkMapping;
+            private final ImmutableList<String> segments;
+            private final ParentDirectory parent;
+            private final String symlinkName;
+
+            /**
+             * @param segments the relative path of the directory from the root of the walk.
+             * @param parent the directories entered by the walk to reach this directory, used to detect cycles via symlinks.
+             * @param symlinkName the name of the symlink through which the directory was reached, if any.
+             */
+            public DirectoryTask(Path dir, String internedName, SymbolicLinkMapping symbolicLinkMapping, ImmutableList<String> segments, @Nullable ParentDirectory parent, @Nullable String symlinkName) {
+                this.dir = dir;
+                this.internedName = internedName;
+                this.symbolicLinkMapping = symbolicLinkMapping;
+                this.segments = segments;
+                this.parent = parent;
+                this.symlinkName = symlinkName;
+            }
+
+            @Override
+            protected DirectorySnapshot compute() {
+                if (failure.get() != null) {
+                    return null;
+                }
+                try {
+                    return snapshotDirectory();
+                } catch (RuntimeException | Error e) {
+                    recordFailure(e);
+                    return null;
+                }
+            }
+
+            @Nullable
+            private DirectorySnapshot snapshotDirectory() {
+                long startTime = System.nanoTime();
+                DirectoryStream<Path> stream;
+                try {
+                    stream = Files.newDirectoryStream(dir);
+                } catch (IOException e) {
+                    collector.recordVisitFileFailed();
+                    if (!defaultExcludes.excludeDir(internedName)) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return null;
+                }
+                collector.recordVisitDirectory();
+                ParentDirectory enteredDirectory = new ParentDirectory(dir.toString(), parent);
+                List<FileSystemLeafSnapshot> leaves = new ArrayList<>();
+                List<FileToHash> filesToHash = new ArrayList<>();
+                List<DirectoryTask> subdirectories = new ArrayList<>();
+                try {
+                    for (Path entry : stream) {
+                        visitEntry(entry, enteredDirectory, leaves, filesToHash, subdirectories);
+                    }
+                } catch (DirectoryIteratorException e) {
+                    throw new UncheckedIOException(String.format("Could not read directory path '%s'.", dir), e.getCause());
+                } finally {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        //noinspection ThrowFromFinallyBlock
+                        throw new UncheckedIOException(String.format("Could not read directory path '%s'.", dir), e);
+                    }
+                }
+
+                List<CompletableFuture<List<FileSystemLeafSnapshot>>> hashedFiles = new ArrayList<>();
+                for (int start = 0; start < filesToHash.size(); start += FILES_PER_HASHING_BATCH) {
+                    List<FileToHash> batch = filesToHash.subList(start, Math.min(start + FILES_PER_HASHING_BATCH, filesToHash.size()));
+                    hashedFiles.add(CompletableFuture.supplyAsync(() -> hashFiles(batch), pools.getHashingExecutor()));
+                }
+                for (DirectoryTask subdirectory : subdirectories) {
+                    subdirectory.fork();
+                }
+                workTime.add(System.nanoTime() - startTime);
+
+                List<DirectorySnapshot> childDirectories = new ArrayList<>(subdirectories.size());
+                for (int i = subdirectories.size() - 1; i >= 0; i--) {
+                    DirectoryTask subdirectory = subdirectories.get(i);
+                    DirectorySnapshot childDirectory = subdirectory.join();
+                    if (childDirectory != null) {
+                        childDirectories.add(subdirectory.symlinkName == null
+                            ? childDirectory
+                            : new DirectorySnapshot(childDirectory.getAbsolutePath(), subdirectory.symlinkName, AccessType.VIA_SYMLINK, childDirectory.getHash(), childDirectory.getChildren()));
+                    }
+                }
+                for (CompletableFuture<List<FileSystemLeafSnapshot>> batch : hashedFiles) {
+                    try {
+                        leaves.addAll(batch.join());
+                    } catch (CompletionException e) {
+                        recordFailure(e.getCause());
+                    }
+                }
+                if (failure.get() != null) {
+                    return null;
+                }
+
+                startTime = System.nanoTime();
+                MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
+                builder.enterDirectory(AccessType.DIRECT, intern(symbolicLinkMapping.remapAbsolutePath(dir)), internedName, INCLUDE_EMPTY_DIRS);
+                leaves.forEach(builder::visitLeafElement);
+                childDirectories.forEach(builder::visitDirectory);
+                builder.leaveDirectory();
+                workTime.add(System.nanoTime() - startTime);
+                return (DirectorySnapshot) builder.getResult();
+            }
+
+            private void visitEntry(Path entry, ParentDirectory enteredDirectory, List<FileSystemLeafSnapshot> leaves, List<FileToHash> filesToHash, List<DirectoryTask> subdirectories) {
+                String internedFileName = getInternedFileName(entry);
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    collector.recordVisitFileFailed();
+                    if (!defaultExcludes.excludeFile(internedFileName)) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return;
+                }
+                ImmutableList<String> entrySegments = ImmutableList.<String>builder().addAll(segments).add(internedFileName).build();
+                if (attrs.isDirectory()) {
+                    if (!defaultExcludes.excludeDir(internedFileName)) {
+                        subdirectories.add(new DirectoryTask(entry, internedFileName, symbolicLinkMapping, entrySegments, enteredDirectory, null));
+                    }
+                    return;
+                }
+                collector.recordVisitFile();
+                if (attrs.isSymbolicLink()) {
+                    BasicFileAttributes targetAttributes = PathVisitor.readAttributesOfSymlinkTarget(entry, attrs);
+                    if (targetAttributes.isDirectory()) {
+                        Path targetDir;
+                        try {
+                            targetDir = entry.toRealPath();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", entry), e);
+                        }
+                        String targetDirString = targetDir.toString();
+                        if (enteredDirectory.introducesCycle(targetDirString) || defaultExcludes.excludeDir(internedFileName)) {
+                            return;
+                        }
+                        // The target is walked as a new hierarchy, like PathVisitor does
+                        collector.recordVisitHierarchy();
+                        subdirectories.add(new DirectoryTask(
+                            targetDir,
+                            getInternedFileName(targetDir),
+                            symbolicLinkMapping.withNewMapping(entry.toString(), targetDirString, entrySegments),
+                            ImmutableList.of(),
+                            null,
+                            internedFileName
+                        ));
+                    } else {
+                        visitResolvedFile(entry, internedFileName, targetAttributes, AccessType.VIA_SYMLINK, leaves, filesToHash);
+                    }
+                } else {
+                    visitResolvedFile(entry, internedFileName, attrs, AccessType.DIRECT, leaves, filesToHash);
+                }
+            }
+
+            private void visitResolvedFile(Path file, String internedName, BasicFileAttributes attrs, AccessType accessType, List<FileSystemLeafSnapshot> leaves, List<FileToHash> filesToHash) {
+                if (defaultExcludes.excludeFile(internedName)) {
+                    return;
+                }
+                String internedRemappedAbsoluteFilePath = intern(symbolicLinkMapping.remapAbsolutePath(file));
+                if (attrs.isSymbolicLink()) {
+                    leaves.add(new MissingFileSnapshot(internedRemappedAbsoluteFilePath, internedName, accessType));
+                } else if (!attrs.isRegularFile()) {
+                    throw new UncheckedIOException(new IOException(String.format("Cannot snapshot %s: not a regular file", internedRemappedAbsoluteFilePath)));
+                } else {
+                    filesToHash.add(new FileToHash(file, internedRemappedAbsoluteFilePath, internedName, attrs, accessType));
+                }
+            }
+        }
+    }
+
+    /**
+     * A directory entered by a parallel walk, linked to the directories entered before it.
+     */
+    private static class ParentDirectory {
+        private final String path;
+        private final ParentDirectory parent;
+
+        public ParentDirectory(String path, @Nullable ParentDirectory parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+
+        public boolean introducesCycle(String targetDirString) {
+            for (ParentDirectory current = this; current != null; current = current.parent) {
+                if (current.path.equals(targetDirString)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
@@ -22,6 +22,7 @@
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public interface DirectorySnapshotterStatistics {
@@ -45,11 +46,30 @@ public interface DirectorySnapshotterStatistics {
      */
     long getFailedFiles();
 
+    /**
+     * The number of directory trees that were walked in parallel.
+     */
+    long getParallelVisitedHierarchyCount();
+
+    /**
+     * The wall-clock time spent walking directory trees in parallel, in milliseconds.
+     */
+    long getParallelWalkTime();
+
+    /**
+     * The time spent by all threads on walking directory trees in parallel and hashing their files, in milliseconds.
+     * Divided by {@link #getParallelWalkTime()}, this is the speedup over walking the trees on a single thread.
+     */
+    long getParallelWorkTime();
+
     class Collector {
         private final AtomicLong hierarchyCount = new AtomicLong();
         private final AtomicLong directoryCount = new AtomicLong();
         private final AtomicLong fileCount = new AtomicLong();
         private final AtomicLong failedFileCount = new AtomicLong();
+        private final AtomicLong parallelHierarchyCount = new AtomicLong();
+        private final AtomicLong parallelWalkTime = new AtomicLong();
+        private final AtomicLong parallelWorkTime = new AtomicLong();
 
         public void recordVisitHierarchy() {
             hierarchyCount.incrementAndGet();
@@ -67,11 +87,20 @@ public void recordVisitFileFailed() {
             failedFileCount.incrementAndGet();
         }
 
+        public void recordParallelVisitHierarchy(long walkTimeNanos, long workTimeNanos) {
+            parallelHierarchyCount.incrementAndGet();
+            parallelWalkTime.addAndGet(walkTimeNanos);
+            parallelWorkTime.addAndGet(workTimeNanos);
+        }
+
         public DirectorySnapshotterStatistics collect() {
             long hierarchyCount = this.hierarchyCount.getAndSet(0);
             long directoryCount = this.directoryCount.getAndSet(0);
             long fileCount = this.fileCount.getAndSet(0);
             long failedFileCount = this.failedFileCount.getAndSet(0);
+            long parallelHierarchyCount = this.parallelHierarchyCount.getAndSet(0);
+            long parallelWalkTime = TimeUnit.NANOSECONDS.toMillis(this.parallelWalkTime.getAndSet(0));
+            long parallelWorkTime = TimeUnit.NANOSECONDS.toMillis(this.parallelWorkTime.getAndSet(0));
 
             return new DirectorySnapshotterStatistics() {
                 @Override
@@ -94,10 +123,30 @@ public long getFailedFiles() {
                     return failedFileCount;
                 }
 
+                @Override
+                public long getParallelVisitedHierarchyCount() {
+                    return parallelHierarchyCount;
+                }
+
+                @Override
+                public long getParallelWalkTime() {
+                    return parallelWalkTime;
+                }
+
+                @Override
+                public long getParallelWorkTime() {
+                    return parallelWorkTime;
+                }
+
                 @Override
                 public String toString() {
-                    return MessageFormat.format("Snapshot {0,number,integer} directory hierarchies (visited {1,number,integer} directories, {2,number,integer} files and {3,number,integer} failed files)",
+                    String summary = MessageFormat.format("Snapshot {0,number,integer} directory hierarchies (visited {1,number,integer} directories, {2,number,integer} files and {3,number,integer} failed files)",
                         hierarchyCount, directoryCount, fileCount, failedFileCount);
+                    if (parallelHierarchyCount == 0) {
+                        return summary;
+                    }
+                    return summary + MessageFormat.format(", walked {0,number,integer} hierarchies in parallel in {1,number,integer} ms using {2,number,integer} ms of work",
+                        parallelHierarchyCount, parallelWalkTime, parallelWorkTime);
                 }
             };
         }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.internal.snapshot.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The pools on which {@link DirectorySnapshotter} snapshots directory hierarchies in parallel.
+ */
+public interface ParallelSnapshotting {
+    /**
+     * The pool on which sibling directories are walked.
+     */
+    ForkJoinPool getWalkerPool();
+
+    /**
+     * The executor on which the contents of files are hashed.
+     */
+    Executor getHashingExecutor();
+}
@@ -17,12 +17,16 @@
 package org.gradle.internal.vfs.impl;
 
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemNode;
 import org.gradle.internal.snapshot.MetadataSnapshot;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.vfs.VirtualFileSystem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
 public abstract class AbstractVirtualFileSystem implements VirtualFileSystem {
@@ -46,20 +50,17 @@ public Optional<MetadataSnapshot> findMetadata(String absolutePath) {
 
     @Override
     public void store(String absolutePath, FileSystemLocationSnapshot snapshot) {
-        rootReference.update(root -> updateNotifyingListeners(diffListener -> root.store(absolutePath, snapshot, diffListener)));
+        updateConcurrently(Collections.singletonList((root, diffListener) -> root.store(absolutePath, snapshot, diffListener)));
     }
 
     @Override
     public void invalidate(Iterable<String> locations) {
         LOGGER.debug("Invalidating VFS paths: {}", locations);
-        rootReference.update(root -> {
-            SnapshotHierarchy result = root;
-            for (String location : locations) {
-                SnapshotHierarchy currentRoot = result;
-                result = updateNotifyingListeners(diffListener -> currentRoot.invalidate(location, diffListener));
-            }
-            return result;
-        });
+        List<RootUpdateFunction> updates = new ArrayList<>();
+        for (String location : locations) {
+            updates.add((root, diffListener) -> root.invalidate(location, diffListener));
+        }
+        updateConcurrently(updates);
     }
 
     @Override
@@ -72,11 +73,118 @@ public void invalidateAll() {
         }));
     }
 
+    /**
+     * Applies the updates one after the other, concurrently with other concurrent updates.
+     *
+     * The changes of each update are collected by a {@link PendingDiff} and published once all the updates have been applied to the root.
+     */
+    protected void updateConcurrently(List<RootUpdateFunction> updates) {
+        rootReference.updateConcurrently(new VfsRootReference.ConcurrentUpdate() {
+            private final List<PendingDiff> diffs = new ArrayList<>(updates.size());
+            private final List<SnapshotHierarchy> updatedRoots = new ArrayList<>(updates.size());
+
+            @Override
+            public SnapshotHierarchy apply(SnapshotHierarchy root) {
+                diffs.clear();
+                updatedRoots.clear();
+                SnapshotHierarchy result = root;
+                for (RootUpdateFunction update : updates) {
+                    PendingDiff diff = createPendingDiff();
+                    result = update.update(result, diff);
+                    diffs.add(diff);
+                    updatedRoots.add(result);
+                }
+                return result;
+            }
+
+            @Override
+            public void applied() {
+                for (int i = 0; i < diffs.size(); i++) {
+                    diffs.get(i).publish(updatedRoots.get(i));
+                }
+            }
+        });
+        afterConcurrentUpdate();
+    }
+
     /**
      * Runs a single update on a {@link SnapshotHierarchy} and notifies the currently active listeners after the update.
      */
     protected abstract SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFunction);
 
+    /**
+     * Creates a listener collecting the changes of a single concurrent update.
+     *
+     * This method is called while no exclusive update is running.
+     * By default, the collected changes are replayed to the listeners via {@link #updateNotifyingListeners(UpdateFunction)}.
+     */
+    protected PendingDiff createPendingDiff() {
+        List<Runnable> changes = new ArrayList<>();
+        return new PendingDiff() {
+            private SnapshotHierarchy.NodeDiffListener replayTarget;
+
+            @Override
+            public void nodeRemoved(FileSystemNode node) {
+                changes.add(() -> replayTarget.nodeRemoved(node));
+            }
+
+            @Override
+            public void nodeAdded(FileSystemNode node) {
+                changes.add(() -> replayTarget.nodeAdded(node));
+            }
+
+            @Override
+            public void publish(SnapshotHierarchy updatedRoot) {
+                updateNotifyingListeners(diffListener -> {
+                    replayTarget = diffListener;
+                    changes.forEach(Runnable::run);
+                    return updatedRoot;
+                });
+            }
+        };
+    }
+
+    /**
+     * Called after each concurrent update, outside of it.
+     */
+    protected void afterConcurrentUpdate() {
+    }
+
+    public interface RootUpdateFunction {
+        /**
+         * Computes the updated root, notifying the diffListener about changes.
+         *
+         * Must not have any other side effects, since it is retried when the root was updated concurrently.
+         */
+        SnapshotHierarchy update(SnapshotHierarchy root, SnapshotHierarchy.NodeDiffListener diffListener);
+    }
+
+    /**
+     * Collects the changes of a concurrent update, to publish them after the update has been applied.
+     */
+    protected interface PendingDiff extends SnapshotHierarchy.NodeDiffListener {
+        PendingDiff NOOP = new PendingDiff() {
+            @Override
+            public void nodeRemoved(FileSystemNode node) {
+            }
+
+            @Override
+            public void nodeAdded(FileSystemNode node) {
+            }
+
+            @Override
+            public void publish(SnapshotHierarchy updatedRoot) {
+            }
+        };
+
+        /**
+         * Publishes the changes to the listeners.
+         *
+         * Changes of different updates are published one at a time, in the order in which the updates have been applied.
+         */
+        void publish(SnapshotHierarchy updatedRoot);
+    }
+
     public interface UpdateFunction {
         /**
          * Runs a single update on a {@link SnapshotHierarchy}, notifying the diffListener about changes.
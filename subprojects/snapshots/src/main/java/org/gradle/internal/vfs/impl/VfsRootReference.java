@@ -18,28 +18,159 @@
 
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.UnaryOperator;
 
+/**
+ * Holds the current root of the virtual file system.
+ *
+ * Readers always see a complete, immutable root.
+ * Updates are either exclusive, or they are applied concurrently with other concurrent updates by retrying them on the new root when another update replaced the root in the meantime.
+ *
+ * Concurrent updates are published in the order in which they have been applied to the root without holding any lock.
+ * Each applied update is queued by its version, and one thread at a time drains the queue while the next version is available.
+ * So a slow listener only delays the updates published after it, and doesn't block threads which are applying updates.
+ */
 public class VfsRootReference {
-    private volatile SnapshotHierarchy root;
-    private final ReentrantLock updateLock = new ReentrantLock();
+    private final AtomicReference<VersionedRoot> root;
+    /**
+     * Held exclusively by exclusive updates, and shared by concurrent updates.
+     */
+    private final ReentrantReadWriteLock updateLock = new ReentrantReadWriteLock();
+    /**
+     * Concurrent updates which have been applied to the root and are waiting to be published, by version.
+     */
+    private final Map<Long, ConcurrentUpdate> pendingPublications = new ConcurrentHashMap<>();
+    /**
+     * Set while a thread is publishing pending updates.
+     */
+    private final AtomicBoolean publishing = new AtomicBoolean();
+    /**
+     * The version of the last update which has been published.
+     *
+     * Only written by the thread which is publishing, or by an exclusive update.
+     */
+    private volatile long publishedVersion;
 
     public SnapshotHierarchy getRoot() {
-        return root;
+        return root.get().root;
     }
 
     public VfsRootReference(SnapshotHierarchy root) {
-        this.root = root;
+        this.root = new AtomicReference<>(new VersionedRoot(root, 0));
     }
 
+    /**
+     * Updates the root while no other update is running.
+     *
+     * The update function may have side effects.
+     */
     public void update(UnaryOperator<SnapshotHierarchy> updateFunction) {
-        updateLock.lock();
+        updateLock.writeLock().lock();
         try {
-            SnapshotHierarchy currentRoot = root;
-            root = updateFunction.apply(currentRoot);
+            SnapshotHierarchy newRoot = updateFunction.apply(root.get().root);
+            // Re-read the version, since the update function may have run nested updates
+            long version = root.get().version + 1;
+            root.set(new VersionedRoot(newRoot, version));
+            // No concurrent update is running, so all the concurrent updates have been published already
+            publishedVersion = version;
         } finally {
-            updateLock.unlock();
+            updateLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates the root concurrently with other concurrent updates.
+     *
+     * Exclusive updates don't run at the same time.
+     */
+    public void updateConcurrently(ConcurrentUpdate update) {
+        updateLock.readLock().lock();
+        try {
+            VersionedRoot currentRoot;
+            VersionedRoot newRoot;
+            do {
+                currentRoot = root.get();
+                newRoot = new VersionedRoot(update.apply(currentRoot.root), currentRoot.version + 1);
+            } while (!root.compareAndSet(currentRoot, newRoot));
+            publishInOrder(update, newRoot.version);
+        } finally {
+            updateLock.readLock().unlock();
+        }
+    }
+
+    private void publishInOrder(ConcurrentUpdate update, long version) {
+        pendingPublications.put(version, update);
+        // When another thread is publishing, it will pick up the update once the updates before it have been published
+        while (publishing.compareAndSet(false, true)) {
+            try {
+                publishPending();
+            } finally {
+                publishing.set(false);
+            }
+            // Check for updates queued after the last check, while this thread was still publishing
+            if (!pendingPublications.containsKey(publishedVersion + 1)) {
+                return;
+            }
+        }
+    }
+
+    private void publishPending() {
+        RuntimeException failure = null;
+        long nextVersion = publishedVersion + 1;
+        ConcurrentUpdate next;
+        while ((next = pendingPublications.remove(nextVersion)) != null) {
+            publishedVersion = nextVersion++;
+            try {
+                next.applied();
+            } catch (RuntimeException e) {
+                // Keep publishing the other updates, so they are not left in the queue
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * An update which can run concurrently with other concurrent updates.
+     */
+    public interface ConcurrentUpdate {
+        /**
+         * Computes the updated root.
+         *
+         * When another update replaced the root in the meantime, the result is dropped and this method is called again with the new root.
+         * It therefore must not have side effects.
+         */
+        SnapshotHierarchy apply(SnapshotHierarchy root);
+
+        /**
+         * Called after the result of the last call to {@link #apply(SnapshotHierarchy)} has become the root.
+         *
+         * Calls for different updates don't overlap, and happen in the order in which the updates have been applied to the root.
+         * The call may happen on the thread of another concurrent update, after {@link #updateConcurrently(ConcurrentUpdate)} has returned for this update.
+         * It always happens before the next exclusive update starts.
+         * This method must not update the root itself.
+         */
+        void applied();
+    }
+
+    private static class VersionedRoot {
+        private final SnapshotHierarchy root;
+        private final long version;
+
+        public VersionedRoot(SnapshotHierarchy root, long version) {
+            this.root = root;
+            this.version = version;
         }
     }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot
+
+import spock.lang.Specification
+
+import static org.gradle.internal.snapshot.CaseSensitivity.CASE_SENSITIVE
+
+class ChildMapTest extends Specification {
+
+    def "creates #expectedType for #childCount children"() {
+        expect:
+        createChildMap(childCount).getClass() == expectedType
+
+        where:
+        childCount | expectedType
+        0          | EmptyChildMap
+        1          | SingletonChildMap
+        5          | MediumChildMap
+        20         | LargeChildMap
+    }
+
+    def "finds children of #childCount children"() {
+        def childMap = createChildMap(childCount)
+
+        expect:
+        childPaths(childCount).each { path ->
+            assert lookup(childMap, path) == "exact ${valueOf(path)}"
+            assert lookup(childMap, "${path}/sub/file") == "descendant ${valueOf(path)} sub/file"
+        }
+        lookup(childMap, "dir07") == "unrelated"
+        lookup(childMap, "zzz") == "unrelated"
+        lookup(childMap, "a") == "unrelated"
+
+        where:
+        childCount << [1, 5, 20]
+    }
+
+    def "finds ancestor of child in #childCount children"() {
+        def childMap = ChildMapFactory.childMap(CASE_SENSITIVE, childPaths(childCount).collect { new ChildMap.Entry<String>("${it}/nested", valueOf(it)) })
+
+        expect:
+        childPaths(childCount).each { path ->
+            assert lookup(childMap, path) == "ancestor ${valueOf(path)} ${path}/nested"
+        }
+
+        where:
+        childCount << [1, 5, 20]
+    }
+
+    def "inserts new child in order into #childCount children"() {
+        def childMap = createChildMap(childCount)
+
+        when:
+        def updated = childMap.store(VfsRelativePath.of("/dir07"), CASE_SENSITIVE, createChildHandler("new"))
+
+        then:
+        updated.getClass() == expectedType
+        updated.stream().map { it.path }.toList() == (childPaths(childCount) + "dir07").sort()
+        updated.values().toList() == updated.stream().map { it.path == "dir07" ? "new" : valueOf(it.path) }.toList()
+        // The original map is not modified
+        childMap.values().toList() == childPaths(childCount).collect { valueOf(it) }
+
+        where:
+        childCount | expectedType
+        1          | MediumChildMap
+        5          | MediumChildMap
+        9          | LargeChildMap
+        20         | LargeChildMap
+    }
+
+    def "replaces existing child in #childCount children"() {
+        def childMap = createChildMap(childCount)
+
+        when:
+        def updated = childMap.store(VfsRelativePath.of("/dir02"), CASE_SENSITIVE, [
+            mergeWithExisting: { String child -> "merged ${child}".toString() }
+        ] as ChildMap.StoreHandler<String>)
+
+        then:
+        updated.getClass() == childMap.getClass()
+        updated.stream().map { it.path }.toList() == childPaths(childCount)
+        updated.values().toList() == childPaths(childCount).collect { it == "dir02" ? "merged value-dir02" : valueOf(it) }
+
+        where:
+        childCount << [2, 5, 20]
+    }
+
+    def "removes child from #childCount children"() {
+        def childMap = createChildMap(childCount)
+        def removed = []
+
+        when:
+        def updated = childMap.invalidate(VfsRelativePath.of("/dir00"), CASE_SENSITIVE, [
+            handleExactMatchWithChild: { String child -> removed << child },
+            handleUnrelatedToAnyChild: { throw new AssertionError("Child must be found") }
+        ] as ChildMap.InvalidationHandler<String, String>)
+
+        then:
+        removed == ["value-dir00"]
+        updated.getClass() == expectedType
+        updated.stream().map { it.path }.toList() == childPaths(childCount) - "dir00"
+        updated.values().toList() == (childPaths(childCount) - "dir00").collect { valueOf(it) }
+
+        where:
+        childCount | expectedType
+        1          | EmptyChildMap
+        2          | SingletonChildMap
+        5          | MediumChildMap
+        10         | MediumChildMap
+        20         | LargeChildMap
+    }
+
+    def "keeps the same map when invalidating path unrelated to #childCount children"() {
+        def childMap = createChildMap(childCount)
+        def unrelated = false
+
+        when:
+        def updated = childMap.invalidate(VfsRelativePath.of("/dir07"), CASE_SENSITIVE, [
+            handleUnrelatedToAnyChild: { unrelated = true }
+        ] as ChildMap.InvalidationHandler<String, String>)
+
+        then:
+        unrelated
+        updated.is(childMap)
+
+        where:
+        childCount << [1, 5, 20]
+    }
+
+    def "values of #childCount children are in path order regardless of the order of the entries"() {
+        def paths = childPaths(childCount)
+        def shuffled = new ArrayList<>(paths)
+        Collections.shuffle(shuffled, new Random(1234))
+
+        when:
+        def childMap = ChildMapFactory.childMap(CASE_SENSITIVE, shuffled.collect { new ChildMap.Entry<String>(it, valueOf(it)) })
+
+        then:
+        childMap.values().toList() == paths.collect { valueOf(it) }
+        childMap.stream().map { it.path }.toList() == paths
+
+        where:
+        childCount << [2, 5, 20]
+    }
+
+    private static ChildMap<String> createChildMap(int childCount) {
+        ChildMapFactory.childMap(CASE_SENSITIVE, childPaths(childCount).collect { new ChildMap.Entry<String>(it, valueOf(it)) })
+    }
+
+    /**
+     * Sorted paths without common prefixes, leaving gaps so paths like {@code dir07} are not among the children.
+     */
+    private static List<String> childPaths(int childCount) {
+        (0..<childCount).collect { String.format("dir%02d", it * 2) }
+    }
+
+    private static String valueOf(String path) {
+        "value-${path}"
+    }
+
+    private static String lookup(ChildMap<String> childMap, String path) {
+        childMap.withNode(VfsRelativePath.of("/${path}"), CASE_SENSITIVE, [
+            handleExactMatchWithChild: { String child -> "exact ${child}".toString() },
+            handleAsDescendantOfChild: { VfsRelativePath pathInChild, String child -> "descendant ${child} ${pathInChild.asString}".toString() },
+            handleAsAncestorOfChild: { String childPath, String child -> "ancestor ${child} ${childPath}".toString() },
+            handleUnrelatedToAnyChild: { "unrelated" }
+        ] as ChildMap.NodeHandler<String, String>)
+    }
+
+    private static ChildMap.StoreHandler<String> createChildHandler(String newChild) {
+        [createChild: { newChild }] as ChildMap.StoreHandler<String>
+    }
+}
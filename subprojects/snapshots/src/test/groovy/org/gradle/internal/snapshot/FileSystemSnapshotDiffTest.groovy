@@ -0,0 +1,126 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot
+
+import com.google.common.collect.ImmutableList
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.file.impl.DefaultFileMetadata
+import org.gradle.internal.hash.HashCode
+import spock.lang.Specification
+
+class FileSystemSnapshotDiffTest extends Specification {
+    def changes = []
+    def visitor = new FileSystemSnapshotDiff.ChangeVisitor() {
+        @Override
+        void added(FileSystemLocationSnapshot current) {
+            changes << "added ${current.absolutePath}"
+        }
+
+        @Override
+        void removed(FileSystemLocationSnapshot previous) {
+            changes << "removed ${previous.absolutePath}"
+        }
+
+        @Override
+        void modified(FileSystemLocationSnapshot previous, FileSystemLocationSnapshot current) {
+            changes << "modified ${current.absolutePath}"
+        }
+    }
+
+    def "reports added, removed and modified files"() {
+        def previous = directory("/root", 1, file("/root/unchanged", 1), file("/root/modified", 2), file("/root/removed", 3))
+        def current = directory("/root", 2, file("/root/unchanged", 1), file("/root/modified", 20), file("/root/added", 4))
+
+        when:
+        FileSystemSnapshotDiff.visitChanges(previous, current, visitor)
+
+        then:
+        changes == ["modified /root/modified", "added /root/added", "removed /root/removed"]
+    }
+
+    def "reports contents of added and removed directories"() {
+        def previous = directory("/root", 1, directory("/root/removed", 2, file("/root/removed/file", 3)))
+        def current = directory("/root", 2, directory("/root/added", 3, file("/root/added/file", 4)))
+
+        when:
+        FileSystemSnapshotDiff.visitChanges(previous, current, visitor)
+
+        then:
+        changes == ["added /root/added", "added /root/added/file", "removed /root/removed", "removed /root/removed/file"]
+    }
+
+    def "reports file replaced by directory as removed and added"() {
+        def previous = directory("/root", 1, file("/root/entry", 1))
+        def current = directory("/root", 2, directory("/root/entry", 3, file("/root/entry/file", 4)))
+
+        when:
+        FileSystemSnapshotDiff.visitChanges(previous, current, visitor)
+
+        then:
+        changes == ["removed /root/entry", "added /root/entry", "added /root/entry/file"]
+    }
+
+    def "does not descend into directories with the same hash"() {
+        def unchangedDirectory = new DirectorySnapshot("/root/unchanged", "unchanged", AccessType.DIRECT, HashCode.fromInt(5), [file("/root/unchanged/file", 1)]) {
+            @Override
+            ImmutableList<FileSystemLocationSnapshot> getChildren() {
+                throw new AssertionError("Should not be called")
+            }
+        }
+        def previous = directory("/root", 1, unchangedDirectory, file("/root/modified", 2))
+        def current = directory("/root", 2, directory("/root/unchanged", 5, file("/root/unchanged/file", 1)), file("/root/modified", 3))
+
+        when:
+        FileSystemSnapshotDiff.visitChanges(previous, current, visitor)
+
+        then:
+        changes == ["modified /root/modified"]
+    }
+
+    def "matches roots by path and ignores missing roots"() {
+        def previous = CompositeFileSystemSnapshot.of([file("/first", 1), file("/second", 2), missing("/third")])
+        def current = CompositeFileSystemSnapshot.of([missing("/first"), file("/second", 2), file("/third", 3)])
+
+        when:
+        FileSystemSnapshotDiff.visitChanges(previous, current, visitor)
+
+        then:
+        changes == ["added /third", "removed /first"]
+    }
+
+    def "reports everything as added when there is no previous snapshot"() {
+        def current = directory("/root", 1, file("/root/file", 1))
+
+        when:
+        FileSystemSnapshotDiff.visitChanges(FileSystemSnapshot.EMPTY, current, visitor)
+
+        then:
+        changes == ["added /root", "added /root/file"]
+    }
+
+    private static DirectorySnapshot directory(String absolutePath, int hash, FileSystemLocationSnapshot... children) {
+        new DirectorySnapshot(absolutePath, PathUtil.getFileName(absolutePath), AccessType.DIRECT, HashCode.fromInt(hash), children as List<FileSystemLocationSnapshot>)
+    }
+
+    private static RegularFileSnapshot file(String absolutePath, int hash) {
+        new RegularFileSnapshot(absolutePath, PathUtil.getFileName(absolutePath), HashCode.fromInt(hash), DefaultFileMetadata.file(0, 0, AccessType.DIRECT))
+    }
+
+    private static MissingFileSnapshot missing(String absolutePath) {
+        new MissingFileSnapshot(absolutePath, PathUtil.getFileName(absolutePath), AccessType.DIRECT)
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.internal.snapshot.impl
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.snapshot.DirectorySnapshot
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.FileSystemSnapshotHierarchyVisitor
+import org.gradle.internal.snapshot.SnapshotVisitResult
+import org.gradle.internal.snapshot.SnapshotVisitorUtil
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicBoolean
+
+@UsesNativeServices
+@CleanupTestDirectory(fieldName = "tmpDir")
+class ParallelDirectorySnapshotterTest extends Specification {
+    @Rule
+    public final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def walkerPool = new ForkJoinPool(4)
+    ExecutorService hashingExecutor = Executors.newFixedThreadPool(2)
+    def parallelSnapshotting = new ParallelSnapshotting() {
+        @Override
+        ForkJoinPool getWalkerPool() {
+            return walkerPool
+        }
+
+        @Override
+        Executor getHashingExecutor() {
+            return hashingExecutor
+        }
+    }
+    def fileHasher = new TestFileHasher()
+    def defaultExcludes = ['**/.git/**', '**/*~']
+    def statisticsCollector = new DirectorySnapshotterStatistics.Collector()
+    def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), defaultExcludes, new DirectorySnapshotterStatistics.Collector())
+    def parallelSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), defaultExcludes, statisticsCollector, parallelSnapshotting)
+
+    def cleanup() {
+        walkerPool.shutdownNow()
+        hashingExecutor.shutdownNow()
+    }
+
+    def "produces the same snapshot as a sequential walk"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        (1..20).each { dir ->
+            (1..40).each { file ->
+                rootDir.file("dir$dir/sub${dir % 3}/file${file}.txt").text = "content $dir $file"
+            }
+        }
+        rootDir.file("dir1/file.txt~").createFile()
+        rootDir.file("dir2/.git/objects/object").createFile()
+        rootDir.file("empty/nested").createDir()
+
+        when:
+        def sequential = sequentialSnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+        def parallel = parallelSnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+
+        then:
+        parallel.hash == sequential.hash
+        describe(parallel) == describe(sequential)
+        !SnapshotVisitorUtil.getRelativePaths(parallel, true).contains("dir1/file.txt~")
+        !SnapshotVisitorUtil.getRelativePaths(parallel, true).contains("dir2/.git")
+
+        and:
+        def statistics = statisticsCollector.collect()
+        statistics.visitedHierarchyCount == 1
+        // Excluded directories are not opened
+        statistics.visitedDirectoryCount == 43
+        statistics.visitedFiles == 801
+        statistics.parallelVisitedHierarchyCount == 1
+    }
+
+    @Requires(TestPrecondition.SYMLINKS)
+    def "produces the same snapshot as a sequential walk for symlinks"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        def target = rootDir.file("target").createDir()
+        target.file("file.txt").text = "content"
+        rootDir.file("linkedDir").createLink(target)
+        rootDir.file("linkedFile").createLink(target.file("file.txt"))
+        rootDir.file("broken").createLink("missing")
+        target.file("cycle").createLink(target)
+
+        when:
+        def sequential = sequentialSnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+        def parallel = parallelSnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+
+        then:
+        parallel.hash == sequential.hash
+        describe(parallel) == describe(sequential)
+        (parallel as DirectorySnapshot).children.find { it.name == "linkedDir" }.accessType == AccessType.VIA_SYMLINK
+    }
+
+    @Requires(TestPrecondition.UNIX_DERIVATIVE)
+    def "reports failures from the walk"() {
+        def rootDir = tmpDir.createDir("root")
+        rootDir.file("dir/file.txt").createFile()
+        def pipe = rootDir.file("dir/nested/testPipe").createNamedPipe()
+
+        when:
+        parallelSnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+
+        then:
+        def ex = thrown(UncheckedIOException)
+        ex.message == "java.io.IOException: Cannot snapshot ${pipe.absolutePath}: not a regular file"
+
+        cleanup:
+        pipe.delete()
+    }
+
+    def "snapshots files and filtered walks on the calling thread"() {
+        def rootDir = tmpDir.createDir("root")
+        def file = rootDir.file("file.txt").createFile()
+
+        when:
+        parallelSnapshotter.snapshot(file.absolutePath, null, new AtomicBoolean())
+        parallelSnapshotter.snapshot(rootDir.absolutePath, { path, name, isDirectory, relativePath -> true }, new AtomicBoolean())
+
+        then:
+        statisticsCollector.collect().parallelVisitedHierarchyCount == 0
+    }
+
+    private static String describe(FileSystemLocationSnapshot snapshot) {
+        def result = new StringBuilder()
+        snapshot.accept(new FileSystemSnapshotHierarchyVisitor() {
+            @Override
+            SnapshotVisitResult visitEntry(FileSystemLocationSnapshot entry) {
+                result.append("${entry.absolutePath} ${entry.name} ${entry.accessType} ${entry.type} ${entry.hash}\n")
+                return SnapshotVisitResult.CONTINUE
+            }
+        })
+        return result.toString()
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2022 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.vfs.impl
+
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.snapshot.CaseSensitivity
+import org.gradle.internal.snapshot.MissingFileSnapshot
+import org.gradle.internal.snapshot.SnapshotHierarchy
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class VfsRootReferenceTest extends Specification {
+    def rootReference = new VfsRootReference(DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE))
+
+    def "keeps all concurrent updates and publishes them in order"() {
+        def executorService = Executors.newFixedThreadPool(16)
+        def appliedRoots = new ConcurrentLinkedQueue<SnapshotHierarchy>()
+        def paths = (1..1000).collect { "/root/dir${it % 10}/file$it".toString() }
+
+        when:
+        paths.each { path ->
+            executorService.submit {
+                rootReference.updateConcurrently(new VfsRootReference.ConcurrentUpdate() {
+                    SnapshotHierarchy updatedRoot
+
+                    @Override
+                    SnapshotHierarchy apply(SnapshotHierarchy root) {
+                        updatedRoot = root.store(path, new MissingFileSnapshot(path, path.substring(path.lastIndexOf('/') + 1), AccessType.DIRECT), SnapshotHierarchy.NodeDiffListener.NOOP)
+                        return updatedRoot
+                    }
+
+                    @Override
+                    void applied() {
+                        appliedRoots.add(updatedRoot)
+                    }
+                })
+            }
+        }
+        executorService.shutdown()
+        executorService.awaitTermination(10, TimeUnit.SECONDS)
+
+        then:
+        paths.every { rootReference.root.findMetadata(it).present }
+        appliedRoots.size() == paths.size()
+        appliedRoots.last().is(rootReference.root)
+        // Each published root contains all the locations of the roots published before it
+        def published = appliedRoots as List
+        (1..<published.size()).every { index ->
+            published[index - 1].rootSnapshots().allMatch { published[index].findMetadata(it.absolutePath).present }
+        }
+    }
+
+    def "does not wait for the updates before it to be published"() {
+        def executorService = Executors.newSingleThreadExecutor()
+        def firstPublishing = new CountDownLatch(1)
+        def releaseFirst = new CountDownLatch(1)
+        def published = new ConcurrentLinkedQueue<String>()
+
+        when:
+        def first = executorService.submit {
+            rootReference.updateConcurrently(storing("/root/first") {
+                firstPublishing.countDown()
+                releaseFirst.await()
+                published.add("first")
+            })
+        }
+        firstPublishing.await()
+        // The first update is still being published, so the second update is published by the thread publishing the first one
+        rootReference.updateConcurrently(storing("/root/second") {
+            published.add("second")
+        })
+
+        then:
+        rootReference.root.findMetadata("/root/second").present
+        published.empty
+
+        when:
+        releaseFirst.countDown()
+        first.get(10, TimeUnit.SECONDS)
+
+        then:
+        published as List == ["first", "second"]
+
+        cleanup:
+        releaseFirst.countDown()
+        executorService.shutdown()
+    }
+
+    def "exclusive updates do not overlap with concurrent updates"() {
+        def executorService = Executors.newFixedThreadPool(8)
+        def runningConcurrentUpdates = new AtomicInteger()
+        def overlaps = new AtomicInteger()
+
+        when:
+        (1..500).each { num ->
+            executorService.submit {
+                if (num % 10 == 0) {
+                    rootReference.update { root ->
+                        if (runningConcurrentUpdates.get() != 0) {
+                            overlaps.incrementAndGet()
+                        }
+                        root
+                    }
+                } else {
+                    rootReference.updateConcurrently(new VfsRootReference.ConcurrentUpdate() {
+                        @Override
+                        SnapshotHierarchy apply(SnapshotHierarchy root) {
+                            runningConcurrentUpdates.incrementAndGet()
+                            try {
+                                return root.store("/root/file$num", new MissingFileSnapshot("/root/file$num", "file$num", AccessType.DIRECT), SnapshotHierarchy.NodeDiffListener.NOOP)
+                            } finally {
+                                runningConcurrentUpdates.decrementAndGet()
+                            }
+                        }
+
+                        @Override
+                        void applied() {
+                        }
+                    })
+                }
+            }
+        }
+        executorService.shutdown()
+        executorService.awaitTermination(10, TimeUnit.SECONDS)
+
+        then:
+        overlaps.get() == 0
+        (1..500).findAll { it % 10 != 0 }.every { rootReference.root.findMetadata("/root/file$it").present }
+    }
+    private static VfsRootReference.ConcurrentUpdate storing(String path, Runnable onApplied) {
+        new VfsRootReference.ConcurrentUpdate() {
+            @Override
+            SnapshotHierarchy apply(SnapshotHierarchy root) {
+                return root.store(path, new MissingFileSnapshot(path, path.substring(path.lastIndexOf('/') + 1), AccessType.DIRECT), SnapshotHierarchy.NodeDiffListener.NOOP)
+            }
+
+            @Override
+            void applied() {
+                onApplied.run()
+            }
+        }
+    }
+}